@@ -0,0 +1,130 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the persistent ChainContext against the copy-on-write
+ * implementation it replaced, on the access patterns the engine uses:
+ * a ForEachStep forking the context per item, and a history chain
+ * appending a user/assistant pair per step and reading it back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChainContextBenchmark {
+
+    /** Number of labels bound before the measured operation. */
+    @Param({"10", "100"})
+    public int vars;
+
+    /** Items in the simulated forEach fan-out. */
+    @Param({"100"})
+    public int items;
+
+    /** Steps in the simulated history chain. */
+    @Param({"12"})
+    public int steps;
+
+    private static final Label<String> ITEM = Label.of("item", String.class);
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+
+    private ChainContext persistent;
+    private CopyingContext copying;
+    private final List<Label<String>> labels = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        persistent = ChainContext.root(new DefaultsBuilder().build());
+        copying = CopyingContext.root();
+        for (int i = 0; i < vars; i++) {
+            Label<String> label = Label.of("var" + i, String.class);
+            labels.add(label);
+            persistent = persistent.plus(label, "value" + i);
+            copying = copying.plus(label, "value" + i);
+        }
+    }
+
+    @Benchmark
+    public void forEachFanOutPersistent(Blackhole bh) {
+        for (int i = 0; i < items; i++) {
+            ChainContext branch = persistent.fork().plus(ITEM, "item").plus(DETAIL, "detail");
+            bh.consume(branch.vars().get(labels.get(0)));
+        }
+    }
+
+    @Benchmark
+    public void forEachFanOutCopying(Blackhole bh) {
+        for (int i = 0; i < items; i++) {
+            CopyingContext branch = copying.fork().plus(ITEM, "item").plus(DETAIL, "detail");
+            bh.consume(branch.vars().get(labels.get(0)));
+        }
+    }
+
+    @Benchmark
+    public void historyChainPersistent(Blackhole bh) {
+        ChainContext ctx = persistent;
+        for (int i = 0; i < steps; i++) {
+            bh.consume(ctx.history().size());
+            ctx = ctx.appendHistory(new ChatMsg(Role.USER, "q" + i))
+                    .appendHistory(new ChatMsg(Role.ASSISTANT, "a" + i));
+        }
+        bh.consume(ctx);
+    }
+
+    @Benchmark
+    public void historyChainCopying(Blackhole bh) {
+        CopyingContext ctx = copying;
+        for (int i = 0; i < steps; i++) {
+            bh.consume(ctx.history().size());
+            ctx = ctx.appendHistory(new ChatMsg(Role.USER, "q" + i))
+                    .appendHistory(new ChatMsg(Role.ASSISTANT, "a" + i));
+        }
+        bh.consume(ctx);
+    }
+
+    /** The previous ChainContext: copies the map/list on every change and read. */
+    static final class CopyingContext {
+        private final Map<Label<?>, Object> vars;
+        private final List<ChatMsg> history;
+
+        private CopyingContext(Map<Label<?>, Object> vars, List<ChatMsg> history) {
+            this.vars = vars;
+            this.history = history;
+        }
+
+        static CopyingContext root() {
+            return new CopyingContext(new HashMap<>(), new ArrayList<>());
+        }
+
+        List<ChatMsg> history() {
+            return List.copyOf(history);
+        }
+
+        Map<Label<?>, Object> vars() {
+            return Map.copyOf(vars);
+        }
+
+        CopyingContext plus(Label<?> label, Object value) {
+            var copy = new HashMap<>(vars);
+            copy.put(label, value);
+            return new CopyingContext(copy, history);
+        }
+
+        CopyingContext appendHistory(ChatMsg msg) {
+            var copy = new ArrayList<>(history);
+            copy.add(msg);
+            return new CopyingContext(vars, copy);
+        }
+
+        CopyingContext fork() {
+            return new CopyingContext(new HashMap<>(vars), new ArrayList<>(history));
+        }
+    }
+}
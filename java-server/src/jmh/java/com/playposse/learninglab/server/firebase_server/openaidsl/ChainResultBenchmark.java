@@ -0,0 +1,81 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What handing a run's outcome to the caller costs: building the
+ * {@link ChainResultImpl} from the final vars and call logs (which
+ * derives the error map), and the two conversions services use on it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChainResultBenchmark {
+
+    /** Labels bound by the run. */
+    @Param({"10", "100"})
+    public int labels;
+
+    /** Call logs of the run (one per forEach item, say). */
+    @Param({"10", "1000"})
+    public int calls;
+
+    private Map<Label<?>, Object> vars;
+    private List<CallLog> logs;
+    private ChainResultImpl result;
+
+    @Setup
+    public void setUp() {
+        ChatConfig config = new DefaultsBuilder().build();
+        JsonNode usage = JsonNodeFactory.instance.objectNode()
+                .put("prompt_tokens", 120)
+                .put("completion_tokens", 80);
+        vars = new LinkedHashMap<>();
+        List<Label<String>> bound = new ArrayList<>();
+        for (int i = 0; i < labels; i++) {
+            Label<String> label = Label.of("label" + i, String.class);
+            bound.add(label);
+            vars.put(label, "value " + i + " ".repeat(200));
+        }
+        logs = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            Label<String> label = bound.get(i % labels);
+            // every 50th call failed for good
+            ErrorInfo error = i % 50 == 49
+                    ? new ErrorInfo(label.name(), "req-" + i, new RuntimeException("boom"), null)
+                    : null;
+            logs.add(new CallLog(
+                    label,
+                    List.of(new ChatMsg(Role.USER, "prompt " + i)),
+                    config,
+                    error == null ? "completion " + i : null,
+                    usage,
+                    error,
+                    5));
+        }
+        result = new ChainResultImpl(vars, logs);
+    }
+
+    @Benchmark
+    public ChainResult construct() {
+        return new ChainResultImpl(vars, logs);
+    }
+
+    @Benchmark
+    public Map<String, Object> asStringKeyMap() {
+        return result.asStringKeyMap();
+    }
+
+    @Benchmark
+    public JsonNode toJson() {
+        return result.toJson();
+    }
+}
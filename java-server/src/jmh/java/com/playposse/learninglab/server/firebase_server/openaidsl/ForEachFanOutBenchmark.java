@@ -0,0 +1,109 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The engine's own cost of a whole run: a source step listing N items and
+ * a forEach calling OpenAI once per item, against a client that answers
+ * instantly. Everything measured here (scheduling, forking, rendering,
+ * parsing, logging, the join) is overhead on top of the model's latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForEachFanOutBenchmark {
+
+    /** Items in the fan-out. */
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+
+    private Chain unbounded;
+    private Chain bounded;
+    private OpenAiClient client;
+
+    @Setup
+    public void setUp() {
+        String outline = IntStream.range(0, items)
+                .mapToObj(i -> "item number " + i)
+                .collect(Collectors.joining("\n"));
+        client = new ZeroLatencyClient(outline);
+        unbounded = chain(Integer.MAX_VALUE);
+        bounded = chain(8);
+    }
+
+    private Chain chain(int maxConcurrency) {
+        ChatConfig defaults = new DefaultsBuilder().build();
+        return ChainBuilder.start(defaults)
+                .step("outline")
+                .system("You are a curriculum designer.")
+                .user("List the items, one per line.")
+                .parse(Parsers.stringList())
+                .label(ITEMS)
+                .endStep()
+                .forEach(ITEMS)
+                .maxElements(items)
+                .maxConcurrency(maxConcurrency)
+                .addStep(StepBuilder.start("detail", defaults)
+                        .system("You are a curriculum designer.")
+                        .user("Describe ${item} in one sentence.")
+                        .parse(Parsers.string())
+                        .label(DETAIL)
+                        .build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build();
+    }
+
+    @Benchmark
+    public ChainResult fanOut() {
+        return unbounded.run(client);
+    }
+
+    /** Same run with the items queued behind eight concurrency permits. */
+    @Benchmark
+    public ChainResult fanOutBounded() {
+        return bounded.run(client);
+    }
+
+    /** Answers every call at once: the outline for the source step, an echo otherwise. */
+    static final class ZeroLatencyClient implements OpenAiClient {
+        private static final JsonNode USAGE = JsonNodeFactory.instance.objectNode()
+                .put("prompt_tokens", 20)
+                .put("completion_tokens", 10);
+
+        private final ChatCompletionResult outline;
+
+        ZeroLatencyClient(String outline) {
+            this.outline = new ChatCompletionResult(outline, USAGE, 0);
+        }
+
+        @Override
+        public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+            String user = messages.get(messages.size() - 1).content();
+            return user.startsWith("List")
+                    ? outline
+                    : new ChatCompletionResult(user, USAGE, 0);
+        }
+
+        @Override
+        public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                List<ChatMsg> messages, ChatConfig config) {
+            return CompletableFuture.completedFuture(chatCompletion(messages, config));
+        }
+    }
+}
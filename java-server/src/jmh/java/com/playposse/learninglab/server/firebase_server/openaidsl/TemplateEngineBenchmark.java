@@ -0,0 +1,82 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering a step's templates with the regex engine (a string
+ * map of every bound value, then {@link TemplateEngine#resolve}) against
+ * {@link CompiledTemplate}, in a context shaped like a course-plan run:
+ * a few large prose values and lists bound, of which the template only
+ * references one or two. The two halves of the regex path are also
+ * measured on their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateEngineBenchmark {
+
+    /** Number of labels bound in the context. */
+    @Param({"10", "50"})
+    public int vars;
+
+    /** Characters in each bound prose value. */
+    @Param({"2000", "20000"})
+    public int valueSize;
+
+    private static final String TEMPLATE = """
+            Dimension: ${dimension}
+            Degree labels: ${degreeLabels}
+            For each degree, describe what a student must demonstrate at that degree for this dimension.
+            """;
+
+    private ChainContext ctx;
+    private CompiledTemplate compiled;
+    private Map<String, String> strings;
+
+    @Setup
+    public void setUp() {
+        ctx = ChainContext.root(new DefaultsBuilder().build())
+                .plus(Label.of("dimension", String.class), "Footwork")
+                .plus(Label.of("degreeLabels", List.class),
+                        List.of("novice", "beginner", "intermediate", "advanced", "expert"));
+        String prose = "x".repeat(valueSize);
+        for (int i = 0; i < vars; i++) {
+            if (i % 2 == 0) {
+                ctx = ctx.plus(Label.of("prose" + i, String.class), prose);
+            } else {
+                List<String> list = new ArrayList<>();
+                for (int j = 0; j < valueSize / 20; j++) {
+                    list.add("item number " + j);
+                }
+                ctx = ctx.plus(Label.of("list" + i, List.class), list);
+            }
+        }
+        compiled = TemplateEngine.compile(TEMPLATE);
+        strings = TemplateEngine.buildStringMap(ctx);
+    }
+
+    @Benchmark
+    public String regexEngine() {
+        return TemplateEngine.resolve(TEMPLATE, TemplateEngine.buildStringMap(ctx));
+    }
+
+    @Benchmark
+    public Map<String, String> buildStringMap() {
+        return TemplateEngine.buildStringMap(ctx);
+    }
+
+    @Benchmark
+    public String resolve() {
+        return TemplateEngine.resolve(TEMPLATE, strings);
+    }
+
+    @Benchmark
+    public String compiledTemplate() {
+        return compiled.render(ctx);
+    }
+}
@@ -0,0 +1,30 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.google.cloud.firestore.Firestore;
+import com.playposse.learninglab.server.firebase_server.openaidsl.CheckpointStore;
+import com.playposse.learninglab.server.firebase_server.openaidsl.FileCheckpointStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+/**
+ * Chooses where long chains checkpoint their completed steps: Firestore
+ * (the default, shared by all instances) or a local directory.
+ */
+@Configuration
+public class ChainCheckpointConfig {
+
+    @Bean
+    public CheckpointStore chainCheckpointStore(
+            Firestore db,
+            @Value("${chain.checkpoints.store:firestore}") String store,
+            @Value("${chain.checkpoints.dir:/tmp/chain-checkpoints}") String dir) {
+        return switch (store) {
+            case "firestore" -> new FirestoreCheckpointStore(db);
+            case "file" -> new FileCheckpointStore(Path.of(dir));
+            default -> throw new IllegalArgumentException("Unknown chain.checkpoints.store: " + store);
+        };
+    }
+}
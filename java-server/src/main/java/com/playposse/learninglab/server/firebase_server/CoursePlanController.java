@@ -1,22 +1,26 @@
 package com.playposse.learninglab.server.firebase_server;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseToken;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
 public class CoursePlanController {
 
     private final CoursePlanService coursePlanService;
+    private final JobService jobService;
+    private final IdTokenVerifier idTokenVerifier;
 
-    public CoursePlanController(CoursePlanService coursePlanService) {
+    public CoursePlanController(CoursePlanService coursePlanService, JobService jobService, IdTokenVerifier idTokenVerifier) {
+        this.idTokenVerifier = idTokenVerifier;
         this.coursePlanService = coursePlanService;
+        this.jobService = jobService;
     }
 
     @PostMapping("/generate-course-plan")
@@ -31,8 +35,7 @@ public class CoursePlanController {
             }
 
             String idToken = authorization.substring(7);
-            FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(idToken);
-            String uid = decodedToken.getUid();
+            String uid = idTokenVerifier.verifyUid(idToken);
 
             request.uid = uid; // override UID from token, not caller
 
@@ -43,4 +46,39 @@ public class CoursePlanController {
                     .body(Map.of("error", e.getMessage()));
         }
     }
+
+    /**
+     * Starts the generation in the background and returns right away with a
+     * job id; poll {@code GET /api/jobs/{id}} for progress and the result.
+     */
+    @PostMapping("/generate-course-plan/jobs")
+    public ResponseEntity<?> startCoursePlanJob(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authorization,
+            @RequestBody GenerateCoursePlanRequest request) {
+        try {
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(Map.of("error", "Missing or invalid Authorization header"));
+            }
+
+            String idToken = authorization.substring(7);
+            String uid = idTokenVerifier.verifyUid(idToken);
+            request.uid = uid; // override UID from token, not caller
+
+            Job job = jobService.submit(request.uid, "course-plan", progress -> {
+                coursePlanService.generateCoursePlan(request, progress);
+                return Map.of("coursePlanId", request.coursePlanId);
+            });
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .location(URI.create("/api/jobs/" + job.id()))
+                    .body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "Too many course plans are being generated; try again shortly"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 }
@@ -1,6 +1,9 @@
 package com.playposse.learninglab.server.firebase_server;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
@@ -22,6 +25,13 @@ public class CoursePlanService {
     private final Firestore db;
     private final OpenAiClient openAiClient;
     private final ChatConfig defaults;
+    private final CheckpointStore checkpoints;
+
+    /** Built once; each request only binds {@link #DIRECTION}. */
+    private final Chain chain;
+
+    // input: the course plan's planJson, what the user asked for
+    private static final Label<String> DIRECTION = Label.of("direction", String.class);
 
     // our four labels for the chain
     private static final Label<String> PRIME = Label.of("prime", String.class);
@@ -35,78 +45,66 @@ public class CoursePlanService {
     private static final Label<String> SESSION_FORMAT = Label.of("sessionFormat", String.class);
     private static final Label<String> LEVEL_DESIGN = Label.of("levelDesign", String.class);
     private static final Label<String> CRITERIA_REVIEW = Label.of("criteriaReview", String.class);
-    private static final Label<String> CURRICULUM = Label.of("curriculum", String.class);
-    private static final Label<String> JSON_TEXT = Label.of("jsonText", String.class);
+    private static final Label<List<Level>> LEVELS = Label.of("levels", new TypeReference<List<Level>>() {});
 
-    @Autowired
-    public CoursePlanService(Firestore db, SecretFetcher secretFetcher) {
-        String apiKey;
-        try {
-            apiKey = secretFetcher.getOpenAiApiKey();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to fetch OpenAI API key", e);
-        }
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
-        this.db = db;
-        // wrap the existing OpenAiService in our OpenAiClient interface
-//        this.openAiClient = new OpenAiServiceAdapter(openAiService);
-        this.openAiClient = new OpenAiClientImpl(apiKey);
-        // pick whatever global defaults you like; you can override per‐step below
-        this.defaults = new DefaultsBuilder().build();
-    }
+    private static final String SYSTEM_MESSAGE = "You are a curriculum designer creating output for use in a structured app. The user tells" +
+            " the app what kind of curriculum to design, and the app breaks it down into a sequence of prompts " +
+            "that it sends you.\n\nWhen you go about the task, you want to develop a deep understanding of each " +
+            "area that you are asked to examine. Don't simply look at what your source data most commonly does. " +
+            "Instead probe deeper. If you are asked to create a sequence of lessons, don't simply pick common " +
+            "lessons done by your source material. Instead, consider what each lessons involves, ways each " +
+            "lesson could be taugh, dependencies between lessons and so on. Ask yourself preparatory questions " +
+            "before answering questions. For example, if you are asked to create a learning objective, don't " +
+            "simply pick a common learning objective, but reflect on what goals students have for the course, " +
+            "what is achievable within the course duration, how would it complement the other goals, and so on. " +
+            "You also always want to ask yourself what is it that you are actually proposing. For example, if " +
+            "you propose a class on communication, that's vague. Ask yourself what specific communication skill " +
+            "you think would be good to teach.\n\n" +
+            "In past runs, you tend to misunderstand the curriculum hierarchy. You would create courses with a " +
+            "single level (which was essentially the class description) and each lesson would be a class session. " +
+            "However, the model is different. In our approach when we refer to mini-lessons or short lessons " +
+            "they refer to a unit of learning. Students can learn multiple lessons/mini-lessons during a class " +
+            "room session. So the hierarchy is course -> many levels -> many lessons. A class room session is the " +
+            "time and place where students meet to learn/teach each other mini-lessons. Example: In a chess course, " +
+            "students may meet for six two-hour sessions in a six week course. Mini-lessons are concrete, teachable " +
+            "atomic learning units. Examples could be a mini-lesson about how the bishop moves or the opening " +
+            "the Queens Gambit. These mini-lessons may be grouped into levels for organization and to give students " +
+            "intermediate goals. A level could be for all the mini-lessons on how the chess pieces move. Or a " +
+            "first level could be organized as a 'crash course' with a sampler of key mini-lessons to play a first " +
+            "game. Within in a class room session, students would teach each other as many mini-lessons/lessons " +
+            "as they can.";
 
-    public void generateCoursePlan(GenerateCoursePlanRequest request) throws Exception {
-        String uid = request.uid;
-        String coursePlanId = request.coursePlanId;
+    /** One level of the generated plan, in the shape the app reads from {@code generatedJson}. */
+    record Level(String title, String description, List<Lesson> lessons) {}
 
-        // fetch and validate Firestore
-        DocumentReference coursePlanRef = db.document("coursePlans/" + coursePlanId);
-        DocumentSnapshot coursePlanSnap = coursePlanRef.get().get();
-        if (!coursePlanSnap.exists()) {
-            throw new RuntimeException("CoursePlan not found");
-        }
-        Map<String, Object> coursePlan = coursePlanSnap.getData();
-        String direction = (String) coursePlan.get("planJson");
-        if (direction == null || direction.isBlank()) {
-            throw new RuntimeException("Missing or invalid planJson");
-        }
+    record Lesson(
+            String title,
+            String synopsis,
+            @JsonPropertyDescription("One string including bullets, summary, and common issues")
+            String instructions,
+            List<String> graduationRequirements) {}
 
-        // build and run the OpenAI‐DSL chain
-        String systemMsg = "You are a curriculum designer creating output for use in a structured app. The user tells" +
-                " the app what kind of curriculum to design, and the app breaks it down into a sequence of prompts " +
-                "that it sends you.\n\nWhen you go about the task, you want to develop a deep understanding of each " +
-                "area that you are asked to examine. Don't simply look at what your source data most commonly does. " +
-                "Instead probe deeper. If you are asked to create a sequence of lessons, don't simply pick common " +
-                "lessons done by your source material. Instead, consider what each lessons involves, ways each " +
-                "lesson could be taugh, dependencies between lessons and so on. Ask yourself preparatory questions " +
-                "before answering questions. For example, if you are asked to create a learning objective, don't " +
-                "simply pick a common learning objective, but reflect on what goals students have for the course, " +
-                "what is achievable within the course duration, how would it complement the other goals, and so on. " +
-                "You also always want to ask yourself what is it that you are actually proposing. For example, if " +
-                "you propose a class on communication, that's vague. Ask yourself what specific communication skill " +
-                "you think would be good to teach.\n\n" +
-                "In past runs, you tend to misunderstand the curriculum hierarchy. You would create courses with a " +
-                "single level (which was essentially the class description) and each lesson would be a class session. " +
-                "However, the model is different. In our approach when we refer to mini-lessons or short lessons " +
-                "they refer to a unit of learning. Students can learn multiple lessons/mini-lessons during a class " +
-                "room session. So the hierarchy is course -> many levels -> many lessons. A class room session is the " +
-                "time and place where students meet to learn/teach each other mini-lessons. Example: In a chess course, " +
-                "students may meet for six two-hour sessions in a six week course. Mini-lessons are concrete, teachable " +
-                "atomic learning units. Examples could be a mini-lesson about how the bishop moves or the opening " +
-                "the Queens Gambit. These mini-lessons may be grouped into levels for organization and to give students " +
-                "intermediate goals. A level could be for all the mini-lessons on how the chess pieces move. Or a " +
-                "first level could be organized as a 'crash course' with a sampler of key mini-lessons to play a first " +
-                "game. Within in a class room session, students would teach each other as many mini-lessons/lessons " +
-                "as they can.";
-
-        ChainResult result = ChainBuilder
+    @Autowired
+    public CoursePlanService(Firestore db, OpenAiClient openAiClient, CheckpointStore checkpoints,
+                             ChainMetrics chainMetrics) {
+        this.db = db;
+        this.openAiClient = openAiClient;
+        // pick whatever global defaults you like; you can override per‐step below
+        this.defaults = new DefaultsBuilder().build();
+        this.checkpoints = checkpoints;
+        this.chain = ChainBuilder
                 .start(defaults)
+                .name("coursePlan")
+                .metrics(chainMetrics)
+                .input(DIRECTION)
 
                 // Step 1: Prime
                 .step(PRIME.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .user("You are going to create a curriculum over a sequence of steps. You are creating a " +
-                        "curriculum for: \n\n---\n" + direction + "\n---\n\nLet's first prepare a deeper context for " +
+                        "curriculum for: \n\n---\n${direction}\n---\n\nLet's first prepare a deeper context for " +
                         "the course. For example, given the subject, you can make an educated guess about the types " +
                         "of students, their motivations, and background. You maybe given other elements like the " +
                         "length of the course or the location of the course, which may imply other educated guesses. " +
@@ -122,7 +120,7 @@ public class CoursePlanService {
 
                 // Step 2: inventory categories
                 .step(INVENTORY_CATEGORIES.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("To start the process of curriculum creation, let's create an inventory of nameable, " +
                         "teachable items for the subject. Because your model likely doesn't have enough information " +
@@ -137,7 +135,7 @@ public class CoursePlanService {
 
                 // Step 3: inventory sources
                 .step(INVENTORY_SOURCES.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Now that you have categories of online sources, do an online search to identify good URLs" +
                         "that would give you nameable, teachable elements of the subject. Be sure to access online " +
@@ -149,7 +147,7 @@ public class CoursePlanService {
 
                 // Step 3.5: inventory
                 .step(INVENTORY_SOURCES_EVALUATION.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Check the URLs and evaluate the sources for their quality to contain information for the " +
                         "curriculum generation. Some of the sites may simply be marketing material with no info. Other " +
@@ -163,7 +161,7 @@ public class CoursePlanService {
 
                 // Step 4: inventory
                 .step(INVENTORY.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Now that you have URLs to good sources, browse the pages and extract a list of nameable, teachable " +
                         "elements of the subject. And combine the lists into one master list. Group the items into " +
@@ -175,9 +173,9 @@ public class CoursePlanService {
 
                 // Step 5: student first class
                 .step(STUDENT_FIRST_CLASS.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
-                .user(direction)
+                .user("${direction}")
                 .user("Let's switch track a bit. Consider what the emotional state/needs and readiness of " +
                         "students are in the first class session? What are their expectations? E.g., do they have " +
                         "certain fears or expectations? What do they need to successfully onboard both based on " +
@@ -189,7 +187,7 @@ public class CoursePlanService {
 
                 // Step 6: goals
                 .step(GOALS.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Define inspiring yet realistic outcomes for this course based on the listed teachable content. " +
                         "Consider time limits of each session and the duration that each teachable unit would " +
@@ -207,7 +205,7 @@ public class CoursePlanService {
 
                 // Step 7: design criteria
                 .step(DESIGN_CRITERIA.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("I want you to think about what would make a good curriculum design. You often design " +
                         "courses in a very logical fashion as one would create a book: Start at the very beginning, " +
@@ -220,14 +218,14 @@ public class CoursePlanService {
                         "marketing. You might also want to think about spaced repetition. Some things might need " +
                         "more repetition, which is better done over time for better learning. Try to think of " +
                         "criteria that would make for a good curriculum design and create yourself rules that you " +
-                        "can later check. Make these specific to the given course description (\"" + direction + "\").")
+                        "can later check. Make these specific to the given course description (\"${direction}\").")
                 .parse(Parsers.string())
                 .label(DESIGN_CRITERIA)
                 .endStep()
 
                 // Step 6: goals
                 .step(GOALS.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Define inspiring yet realistic outcomes for this course based on the listed teachable content. " +
                         "Consider time limits of each session and the duration that each teachable unit would " +
@@ -245,7 +243,7 @@ public class CoursePlanService {
 
                 // Step 7: session format
                 .step(SESSION_FORMAT.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Let's think about the design of the course. Start by thinking about how you would design" +
                         " a session in the course. You probably want to allocate most of the time to mini-lessons " +
@@ -302,7 +300,7 @@ public class CoursePlanService {
 
                 // Step 8: level design
                 .step(LEVEL_DESIGN.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Let's design the levels. First, consider that a level should be a logically complete unit" +
                         " that builds up to a greater something. It should probably also correlate somewhat to the " +
@@ -324,7 +322,7 @@ public class CoursePlanService {
 
                 // Step 9: criteria review
                 .step(CRITERIA_REVIEW.name())
-                .system(systemMsg)
+                .system(SYSTEM_MESSAGE)
                 .history()
                 .user("Use the design criteria that you made for the course to review the course that you've " +
                         "created. Make adjustments as you identify issues.")
@@ -332,10 +330,11 @@ public class CoursePlanService {
                 .label(CRITERIA_REVIEW)
                 .endStep()
 
-                // Step 10: curriculum design
+                // Step 10: curriculum design, answered directly in the app's JSON structure; each level is
+                // stored as soon as it is complete, while later ones are still written
                 .step("curriculum")
-                .system(systemMsg)
-                .user(direction)
+                .system(SYSTEM_MESSAGE)
+                .user("${direction}")
                 .assistant("${inventory}")
                 .assistant("${goals}")
                 .user("""
@@ -349,55 +348,50 @@ public class CoursePlanService {
                         - title
                         - synopsis
                         - instructions (as one string including bullets, summary, and common issues)
-                        - graduationRequirements
-                        
-                        Return this in formatted text (not JSON yet).
-                        """)
-                .parse(Parsers.string())
-                .label(CURRICULUM)
-                .endStep()
-
-                // Step 11: JSON conversion
-                .step("toJson")
-                .system("You are converting structured curriculum content into strict JSON.")
-                .user(direction)
-                .assistant("${inventory}")
-                .assistant("${goals}")
-                .assistant("${curriculum}")
-                .user("""
-                        Now convert the curriculum to JSON.
-                        
-                        Each lesson must contain:
-                        - title
-                        - synopsis
-                        - instructions (as a **single string**, including bullets, summary, and common issues)
                         - graduationRequirements (a list of items)
-                        
-                        Return ONLY the following JSON structure. Be sure to return nothing else but json, not even a
-                        little string 'json' in front of it:
-                        {
-                          "levels": [
-                            {
-                              "title": "Level Title",
-                              "description": "Level Description",
-                              "lessons": [
-                                {
-                                  "title": "Lesson Title",
-                                  "synopsis": "Short summary of the lesson",
-                                  "instructions": "All text as one string: bullets + explanation + common issues",
-                                  "graduationRequirements": ["Requirement 1", "Requirement 2"]
-                                }
-                              ]
-                            }
-                          ]
-                        }
                         """)
-                .parse(Parsers.string())
-                .label(JSON_TEXT)
+                .parse(Parsers.jsonElements("/levels", LEVELS))
+                .structured()
+                .streamItems()
+                .label(LEVELS)
                 .endStep()
 
-                .build()
-                .run(openAiClient);
+                // checkpoint each step, so a failure late in the chain doesn't redo the early steps
+                .checkpoints(checkpoints)
+                .build();
+    }
+
+    public void generateCoursePlan(GenerateCoursePlanRequest request) throws Exception {
+        generateCoursePlan(request, ChainListener.NONE);
+    }
+
+    /**
+     * Generates the plan and stores it on the course plan document,
+     * reporting per-step progress to {@code progress}.
+     */
+    public void generateCoursePlan(GenerateCoursePlanRequest request, ChainListener progress) throws Exception {
+        String uid = request.uid;
+        String coursePlanId = request.coursePlanId;
+
+        // fetch and validate Firestore
+        DocumentReference coursePlanRef = db.document("coursePlans/" + coursePlanId);
+        DocumentSnapshot coursePlanSnap = coursePlanRef.get().get();
+        if (!coursePlanSnap.exists()) {
+            throw new RuntimeException("CoursePlan not found");
+        }
+        Map<String, Object> coursePlan = coursePlanSnap.getData();
+        String direction = (String) coursePlan.get("planJson");
+        if (direction == null || direction.isBlank()) {
+            throw new RuntimeException("Missing or invalid planJson");
+        }
+
+        // a changed plan gets a new run id, so stale checkpoints are never resumed
+        String runId = "coursePlan-" + coursePlanId + "-"
+                + PromptHash.of(List.of(new ChatMsg(Role.USER, direction)), defaults).substring(0, 16);
+
+        // run the OpenAI‐DSL chain
+        ChainResult result = chain.resume(
+                runId, openAiClient, Map.of(DIRECTION, direction), progress, new LevelWriter(coursePlanRef));
 
         // Join every non-null completion in that order:
         String allResponses = result.callLogs().stream()
@@ -412,25 +406,61 @@ public class CoursePlanService {
                         (a, b) -> b,
                         LinkedHashMap::new
                 ));
-        String durationsJson = new ObjectMapper().writeValueAsString(durationsByStep);
+        String durationsJson = MAPPER.writeValueAsString(durationsByStep);
 
-        // parse JSON into a Map and write back
-        String jsonText = result.get(JSON_TEXT);
-        Map<?, ?> parsedJson;
-        try {
-            parsedJson = new ObjectMapper().readValue(jsonText, Map.class);
-        } catch (Exception e) {
-            System.err.println("Invalid JSON returned by GPT:");
-            System.err.println(jsonText);
-            throw new RuntimeException("Invalid JSON returned by GPT", e);
+        // the parsed levels, written back as the complete plan
+        if (result.hasError(LEVELS)) {
+            throw new RuntimeException("Invalid JSON returned by GPT", result.getError(LEVELS).cause());
         }
 
         Map<String, Object> updates = new HashMap<>();
-        updates.put("generatedJson", new ObjectMapper().writeValueAsString(parsedJson));
+        updates.put("generatedJson", MAPPER.writeValueAsString(Map.of("levels", result.get(LEVELS))));
         updates.put("openaiResponses", allResponses);
         updates.put("lastGenerated", FieldValue.serverTimestamp());
         updates.put("openaiDurations", durationsJson);
 
-        coursePlanRef.update(updates);
+        coursePlanRef.update(updates).get();
+
+        // the plan is stored, so the checkpoints are no longer needed
+        try {
+            checkpoints.delete(runId);
+        } catch (Exception e) {
+            System.err.println("Could not delete checkpoints of " + runId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the levels parsed so far to {@code generatedJson}, so the app
+     * can show the first levels while the later ones are still generated.
+     */
+    private static final class LevelWriter implements ChainResult.Observer {
+        private final DocumentReference coursePlanRef;
+        private final List<Object> levels = new ArrayList<>();
+
+        LevelWriter(DocumentReference coursePlanRef) {
+            this.coursePlanRef = coursePlanRef;
+        }
+
+        @Override
+        public void onItem(Label<?> label, int index, Object item) {
+            if (!label.equals(LEVELS)) {
+                return;
+            }
+            levels.add(item);
+            try {
+                String partial = MAPPER.writeValueAsString(Map.of("levels", levels));
+                coursePlanRef.update("generatedJson", partial).get();
+            } catch (Exception e) {
+                System.err.println("Could not store level " + index + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onLabel(Label<?> label, Object value) {
+        }
+
+        @Override
+        public void onError(Label<?> label, ErrorInfo error) {
+        }
     }
 }
@@ -0,0 +1,17 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.google.firebase.auth.FirebaseAuth;
+import org.springframework.stereotype.Component;
+
+/**
+ * Verifies ID tokens with the Firebase Admin SDK (initialized by
+ * {@link FirebaseConfig}).
+ */
+@Component
+public class FirebaseIdTokenVerifier implements IdTokenVerifier {
+
+    @Override
+    public String verifyUid(String idToken) throws Exception {
+        return FirebaseAuth.getInstance().verifyIdToken(idToken).getUid();
+    }
+}
@@ -0,0 +1,71 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.playposse.learninglab.server.firebase_server.openaidsl.CheckpointStore;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link CheckpointStore} in Firestore, so a run can be resumed by any
+ * instance: {@code chainRuns/{runId}/steps/{stepIndex}} holds each completed
+ * step's checkpoint JSON.
+ */
+public class FirestoreCheckpointStore implements CheckpointStore {
+
+    private final Firestore db;
+
+    public FirestoreCheckpointStore(Firestore db) {
+        this.db = db;
+    }
+
+    @Override
+    public void save(String runId, int stepIndex, String json) throws IOException {
+        await(steps(runId).document(String.valueOf(stepIndex)).set(Map.of(
+                "step", stepIndex,
+                "json", json,
+                "savedAt", FieldValue.serverTimestamp())));
+    }
+
+    @Override
+    public SortedMap<Integer, String> load(String runId) throws IOException {
+        SortedMap<Integer, String> out = new TreeMap<>();
+        for (QueryDocumentSnapshot doc : await(steps(runId).get()).getDocuments()) {
+            Long step = doc.getLong("step");
+            String json = doc.getString("json");
+            if (step != null && json != null) {
+                out.put(step.intValue(), json);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void delete(String runId) throws IOException {
+        for (QueryDocumentSnapshot doc : await(steps(runId).get()).getDocuments()) {
+            await(doc.getReference().delete());
+        }
+    }
+
+    private CollectionReference steps(String runId) {
+        return db.collection("chainRuns").document(runId).collection("steps");
+    }
+
+    private static <T> T await(ApiFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while talking to Firestore", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Firestore request failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link JobStore} in Firestore, so any instance can answer
+ * {@code GET /api/jobs/{id}} and jobs outlive the instance that ran them:
+ * {@code jobs/{id}} holds each job's latest snapshot, with the result as
+ * JSON. Updates run in a transaction, so concurrent step events don't
+ * overwrite each other.
+ * <p>
+ * Finished jobs are hidden once they are older than the retention period,
+ * like {@code InMemoryJobStore} does. The instance running a job renews
+ * its {@code updatedAt} while it holds the job; a queued or running job
+ * whose lease has run out was lost with its instance and is reported as
+ * failed. Every job gets an {@code expireAt} field, so a Firestore TTL
+ * policy on it can delete them.
+ */
+public class FirestoreJobStore implements JobStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Firestore db;
+    private final Duration retention;
+    private final Duration lease;
+
+    public FirestoreJobStore(Firestore db, Duration retention, Duration lease) {
+        this.db = db;
+        this.retention = retention;
+        this.lease = lease;
+    }
+
+    @Override
+    public void save(Job job) {
+        await(doc(job.id()).set(toDocument(job)));
+    }
+
+    @Override
+    public Optional<Job> get(String id) {
+        DocumentSnapshot snap = await(doc(id).get());
+        if (!snap.exists()) {
+            return Optional.empty();
+        }
+        return visible(fromDocument(snap.getData()), Instant.now());
+    }
+
+    /** The job as clients see it at {@code now}: failed once its lease ran out, gone after retention. */
+    Optional<Job> visible(Job job, Instant now) {
+        if (!job.isFinished() && job.updatedAt().isBefore(now.minus(lease))) {
+            job = job.lost(job.updatedAt().plus(lease));
+        }
+        if (job.isFinished() && job.updatedAt().isBefore(now.minus(retention))) {
+            return Optional.empty();
+        }
+        return Optional.of(job);
+    }
+
+    @Override
+    public void update(String id, UnaryOperator<Job> change) {
+        DocumentReference ref = doc(id);
+        await(db.runTransaction(tx -> {
+            DocumentSnapshot snap = tx.get(ref).get();
+            if (snap.exists()) {
+                tx.set(ref, toDocument(change.apply(fromDocument(snap.getData()))));
+            }
+            return null;
+        }));
+    }
+
+    private DocumentReference doc(String id) {
+        return db.collection("jobs").document(id);
+    }
+
+    Map<String, Object> toDocument(Job job) {
+        Map<String, Object> doc = new HashMap<>();
+        doc.put("id", job.id());
+        doc.put("uid", job.uid());
+        doc.put("type", job.type());
+        doc.put("status", job.status().name());
+        doc.put("steps", job.steps().stream()
+                .map(s -> Map.of("name", s.name(), "status", s.status().name()))
+                .toList());
+        doc.put("resultJson", toJson(job.result()));
+        doc.put("error", job.error());
+        doc.put("createdAt", timestamp(job.createdAt()));
+        doc.put("updatedAt", timestamp(job.updatedAt()));
+        // an unfinished job is reported lost once its lease runs out, and then retained
+        Instant finishedBy = job.isFinished() ? job.updatedAt() : job.updatedAt().plus(lease);
+        doc.put("expireAt", timestamp(finishedBy.plus(retention)));
+        return doc;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Job fromDocument(Map<String, Object> doc) {
+        List<Map<String, Object>> steps = (List<Map<String, Object>>) doc.getOrDefault("steps", List.of());
+        return new Job(
+                (String) doc.get("id"),
+                (String) doc.get("uid"),
+                (String) doc.get("type"),
+                Job.Status.valueOf((String) doc.get("status")),
+                steps.stream()
+                        .map(s -> new Job.StepProgress(
+                                (String) s.get("name"),
+                                Job.StepStatus.valueOf((String) s.get("status"))))
+                        .toList(),
+                fromJson((String) doc.get("resultJson")),
+                (String) doc.get("error"),
+                instant((Timestamp) doc.get("createdAt")),
+                instant((Timestamp) doc.get("updatedAt")));
+    }
+
+    private static String toJson(Object result) {
+        if (result == null) {
+            return null;
+        }
+        try {
+            return MAPPER.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Job result can't be written as JSON", e);
+        }
+    }
+
+    private static Object fromJson(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(json, Object.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored job result isn't valid JSON", e);
+        }
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return Timestamp.ofTimeSecondsAndNanos(instant.getEpochSecond(), instant.getNano());
+    }
+
+    private static Instant instant(Timestamp timestamp) {
+        return Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
+    }
+
+    private static <T> T await(ApiFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while talking to Firestore", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Firestore request failed", e.getCause());
+        }
+    }
+}
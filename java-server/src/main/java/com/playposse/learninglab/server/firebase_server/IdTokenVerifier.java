@@ -0,0 +1,12 @@
+package com.playposse.learninglab.server.firebase_server;
+
+/**
+ * Checks the Firebase ID token a client sent as its bearer token and
+ * returns the signed-in user's uid. Controllers go through this instead of
+ * {@code FirebaseAuth} directly so tests and load tests can stub sign-in.
+ */
+public interface IdTokenVerifier {
+
+    /** Returns the uid of the token's user; throws if the token isn't valid. */
+    String verifyUid(String idToken) throws Exception;
+}
@@ -0,0 +1,79 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of a background job, as returned by {@code GET /api/jobs/{id}}.
+ * Jobs are immutable; {@link JobStore#update} swaps in a new snapshot.
+ *
+ * @param type   what the job does, e.g. "course-plan"
+ * @param steps  per-step progress of the chain the job runs (empty until it starts)
+ * @param result the job's result once it succeeded
+ * @param error  the failure message once it failed
+ */
+public record Job(
+        String id,
+        String uid,
+        String type,
+        Status status,
+        List<StepProgress> steps,
+        Object result,
+        String error,
+        Instant createdAt,
+        Instant updatedAt
+) {
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    public enum StepStatus { PENDING, RUNNING, SUCCEEDED, FAILED }
+
+    public record StepProgress(String name, StepStatus status) {}
+
+    public static Job queued(String id, String uid, String type) {
+        Instant now = Instant.now();
+        return new Job(id, uid, type, Status.QUEUED, List.of(), null, null, now, now);
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    Job running() {
+        return new Job(id, uid, type, Status.RUNNING, steps, null, null, createdAt, Instant.now());
+    }
+
+    Job succeeded(Object result) {
+        return new Job(id, uid, type, Status.SUCCEEDED, steps, result, null, createdAt, Instant.now());
+    }
+
+    Job failed(String error) {
+        return new Job(id, uid, type, Status.FAILED, steps, null, error, createdAt, Instant.now());
+    }
+
+    /** Renews the lease of a job that is still queued or running. */
+    Job heartbeat() {
+        return isFinished() ? this : new Job(id, uid, type, status, steps, result, error, createdAt, Instant.now());
+    }
+
+    /** The job as failed at {@code at}, because the instance holding it went away. */
+    Job lost(Instant at) {
+        return new Job(id, uid, type, Status.FAILED, steps, null, "Worker lost", createdAt, at);
+    }
+
+    Job withSteps(List<String> names) {
+        List<StepProgress> pending = names.stream()
+                .map(n -> new StepProgress(n, StepStatus.PENDING))
+                .toList();
+        return new Job(id, uid, type, status, pending, result, error, createdAt, Instant.now());
+    }
+
+    Job withStep(int index, StepStatus stepStatus) {
+        if (index < 0 || index >= steps.size()) {
+            return this;
+        }
+        List<StepProgress> updated = new ArrayList<>(steps);
+        updated.set(index, new StepProgress(steps.get(index).name(), stepStatus));
+        return new Job(id, uid, type, status, List.copyOf(updated), result, error, createdAt, Instant.now());
+    }
+}
@@ -0,0 +1,24 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.google.cloud.firestore.Firestore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Provides the store that holds background job state. It is in Firestore,
+ * because the instance a client polls needn't be the one running the job.
+ */
+@Configuration
+public class JobConfig {
+
+    @Bean
+    public JobStore jobStore(
+            Firestore db,
+            @Value("${jobs.retention:PT1H}") Duration retention,
+            @Value("${jobs.lease:PT2M}") Duration lease) {
+        return new FirestoreJobStore(db, retention, lease);
+    }
+}
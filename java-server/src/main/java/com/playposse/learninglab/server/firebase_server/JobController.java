@@ -0,0 +1,52 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * REST endpoint for polling background jobs.
+ */
+@RestController
+@RequestMapping("/api")
+public class JobController {
+
+    private final JobService jobService;
+    private final IdTokenVerifier idTokenVerifier;
+
+    public JobController(JobService jobService, IdTokenVerifier idTokenVerifier) {
+        this.idTokenVerifier = idTokenVerifier;
+        this.jobService = jobService;
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authorization,
+            @PathVariable("id") String id) {
+        try {
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(Map.of("error", "Missing or invalid Authorization header"));
+            }
+
+            String idToken = authorization.substring(7);
+            String uid = idTokenVerifier.verifyUid(idToken);
+
+            // other users' jobs look the same as missing ones
+            Optional<Job> job = jobService.get(id)
+                    .filter(j -> j.uid().equals(uid));
+            if (job.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Job not found"));
+            }
+            return ResponseEntity.ok(job.get());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+}
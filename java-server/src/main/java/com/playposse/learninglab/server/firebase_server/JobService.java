@@ -0,0 +1,149 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.playposse.learninglab.server.firebase_server.openaidsl.ChainListener;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs long chains in the background so request threads return at once.
+ * A fixed pool of workers takes jobs from a bounded queue; when the queue
+ * is full, {@link #submit} throws {@link RejectedExecutionException} and
+ * the caller should ask the client to try again later.
+ * <p>
+ * The queue lives on this instance only. While a job is queued or running
+ * here, its {@code updatedAt} is renewed every heartbeat, so the store can
+ * tell when the instance went away and report the job as failed.
+ */
+@Service
+public class JobService {
+    private static final Logger log = LoggerFactory.getLogger(JobService.class);
+
+    /** The work a job does; it reports chain progress through the listener. */
+    @FunctionalInterface
+    public interface Task {
+        Object run(ChainListener progress) throws Exception;
+    }
+
+    private final JobStore store;
+    private final ThreadPoolExecutor workers;
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeats;
+
+    public JobService(
+            JobStore store,
+            @Value("${jobs.workers:2}") int workers,
+            @Value("${jobs.queue-capacity:50}") int queueCapacity,
+            @Value("${jobs.heartbeat:PT30S}") Duration heartbeat) {
+        this.store = store;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "job-worker-" + threadCount.incrementAndGet()));
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeats.scheduleWithFixedDelay(
+                this::renewLeases, heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Queues a job and returns its initial snapshot. */
+    public Job submit(String uid, String type, Task task) {
+        Job job = Job.queued(UUID.randomUUID().toString(), uid, type);
+        store.save(job);
+        held.add(job.id());
+        try {
+            workers.execute(() -> run(job.id(), task));
+        } catch (RejectedExecutionException e) {
+            held.remove(job.id());
+            store.update(job.id(), j -> j.failed("Too many jobs queued"));
+            throw e;
+        }
+        return job;
+    }
+
+    public Optional<Job> get(String id) {
+        return store.get(id);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        heartbeats.shutdownNow();
+    }
+
+    private void run(String id, Task task) {
+        try {
+            store.update(id, Job::running);
+            Object result = task.run(new Progress(id));
+            store.update(id, j -> j.succeeded(result));
+        } catch (Exception e) {
+            log.error("Job {} failed", id, e);
+            try {
+                store.update(id, j -> j.failed(e.getMessage()));
+            } catch (RuntimeException storeFailure) {
+                // the lease runs out instead, and the job is reported lost
+                log.error("Could not mark job {} failed", id, storeFailure);
+            }
+        } finally {
+            held.remove(id);
+        }
+    }
+
+    private void renewLeases() {
+        for (String id : held) {
+            try {
+                store.update(id, Job::heartbeat);
+            } catch (RuntimeException e) {
+                log.warn("Could not renew the lease of job {}", id, e);
+            }
+        }
+    }
+
+    /** Mirrors the chain's step events into the job's snapshot. */
+    private final class Progress implements ChainListener {
+        private final String id;
+
+        Progress(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void onChainStarted(List<String> stepNames) {
+            store.update(id, j -> j.withSteps(stepNames));
+        }
+
+        @Override
+        public void onStepStarted(int index, String stepName) {
+            store.update(id, j -> j.withStep(index, Job.StepStatus.RUNNING));
+        }
+
+        @Override
+        public void onStepFinished(int index, String stepName, boolean succeeded) {
+            store.update(id, j -> j.withStep(index,
+                    succeeded ? Job.StepStatus.SUCCEEDED : Job.StepStatus.FAILED));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+/**
+ * Where job snapshots live while a job runs and after it finishes.
+ */
+public interface JobStore {
+
+    void save(Job job);
+
+    Optional<Job> get(String id);
+
+    /** Atomically replaces the job with {@code change(job)}; a no-op for unknown ids. */
+    void update(String id, UnaryOperator<Job> change);
+}
@@ -0,0 +1,47 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.playposse.learninglab.server.firebase_server.openaidsl.DiskResponseStore;
+import com.playposse.learninglab.server.firebase_server.openaidsl.ResponseCache;
+import com.playposse.learninglab.server.firebase_server.openaidsl.ResponseStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Provides the process-wide cache of OpenAI responses, so regenerating a
+ * plan, rubric or item list from identical inputs doesn't pay for the same
+ * prompts again. If {@code openai.cache.disk.path} is set, responses are
+ * also kept in a {@link DiskResponseStore} there and survive restarts.
+ * The cache is a {@code MeterBinder}, so Spring Boot publishes its hit and
+ * miss counters as {@code openai.cache.*}.
+ */
+@Configuration
+public class OpenAiCacheConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty("openai.cache.disk.path")
+    public DiskResponseStore openAiDiskResponseStore(
+            @Value("${openai.cache.disk.path}") String path,
+            @Value("${openai.cache.disk.max-bytes:67108864}") long maxBytes,
+            @Value("${openai.cache.ttl:PT24H}") Duration ttl) throws IOException {
+        return new DiskResponseStore(Path.of(path), maxBytes, ttl);
+    }
+
+    @Bean
+    public ResponseCache openAiResponseCache(
+            @Value("${openai.cache.max-entries:1000}") int maxEntries,
+            @Value("${openai.cache.ttl:PT24H}") Duration ttl,
+            ObjectProvider<DiskResponseStore> diskStore) {
+        DiskResponseStore disk = diskStore.getIfAvailable();
+        return new ResponseCache(
+                maxEntries,
+                ttl,
+                disk != null ? disk : ResponseStore.NONE);
+    }
+}
@@ -0,0 +1,158 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.openai.client.OpenAIClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.CachingOpenAiClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.CallRecording;
+import com.playposse.learninglab.server.firebase_server.openaidsl.ChainMetrics;
+import com.playposse.learninglab.server.firebase_server.openaidsl.CoalescingOpenAiClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiClientImpl;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiHttpClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiRateLimiter;
+import com.playposse.learninglab.server.firebase_server.openaidsl.RateLimitedOpenAiClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.RecordingOpenAiClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.ReplayingOpenAiClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.ResponseCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Provides the one OpenAI HTTP transport, SDK client and DSL client that
+ * every service shares, so all calls go through one connection pool and
+ * dispatcher and reuse the same TLS connections. The transport is a
+ * {@code MeterBinder}, so its pool and dispatcher show up as
+ * {@code openai.http.*} meters.
+ */
+@Configuration
+public class OpenAiClientConfig {
+    private static final Logger log = LoggerFactory.getLogger(OpenAiClientConfig.class);
+
+    private final String baseUrl;
+    private final boolean warmUp;
+    private final String recordingMode;
+    private final Path recordingFile;
+    private final boolean simulateLatency;
+
+    private RecordingOpenAiClient recorder;
+
+    public OpenAiClientConfig(
+            @Value("${openai.http.base-url:}") String baseUrl,
+            @Value("${openai.http.warm-up:true}") boolean warmUp,
+            @Value("${openai.recording.mode:off}") String recordingMode,
+            @Value("${openai.recording.file:/tmp/openai-calls.rec}") String recordingFile,
+            @Value("${openai.recording.simulate-latency:true}") boolean simulateLatency) {
+        this.baseUrl = baseUrl.isBlank() ? null : baseUrl;
+        this.warmUp = warmUp;
+        this.recordingMode = recordingMode;
+        this.recordingFile = Path.of(recordingFile);
+        this.simulateLatency = simulateLatency;
+    }
+
+    @Bean(destroyMethod = "close")
+    public OpenAiHttpClient openAiHttpClient(
+            @Value("${openai.http.max-idle-connections:16}") int maxIdleConnections,
+            @Value("${openai.http.keep-alive:PT5M}") Duration keepAlive,
+            @Value("${openai.http.max-requests:128}") int maxRequests,
+            @Value("${openai.http.max-requests-per-host:64}") int maxRequestsPerHost,
+            @Value("${openai.http.connect-timeout:PT10S}") Duration connectTimeout,
+            @Value("${openai.http.read-timeout:PT10M}") Duration readTimeout,
+            @Value("${openai.http.write-timeout:PT30S}") Duration writeTimeout,
+            @Value("${openai.http.call-timeout:PT15M}") Duration callTimeout) {
+        return new OpenAiHttpClient(new OpenAiHttpClient.Settings(
+                maxIdleConnections, keepAlive, maxRequests, maxRequestsPerHost,
+                connectTimeout, readTimeout, writeTimeout, callTimeout));
+    }
+
+    /**
+     * The raw SDK client, for code that builds SDK requests itself. Unlike
+     * DSL steps, which retry per their RetryPolicy, such code relies on the
+     * SDK retrying 429s and 5xx responses; OpenAiService turns those off and
+     * retries itself, so every attempt goes through the rate limiter.
+     */
+    @Bean
+    public OpenAIClient openAiSdkClient(
+            SecretFetcher secretFetcher,
+            OpenAiHttpClient http,
+            @Value("${openai.sdk.max-retries:2}") int maxRetries) {
+        String apiKey;
+        try {
+            apiKey = secretFetcher.getOpenAiApiKey();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to fetch OpenAI API key", e);
+        }
+        return http.sdk(apiKey, baseUrl).withOptions(options -> options.maxRetries(maxRetries));
+    }
+
+    /**
+     * The DSL client: response cache → coalescing → rate limiter → SDK.
+     * With {@code openai.recording.mode=record} the cache is left out, so
+     * every call reaches OpenAI and is written to
+     * {@code openai.recording.file}; otherwise a replay would miss whatever
+     * the cache answered. With {@code replay} calls are answered from that
+     * file without the cache or the rate limiter, since OpenAI isn't called
+     * at all.
+     */
+    @Bean
+    public OpenAiClient openAiClient(
+            ObjectProvider<OpenAIClient> sdk,
+            OpenAiRateLimiter rateLimiter,
+            ResponseCache responseCache,
+            MeterRegistry registry) throws IOException {
+        return switch (recordingMode) {
+            case "off" -> new CachingOpenAiClient(
+                    new CoalescingOpenAiClient(new RateLimitedOpenAiClient(
+                            new OpenAiClientImpl(withoutRetries(sdk), registry), rateLimiter)),
+                    responseCache);
+            case "record" -> {
+                log.info("Recording OpenAI calls to {}", recordingFile);
+                recorder = new RecordingOpenAiClient(new OpenAiClientImpl(withoutRetries(sdk), registry), recordingFile);
+                yield new CoalescingOpenAiClient(new RateLimitedOpenAiClient(recorder, rateLimiter));
+            }
+            case "replay" -> {
+                CallRecording recording = CallRecording.load(recordingFile);
+                log.info("Replaying {} recorded OpenAI calls from {}", recording.size(), recordingFile);
+                yield new CoalescingOpenAiClient(new ReplayingOpenAiClient(recording, simulateLatency));
+            }
+            default -> throw new IllegalArgumentException(
+                    "openai.recording.mode must be off, record or replay, not " + recordingMode);
+        };
+    }
+
+    /** The steps' RetryPolicy owns retries, so the SDK mustn't add its own. */
+    private static OpenAIClient withoutRetries(ObjectProvider<OpenAIClient> sdk) {
+        return sdk.getObject().withOptions(options -> options.maxRetries(0));
+    }
+
+    /** Chain, step and call meters; each service names its chain. */
+    @Bean
+    public ChainMetrics chainMetrics(MeterRegistry registry) {
+        return ChainMetrics.of(registry);
+    }
+
+    @PreDestroy
+    public void closeRecorder() throws IOException {
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    /** Opens the TLS connection before the first user request needs it. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp(ApplicationReadyEvent event) {
+        if (warmUp && !recordingMode.equals("replay")) {
+            event.getApplicationContext().getBean(OpenAiHttpClient.class).warmUp(baseUrl);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiRateLimiter;
+import com.playposse.learninglab.server.firebase_server.openaidsl.RateLimits;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+
+/**
+ * Provides the single OpenAiRateLimiter shared by every service that talks
+ * to OpenAI, sized to the organization's per-model limits.
+ */
+@Configuration
+public class OpenAiRateLimitConfig {
+
+    @Bean
+    public OpenAiRateLimiter openAiRateLimiter(
+            @Value("${openai.rate-limit.requests-per-minute:500}") long requestsPerMinute,
+            @Value("${openai.rate-limit.tokens-per-minute:500000}") long tokensPerMinute) {
+        return new OpenAiRateLimiter(
+                Map.of(),
+                new RateLimits(requestsPerMinute, tokensPerMinute));
+    }
+}
@@ -1,33 +1,47 @@
 package com.playposse.learninglab.server.firebase_server;
 
 import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.errors.OpenAIException;
 import com.openai.models.ChatModel;
 import com.openai.models.chat.completions.ChatCompletion;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
 import com.openai.models.chat.completions.ChatCompletionUserMessageParam;
 import com.openai.models.chat.completions.ChatCompletionSystemMessageParam;
 import com.openai.models.chat.completions.ChatCompletionAssistantMessageParam;
+import com.openai.models.completions.CompletionUsage;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiCallException;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiClientImpl;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiRateLimiter;
+import com.playposse.learninglab.server.firebase_server.openaidsl.RetryPolicy;
+import com.playposse.learninglab.server.firebase_server.openaidsl.TokenEstimator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
 @Service
 public class OpenAiService {
 
+    /** Completion budget reserved for calls that don't set max tokens. */
+    private static final long DEFAULT_COMPLETION_TOKENS = 4_096;
+
     private final OpenAIClient client;
+    private final OpenAiRateLimiter rateLimiter;
+    private final RetryPolicy retry;
 
-    public OpenAiService(SecretFetcher secretFetcher) {
-        String apiKey;
-        try {
-            apiKey = secretFetcher.getOpenAiApiKey();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to fetch OpenAI API key", e);
-        }
-        this.client = OpenAIOkHttpClient.builder()
-                .apiKey(apiKey)
-                .build();
+    /**
+     * The SDK's own retries would bypass the rate limiter, so they are
+     * turned off here and each attempt takes its own reservation instead.
+     */
+    public OpenAiService(
+            OpenAIClient client,
+            OpenAiRateLimiter rateLimiter,
+            @Value("${openai.sdk.max-retries:2}") int maxRetries) {
+        this.client = client.withOptions(options -> options.maxRetries(0));
+        this.rateLimiter = rateLimiter;
+        this.retry = RetryPolicy.attempts(maxRetries + 1);
     }
 
     /**
@@ -39,9 +53,10 @@ public class OpenAiService {
                 .model(ChatModel.GPT_4_1)
                 .build();
 
-        ChatCompletion result = client.chat()
-                .completions()
-                .create(params);
+        ChatCompletion result = create(
+                params,
+                ChatModel.GPT_4_1,
+                TokenEstimator.estimate(prompt) + DEFAULT_COMPLETION_TOKENS);
 
         return result.choices()
                 .get(0)
@@ -86,9 +101,11 @@ public class OpenAiService {
             }
         }
 
-        ChatCompletion result = client.chat()
-                .completions()
-                .create(b.build());
+        long estimatedTokens = maxTokens;
+        for (Map<String, String> msg : messagesInput) {
+            estimatedTokens += TokenEstimator.estimate(msg.get("content"));
+        }
+        ChatCompletion result = create(b.build(), chatModel, estimatedTokens);
 
         return result.choices()
                 .get(0)
@@ -96,4 +113,47 @@ public class OpenAiService {
                 .content()
                 .orElseThrow(() -> new RuntimeException("OpenAI returned empty content"));
     }
+
+    /**
+     * Sends the request once the shared rate limiter has capacity, then
+     * settles the reservation with the reported usage. Throttled, failed
+     * and timed-out attempts are retried per {@link RetryPolicy}, each
+     * waiting for a new reservation.
+     */
+    private ChatCompletion create(ChatCompletionCreateParams params, ChatModel model, long estimatedTokens) {
+        Duration delay = Duration.ZERO;
+        for (int attempt = 1; ; attempt++) {
+            OpenAiRateLimiter.Reservation reservation = rateLimiter.acquire(model, estimatedTokens).join();
+            RuntimeException failure;
+            try {
+                ChatCompletion result = client.chat()
+                        .completions()
+                        .create(params);
+                reservation.reconcile(result.usage()
+                        .map(CompletionUsage::totalTokens)
+                        .orElse(reservation.tokens()));
+                return result;
+            } catch (OpenAIException e) {
+                reservation.release();
+                failure = OpenAiClientImpl.translate(e);
+            } catch (RuntimeException e) {
+                reservation.release();
+                throw e;
+            }
+            if (attempt >= retry.maxAttempts() || !RetryPolicy.isRetryable(failure)) {
+                throw failure;
+            }
+            delay = retry.nextDelay(delay, failure instanceof OpenAiCallException e ? e.retryAfter() : null);
+            sleep(delay);
+        }
+    }
+
+    private static void sleep(Duration delay) {
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry an OpenAI call", e);
+        }
+    }
 }
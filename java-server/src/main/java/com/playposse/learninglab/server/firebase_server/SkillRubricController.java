@@ -1,13 +1,19 @@
 package com.playposse.learninglab.server.firebase_server;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.playposse.learninglab.server.firebase_server.openaidsl.SingleFlight;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * REST endpoint for generating skill rubrics using OpenAI.
@@ -16,10 +22,26 @@ import java.util.Map;
 @RequestMapping("/api")
 public class SkillRubricController {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private final SkillRubricService skillRubricService;
 
-    public SkillRubricController(SkillRubricService skillRubricService) {
+    /** Identical requests from the same user share one generation. */
+    private final SingleFlight<String, SkillRubricResponse> inFlight = new SingleFlight<>();
+
+    private final ExecutorService sseExecutor;
+    private final long sseTimeoutMillis;
+    private final IdTokenVerifier idTokenVerifier;
+
+    public SkillRubricController(
+            SkillRubricService skillRubricService,
+            @Qualifier("sseExecutor") ExecutorService sseExecutor,
+            @Value("${sse.timeout:PT5M}") Duration sseTimeout,
+            IdTokenVerifier idTokenVerifier) {
+        this.idTokenVerifier = idTokenVerifier;
         this.skillRubricService = skillRubricService;
+        this.sseExecutor = sseExecutor;
+        this.sseTimeoutMillis = sseTimeout.toMillis();
     }
 
     @PostMapping("/generate-skill-rubric")
@@ -33,14 +55,56 @@ public class SkillRubricController {
             }
 
             String idToken = authorization.substring(7);
-            FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(idToken);
-            request.uid = decodedToken.getUid();
+            String uid = idTokenVerifier.verifyUid(idToken);
+            request.uid = uid;
 
-            SkillRubricResponse result = skillRubricService.generateRubric(request);
+            // the request includes the uid, so only the same user's duplicates coalesce
+            String key = MAPPER.writeValueAsString(request);
+            SkillRubricResponse result = inFlight.call(key, () -> skillRubricService.generateRubric(request));
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", e.getMessage()));
         }
     }
+
+    /**
+     * Server-Sent Events variant: streams each part of the result as soon
+     * as it is parsed and ends with a {@code result} event carrying the
+     * same body as the plain endpoint.
+     */
+    @PostMapping("/generate-skill-rubric/stream")
+    public ResponseEntity<?> streamSkillRubric(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authorization,
+            @RequestBody GenerateSkillRubricRequest request) {
+        try {
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(Map.of("error", "Missing or invalid Authorization header"));
+            }
+
+            String idToken = authorization.substring(7);
+            String uid = idTokenVerifier.verifyUid(idToken);
+            request.uid = uid;
+
+            SseStream stream = new SseStream(sseTimeoutMillis);
+            sseExecutor.execute(() -> {
+                try {
+                    stream.complete(skillRubricService.generateRubric(request, stream));
+                } catch (Exception e) {
+                    stream.fail(e);
+                }
+            });
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_EVENT_STREAM)
+                    .body(stream.emitter());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "Too many skill rubrics are being generated; try again shortly"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 }
@@ -1,17 +1,22 @@
 package com.playposse.learninglab.server.firebase_server;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.playposse.learninglab.server.firebase_server.openaidsl.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
 /**
  * Service that calls OpenAI to generate skill dimensions and degrees
@@ -21,54 +26,52 @@ import java.util.stream.Collectors;
 @Service
 public class SkillRubricService {
 
+    private static final Logger log = LoggerFactory.getLogger(SkillRubricService.class);
+
+    /** Per-loop cap on concurrent OpenAI calls; the three loops run side by side. */
+    private static final int MAX_CONCURRENT_DIMENSIONS = 4;
+
+    // input: the course details, one "Field: value" per line
+    private static final Label<String> INFO = Label.of("info", String.class);
+
+    // labels
+    private static final Label<List<String>> DEGREE_LABELS = Label.of("degreeLabels", new TypeReference<>() {});
+    private static final Label<List<String>> DIMENSIONS = Label.of("dimensions", new TypeReference<>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class); // reused for interim strings
+    private static final Label<List<String>> DIMENSION_DESCRIPTIONS = Label.of("dimensionDescriptions", new TypeReference<>() {});
+    // one entry per degree, in the order of the degree labels
+    private static final Label<List<String>> CRITERIA = Label.of("criteria", new TypeReference<>() {});
+    private static final Label<List<List<String>>> EXERCISES = Label.of("exercises", new TypeReference<>() {});
+    private static final Label<List<List<String>>> DEGREE_DESCRIPTIONS = Label.of("degreeDescriptions", new TypeReference<>() {});
+    private static final Label<List<List<List<String>>>> DEGREE_EXERCISES = Label.of("degreeExercises", new TypeReference<>() {});
+
+    private static final String SYSTEM_MESSAGE =
+            "You are an expert educator designing skill rubrics. A skill dimension is a major competency " +
+                    "area for the course. Each dimension has five skill degrees from novice to expert, each with " +
+                    "criteria and exercises.";
+
     private final OpenAiClient openAiClient;
-    private final ChatConfig defaults;
 
-    @Autowired
-    public SkillRubricService(SecretFetcher secretFetcher) {
-        String apiKey;
-        try {
-            apiKey = secretFetcher.getOpenAiApiKey();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to fetch OpenAI API key", e);
-        }
+    /** Built once; each request only binds {@link #INFO}. */
+    private final Chain chain;
 
-        this.openAiClient = new OpenAiClientImpl(apiKey);
-        this.defaults = new DefaultsBuilder()
+    @Autowired
+    public SkillRubricService(OpenAiClient openAiClient, ChainMetrics chainMetrics) {
+        this.openAiClient = openAiClient;
+        ChatConfig defaults = new DefaultsBuilder()
                 .temperature(1) // Deprecated by OpenAI.
                 .maxTokens(3000)
                 .build();
-    }
-
-    /**
-     * Generates skill dimensions, descriptions and degrees by
-     * chaining OpenAI calls. The description of a dimension is fed
-     * into the follow-up request for the degrees so that each branch
-     * can proceed independently.
-     */
-    public SkillRubricResponse generateRubric(GenerateSkillRubricRequest request) throws Exception {
-        String info = buildInfo(request);
-
-        // labels
-        Label<List<String>> DEGREE_LABELS = Label.of("degreeLabels", new com.fasterxml.jackson.core.type.TypeReference<>() {});
-        Label<List<String>> DIMENSIONS = Label.of("dimensions", new com.fasterxml.jackson.core.type.TypeReference<>() {});
-        Label<String> DETAIL = Label.of("detail", String.class); // reused for interim strings
-        Label<List<String>> DIMENSION_DESCRIPTIONS = Label.of("dimensionDescriptions", new com.fasterxml.jackson.core.type.TypeReference<>() {});
-        Label<List<String>> DEGREE_DESCRIPTIONS = Label.of("degreeDescriptions", new com.fasterxml.jackson.core.type.TypeReference<>() {});
-        Label<List<String>> DEGREE_EXERCISES = Label.of("degreeExercises", new com.fasterxml.jackson.core.type.TypeReference<>() {});
-
-        String systemMessage =
-                "You are an expert educator designing skill rubrics. A skill dimension is a major competency " +
-                        "area for the course. Each dimension has five skill degrees from novice to expert, each with " +
-                        "criteria and exercises.";
-
-        ChainResult result = ChainBuilder
+        this.chain = ChainBuilder
                 .start(defaults)
+                .name("skillRubric")
+                .metrics(chainMetrics)
+                .input(INFO)
 
                 // Step 1: get global degree labels
                 .step("degreeLabels")
-                .system(systemMessage)
-                .user(info + "\n\nList the five skill degree labels from novice to expert. Return one per line.\n\nConsider what makes sense for the particular course. If a course is for first time dancers, it wouldn't make sense to have Olympic-level expectations for the highest degree. You might want the lowest degree to be for what students walk into the first session with. And the highest degree is perhaps aspirational for what an A+ student may achieve. You also want to include the vibe of the course. For example, when teaching a course for kids, calling the first degree 'grasshopper' might make sense. For a very beginning course, degrees may be labeled: novice, early beginner, beginner, advanced beginner, and so on.\n\nThe degrees should be short and clear because they will be used as labels. A single word is ideal.")
+                .system(SYSTEM_MESSAGE)
+                .user("${info}\n\nList the five skill degree labels from novice to expert. Return one per line.\n\nConsider what makes sense for the particular course. If a course is for first time dancers, it wouldn't make sense to have Olympic-level expectations for the highest degree. You might want the lowest degree to be for what students walk into the first session with. And the highest degree is perhaps aspirational for what an A+ student may achieve. You also want to include the vibe of the course. For example, when teaching a course for kids, calling the first degree 'grasshopper' might make sense. For a very beginning course, degrees may be labeled: novice, early beginner, beginner, advanced beginner, and so on.\n\nThe degrees should be short and clear because they will be used as labels. A single word is ideal.")
                 .parse(Parsers.stringList())
                 .label(DEGREE_LABELS)
 //                .maxTokens(50)
@@ -76,8 +79,8 @@ public class SkillRubricService {
 
                 // Step 2: brainstorm dimensions
                 .step("dimensions")
-                .system(systemMessage)
-                .user(info + "\n\nList 5-7 key skill dimensions for this course. Return one per line.\n\nThe dimensions should be short (1-3 words) because they will be used as labels.")
+                .system(SYSTEM_MESSAGE)
+                .user("${info}\n\nList 5-7 key skill dimensions for this course. Return one per line.\n\nThe dimensions should be short (1-3 words) because they will be used as labels.")
                 .parse(Parsers.stringList())
                 .label(DIMENSIONS)
                 .endStep()
@@ -85,10 +88,12 @@ public class SkillRubricService {
                 // Step 3: for each dimension get description
                 .forEach(DIMENSIONS)
                 .alias("dimension")
+                .maxConcurrency(MAX_CONCURRENT_DIMENSIONS)
+                .pipelined()
                 .addStep(
                         StepBuilder.start("dimensionDescriptions", defaults)
-                                .system(systemMessage)
-                                .user(info + "\n\nCreate a description for the dimension '${dimension}.' It should be 1-2 sentences long.")
+                                .system(SYSTEM_MESSAGE)
+                                .user("${info}\n\nCreate a description for the dimension '${dimension}.' It should be 1-2 sentences long.")
                                 .parse(Parsers.string())
                                 .label(DETAIL)
 //                                .maxTokens(800)
@@ -100,12 +105,14 @@ public class SkillRubricService {
                 // Step 4: for each dimension get degree criteria
                 .forEach(DIMENSIONS)
                 .alias("dimension")
+                .maxConcurrency(MAX_CONCURRENT_DIMENSIONS)
+                .pipelined()
                 .addStep(
                         StepBuilder.start("degreeDescriptions", defaults)
-                                .system(systemMessage)
-                                .user(info + "\n\nDimension: ${dimension}\nDegree labels: ${degreeLabels}\nFor each degree, describe what a student must demonstrate at that degree for this dimension. The description should be 2-3 sentences, which are concise and easy to evaluate. Return one paragraph per degree, separated by a blank line, and follow the order of the degree labels.")
-                                .parse(Parsers.string())
-                                .label(DETAIL)
+                                .system(SYSTEM_MESSAGE)
+                                .user("${info}\n\nDimension: ${dimension}\nDegree labels: ${degreeLabels}\nFor each degree, describe what a student must demonstrate at that degree for this dimension. The description should be 2-3 sentences, which are concise and easy to evaluate. Return one description per degree, in the order of the degree labels.")
+                                .label(CRITERIA)
+                                .structured()
 //                                .maxTokens(800)
                                 .build()
                 )
@@ -115,45 +122,127 @@ public class SkillRubricService {
                 // Step 5: for each dimension get exercises
                 .forEach(DIMENSIONS)
                 .alias("dimension")
+                .maxConcurrency(MAX_CONCURRENT_DIMENSIONS)
+                .pipelined()
                 .addStep(
                         StepBuilder.start("degreeExercises", defaults)
-                                .system(systemMessage)
-                                .user(info + "\n\nDimension: ${dimension}\nDegree labels: ${degreeLabels}\nFor each degree, list three exercises a student can do to progress to the next degree. Provide one exercise per line and separate each group of exercises by a blank line. Follow the order of the degree labels.")
-                                .parse(Parsers.string())
-                                .label(DETAIL)
+                                .system(SYSTEM_MESSAGE)
+                                .user("${info}\n\nDimension: ${dimension}\nDegree labels: ${degreeLabels}\nFor each degree, list three exercises a student can do to progress to the next degree. Return one list of exercises per degree, in the order of the degree labels.")
+                                .label(EXERCISES)
+                                .structured()
 //                                .maxTokens(800)
                                 .build()
                 )
                 .joinInto(DEGREE_EXERCISES)
                 .endForEach()
 
-                .build()
-                .run(openAiClient);
+                .build();
+    }
+
+    /**
+     * Generates skill dimensions, descriptions and degrees by
+     * chaining OpenAI calls. The description of a dimension is fed
+     * into the follow-up request for the degrees so that each branch
+     * can proceed independently. All three loops over the dimensions are
+     * pipelined, so a dimension's prompts go out as soon as its line of the
+     * dimensions reply has arrived.
+     */
+    public SkillRubricResponse generateRubric(GenerateSkillRubricRequest request) throws Exception {
+        return generateRubric(request, (event, data) -> {});
+    }
+
+    /**
+     * Like {@link #generateRubric(GenerateSkillRubricRequest)}, but also
+     * reports partial results as they are parsed: {@code degreeLabels} and
+     * {@code dimensions} events for the first two steps, and per dimension
+     * (in the order they finish) a {@code dimension} event with its
+     * description, a {@code degrees} event with the criteria per degree and
+     * an {@code exercises} event with the exercises per degree. Each failed
+     * step sends an {@code error} event.
+     */
+    public SkillRubricResponse generateRubric(
+            GenerateSkillRubricRequest request,
+            BiConsumer<String, Object> events) throws Exception {
+        ChainResult.Observer observer = new ChainResult.Observer() {
+            private List<String> degreeLabels = List.of();
+            // filled item by item while the dimensions stream in
+            private final Map<Integer, String> dimensions = new HashMap<>();
+
+            @Override
+            public void onItem(Label<?> label, int index, Object item) {
+                if (label.equals(DIMENSIONS)) {
+                    dimensions.put(index, (String) item);
+                }
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onLabel(Label<?> label, Object value) {
+                if (label.equals(DEGREE_LABELS)) {
+                    degreeLabels = (List<String>) value;
+                    events.accept("degreeLabels", Map.of("degreeLabels", degreeLabels));
+                } else if (label.equals(DIMENSIONS)) {
+                    events.accept("dimensions", Map.of("dimensions", value));
+                }
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onBranchLabel(Label<?> joinLabel, int branch, Label<?> label, Object value) {
+                String dimension = dimensions.get(branch);
+                if (dimension == null) {
+                    return;
+                }
+                if (joinLabel.equals(DIMENSION_DESCRIPTIONS)) {
+                    events.accept("dimension", Map.of(
+                            "index", branch, "name", dimension, "description", value));
+                } else if (joinLabel.equals(DEGREE_DESCRIPTIONS)) {
+                    List<String> criteria = (List<String>) value;
+                    List<Map<String, Object>> degrees = new ArrayList<>();
+                    for (int j = 0; j < degreeLabels.size(); j++) {
+                        degrees.add(Map.of(
+                                "degree", degreeLabels.get(j),
+                                "criteria", j < criteria.size() ? criteria.get(j) : ""));
+                    }
+                    events.accept("degrees", Map.of(
+                            "index", branch, "dimension", dimension, "degrees", degrees));
+                } else if (joinLabel.equals(DEGREE_EXERCISES)) {
+                    List<List<String>> groups = (List<List<String>>) value;
+                    List<Map<String, Object>> degrees = new ArrayList<>();
+                    for (int j = 0; j < degreeLabels.size(); j++) {
+                        degrees.add(Map.of(
+                                "degree", degreeLabels.get(j),
+                                "exercises", j < groups.size() ? groups.get(j) : List.of()));
+                    }
+                    events.accept("exercises", Map.of(
+                            "index", branch, "dimension", dimension, "degrees", degrees));
+                }
+            }
+
+            @Override
+            public void onError(Label<?> label, ErrorInfo error) {
+                events.accept("error", SseStream.errorEvent(label, error));
+            }
+        };
+
+        ChainResult result = chain.run(openAiClient, Map.of(INFO, buildInfo(request)), observer);
+        log.info("Skill rubric critical path: {}", result.timeline().describeCriticalPath());
 
         List<String> dims = result.get(DIMENSIONS);
         List<String> dimensionDescriptions = result.get(DIMENSION_DESCRIPTIONS);
         List<String> degreeLabels = result.get(DEGREE_LABELS);
-        List<String> degreeDescStrings = result.get(DEGREE_DESCRIPTIONS);
-        List<String> degreeExerciseStrings = result.get(DEGREE_EXERCISES);
+        List<List<String>> degreeCriteria = result.get(DEGREE_DESCRIPTIONS);
+        List<List<List<String>>> degreeExercises = result.get(DEGREE_EXERCISES);
 
         ObjectMapper mapper = new ObjectMapper();
         List<JsonNode> detailNodes = new ArrayList<>();
         for (int i = 0; i < dims.size(); i++) {
             String dimensionDescription = i < dimensionDescriptions.size() ? dimensionDescriptions.get(i) : "";
 
-            String descBlock = i < degreeDescStrings.size() ? degreeDescStrings.get(i) : "";
-            List<String> criteriaList = Arrays.stream(descBlock.split("\n\n"))
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty())
-                    .collect(Collectors.toList());
-
-            String exBlock = i < degreeExerciseStrings.size() ? degreeExerciseStrings.get(i) : "";
-            List<List<String>> exerciseGroups = Arrays.stream(exBlock.split("\n\n"))
-                    .map(group -> Arrays.stream(group.split("\n"))
-                            .map(String::trim)
-                            .filter(s -> !s.isEmpty())
-                            .collect(Collectors.toList()))
-                    .collect(Collectors.toList());
+            List<String> criteriaList = i < degreeCriteria.size()
+                    ? Objects.requireNonNullElse(degreeCriteria.get(i), List.of()) : List.of();
+            List<List<String>> exerciseGroups = i < degreeExercises.size()
+                    ? Objects.requireNonNullElse(degreeExercises.get(i), List.of()) : List.of();
 
             ArrayNode degreesArr = mapper.createArrayNode();
             for (int j = 0; j < degreeLabels.size(); j++) {
@@ -0,0 +1,37 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the threads that run chains behind the Server-Sent Events
+ * endpoints, so the request thread returns as soon as the stream is open.
+ * Waiting requests go into a bounded queue; when it is full the executor
+ * throws {@link RejectedExecutionException} and the endpoint answers 503,
+ * instead of opening a stream that would time out before it started.
+ */
+@Configuration
+public class SseConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService sseExecutor(
+            @Value("${sse.workers:8}") int workers,
+            @Value("${sse.queue-capacity:16}") int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "sse-worker-" + threadCount.incrementAndGet()));
+    }
+}
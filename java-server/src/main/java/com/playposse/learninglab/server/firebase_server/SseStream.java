@@ -0,0 +1,70 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import com.playposse.learninglab.server.firebase_server.openaidsl.ErrorInfo;
+import com.playposse.learninglab.server.firebase_server.openaidsl.Label;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends named JSON events to one Server-Sent Events client. Once the client
+ * disconnects, further events are dropped quietly so the generation that
+ * feeds the stream can still finish (and warm the response cache).
+ */
+final class SseStream implements BiConsumer<String, Object> {
+    private static final Logger log = LoggerFactory.getLogger(SseStream.class);
+
+    private final SseEmitter emitter;
+    private volatile boolean open = true;
+
+    SseStream(long timeoutMillis) {
+        this.emitter = new SseEmitter(timeoutMillis);
+        emitter.onCompletion(() -> open = false);
+        emitter.onTimeout(() -> open = false);
+        emitter.onError(e -> open = false);
+    }
+
+    SseEmitter emitter() {
+        return emitter;
+    }
+
+    /** Sends one event; a no-op once the client is gone. */
+    @Override
+    public synchronized void accept(String event, Object data) {
+        if (!open) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            log.info("SSE client went away before '{}' event: {}", event, e.toString());
+            open = false;
+        }
+    }
+
+    /** Sends the final {@code result} event and closes the stream. */
+    synchronized void complete(Object result) {
+        accept("result", result);
+        emitter.complete();
+    }
+
+    /** Sends an {@code error} event for a failure of the whole request and closes the stream. */
+    synchronized void fail(Exception e) {
+        accept("error", Map.of("message", String.valueOf(e.getMessage())));
+        emitter.complete();
+    }
+
+    /** Event payload for a step that failed to bind {@code label}. */
+    static Map<String, Object> errorEvent(Label<?> label, ErrorInfo error) {
+        String message = error.cause() != null ? error.cause().getMessage() : null;
+        return Map.of(
+                "label", label.name(),
+                "step", String.valueOf(error.stepName()),
+                "message", String.valueOf(message));
+    }
+}
@@ -1,13 +1,19 @@
 package com.playposse.learninglab.server.firebase_server;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.playposse.learninglab.server.firebase_server.openaidsl.SingleFlight;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * REST endpoint for generating teachable items using OpenAI.
@@ -16,10 +22,26 @@ import java.util.Map;
 @RequestMapping("/api")
 public class TeachableItemController {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private final TeachableItemService teachableItemService;
 
-    public TeachableItemController(TeachableItemService teachableItemService) {
+    /** Identical requests from the same user share one generation. */
+    private final SingleFlight<String, Map<?, ?>> inFlight = new SingleFlight<>();
+
+    private final ExecutorService sseExecutor;
+    private final long sseTimeoutMillis;
+    private final IdTokenVerifier idTokenVerifier;
+
+    public TeachableItemController(
+            TeachableItemService teachableItemService,
+            @Qualifier("sseExecutor") ExecutorService sseExecutor,
+            @Value("${sse.timeout:PT5M}") Duration sseTimeout,
+            IdTokenVerifier idTokenVerifier) {
+        this.idTokenVerifier = idTokenVerifier;
         this.teachableItemService = teachableItemService;
+        this.sseExecutor = sseExecutor;
+        this.sseTimeoutMillis = sseTimeout.toMillis();
     }
 
     @PostMapping("/generate-teachable-items")
@@ -33,14 +55,56 @@ public class TeachableItemController {
             }
 
             String idToken = authorization.substring(7);
-            FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(idToken);
-            request.uid = decodedToken.getUid();
+            String uid = idTokenVerifier.verifyUid(idToken);
+            request.uid = uid;
 
-            Map<?, ?> result = teachableItemService.generateItems(request);
+            // the request includes the uid, so only the same user's duplicates coalesce
+            String key = MAPPER.writeValueAsString(request);
+            Map<?, ?> result = inFlight.call(key, () -> teachableItemService.generateItems(request));
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", e.getMessage()));
         }
     }
+
+    /**
+     * Server-Sent Events variant: streams each part of the result as soon
+     * as it is parsed and ends with a {@code result} event carrying the
+     * same body as the plain endpoint.
+     */
+    @PostMapping("/generate-teachable-items/stream")
+    public ResponseEntity<?> streamTeachableItems(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authorization,
+            @RequestBody GenerateTeachableItemsRequest request) {
+        try {
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(Map.of("error", "Missing or invalid Authorization header"));
+            }
+
+            String idToken = authorization.substring(7);
+            String uid = idTokenVerifier.verifyUid(idToken);
+            request.uid = uid;
+
+            SseStream stream = new SseStream(sseTimeoutMillis);
+            sseExecutor.execute(() -> {
+                try {
+                    stream.complete(teachableItemService.generateItems(request, stream));
+                } catch (Exception e) {
+                    stream.fail(e);
+                }
+            });
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_EVENT_STREAM)
+                    .body(stream.emitter());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(Map.of("error", "Too many teachable item lists are being generated; try again shortly"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
 }
@@ -7,8 +7,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * Service that calls OpenAI to generate a starter list of teachable items
@@ -18,54 +20,48 @@ import java.util.Map;
 @Service
 public class TeachableItemService {
 
+    /** Cap on concurrent OpenAI calls while listing items per category. */
+    private static final int MAX_CONCURRENT_CATEGORIES = 6;
+
+    // input: the course details, one "Field: value" per line
+    private static final Label<String> INFO = Label.of("info", String.class);
+
+    // labels
+    private static final Label<List<String>> CATEGORIES = Label.of("categories", new TypeReference<List<String>>() {});
+    private static final Label<List<String>> ITEM_LIST = Label.of("itemList", new TypeReference<List<String>>() {});
+    private static final Label<List<List<String>>> ITEMS = Label.of("items", new TypeReference<List<List<String>>>() {});
+
+    private static final String SYSTEM_MESSAGE =
+            "You are an expert course designer. A 'teachable item' is the smallest " +
+            "atomic unit that can be taught. " +
+            "Example categories for acroyoga are poses, washing machines, warm-ups, " +
+            "technique drills, technique principles, and spotting. " +
+            "Example categories for chess are piece movement, openings, tactics, " +
+            "endgames, and strategy. " +
+            "Individual items should be very short, 2-5 words each.";
+
     private final OpenAiClient openAiClient;
-    private final ChatConfig defaults;
 
-    @Autowired
-    public TeachableItemService(SecretFetcher secretFetcher) {
-        String apiKey;
-        try {
-            apiKey = secretFetcher.getOpenAiApiKey();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to fetch OpenAI API key", e);
-        }
+    /** Built once; each request only binds {@link #INFO}. */
+    private final Chain chain;
 
-        this.openAiClient = new OpenAiClientImpl(apiKey);;
-        this.defaults = new DefaultsBuilder()
+    @Autowired
+    public TeachableItemService(OpenAiClient openAiClient, ChainMetrics chainMetrics) {
+        this.openAiClient = openAiClient;
+        ChatConfig defaults = new DefaultsBuilder()
                 .temperature(1) // Deprecated by OpenAI.
                 .maxTokens(3000)
                 .build();
-    }
-
-    /**
-     * Generates teachable items grouped by category. The OpenAI interaction is
-     * split into two stages: First it brainstorms suitable categories, then it
-     * fans out a prompt for each category to list the concrete teachable items.
-     */
-    public Map<?, ?> generateItems(GenerateTeachableItemsRequest request) throws Exception {
-        String info = buildInfo(request);
-
-        // labels
-        Label<List<String>> CATEGORIES = Label.of("categories", new TypeReference<List<String>>() {});
-        Label<List<String>> ITEM_LIST = Label.of("itemList", new TypeReference<List<String>>() {});
-        Label<List<List<String>>> ITEMS = Label.of("items", new TypeReference<List<List<String>>>() {});
-
-        String systemMessage =
-                "You are an expert course designer. A 'teachable item' is the smallest " +
-                "atomic unit that can be taught. " +
-                "Example categories for acroyoga are poses, washing machines, warm-ups, " +
-                "technique drills, technique principles, and spotting. " +
-                "Example categories for chess are piece movement, openings, tactics, " +
-                "endgames, and strategy. " +
-                "Individual items should be very short, 2-5 words each.";
-
-        ChainResult result = ChainBuilder
+        this.chain = ChainBuilder
                 .start(defaults)
+                .name("teachableItems")
+                .metrics(chainMetrics)
+                .input(INFO)
 
                 // Step 1: brainstorm categories
                 .step("categories")
-                .system(systemMessage)
-                .user(info + "\n\nList the key categories of teachable items. Return one category per line.")
+                .system(SYSTEM_MESSAGE)
+                .user("${info}\n\nList the key categories of teachable items. Return one category per line.")
                 .parse(Parsers.stringList())
                 .label(CATEGORIES)
                 .endStep()
@@ -73,10 +69,12 @@ public class TeachableItemService {
                 // Step 2: items for each category
                 .forEach(CATEGORIES)
                     .alias("category")
+                    .maxConcurrency(MAX_CONCURRENT_CATEGORIES)
+                    .pipelined() // start on each category as soon as its line streams in
                     .addStep(
                             StepBuilder.start("items", defaults)
-                                    .system(systemMessage)
-                                    .user(info + "\n\nCategory: ${category}\nList teachable items for this category, one per line.")
+                                    .system(SYSTEM_MESSAGE)
+                                    .user("${info}\n\nCategory: ${category}\nList teachable items for this category, one per line.")
                                     .parse(Parsers.stringList())
                                     .label(ITEM_LIST)
                                     .build()
@@ -84,8 +82,65 @@ public class TeachableItemService {
                     .joinInto(ITEMS)
                 .endForEach()
 
-                .build()
-                .run(openAiClient);
+                .build();
+    }
+
+    /**
+     * Generates teachable items grouped by category. The OpenAI interaction is
+     * split into two stages: First it brainstorms suitable categories, then it
+     * fans out a prompt for each category to list the concrete teachable items.
+     * The fan-out is pipelined: each category's prompt goes out as soon as
+     * its line of the first reply has arrived.
+     */
+    public Map<?, ?> generateItems(GenerateTeachableItemsRequest request) throws Exception {
+        return generateItems(request, (event, data) -> {});
+    }
+
+    /**
+     * Like {@link #generateItems(GenerateTeachableItemsRequest)}, but also
+     * reports partial results as they are parsed: one {@code category} event
+     * per category ({@code index}, {@code category}, {@code items}) in the
+     * order they finish, a {@code categories} event with the whole list once
+     * it has streamed in, and an {@code error} event for each failed step.
+     */
+    public Map<?, ?> generateItems(
+            GenerateTeachableItemsRequest request,
+            BiConsumer<String, Object> events) throws Exception {
+        ChainResult.Observer observer = new ChainResult.Observer() {
+            // filled item by item while the categories stream in
+            private final Map<Integer, String> categories = new HashMap<>();
+
+            @Override
+            public void onItem(Label<?> label, int index, Object item) {
+                if (label.equals(CATEGORIES)) {
+                    categories.put(index, (String) item);
+                }
+            }
+
+            @Override
+            public void onLabel(Label<?> label, Object value) {
+                if (label.equals(CATEGORIES)) {
+                    events.accept("categories", Map.of("categories", value));
+                }
+            }
+
+            @Override
+            public void onBranchLabel(Label<?> joinLabel, int branch, Label<?> label, Object value) {
+                if (joinLabel.equals(ITEMS) && categories.containsKey(branch)) {
+                    events.accept("category", Map.of(
+                            "index", branch,
+                            "category", categories.get(branch),
+                            "items", value));
+                }
+            }
+
+            @Override
+            public void onError(Label<?> label, ErrorInfo error) {
+                events.accept("error", SseStream.errorEvent(label, error));
+            }
+        };
+
+        ChainResult result = chain.run(openAiClient, Map.of(INFO, buildInfo(request)), observer);
 
         // Combine the categories and items into the desired structure
         List<String> cats = result.get(CATEGORIES);
@@ -0,0 +1,64 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counting semaphore. Callers that can't get a permit are
+ * queued in FIFO order and resumed when a permit is released, so waiting
+ * for capacity never parks a thread.
+ */
+final class AsyncSemaphore {
+
+    private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    AsyncSemaphore(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be >= 1, got " + permits);
+        }
+        this.available = permits;
+    }
+
+    /** Completes once a permit has been granted to the caller. */
+    CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    /** Returns a permit, handing it straight to the oldest waiter if there is one. */
+    void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+        }
+        // complete outside the lock: the waiter's continuation runs inline
+        next.complete(null);
+    }
+
+    /** Runs task once a permit is available and releases it when the task's future completes. */
+    <T> CompletableFuture<T> withPermit(Supplier<CompletableFuture<T>> task) {
+        return acquire().thenCompose(__ -> {
+            CompletableFuture<T> running;
+            try {
+                running = task.get();
+            } catch (RuntimeException e) {
+                running = CompletableFuture.failedFuture(e);
+            }
+            return running.whenComplete((r, e) -> release());
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+/**
+ * Observer installed in the context of one forEach/parallel branch: labels
+ * bound inside the branch are reported to the parent as branch labels of
+ * {@code joinLabel}. Nested loops report their innermost branch.
+ */
+final class BranchObserver implements ChainResult.Observer {
+
+    private final ChainResult.Observer parent;
+    private final Label<?> joinLabel;
+    private final int branch;
+
+    BranchObserver(ChainResult.Observer parent, Label<?> joinLabel, int branch) {
+        this.parent = parent;
+        this.joinLabel = joinLabel;
+        this.branch = branch;
+    }
+
+    @Override
+    public void onLabel(Label<?> label, Object value) {
+        parent.onBranchLabel(joinLabel, branch, label, value);
+    }
+
+    @Override
+    public void onError(Label<?> label, ErrorInfo error) {
+        parent.onBranchError(joinLabel, branch, label, error);
+    }
+
+    @Override
+    public void onBranchLabel(Label<?> joinLabel, int branch, Label<?> label, Object value) {
+        parent.onBranchLabel(joinLabel, branch, label, value);
+    }
+
+    @Override
+    public void onBranchError(Label<?> joinLabel, int branch, Label<?> label, ErrorInfo error) {
+        parent.onBranchError(joinLabel, branch, label, error);
+    }
+
+    @Override
+    public void onItem(Label<?> label, int index, Object item) {
+        parent.onItem(label, index, item);
+    }
+}
@@ -0,0 +1,93 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Decorator that answers repeated requests from a {@link ResponseCache}.
+ * Requests are keyed by {@link PromptHash}; steps opt out with
+ * {@code StepBuilder.cache(false)}. Only successful responses are stored,
+ * and hits come back with {@link ChatCompletionResult#cached()} set so the
+ * CallLog shows they cost no tokens. A reply the step couldn't parse is
+ * {@linkplain #discard discarded}, so a rerun asks OpenAI again.
+ */
+public final class CachingOpenAiClient implements OpenAiClient {
+
+    private final OpenAiClient delegate;
+    private final ResponseCache cache;
+
+    public CachingOpenAiClient(OpenAiClient delegate, ResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) throws Exception {
+        if (!config.cacheable()) {
+            return delegate.chatCompletion(messages, config);
+        }
+        String key = PromptHash.of(messages, config);
+        Optional<ChatCompletionResult> hit = cache.get(key);
+        if (hit.isPresent()) {
+            return asHit(hit.get());
+        }
+        ChatCompletionResult res = delegate.chatCompletion(messages, config);
+        cache.put(key, res);
+        return res;
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionAsync(List<ChatMsg> messages, ChatConfig config) {
+        if (!config.cacheable()) {
+            return delegate.chatCompletionAsync(messages, config);
+        }
+        String key = PromptHash.of(messages, config);
+        Optional<ChatCompletionResult> hit = cache.get(key);
+        if (hit.isPresent()) {
+            return CompletableFuture.completedFuture(asHit(hit.get()));
+        }
+        return delegate.chatCompletionAsync(messages, config).thenApply(res -> {
+            cache.put(key, res);
+            return res;
+        });
+    }
+
+    /** A hit is delivered as one delta; a miss streams from the delegate and is stored. */
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        if (!config.cacheable()) {
+            return delegate.chatCompletionStreaming(messages, config, onDelta);
+        }
+        String key = PromptHash.of(messages, config);
+        Optional<ChatCompletionResult> hit = cache.get(key);
+        if (hit.isPresent()) {
+            ChatCompletionResult res = asHit(hit.get());
+            if (!res.content().isEmpty()) {
+                onDelta.accept(res.content());
+            }
+            return CompletableFuture.completedFuture(res);
+        }
+        return delegate.chatCompletionStreaming(messages, config, onDelta).thenApply(res -> {
+            cache.put(key, res);
+            return res;
+        });
+    }
+
+    @Override
+    public void discard(List<ChatMsg> messages, ChatConfig config) {
+        if (config.cacheable()) {
+            cache.remove(PromptHash.of(messages, config));
+        }
+        delegate.discard(messages, config);
+    }
+
+    private static ChatCompletionResult asHit(ChatCompletionResult stored) {
+        return new ChatCompletionResult(stored.content(), stored.usage(), 0, true);
+    }
+}
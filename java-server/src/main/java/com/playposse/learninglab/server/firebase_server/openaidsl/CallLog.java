@@ -12,6 +12,10 @@ import com.fasterxml.jackson.databind.JsonNode;
  * @param completion the raw assistant reply (null if error)
  * @param usage      token usage metrics as JSON (null if unavailable)
  * @param error      ErrorInfo if the call failed (null if success)
+ * @param attempt    1 for the first call, 2 for the first retry, …
+ * @param willRetry  true if this attempt failed and another one was scheduled
+ * @param cacheHit   true if the completion came from a response cache
+ * @param timings    where the time went, phase by phase
  */
 public record CallLog(
         Label<?> label,
@@ -20,6 +24,39 @@ public record CallLog(
         String completion,
         JsonNode usage,
         ErrorInfo error,
-        long durationMillis
-) {}
+        long durationMillis,
+        int attempt,
+        boolean willRetry,
+        boolean cacheHit,
+        CallTimings timings
+) {
+    public CallLog(
+            Label<?> label,
+            List<ChatMsg> prompt,
+            ChatConfig config,
+            String completion,
+            JsonNode usage,
+            ErrorInfo error,
+            long durationMillis,
+            int attempt,
+            boolean willRetry,
+            boolean cacheHit
+    ) {
+        this(label, prompt, config, completion, usage, error, durationMillis, attempt, willRetry, cacheHit,
+                CallTimings.NONE);
+    }
+
+    /** A single, final attempt. */
+    public CallLog(
+            Label<?> label,
+            List<ChatMsg> prompt,
+            ChatConfig config,
+            String completion,
+            JsonNode usage,
+            ErrorInfo error,
+            long durationMillis
+    ) {
+        this(label, prompt, config, completion, usage, error, durationMillis, 1, false, false, CallTimings.NONE);
+    }
+}
 
@@ -0,0 +1,177 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * OpenAI calls recorded by {@link RecordingOpenAiClient}, to be served back
+ * by {@link ReplayingOpenAiClient}. Calls are keyed by {@link PromptHash},
+ * and calls with the same key are kept in the order they were made.
+ * <p>
+ * The file is a gzip stream: a magic number, then one record per call,
+ * {@code [key][model][content][usage JSON][duration][time to first token]
+ * [delta count]([offset][text])*}, strings length-prefixed as in
+ * {@link DiskResponseStore}. Each record is flushed as it is written, so a
+ * run that dies keeps every call up to the last one; a torn last record is
+ * skipped on load.
+ */
+public final class CallRecording {
+
+    private static final int MAGIC = 0x4C4C5231;  // "LLR1"
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** One piece of a streamed reply, {@code atMillis} after the call started. */
+    public record Delta(long atMillis, String text) {}
+
+    /**
+     * One recorded call.
+     *
+     * @param deltas the reply as it was streamed; empty if it wasn't
+     */
+    public record Call(
+            String key,
+            String model,
+            String content,
+            JsonNode usage,
+            long durationMillis,
+            long timeToFirstTokenMillis,
+            List<Delta> deltas
+    ) {}
+
+    private final Map<String, List<Call>> calls;
+    private final int size;
+
+    private CallRecording(Map<String, List<Call>> calls, int size) {
+        this.calls = calls;
+        this.size = size;
+    }
+
+    /** Reads a recording written by {@link RecordingOpenAiClient}. */
+    public static CallRecording load(Path file) throws IOException {
+        Map<String, List<Call>> calls = new HashMap<>();
+        int size = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a call recording");
+            }
+            Call call;
+            while ((call = read(in)) != null) {
+                calls.computeIfAbsent(call.key(), k -> new ArrayList<>()).add(call);
+                size++;
+            }
+        }
+        return new CallRecording(calls, size);
+    }
+
+    /** Number of calls recorded. */
+    public int size() {
+        return size;
+    }
+
+    /** The calls made with this key, in the order they were made; empty if none. */
+    public List<Call> calls(String key) {
+        return calls.getOrDefault(key, List.of());
+    }
+
+    /** Appends calls to a new recording file. */
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        Writer(Path file) throws IOException {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(file), true)));
+            out.writeInt(MAGIC);
+            out.flush();
+        }
+
+        synchronized void write(Call call) {
+            try {
+                writeString(out, call.key());
+                writeString(out, call.model());
+                writeString(out, call.content());
+                writeString(out, call.usage() != null ? call.usage().toString() : null);
+                out.writeLong(call.durationMillis());
+                out.writeLong(call.timeToFirstTokenMillis());
+                out.writeInt(call.deltas().size());
+                for (Delta delta : call.deltas()) {
+                    out.writeLong(delta.atMillis());
+                    writeString(out, delta.text());
+                }
+                out.flush();  // sync-flushes the gzip stream
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /*—————— internal ——————*/
+
+    /** Reads the next call, or returns null at the end or at a torn record. */
+    private static Call read(DataInputStream in) throws IOException {
+        try {
+            String key = readString(in);
+            String model = readString(in);
+            String content = readString(in);
+            String usage = readString(in);
+            long duration = in.readLong();
+            long ttft = in.readLong();
+            int count = in.readInt();
+            List<Delta> deltas = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                deltas.add(new Delta(in.readLong(), readString(in)));
+            }
+            return new Call(key, model, content, usage != null ? MAPPER.readTree(usage) : null,
+                    duration, ttft, List.copyOf(deltas));
+        } catch (EOFException | ZipException torn) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
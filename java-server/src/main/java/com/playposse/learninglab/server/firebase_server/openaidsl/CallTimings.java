@@ -0,0 +1,33 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+/**
+ * Where the time of one call attempt went, in milliseconds.
+ *
+ * @param scheduleWaitMillis     from the step (or forEach item) becoming ready until it
+ *                               started: waiting for a concurrency permit, or the backoff
+ *                               before a retry
+ * @param templateMillis         rendering the message templates
+ * @param rateLimitWaitMillis    queued in the client-side rate limiter
+ * @param networkMillis          the HTTP call itself, as measured by the client
+ * @param timeToFirstTokenMillis until the first content arrived; the whole call if it
+ *                               wasn't streamed
+ * @param parseMillis            parsing the reply
+ * @param totalMillis            from ready to parsed
+ */
+public record CallTimings(
+        long scheduleWaitMillis,
+        long templateMillis,
+        long rateLimitWaitMillis,
+        long networkMillis,
+        long timeToFirstTokenMillis,
+        long parseMillis,
+        long totalMillis
+) {
+    /** No timings known, e.g. for call logs restored from an older checkpoint. */
+    public static final CallTimings NONE = new CallTimings(0, 0, 0, 0, 0, 0, 0);
+
+    /** Time spent on our side: queues, templates and parsing, but not OpenAI. */
+    public long overheadMillis() {
+        return scheduleWaitMillis + templateMillis + rateLimitWaitMillis + parseMillis;
+    }
+}
@@ -1,55 +1,631 @@
 package com.playposse.learninglab.server.firebase_server.openaidsl;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
- * Executes a list of Steps in serial order, passing a shared context
- * and collecting values into a ChainResult.
+ * Executes a list of Steps, passing a shared context and collecting values
+ * into a ChainResult.
+ * <p>
+ * Steps are scheduled by a {@link StepGraph}: each step starts as soon as
+ * the steps it depends on have finished, so independent steps run
+ * concurrently. The result is the same as running the steps serially:
+ * each step sees the outputs of its dependencies applied in declaration
+ * order, and the final context and call logs are assembled in declaration
+ * order too.
+ * <p>
+ * With a {@link CheckpointStore}, {@link #run(String, OpenAiClient)} saves
+ * each step's outcome as soon as it completes without errors, and
+ * {@link #resume} replays the saved steps instead of calling OpenAI again,
+ * running only the ones that are missing.
+ * <p>
+ * A pipelined forEach starts as soon as the step that binds its source
+ * list has started: that step streams its reply and each parsed item is
+ * handed to the loop right away (see {@link ForEachStep}).
+ * <p>
+ * Runs, steps, branches and OpenAI calls are timed and counted in the
+ * chain's {@link ChainMetrics}, and emitted as JFR events (see
+ * {@link ChainEvents}).
+ * <p>
+ * A chain is immutable and can be built once and run many times, also
+ * concurrently. Per-request data goes in as declared inputs (see
+ * {@link ChainBuilder#input}) rather than being concatenated into the
+ * prompts: {@link #run(OpenAiClient, Map)} binds them before the first
+ * step, and every ${placeholder} of a chain with inputs is checked up
+ * front to be an input or a label bound by an earlier step.
  */
 public final class Chain {
+    private static final Logger log = LoggerFactory.getLogger(Chain.class);
 
     private final List<Step> steps;
     private final ChatConfig defaults;
+    private final StepGraph graph;
+    private final CheckpointStore checkpoints;
+    private final ChainMetrics metrics;
+    private final Set<Label<?>> inputs;
+    /** For each pipelined forEach, the index of the step that streams its items; -1 otherwise. */
+    private final int[] pipelineSources;
 
     /**
      * @param steps    Ordered list of steps to execute.
      * @param defaults Initial chat config applied to every step.
      */
     public Chain(List<Step> steps, ChatConfig defaults) {
+        this(steps, defaults, null);
+    }
+
+    /**
+     * @param checkpoints where {@link #run(String, OpenAiClient)} saves
+     *                    completed steps; null to disable checkpointing
+     */
+    public Chain(List<Step> steps, ChatConfig defaults, CheckpointStore checkpoints) {
+        this(steps, defaults, checkpoints, ChainMetrics.NONE);
+    }
+
+    /** @param metrics where runs, steps and calls are timed and counted */
+    public Chain(List<Step> steps, ChatConfig defaults, CheckpointStore checkpoints, ChainMetrics metrics) {
+        this(steps, defaults, checkpoints, metrics, Set.of());
+    }
+
+    /**
+     * @param inputs labels every run must bind; if there are any, each
+     *               step's placeholders must be inputs or labels bound by
+     *               earlier steps
+     */
+    public Chain(List<Step> steps, ChatConfig defaults, CheckpointStore checkpoints, ChainMetrics metrics,
+                 Set<Label<?>> inputs) {
         this.steps = List.copyOf(steps);
         this.defaults = defaults;
+        this.graph = new StepGraph(this.steps);
+        this.checkpoints = checkpoints;
+        this.metrics = metrics;
+        this.inputs = Collections.unmodifiableSet(new LinkedHashSet<>(inputs));
+        this.pipelineSources = pipelineSources(this.steps);
+        if (!this.inputs.isEmpty()) {
+            checkPlaceholders(this.steps, this.inputs);
+        }
+    }
+
+    /** The labels each run must bind, in declaration order. */
+    public Set<Label<?>> inputs() {
+        return inputs;
+    }
+
+    /** Fails if a step reads a label that is neither an input nor bound before it. */
+    private static void checkPlaceholders(List<Step> steps, Set<Label<?>> inputs) {
+        Set<String> bound = new HashSet<>();
+        for (Label<?> input : inputs) {
+            if (!bound.add(input.name())) {
+                throw new IllegalStateException("Two inputs are named '" + input.name() + "'");
+            }
+        }
+        for (Step step : steps) {
+            StepDependencies deps = step.dependencies();
+            if (deps.barrier()) {
+                continue;  // can't tell what it reads
+            }
+            for (String name : deps.reads()) {
+                if (!bound.contains(name)) {
+                    throw new IllegalStateException("Step '" + step.name() + "' reads ${" + name
+                            + "}, which is neither an input nor bound by an earlier step");
+                }
+            }
+            for (String name : deps.writes()) {
+                if (inputs.stream().anyMatch(input -> input.name().equals(name))) {
+                    throw new IllegalStateException("Step '" + step.name() + "' overwrites input '" + name + "'");
+                }
+            }
+            bound.addAll(deps.writes());
+        }
+    }
+
+    /** Finds the source step of every pipelined loop, failing fast if it can't stream. */
+    private static int[] pipelineSources(List<Step> steps) {
+        int[] sources = new int[steps.size()];
+        Arrays.fill(sources, -1);
+        for (int j = 0; j < steps.size(); j++) {
+            if (!(steps.get(j) instanceof ForEachStep<?, ?> loop) || !loop.pipelined()) {
+                continue;
+            }
+            int source = -1;
+            for (int i = j - 1; i >= 0 && source < 0; i--) {
+                if (steps.get(i).outputs().contains(loop.sourceLabel())) {
+                    source = i;
+                }
+            }
+            if (source < 0
+                    || !(steps.get(source) instanceof SimpleStep producer)
+                    || !producer.streamsItems()) {
+                throw new IllegalStateException("Pipelined " + loop.name()
+                        + " needs an earlier step that parses its source with an ItemParser");
+            }
+            if (!loop.canPipeline()) {
+                throw new IllegalStateException("Pipelined " + loop.name()
+                        + " can't read the history or the whole source list");
+            }
+            sources[j] = source;
+        }
+        return sources;
     }
 
     /**
-     * Runs all steps in sequence and returns the result. Blocks until complete.
+     * Runs all steps and returns the result. Blocks until complete.
      *
      * @param client OpenAI client implementation.
-     * @return Immutable ChainResult with final values (errors empty for now).
+     * @return Immutable ChainResult with final values and call logs.
      */
     public ChainResult run(OpenAiClient client) {
-        // Use virtual threads so each step’s blocking call doesn’t starve
-        ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+        return run(client, ChainListener.NONE);
+    }
+
+    /** Runs all steps, reporting progress to {@code listener}. */
+    public ChainResult run(OpenAiClient client, ChainListener listener) {
+        requireNoInputs();
+        return execute(client, null, Map.of(), Map.of(), listener, ChainResult.Observer.NONE);
+    }
+
+    /**
+     * Runs all steps with the chain's inputs bound to {@code inputs}, which
+     * must hold a value of the right type for every declared input and
+     * nothing else.
+     */
+    public ChainResult run(OpenAiClient client, Map<Label<?>, Object> inputs) {
+        return run(client, inputs, ChainResult.Observer.NONE);
+    }
+
+    /** Like {@link #run(OpenAiClient, Map)}, reporting labels and items to {@code observer}. */
+    public ChainResult run(OpenAiClient client, Map<Label<?>, Object> inputs, ChainResult.Observer observer) {
+        return execute(client, null, inputs, Map.of(), ChainListener.NONE, observer);
+    }
+
+    /**
+     * Runs all steps, reporting each label to {@code observer} as soon as
+     * it is bound (or fails), so partial results can be shown while later
+     * steps are still running.
+     */
+    public ChainResult run(OpenAiClient client, ChainResult.Observer observer) {
+        requireNoInputs();
+        return execute(client, null, Map.of(), Map.of(), ChainListener.NONE, observer);
+    }
+
+    /**
+     * Runs all steps from scratch under {@code runId}, checkpointing each
+     * completed step. Earlier checkpoints of the same run are discarded.
+     */
+    public ChainResult run(String runId, OpenAiClient client) {
+        return run(runId, client, ChainListener.NONE);
+    }
+
+    /** Like {@link #run(String, OpenAiClient)}, reporting progress to {@code listener}. */
+    public ChainResult run(String runId, OpenAiClient client, ChainListener listener) {
+        requireNoInputs();
+        return run(runId, client, Map.of(), listener, ChainResult.Observer.NONE);
+    }
+
+    /**
+     * Like {@link #run(String, OpenAiClient, ChainListener)}, with the
+     * chain's inputs bound as in {@link #run(OpenAiClient, Map)} and labels
+     * and streamed items reported to {@code observer}.
+     */
+    public ChainResult run(
+            String runId,
+            OpenAiClient client,
+            Map<Label<?>, Object> inputs,
+            ChainListener listener,
+            ChainResult.Observer observer) {
+        CheckpointStore store = requireCheckpoints();
+        try {
+            store.delete(runId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not reset checkpoints of run " + runId, e);
+        }
+        return execute(client, runId, inputs, Map.of(), listener, observer);
+    }
+
+    /**
+     * Continues run {@code runId}: steps with a checkpoint are restored
+     * (values, history and call logs) and the rest run as usual. A run
+     * without checkpoints simply starts from the beginning.
+     */
+    public ChainResult resume(String runId, OpenAiClient client) {
+        return resume(runId, client, ChainListener.NONE);
+    }
+
+    /** Like {@link #resume(String, OpenAiClient)}, reporting progress to {@code listener}. */
+    public ChainResult resume(String runId, OpenAiClient client, ChainListener listener) {
+        return resume(runId, client, listener, ChainResult.Observer.NONE);
+    }
+
+    /**
+     * Like {@link #resume(String, OpenAiClient, ChainListener)}, also
+     * reporting labels and streamed items to {@code observer}.
+     */
+    public ChainResult resume(
+            String runId, OpenAiClient client, ChainListener listener, ChainResult.Observer observer) {
+        requireNoInputs();
+        return resume(runId, client, Map.of(), listener, observer);
+    }
+
+    /**
+     * Like {@link #resume(String, OpenAiClient, ChainListener, ChainResult.Observer)},
+     * with the chain's inputs bound as in {@link #run(OpenAiClient, Map)}.
+     * The run id should identify the inputs, so a run is never resumed
+     * with different ones.
+     */
+    public ChainResult resume(
+            String runId,
+            OpenAiClient client,
+            Map<Label<?>, Object> inputs,
+            ChainListener listener,
+            ChainResult.Observer observer) {
+        CheckpointStore store = requireCheckpoints();
+        SortedMap<Integer, String> saved;
         try {
-            // Initial context: no vars, empty history, default config
-            ChainContext ctx0 = ChainContext.root(defaults);
+            saved = store.load(runId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load checkpoints of run " + runId, e);
+        }
+
+        Map<Integer, StepCheckpoint> restored = new HashMap<>();
+        for (var entry : saved.entrySet()) {
+            int j = entry.getKey();
+            if (j >= steps.size()) {
+                continue;
+            }
+            Step step = steps.get(j);
+            StepCheckpoint cp = StepCheckpoint.fromJson(
+                    entry.getValue(),
+                    step.dependencies().writes(),
+                    labelsByName(step),
+                    defaults);
+            if (cp != null) {
+                restored.put(j, cp);
+            } else {
+                log.warn("Ignoring checkpoint of step {} in run {}; it will run again", j, runId);
+            }
+        }
+        log.info("Resuming run {} with {} of {} steps restored", runId, restored.size(), steps.size());
+        return execute(client, runId, inputs, restored, listener, observer);
+    }
+
+    private ChainResult execute(
+            OpenAiClient client,
+            String runId,
+            Map<Label<?>, Object> inputValues,
+            Map<Integer, StepCheckpoint> restored,
+            ChainListener listener,
+            ChainResult.Observer observer
+    ) {
+        long runStart = System.nanoTime();
+        ChainEvents.ChainRun runEvent = new ChainEvents.ChainRun();
+        runEvent.begin();
+        safely(() -> listener.onChainStarted(steps.stream().map(Step::name).toList()));
+
+        // Initial context: no vars, empty history, default config
+        ChainResult.Observer safeObserver = observer == ChainResult.Observer.NONE
+                ? observer
+                : new SerializedObserver(observer);
+        ChainContext ctx0 = bindInputs(ChainContext.root(defaults, safeObserver, metrics), inputValues);
+        List<CompletableFuture<StepDelta>> outcomes = new ArrayList<>(steps.size());
+        List<CompletableFuture<Void>> started = new ArrayList<>(steps.size());
+        List<List<CallLog>> stepLogs = new ArrayList<>(steps.size());
+        List<Timeline.Recorder> spans = new ArrayList<>(steps.size());
+        List<BitSet> dependencies = new ArrayList<>(steps.size());
+
+        // Steps that stream their items, to pipelined loops or just the observer
+        // (unless already restored)
+        Map<Integer, ItemStream> streams = new HashMap<>();
+        for (int source : pipelineSources) {
+            if (source >= 0 && !restored.containsKey(source)) {
+                streams.computeIfAbsent(source, __ -> new ItemStream());
+            }
+        }
+        for (int j = 0; j < steps.size(); j++) {
+            if (steps.get(j) instanceof SimpleStep s && s.streamItems() && !restored.containsKey(j)) {
+                streams.computeIfAbsent(j, __ -> new ItemStream());
+            }
+        }
+
+        // Start each step once its dependencies have finished
+        for (int j = 0; j < steps.size(); j++) {
+            Step step = steps.get(j);
+            BitSet visible = graph.transitiveDependencies(j);
             List<CallLog> logs = Collections.synchronizedList(new ArrayList<>());
-            CompletableFuture<ChainContext> cf = CompletableFuture.completedFuture(ctx0);
+            stepLogs.add(logs);
+            dependencies.add(graph.directDependencies(j));
+
+            StepCheckpoint cp = restored.get(j);
+            if (cp != null) {
+                // Completed in an earlier attempt of this run
+                logs.addAll(cp.logs());
+                outcomes.add(CompletableFuture.completedFuture(new StepDelta(cp.vars(), cp.history())));
+                started.add(CompletableFuture.completedFuture(null));
+                cp.vars().forEach(safeObserver::onLabel);
+                Timeline.Recorder span = Timeline.Recorder.start(step.name(), Timeline.Kind.STEP);
+                span.end();
+                spans.add(span);
+                int index = j;
+                safely(() -> listener.onStepFinished(index, step.name(), true));
+                continue;
+            }
+
+            // A pipelined loop only needs its source to have started
+            int source = pipelineSources[j];
+            ItemStream items = source >= 0 ? streams.get(source) : null;
+            BitSet waitFor = graph.directDependencies(j);
+            CompletableFuture<?> deps;
+            if (items != null) {
+                waitFor.clear(source);
+                visible.clear(source);
+                deps = CompletableFuture.allOf(
+                        CompletableFuture.allOf(select(outcomes, waitFor)),
+                        started.get(source));
+            } else {
+                deps = CompletableFuture.allOf(select(outcomes, waitFor));
+            }
+            CompletableFuture<Void> ready = deps.thenApply(__ -> null);
+            started.add(ready);
+
+            ItemStream published = streams.get(j);
+            int index = j;
+            Timeline.Recorder[] span = new Timeline.Recorder[1];
+            ChainEvents.StepRun[] event = new ChainEvents.StepRun[1];
+            spans.add(null);
+            CompletableFuture<StepDelta> cf = ready
+                    .thenCompose(__ -> {
+                        span[0] = Timeline.Recorder.start(step.name(), Timeline.Kind.STEP);
+                        event[0] = ChainEvents.StepRun.start(metrics, step);
+                        spans.set(index, span[0]);
+                        ChainContext in = apply(ctx0, outcomes, visible).withSpan(span[0]);
+                        safely(() -> listener.onStepStarted(index, step.name()));
+                        CompletableFuture<ChainContext> out;
+                        if (items != null) {
+                            out = ((ForEachStep<?, ?>) step).runPipelined(in, client, logs, items);
+                        } else if (published != null) {
+                            out = ((SimpleStep) step).run(in, client, logs, published);
+                        } else {
+                            out = step.run(in, client, logs);
+                        }
+                        return out.thenApply(o -> StepDelta.between(in, o));
+                    });
+            if (items != null) {
+                // finish after the source, so later steps can apply both deltas
+                cf = cf.thenCombine(outcomes.get(source), (delta, ignored) -> delta);
+            }
+            if (published != null) {
+                // loops must not wait forever if the step ends without closing its stream
+                cf.whenComplete((delta, failure) -> published.fail(failure != null
+                        ? failure
+                        : new IllegalStateException("Step '" + step.name() + "' did not complete its items")));
+            }
+            if (runId != null) {
+                cf = cf.thenApply(delta -> {
+                    if (succeeded(logs)) {
+                        checkpoint(runId, index, step, delta, logs);
+                    }
+                    return delta;
+                });
+            }
+            cf = cf.whenComplete((delta, failure) -> {
+                boolean ok = failure == null && succeeded(logs);
+                if (span[0] != null) {
+                    span[0].end();
+                    event[0].finish(ok);
+                    metrics.stepFinished(step, System.nanoTime() - span[0].startNanos(), ok);
+                }
+                safely(() -> listener.onStepFinished(index, step.name(), ok));
+            });
+            outcomes.add(cf);
+        }
+
+        BitSet all = new BitSet(steps.size());
+        all.set(0, steps.size());
+        CompletableFuture.allOf(outcomes.toArray(CompletableFuture[]::new)).join();
+        ChainContext finalCtx = apply(ctx0, outcomes, all);
+
+        List<CallLog> logs = new ArrayList<>();
+        stepLogs.forEach(logs::addAll);
+        long runEnd = System.nanoTime();
+        metrics.runFinished(runEnd - runStart, succeeded(logs));
+        if (runEvent.shouldCommit()) {
+            runEvent.chain = metrics.chain();
+            runEvent.steps = steps.size();
+            runEvent.calls = logs.size();
+            runEvent.succeeded = succeeded(logs);
+            runEvent.commit();
+        }
+        for (int j = 0; j < spans.size(); j++) {
+            if (spans.get(j) == null) {
+                // never started: a dependency failed before it
+                spans.set(j, Timeline.Recorder.empty(steps.get(j).name(), Timeline.Kind.STEP, runEnd));
+            }
+        }
+        Timeline timeline = Timeline.of(runStart, runEnd, spans, dependencies);
+        return new ChainResultImpl(finalCtx.vars(), logs, timeline);
+    }
 
-            // Chain the steps serially
-            for (Step step : steps) {
-                cf = cf.thenCompose(ctx -> step.run(ctx, exec, client, logs));
+    /** Fails before anything runs if an overload without inputs is used on a chain that has some. */
+    private void requireNoInputs() {
+        if (!inputs.isEmpty()) {
+            throw new IllegalArgumentException("This chain takes inputs " + inputs
+                    + "; pass them to an overload with an inputs map");
+        }
+    }
+
+    /** Binds the run's inputs, checking there is one of the right type per declared input. */
+    private ChainContext bindInputs(ChainContext ctx, Map<Label<?>, Object> values) {
+        for (Label<?> label : values.keySet()) {
+            if (!inputs.contains(label)) {
+                throw new IllegalArgumentException(label + " is not an input of this chain");
+            }
+        }
+        for (Label<?> input : inputs) {
+            Object value = values.get(input);
+            if (value == null) {
+                throw new IllegalArgumentException("Missing input " + input);
+            }
+            if (!rawType(input.type()).isInstance(value)) {
+                throw new IllegalArgumentException("Input " + input + " got a " + value.getClass().getName());
             }
+            ctx = ctx.plus(input, value);
+        }
+        return ctx;
+    }
 
-            ChainContext finalCtx = cf.join();
-            // Minimal result: only values (errors and callLogs not exposed yet)
-            return new ChainResultImpl(finalCtx.vars(), logs);
-        } finally {
-            exec.close();
+    private static Class<?> rawType(Type type) {
+        if (type instanceof ParameterizedType parameterized) {
+            return rawType(parameterized.getRawType());
+        }
+        return type instanceof Class<?> c ? c : Object.class;
+    }
+
+    /** True unless one of the step's calls failed for good. */
+    private static boolean succeeded(List<CallLog> logs) {
+        synchronized (logs) {
+            for (CallLog entry : logs) {
+                if (entry.error() != null && !entry.willRetry()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void safely(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            log.warn("Chain listener or observer failed", e);
+        }
+    }
+
+    /** Keeps observer calls from overlapping and from failing the chain. */
+    private static final class SerializedObserver implements ChainResult.Observer {
+        private final ChainResult.Observer delegate;
+
+        SerializedObserver(ChainResult.Observer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void onLabel(Label<?> label, Object value) {
+            safely(() -> delegate.onLabel(label, value));
+        }
+
+        @Override
+        public synchronized void onError(Label<?> label, ErrorInfo error) {
+            safely(() -> delegate.onError(label, error));
+        }
+
+        @Override
+        public synchronized void onBranchLabel(Label<?> joinLabel, int branch, Label<?> label, Object value) {
+            safely(() -> delegate.onBranchLabel(joinLabel, branch, label, value));
+        }
+
+        @Override
+        public synchronized void onBranchError(Label<?> joinLabel, int branch, Label<?> label, ErrorInfo error) {
+            safely(() -> delegate.onBranchError(joinLabel, branch, label, error));
+        }
+
+        @Override
+        public synchronized void onItem(Label<?> label, int index, Object item) {
+            safely(() -> delegate.onItem(label, index, item));
+        }
+    }
+
+    /** Saves a completed step; a failed save only costs a re-run later. */
+    private void checkpoint(String runId, int index, Step step, StepDelta delta, List<CallLog> logs) {
+        List<CallLog> snapshot;
+        synchronized (logs) {
+            snapshot = List.copyOf(logs);
+        }
+        try {
+            String json = new StepCheckpoint(delta.vars(), delta.history(), snapshot)
+                    .toJson(index, step.dependencies().writes());
+            checkpoints.save(runId, index, json);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not checkpoint step {} of run {}", index, runId, e);
+        }
+    }
+
+    private CheckpointStore requireCheckpoints() {
+        if (checkpoints == null) {
+            throw new IllegalStateException("This chain was built without a CheckpointStore");
+        }
+        return checkpoints;
+    }
+
+    private static Map<String, Label<?>> labelsByName(Step step) {
+        Map<String, Label<?>> out = new HashMap<>();
+        for (Label<?> label : step.outputs()) {
+            out.put(label.name(), label);
+        }
+        return out;
+    }
+
+    private static CompletableFuture<?>[] select(
+            List<CompletableFuture<StepDelta>> outcomes,
+            BitSet indices
+    ) {
+        return indices.stream()
+                .mapToObj(outcomes::get)
+                .toArray(CompletableFuture[]::new);
+    }
+
+    /** Replays the deltas of the given (completed) steps onto ctx in declaration order. */
+    private static ChainContext apply(
+            ChainContext ctx,
+            List<CompletableFuture<StepDelta>> outcomes,
+            BitSet indices
+    ) {
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            ctx = outcomes.get(i).join().applyTo(ctx);
+        }
+        return ctx;
+    }
+
+    /** What one step added to the context: newly bound labels and appended messages. */
+    private record StepDelta(Map<Label<?>, Object> vars, List<ChatMsg> history) {
+
+        static StepDelta between(ChainContext in, ChainContext out) {
+            Map<Label<?>, Object> before = in.vars();
+            Map<Label<?>, Object> changed = new LinkedHashMap<>();
+            for (var entry : out.vars().entrySet()) {
+                if (before.get(entry.getKey()) != entry.getValue()) {
+                    changed.put(entry.getKey(), entry.getValue());
+                }
+            }
+            List<ChatMsg> outHistory = out.history();
+            List<ChatMsg> appended = outHistory.subList(in.history().size(), outHistory.size());
+            return new StepDelta(changed, List.copyOf(appended));
+        }
+
+        ChainContext applyTo(ChainContext ctx) {
+            for (var entry : vars.entrySet()) {
+                ctx = ctx.plus(entry.getKey(), entry.getValue());
+            }
+            for (ChatMsg msg : history) {
+                ctx = ctx.appendHistory(msg);
+            }
+            return ctx;
         }
     }
-}
\ No newline at end of file
+}
@@ -4,8 +4,10 @@ import com.openai.models.ChatModel;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Fluent builder for a Chain.  Supports serial steps, forEach loops, and parallel branches.
@@ -14,6 +16,10 @@ public final class ChainBuilder {
 
     private final List<Step> steps = new ArrayList<>();
     private final ChatConfig defaults;
+    private CheckpointStore checkpoints;
+    private ChainMetrics metrics = ChainMetrics.NONE;
+    private String name;
+    private final Set<Label<?>> inputs = new LinkedHashSet<>();
 
     private ChainBuilder(ChatConfig defaults) {
         this.defaults = defaults;
@@ -39,9 +45,39 @@ public final class ChainBuilder {
         return new ParallelBuilder();
     }
 
+    /**
+     * Declare a label each run binds with {@link Chain#run(OpenAiClient, Map)};
+     * prompts read it as ${name}. Once a chain has inputs, every
+     * placeholder must be an input or a label bound by an earlier step,
+     * which {@link #build()} checks.
+     */
+    public ChainBuilder input(Label<?> label) {
+        this.inputs.add(label);
+        return this;
+    }
+
+    /** Save completed steps here so runs can be resumed with {@link Chain#resume}. */
+    public ChainBuilder checkpoints(CheckpointStore store) {
+        this.checkpoints = store;
+        return this;
+    }
+
+    /** Name to tag this chain's metrics with. */
+    public ChainBuilder name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /** Time and count runs, steps and OpenAI calls here (default: nowhere). */
+    public ChainBuilder metrics(ChainMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     /** Finalize the builder and get a Chain you can run. */
     public Chain build() {
-        return new Chain(steps, defaults);
+        ChainMetrics named = name != null ? metrics.forChain(name) : metrics;
+        return new Chain(steps, defaults, checkpoints, named, inputs);
     }
 
     // ── Serial step DSL ──────────────────────────────────────────────────────
@@ -66,6 +102,11 @@ public final class ChainBuilder {
         public StepBuilderDSL topP(double v)             { inner.topP(v);     return this; }
         public StepBuilderDSL presencePenalty(double v)  { inner.presencePenalty(v); return this; }
         public StepBuilderDSL frequencyPenalty(double v) { inner.frequencyPenalty(v); return this; }
+        public StepBuilderDSL retry(RetryPolicy p)       { inner.retry(p);    return this; }
+        public StepBuilderDSL retry(int maxAttempts)     { inner.retry(maxAttempts); return this; }
+        public StepBuilderDSL cache(boolean enabled)     { inner.cache(enabled); return this; }
+        public StepBuilderDSL streamItems()              { inner.streamItems(); return this; }
+        public StepBuilderDSL structured()               { inner.structured(); return this; }
 
         /** End this step and add it to the chain. */
         public ChainBuilder endStep() {
@@ -80,6 +121,8 @@ public final class ChainBuilder {
         private final Label<? extends Collection<T>> sourceLabel;
         private String alias        = "item";
         private int    maxElements  = 100;
+        private int    maxConcurrency = Integer.MAX_VALUE;
+        private boolean pipelined   = false;
         private final List<Step> subSteps = new ArrayList<>();
         private Label<? extends List<?>> joinLabel;
 
@@ -99,6 +142,18 @@ public final class ChainBuilder {
             return this;
         }
 
+        /** Cap on the number of items processed at once, across all runs of the chain (default unbounded). */
+        public ForEachBuilder<T> maxConcurrency(int permits) {
+            this.maxConcurrency = permits;
+            return this;
+        }
+
+        /** Start each item as soon as it is parsed from the source step's streaming reply. */
+        public ForEachBuilder<T> pipelined() {
+            this.pipelined = true;
+            return this;
+        }
+
         /** Add one Step (e.g. a SimpleStep) to run for each item. */
         public ForEachBuilder<T> addStep(Step step) {
             this.subSteps.add(step);
@@ -128,6 +183,10 @@ public final class ChainBuilder {
             ForEachStep.Builder builder = ForEachStep.builder(sourceLabel);
             builder.alias(alias);
             builder.maxElements(maxElements);
+            builder.maxConcurrency(maxConcurrency);
+            if (pipelined) {
+                builder.pipelined();
+            }
             for (Step step : subSteps) {
                 builder.addStep(step);
             }
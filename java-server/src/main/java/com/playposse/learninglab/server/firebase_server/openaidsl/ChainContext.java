@@ -1,36 +1,64 @@
 package com.playposse.learninglab.server.firebase_server.openaidsl;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Immutable context passed from step to step in a Chain.
  * Contains labeled variables, branch-local message history, and config.
+ * <p>
+ * Vars and history are persistent data structures: deriving a new context
+ * shares everything that didn't change with the old one, so forking is
+ * O(1), binding a label and appending a message are O(log n), and the
+ * read accessors return views instead of copies.
  */
 public final class ChainContext {
-    private final Map<Label<?>, Object> vars;
-    private final List<ChatMsg> history;
+    private final PersistentHashMap<Label<?>, Object> vars;
+    private final PersistentVector<ChatMsg> history;
     private final ChatConfig config;
+    private final ChainResult.Observer observer;
+    private final ChainMetrics metrics;
+    private final Timeline.Recorder span;
 
     private ChainContext(
-            Map<Label<?>, Object> vars,
-            List<ChatMsg> history,
-            ChatConfig config) {
+            PersistentHashMap<Label<?>, Object> vars,
+            PersistentVector<ChatMsg> history,
+            ChatConfig config,
+            ChainResult.Observer observer,
+            ChainMetrics metrics,
+            Timeline.Recorder span) {
         this.vars = vars;
         this.history = history;
         this.config = config;
+        this.observer = observer;
+        this.metrics = metrics;
+        this.span = span;
     }
 
     /**
      * Creates the root context with initial config; empty vars and history.
      */
     public static ChainContext root(ChatConfig initialConfig) {
+        return root(initialConfig, ChainResult.Observer.NONE);
+    }
+
+    /**
+     * Creates the root context whose steps report each label they bind
+     * (or fail to bind) to {@code observer}.
+     */
+    static ChainContext root(ChatConfig initialConfig, ChainResult.Observer observer) {
+        return root(initialConfig, observer, ChainMetrics.NONE);
+    }
+
+    /** Like {@link #root(ChatConfig, ChainResult.Observer)}, with steps recording to {@code metrics}. */
+    static ChainContext root(ChatConfig initialConfig, ChainResult.Observer observer, ChainMetrics metrics) {
         return new ChainContext(
-                new HashMap<>(),
-                new ArrayList<>(),
-                initialConfig
+                PersistentHashMap.empty(),
+                PersistentVector.empty(),
+                initialConfig,
+                observer,
+                metrics,
+                Timeline.Recorder.start("run", Timeline.Kind.RUN)
         );
     }
 
@@ -62,45 +90,61 @@ public final class ChainContext {
     }
 
     /**
-     * Returns an immutable copy of the message history.
+     * Returns an immutable view of the message history.
      */
     public List<ChatMsg> history() {
-        return List.copyOf(history);
+        return history.asList();
     }
 
     /**
-     * Returns an immutable copy of all labeled variables.
+     * Returns an immutable view of all labeled variables.
      */
     public Map<Label<?>, Object> vars() {
-        return Map.copyOf(vars);
+        return vars.asMap();
     }
 
     /* Internal mutation helpers (return new context) */
 
     ChainContext plus(Label<?> label, Object value) {
-        var copy = new HashMap<>(vars);
-        copy.put(label, value);
-        return new ChainContext(copy, history, config);
+        return new ChainContext(vars.plus(label, value), history, config, observer, metrics, span);
     }
 
     ChainContext appendHistory(ChatMsg msg) {
-        var copyHistory = new ArrayList<>(history);
-        copyHistory.add(msg);
-        return new ChainContext(vars, copyHistory, config);
+        return new ChainContext(vars, history.plus(msg), config, observer, metrics, span);
     }
 
     ChainContext withConfig(ChatConfig newConfig) {
-        return new ChainContext(vars, history, newConfig);
+        return new ChainContext(vars, history, newConfig, observer, metrics, span);
+    }
+
+    ChainContext withObserver(ChainResult.Observer newObserver) {
+        return new ChainContext(vars, history, config, newObserver, metrics, span);
+    }
+
+    ChainContext withSpan(Timeline.Recorder newSpan) {
+        return new ChainContext(vars, history, config, observer, metrics, newSpan);
+    }
+
+    /** Where steps report the labels they bind; never null. */
+    ChainResult.Observer observer() {
+        return observer;
+    }
+
+    /** Where steps record their timings and calls; never null. */
+    ChainMetrics metrics() {
+        return metrics;
+    }
+
+    /** The span of the step or branch running in this context; never null. */
+    Timeline.Recorder span() {
+        return span;
     }
 
     /**
-     * Creates a forked copy for branching: clones vars and history.
+     * Creates a forked copy for branching. Since vars and history are
+     * persistent, the fork shares them with this context.
      */
     ChainContext fork() {
-        return new ChainContext(
-                new HashMap<>(vars),
-                new ArrayList<>(history),
-                config
-        );
+        return new ChainContext(vars, history, config, observer, metrics, span);
     }
 }
@@ -0,0 +1,233 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of chain runs, so LLM wait time shows up in
+ * the same recording as GC, allocation and virtual-thread pinning. They
+ * cost next to nothing while no recording has them enabled; see
+ * {@code jfr/learninglab.jfc} for a profile that does.
+ * <p>
+ * Events that start on one thread and finish on another are committed by
+ * the finishing thread; their duration is still begin to commit.
+ */
+final class ChainEvents {
+
+    static final String CATEGORY = "Learning Lab";
+
+    private ChainEvents() {
+        // holder
+    }
+
+    @Name("learninglab.ChainRun")
+    @Label("Chain Run")
+    @Category({CATEGORY, "Chain"})
+    @StackTrace(false)
+    static final class ChainRun extends Event {
+        @Label("Chain")
+        String chain;
+
+        @Label("Steps")
+        int steps;
+
+        @Label("Calls")
+        int calls;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("learninglab.StepRun")
+    @Label("Step Run")
+    @Category({CATEGORY, "Chain"})
+    @StackTrace(false)
+    static final class StepRun extends Event {
+        @Label("Chain")
+        String chain;
+
+        @Label("Step")
+        String step;
+
+        @Label("Type")
+        @Description("simple, forEach or parallel")
+        String type;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        /** Begins the event of one step (or forEach sub-step). */
+        static StepRun start(ChainMetrics metrics, Step step) {
+            StepRun event = new StepRun();
+            event.begin();
+            if (event.isEnabled()) {
+                event.chain = metrics.chain();
+                event.step = step.name();
+                event.type = ChainMetrics.typeOf(step);
+            }
+            return event;
+        }
+
+        void finish(boolean succeeded) {
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+
+    @Name("learninglab.TemplateRender")
+    @Label("Template Render")
+    @Category({CATEGORY, "Chain"})
+    @StackTrace(false)
+    static final class TemplateRender extends Event {
+        @Label("Step")
+        String step;
+
+        @Label("Messages")
+        int messages;
+
+        @Label("Prompt Size")
+        @Description("Characters in the rendered prompt")
+        long chars;
+    }
+
+    @Name("learninglab.Parse")
+    @Label("Reply Parse")
+    @Category({CATEGORY, "Chain"})
+    @StackTrace(false)
+    static final class Parse extends Event {
+        @Label("Step")
+        String step;
+
+        @Label("Label")
+        String label;
+
+        @Label("Reply Size")
+        @Description("Characters in the reply")
+        long chars;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("learninglab.StepCall")
+    @Label("Step Call")
+    @Description("One call attempt of a step, from sending the prompt to parsing the reply")
+    @Category({CATEGORY, "OpenAI"})
+    @StackTrace(false)
+    static final class StepCall extends Event {
+        @Label("Chain")
+        String chain;
+
+        @Label("Step")
+        String step;
+
+        @Label("Label")
+        String label;
+
+        @Label("Model")
+        String model;
+
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Cached")
+        boolean cached;
+
+        @Label("Will Retry")
+        boolean willRetry;
+
+        @Label("Error")
+        String error;
+
+        @Label("Prompt Tokens")
+        long promptTokens;
+
+        @Label("Completion Tokens")
+        long completionTokens;
+
+        @Label("Schedule Wait")
+        @Timespan(Timespan.MILLISECONDS)
+        long scheduleWait;
+
+        @Label("Rate Limit Wait")
+        @Timespan(Timespan.MILLISECONDS)
+        long rateLimitWait;
+
+        @Label("Network")
+        @Timespan(Timespan.MILLISECONDS)
+        long network;
+
+        @Label("Time To First Token")
+        @Timespan(Timespan.MILLISECONDS)
+        long timeToFirstToken;
+
+        @Label("Parse")
+        @Timespan(Timespan.MILLISECONDS)
+        long parse;
+
+        /** Fills the event from the attempt's log entry and commits it. */
+        void finish(String chain, String step, CallLog entry) {
+            if (!shouldCommit()) {
+                return;
+            }
+            this.chain = chain;
+            this.step = step;
+            this.label = entry.label() != null ? entry.label().name() : null;
+            this.model = entry.config() != null ? entry.config().model().asString() : null;
+            this.attempt = entry.attempt();
+            this.cached = entry.cacheHit();
+            this.willRetry = entry.willRetry();
+            this.error = entry.error() != null ? ChainMetrics.reason(entry.error().cause()) : null;
+            this.promptTokens = tokens(entry.usage(), "prompt_tokens");
+            this.completionTokens = tokens(entry.usage(), "completion_tokens");
+            CallTimings t = entry.timings();
+            this.scheduleWait = t.scheduleWaitMillis();
+            this.rateLimitWait = t.rateLimitWaitMillis();
+            this.network = t.networkMillis();
+            this.timeToFirstToken = t.timeToFirstTokenMillis();
+            this.parse = t.parseMillis();
+            commit();
+        }
+    }
+
+    @Name("learninglab.OpenAiRequest")
+    @Label("OpenAI Request")
+    @Description("One HTTP request to the chat completions API")
+    @Category({CATEGORY, "OpenAI"})
+    @StackTrace(false)
+    static final class OpenAiRequest extends Event {
+        @Label("Model")
+        String model;
+
+        @Label("Mode")
+        @Description("sync, async or stream")
+        String mode;
+
+        @Label("Status")
+        @Description("HTTP status; -1 if there was no response")
+        int status;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Prompt Tokens")
+        long promptTokens;
+
+        @Label("Completion Tokens")
+        long completionTokens;
+
+        @Label("Time To First Token")
+        @Timespan(Timespan.MILLISECONDS)
+        long timeToFirstToken;
+    }
+
+    static long tokens(JsonNode usage, String field) {
+        return usage != null && usage.hasNonNull(field) ? usage.get(field).asLong() : 0;
+    }
+}
@@ -0,0 +1,31 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.List;
+
+/**
+ * Progress callbacks for one run of a {@link Chain}, e.g. to report
+ * per-step status to a polling client. Steps run concurrently, so the
+ * callbacks may arrive on different threads; exceptions they throw are
+ * logged and otherwise ignored.
+ */
+public interface ChainListener {
+
+    /** A listener that ignores everything. */
+    ChainListener NONE = new ChainListener() {};
+
+    /** Called once before any step starts, with every step's name in declaration order. */
+    default void onChainStarted(List<String> stepNames) {
+    }
+
+    /** Called when a step starts running (restored steps don't start). */
+    default void onStepStarted(int index, String stepName) {
+    }
+
+    /**
+     * Called when a step has finished or was restored from a checkpoint.
+     *
+     * @param succeeded false if the step recorded an error or threw
+     */
+    default void onStepFinished(int index, String stepName, boolean succeeded) {
+    }
+}
@@ -0,0 +1,155 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of one chain, tagged with the chain's name:
+ * <ul>
+ *   <li>{@code chain.run} – whole runs, by outcome;</li>
+ *   <li>{@code chain.step} – each top-level step, by step, type and outcome;</li>
+ *   <li>{@code chain.branch} – each forEach item and parallel branch;</li>
+ *   <li>{@code chain.queue.wait} – how long forEach items waited for a concurrency permit;</li>
+ *   <li>{@code chain.openai.call} – each call attempt of a step, by model and outcome
+ *       (success, cached, retry, error), with a latency histogram;</li>
+ *   <li>{@code chain.openai.tokens} – tokens from the reply's usage, by type;</li>
+ *   <li>{@code chain.openai.retries} and {@code chain.openai.errors} – retried
+ *       and final failures, by reason (HTTP status or exception).</li>
+ * </ul>
+ * {@link #NONE} records nothing.
+ */
+public final class ChainMetrics {
+
+    /** Never gets registries added, so its meters would all be no-ops. */
+    private static final MeterRegistry NO_REGISTRY = new CompositeMeterRegistry();
+
+    /** Records nothing, without even looking meters up. */
+    public static final ChainMetrics NONE = new ChainMetrics(NO_REGISTRY, "none");
+
+    private final MeterRegistry registry;
+    private final String chain;
+    private final MeterCache meters;
+
+    private ChainMetrics(MeterRegistry registry, String chain) {
+        this.registry = registry;
+        this.chain = chain;
+        this.meters = new MeterCache(registry);
+    }
+
+    /** Meters in {@code registry}, for chains that don't set a name. */
+    public static ChainMetrics of(MeterRegistry registry) {
+        return new ChainMetrics(registry, "unnamed");
+    }
+
+    /** The same registry, tagging meters with chain {@code name}. */
+    public ChainMetrics forChain(String name) {
+        return new ChainMetrics(registry, name);
+    }
+
+    void runFinished(long nanos, boolean succeeded) {
+        if (registry == NO_REGISTRY) {
+            return;
+        }
+        meters.timer("chain.run", "chain", chain, "outcome", outcome(succeeded))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void stepFinished(Step step, long nanos, boolean succeeded) {
+        if (registry == NO_REGISTRY) {
+            return;
+        }
+        meters.timer("chain.step",
+                        "chain", chain, "step", step.name(), "type", typeOf(step), "outcome", outcome(succeeded))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void branchFinished(Step step, long nanos, boolean succeeded) {
+        if (registry == NO_REGISTRY) {
+            return;
+        }
+        meters.timer("chain.branch",
+                        "chain", chain, "step", step.name(), "type", typeOf(step), "outcome", outcome(succeeded))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void queueWait(Step step, long nanos) {
+        if (registry == NO_REGISTRY) {
+            return;
+        }
+        meters.timer("chain.queue.wait", "chain", chain, "step", step.name())
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * One call attempt of a step: {@code result} is null if the call itself
+     * failed, {@code failure} is null on success, and {@code willRetry} tells
+     * a retried failure from a final one.
+     */
+    void callFinished(
+            String step,
+            ChatConfig config,
+            ChatCompletionResult result,
+            Throwable failure,
+            boolean willRetry,
+            long elapsedMillis
+    ) {
+        if (registry == NO_REGISTRY) {
+            return;
+        }
+        String model = config.model().asString();
+        String outcome = failure == null
+                ? (result != null && result.cached() ? "cached" : "success")
+                : (willRetry ? "retry" : "error");
+        meters.histogram("chain.openai.call", "chain", chain, "step", step, "model", model, "outcome", outcome)
+                .record(elapsedMillis, TimeUnit.MILLISECONDS);
+
+        if (failure != null) {
+            meters.counter(willRetry ? "chain.openai.retries" : "chain.openai.errors",
+                            "chain", chain, "step", step, "model", model, "reason", reason(failure))
+                    .increment();
+        }
+        // a reply that failed to parse still cost its tokens
+        if (result != null && !result.cached()) {
+            tokens(step, model, result.usage(), "prompt_tokens", "prompt");
+            tokens(step, model, result.usage(), "completion_tokens", "completion");
+        }
+    }
+
+    private void tokens(String step, String model, JsonNode usage, String field, String type) {
+        if (usage != null && usage.hasNonNull(field)) {
+            meters.counter("chain.openai.tokens",
+                            "chain", chain, "step", step, "model", model, "type", type)
+                    .increment(usage.get(field).asLong());
+        }
+    }
+
+    /** The name this chain's meters are tagged with. */
+    String chain() {
+        return chain;
+    }
+
+    /** The HTTP status of a failed call, else the exception's simple name. */
+    static String reason(Throwable failure) {
+        if (failure instanceof OpenAiCallException e && e.statusCode() != OpenAiCallException.NO_STATUS) {
+            return Integer.toString(e.statusCode());
+        }
+        return failure.getClass().getSimpleName();
+    }
+
+    static String typeOf(Step step) {
+        if (step instanceof ForEachStep<?, ?>) {
+            return "forEach";
+        }
+        if (step instanceof ParallelStep) {
+            return "parallel";
+        }
+        return "simple";
+    }
+
+    private static String outcome(boolean succeeded) {
+        return succeeded ? "success" : "error";
+    }
+}
@@ -35,9 +35,46 @@ public interface ChainResult {
     Set<Label<?>>         labels();
     List<CallLog> callLogs();
 
-    /** Observer for streaming callbacks (optional). */
+    /** When each step, branch and call ran, and the run's critical path. */
+    Timeline timeline();
+
+    /**
+     * Observer for streaming callbacks (optional). {@link Chain#run(OpenAiClient, Observer)}
+     * calls it as soon as a step binds a label or fails to, so callers can
+     * show partial results before the whole chain is done. Calls are never
+     * concurrent, and an exception thrown here is logged and ignored.
+     */
     interface Observer {
+        Observer NONE = new Observer() {
+            @Override
+            public void onLabel(Label<?> label, Object value) {}
+
+            @Override
+            public void onError(Label<?> label, ErrorInfo error) {}
+        };
+
         void onLabel(Label<?> label, Object value);
         void onError(Label<?> label, ErrorInfo error);
+
+        /**
+         * A step inside a forEach (or parallel) bound {@code label} for
+         * branch number {@code branch}, before the loop's results are joined
+         * into {@code joinLabel}. By default it is reported like any other label.
+         */
+        default void onBranchLabel(Label<?> joinLabel, int branch, Label<?> label, Object value) {
+            onLabel(label, value);
+        }
+
+        /** Like {@link #onBranchLabel}, for a step inside a branch that failed. */
+        default void onBranchError(Label<?> joinLabel, int branch, Label<?> label, ErrorInfo error) {
+            onError(label, error);
+        }
+
+        /**
+         * Item number {@code index} of list {@code label} was parsed while the
+         * reply is still streaming. Only the sources of pipelined forEach loops
+         * report items; {@link #onLabel} follows with the whole list.
+         */
+        default void onItem(Label<?> label, int index, Object item) {}
     }
 }
@@ -8,7 +8,8 @@ import java.util.*;
  * Implementation of ChainResult that carries:
  *  - all labeled values,
  *  - per-label errors,
- *  - a full chronological callLog.
+ *  - a full chronological callLog,
+ *  - the run's timeline.
  */
 public final class ChainResultImpl implements ChainResult {
 
@@ -17,22 +18,33 @@ public final class ChainResultImpl implements ChainResult {
     private final Map<Label<?>, Object> vars;
     private final Map<Label<?>, ErrorInfo> errors;
     private final List<CallLog> callLogs;
+    private final Timeline timeline;
+
+    public ChainResultImpl(
+            Map<Label<?>, Object> vars,
+            List<CallLog> callLogs
+    ) {
+        this(vars, callLogs, Timeline.EMPTY);
+    }
 
     /**
      * Constructor used internally by Chain. Builds error map from the call logs.
      */
     public ChainResultImpl(
             Map<Label<?>, Object> vars,
-            List<CallLog> callLogs
+            List<CallLog> callLogs,
+            Timeline timeline
     ) {
         this.vars     = Map.copyOf(vars);
         this.callLogs = List.copyOf(callLogs);
+        this.timeline = timeline;
 
-        // Build an errors map from any callLog entries that carry an ErrorInfo
+        // Build an errors map from any callLog entries that carry an ErrorInfo;
+        // failed attempts that were retried aren't errors of the result
         Map<Label<?>, ErrorInfo> errMap = new LinkedHashMap<>();
         for (CallLog logEntry : callLogs) {
             ErrorInfo e = logEntry.error();
-            if (e != null) {
+            if (e != null && !logEntry.willRetry()) {
                 errMap.put(logEntry.label(), e);
             }
         }
@@ -128,7 +140,7 @@ public final class ChainResultImpl implements ChainResult {
                 subLogs.add(log);
             }
         }
-        return new ChainResultImpl(subVars, subLogs);
+        return new ChainResultImpl(subVars, subLogs, timeline);
     }
 
     @Override
@@ -140,4 +152,9 @@ public final class ChainResultImpl implements ChainResult {
     public List<CallLog> callLogs() {
         return callLogs;
     }
+
+    @Override
+    public Timeline timeline() {
+        return timeline;
+    }
 }
\ No newline at end of file
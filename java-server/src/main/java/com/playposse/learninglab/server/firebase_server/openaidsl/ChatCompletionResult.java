@@ -2,5 +2,70 @@ package com.playposse.learninglab.server.firebase_server.openaidsl;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
-/** Raw result from the client with text and usage info. */
-public record ChatCompletionResult(String content, JsonNode usage, long durationMillis) {}
\ No newline at end of file
+/**
+ * Raw result from the client with text and usage info.
+ *
+ * @param cached                 true if the response was served from a cache instead of
+ *                               OpenAI; {@code usage} then describes the original call
+ * @param timeToFirstTokenMillis how long until the first content arrived; for a
+ *                               call that wasn't streamed that is the whole call
+ * @param tokensPerSecond        completion tokens per second after the first token
+ *                               arrived; 0 if unknown (not streamed, or no usage)
+ * @param queuedMillis           how long the call waited in a client-side queue (the
+ *                               rate limiter) before it was sent
+ */
+public record ChatCompletionResult(
+        String content,
+        JsonNode usage,
+        long durationMillis,
+        boolean cached,
+        long timeToFirstTokenMillis,
+        double tokensPerSecond,
+        long queuedMillis
+) {
+
+    public ChatCompletionResult(
+            String content,
+            JsonNode usage,
+            long durationMillis,
+            boolean cached,
+            long timeToFirstTokenMillis,
+            double tokensPerSecond
+    ) {
+        this(content, usage, durationMillis, cached, timeToFirstTokenMillis, tokensPerSecond, 0);
+    }
+
+    public ChatCompletionResult(String content, JsonNode usage, long durationMillis) {
+        this(content, usage, durationMillis, false);
+    }
+
+    public ChatCompletionResult(String content, JsonNode usage, long durationMillis, boolean cached) {
+        this(content, usage, durationMillis, cached, durationMillis, 0);
+    }
+
+    /** This result, after waiting another {@code millis} in a queue. */
+    public ChatCompletionResult queuedFor(long millis) {
+        return new ChatCompletionResult(
+                content, usage, durationMillis, cached, timeToFirstTokenMillis, tokensPerSecond,
+                queuedMillis + millis);
+    }
+
+    /**
+     * Result of a streamed call: the generation rate is the completion tokens
+     * spread over the time between the first token and the end of the stream.
+     */
+    public static ChatCompletionResult streamed(
+            String content,
+            JsonNode usage,
+            long durationMillis,
+            long timeToFirstTokenMillis
+    ) {
+        long generatingMillis = durationMillis - timeToFirstTokenMillis;
+        double tokensPerSecond = 0;
+        if (usage != null && usage.has("completion_tokens") && generatingMillis > 0) {
+            tokensPerSecond = usage.get("completion_tokens").asLong() * 1000.0 / generatingMillis;
+        }
+        return new ChatCompletionResult(
+                content, usage, durationMillis, false, timeToFirstTokenMillis, tokensPerSecond);
+    }
+}
@@ -14,7 +14,10 @@ public record ChatConfig(
         double topP,
         double presencePenalty,
         double frequencyPenalty,
-        List<FunctionSchema> functions      // optional: for function-calling
+        List<FunctionSchema> functions,     // optional: for function-calling
+        RetryPolicy retryPolicy,            // how failed calls are retried
+        boolean cacheable,                  // may be answered from a response cache
+        ResponseSchema responseSchema       // optional: structured-output JSON schema
 ) {
     /**
      * Start a fresh builder with no overrides.
@@ -41,6 +44,9 @@ public record ChatConfig(
         private double presencePenalty = 0.0;
         private double frequencyPenalty = 0.0;
         private List<FunctionSchema> functions = List.of();
+        private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+        private boolean cacheable = true;
+        private ResponseSchema responseSchema;
 
         public Builder() {
         }
@@ -53,6 +59,9 @@ public record ChatConfig(
             this.presencePenalty = cfg.presencePenalty();
             this.frequencyPenalty = cfg.frequencyPenalty();
             this.functions = cfg.functions();
+            this.retryPolicy = cfg.retryPolicy();
+            this.cacheable = cfg.cacheable();
+            this.responseSchema = cfg.responseSchema();
         }
 
         public Builder model(ChatModel m) {
@@ -90,6 +99,21 @@ public record ChatConfig(
             return this;
         }
 
+        public Builder retryPolicy(RetryPolicy p) {
+            this.retryPolicy = p;
+            return this;
+        }
+
+        public Builder cacheable(boolean c) {
+            this.cacheable = c;
+            return this;
+        }
+
+        public Builder responseSchema(ResponseSchema schema) {
+            this.responseSchema = schema;
+            return this;
+        }
+
         /**
          * Build the immutable ChatConfig instance.
          */
@@ -101,7 +125,10 @@ public record ChatConfig(
                     topP,
                     presencePenalty,
                     frequencyPenalty,
-                    functions
+                    functions,
+                    retryPolicy,
+                    cacheable,
+                    responseSchema
             );
         }
     }
@@ -0,0 +1,21 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.io.IOException;
+import java.util.SortedMap;
+
+/**
+ * Where a Chain saves the outcome of each completed step, so a failed or
+ * interrupted run can be resumed with {@link Chain#resume}. Checkpoints are
+ * opaque JSON documents keyed by run id and step index.
+ */
+public interface CheckpointStore {
+
+    /** Saves (or replaces) the checkpoint of one completed step. */
+    void save(String runId, int stepIndex, String json) throws IOException;
+
+    /** All checkpoints of a run by step index; empty if the run is unknown. */
+    SortedMap<Integer, String> load(String runId) throws IOException;
+
+    /** Forgets a run, e.g. once its result has been stored elsewhere. */
+    void delete(String runId) throws IOException;
+}
@@ -0,0 +1,64 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Decorator that shares one in-flight call among concurrent requests with
+ * the same {@link PromptHash}, e.g. when a double-clicked "generate" starts
+ * two identical chains. Followers receive the leader's result, so its usage
+ * is reported once per caller but paid only once.
+ */
+public final class CoalescingOpenAiClient implements OpenAiClient {
+
+    private final OpenAiClient delegate;
+    private final SingleFlight<String, ChatCompletionResult> inFlight = new SingleFlight<>();
+
+    public CoalescingOpenAiClient(OpenAiClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) throws Exception {
+        try {
+            return chatCompletionAsync(messages, config).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionAsync(List<ChatMsg> messages, ChatConfig config) {
+        return inFlight.run(
+                PromptHash.of(messages, config),
+                () -> delegate.chatCompletionAsync(messages, config));
+    }
+
+    /**
+     * Streams are not shared: a follower joining midway would miss the
+     * deltas already delivered, so each streaming call goes to the delegate.
+     */
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        return delegate.chatCompletionStreaming(messages, config, onDelta);
+    }
+
+    @Override
+    public void discard(List<ChatMsg> messages, ChatConfig config) {
+        delegate.discard(messages, config);
+    }
+
+    /** Calls that were answered by joining an identical in-flight call. */
+    public long coalesced() {
+        return inFlight.coalesced();
+    }
+}
@@ -0,0 +1,133 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A template split once into literal text and ${key} placeholders, so
+ * rendering needs no regex: only the referenced values are looked up and
+ * converted with toString(), and the result is written into one
+ * {@link StringBuilder} sized up front.
+ * <p>
+ * Placeholders follow {@link TemplateEngine#resolve}: a key is one or more
+ * characters other than '}', and a placeholder without a value is left in
+ * the text unchanged.
+ */
+public final class CompiledTemplate {
+
+    /** literals[i] precedes placeholder i; the last literal follows the last placeholder. */
+    private final String[] literals;
+    /** The key of each placeholder, in order of appearance. */
+    private final String[] keys;
+    /** Per placeholder, its index among the distinct keys. */
+    private final int[] slots;
+    /** Distinct key → slot. */
+    private final Map<String, Integer> slotsByKey;
+    private final int literalLength;
+
+    private CompiledTemplate(String[] literals, String[] keys, int[] slots, Map<String, Integer> slotsByKey) {
+        this.literals = literals;
+        this.keys = keys;
+        this.slots = slots;
+        this.slotsByKey = slotsByKey;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /** Splits {@code text} into its literal and placeholder segments. */
+    public static CompiledTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (true) {
+            int open = text.indexOf("${", pos);
+            int close = open < 0 ? -1 : text.indexOf('}', open + 2);
+            if (open < 0 || close < 0) {
+                literal.append(text, pos, text.length());
+                break;
+            }
+            if (close == open + 2) {
+                // "${}" isn't a placeholder; keep scanning after its '$'
+                literal.append(text, pos, open + 1);
+                pos = open + 1;
+                continue;
+            }
+            literal.append(text, pos, open);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            keys.add(text.substring(open + 2, close));
+            pos = close + 1;
+        }
+        literals.add(literal.toString());
+
+        Map<String, Integer> slotsByKey = new HashMap<>();
+        int[] slots = new int[keys.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotsByKey.computeIfAbsent(keys.get(i), __ -> slotsByKey.size());
+        }
+        return new CompiledTemplate(
+                literals.toArray(String[]::new), keys.toArray(String[]::new), slots, slotsByKey);
+    }
+
+    /** The placeholder keys, in order of first appearance. */
+    public Set<String> placeholders() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(keys)));
+    }
+
+    /** Renders with the values of the context's labels that the template references. */
+    public String render(ChainContext ctx) {
+        if (keys.length == 0) {
+            return literals[0];
+        }
+        String[] values = new String[slotsByKey.size()];
+        for (Map.Entry<Label<?>, Object> entry : ctx.vars().entrySet()) {
+            Integer slot = slotsByKey.get(entry.getKey().name());
+            if (slot != null) {
+                values[slot] = entry.getValue().toString();
+            }
+        }
+        return render(values);
+    }
+
+    /** Renders with values looked up by key. */
+    public String render(Map<String, ?> vars) {
+        if (keys.length == 0) {
+            return literals[0];
+        }
+        String[] values = new String[slotsByKey.size()];
+        for (Map.Entry<String, Integer> entry : slotsByKey.entrySet()) {
+            Object value = vars.get(entry.getKey());
+            values[entry.getValue()] = value != null ? value.toString() : null;
+        }
+        return render(values);
+    }
+
+    private String render(String[] values) {
+        int length = literalLength;
+        for (int i = 0; i < keys.length; i++) {
+            String value = values[slots[i]];
+            length += value != null ? value.length() : keys[i].length() + 3;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(literals[i]);
+            String value = values[slots[i]];
+            if (value != null) {
+                sb.append(value);
+            } else {
+                sb.append("${").append(keys[i]).append('}');
+            }
+        }
+        return sb.append(literals[keys.length]).toString();
+    }
+}
@@ -52,6 +52,18 @@ public final class DefaultsBuilder {
         return this;
     }
 
+    public DefaultsBuilder retryPolicy(RetryPolicy p) {
+        Objects.requireNonNull(p, "retryPolicy");
+        cfg.retryPolicy(p);
+        return this;
+    }
+
+    /** Whether steps may be answered from a response cache unless they opt out. */
+    public DefaultsBuilder cache(boolean enabled) {
+        cfg.cacheable(enabled);
+        return this;
+    }
+
     /** Build the immutable ChatConfig to pass into your Chain. */
     public ChatConfig build() {
         return cfg.build();
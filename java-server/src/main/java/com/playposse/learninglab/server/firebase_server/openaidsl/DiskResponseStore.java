@@ -0,0 +1,332 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent {@link ResponseStore} so cached completions survive restarts
+ * and deploys.
+ * <p>
+ * Responses are appended to a single memory-mapped segment file whose size
+ * is the byte budget; an in-memory hash index maps each key to the offset
+ * of its newest record. Each record is
+ * {@code [magic][body length][CRC32C of body][body]}, and the magic is
+ * written last. On startup the file is scanned from the start and the
+ * index rebuilt until the first record that is missing, truncated or fails
+ * its checksum, so a crash mid-append loses at most that one record.
+ * <p>
+ * When the segment is full it is compacted: the newest unexpired record of
+ * each key is copied into a fresh file (oldest dropped first if they don't
+ * fit in three quarters of the budget), which then atomically replaces the
+ * old one. An interrupted compaction leaves the old file intact.
+ */
+public final class DiskResponseStore implements ResponseStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(DiskResponseStore.class);
+
+    private static final int MAGIC = 0x4C4C4D31;  // "LLM1"
+    private static final int HEADER_BYTES = 12;   // magic, body length, crc
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private record Record(String key, long expiresAtMillis, String content, String usage, int size) {}
+
+    private final Path file;
+    private final Path compactFile;
+    private final int capacity;
+    private final long ttlMillis;
+    private final LongSupplier wallClock;
+    private final Map<String, Integer> index = new HashMap<>();
+
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private int writePos;
+
+    /**
+     * Opens (or creates) the segment file and recovers its index.
+     *
+     * @param file     the segment file
+     * @param maxBytes byte budget; also the size of the mapped file (at most 2 GiB)
+     * @param ttl      how long a stored response stays valid
+     */
+    public DiskResponseStore(Path file, long maxBytes, Duration ttl) throws IOException {
+        this(file, maxBytes, ttl, System::currentTimeMillis);
+    }
+
+    DiskResponseStore(Path file, long maxBytes, Duration ttl, LongSupplier wallClock) throws IOException {
+        if (maxBytes < 1024) {
+            throw new IllegalArgumentException("maxBytes must be at least 1 KiB");
+        }
+        this.file = file;
+        this.compactFile = file.resolveSibling(file.getFileName() + ".compact");
+        this.capacity = (int) Math.min(maxBytes, Integer.MAX_VALUE);
+        this.ttlMillis = ttl.toMillis();
+        this.wallClock = wallClock;
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // a leftover means a compaction died before its rename; the old file is still valid
+        Files.deleteIfExists(compactFile);
+        map();
+        recover();
+        log.info("Opened response store {} with {} entries ({} of {} bytes used)",
+                file, index.size(), writePos, capacity);
+    }
+
+    @Override
+    public synchronized Optional<ChatCompletionResult> get(String key) {
+        Integer pos = index.get(key);
+        if (pos == null) {
+            return Optional.empty();
+        }
+        Record r = readAt(pos);
+        if (r == null || !r.key().equals(key) || isExpired(r)) {
+            index.remove(key);
+            return Optional.empty();
+        }
+        try {
+            JsonNode usage = r.usage() != null ? MAPPER.readTree(r.usage()) : null;
+            return Optional.of(new ChatCompletionResult(r.content(), usage, 0));
+        } catch (IOException e) {
+            index.remove(key);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, ChatCompletionResult result) {
+        write(key, wallClock.getAsLong() + ttlMillis, result);
+    }
+
+    /** Appends an already expired record, so recovery drops the key as well. */
+    @Override
+    public synchronized void remove(String key) {
+        if (index.remove(key) != null) {
+            write(key, 0, new ChatCompletionResult("", null, 0));
+        }
+    }
+
+    /** Number of keys currently indexed. */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /** Bytes of the segment in use, including superseded records. */
+    public synchronized int bytesUsed() {
+        return writePos;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buf.force();
+        channel.close();
+    }
+
+    /*—————— internal ——————*/
+
+    private void write(String key, long expiresAtMillis, ChatCompletionResult result) {
+        byte[] body = encode(key, expiresAtMillis, result);
+        int size = HEADER_BYTES + body.length;
+        if (size > capacity / 2) {
+            log.debug("Not storing {}-byte response; budget is {} bytes", size, capacity);
+            return;
+        }
+        try {
+            if (writePos + size > capacity) {
+                compact(size);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Compacting " + file + " failed", e);
+        }
+        append(buf, writePos, body);
+        if (expiresAtMillis > wallClock.getAsLong()) {
+            index.put(key, writePos);
+        }
+        writePos += size;
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > capacity) {
+            // the budget shrank since the file was written; the scan stops at the new end
+            channel.truncate(capacity);
+        }
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void recover() {
+        int pos = 0;
+        Record r;
+        while ((r = readAt(pos)) != null) {
+            if (isExpired(r)) {
+                index.remove(r.key());
+            } else {
+                index.put(r.key(), pos);
+            }
+            pos += r.size();
+        }
+        writePos = pos;
+    }
+
+    private void compact(int needed) throws IOException {
+        // newest live record per key, oldest first
+        List<Integer> live = new ArrayList<>();
+        for (var it = index.entrySet().iterator(); it.hasNext(); ) {
+            var e = it.next();
+            Record r = readAt(e.getValue());
+            if (r == null || isExpired(r)) {
+                it.remove();
+            } else {
+                live.add(e.getValue());
+            }
+        }
+        live.sort(Comparator.naturalOrder());
+
+        // drop the oldest until the survivors leave headroom for further appends
+        int budget = capacity * 3 / 4 - needed;
+        int keepFrom = live.size();
+        int total = 0;
+        while (keepFrom > 0) {
+            int size = recordSize(live.get(keepFrom - 1));
+            if (total + size > budget) {
+                break;
+            }
+            total += size;
+            keepFrom--;
+        }
+
+        Map<String, Integer> newIndex = new HashMap<>();
+        int pos = 0;
+        try (FileChannel out = FileChannel.open(compactFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (int i = keepFrom; i < live.size(); i++) {
+                int from = live.get(i);
+                int size = recordSize(from);
+                byte[] raw = new byte[size];
+                buf.get(from, raw);
+                target.put(pos, raw);
+                newIndex.put(readAt(from).key(), pos);
+                pos += size;
+            }
+            target.force();
+        }
+
+        channel.close();
+        Files.move(compactFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+
+        log.info("Compacted response store {}: kept {} of {} entries, {} bytes",
+                file, newIndex.size(), index.size(), pos);
+        index.clear();
+        index.putAll(newIndex);
+        writePos = pos;
+    }
+
+    private boolean isExpired(Record r) {
+        return r.expiresAtMillis() <= wallClock.getAsLong();
+    }
+
+    private int recordSize(int pos) {
+        return HEADER_BYTES + buf.getInt(pos + 4);
+    }
+
+    /** Writes a record with the magic last, so a torn write never looks complete. */
+    private static void append(ByteBuffer target, int pos, byte[] body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        target.putInt(pos + 4, body.length);
+        target.putInt(pos + 8, (int) crc.getValue());
+        target.put(pos + HEADER_BYTES, body);
+        target.putInt(pos, MAGIC);
+    }
+
+    /** Decodes the record at {@code pos}, or returns null if it is absent or damaged. */
+    private Record readAt(int pos) {
+        if (pos < 0 || pos + HEADER_BYTES > capacity || buf.getInt(pos) != MAGIC) {
+            return null;
+        }
+        int length = buf.getInt(pos + 4);
+        if (length <= 0 || length > capacity - pos - HEADER_BYTES) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        buf.get(pos + HEADER_BYTES, body);
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        if ((int) crc.getValue() != buf.getInt(pos + 8)) {
+            return null;
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(body);
+            String key = readString(in);
+            long expiresAt = in.getLong();
+            String content = readString(in);
+            String usage = readString(in);
+            return new Record(key, expiresAt, content, usage, HEADER_BYTES + length);
+        } catch (RuntimeException malformed) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(String key, long expiresAtMillis, ChatCompletionResult result) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, key);
+            out.writeLong(expiresAtMillis);
+            writeString(out, result.content());
+            writeString(out, result.usage() != null ? result.usage().toString() : null);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // not thrown by an in-memory stream
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] b = new byte[len];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
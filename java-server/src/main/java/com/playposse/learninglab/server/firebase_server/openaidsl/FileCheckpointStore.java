@@ -0,0 +1,80 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * {@link CheckpointStore} on the local file system: one directory per run
+ * and one {@code step-NNNN.json} file per completed step. Files are written
+ * to a temporary name and renamed into place, so a crash never leaves a
+ * half-written checkpoint behind.
+ */
+public final class FileCheckpointStore implements CheckpointStore {
+
+    private static final Pattern RUN_ID = Pattern.compile("[A-Za-z0-9_.-]+");
+    private static final Pattern STEP_FILE = Pattern.compile("step-(\\d+)\\.json");
+
+    private final Path root;
+
+    public FileCheckpointStore(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public void save(String runId, int stepIndex, String json) throws IOException {
+        Path dir = runDir(runId);
+        Files.createDirectories(dir);
+        Path target = dir.resolve(String.format("step-%04d.json", stepIndex));
+        Path tmp = dir.resolve(target.getFileName() + ".tmp");
+        Files.writeString(tmp, json, StandardCharsets.UTF_8);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public SortedMap<Integer, String> load(String runId) throws IOException {
+        SortedMap<Integer, String> out = new TreeMap<>();
+        Path dir = runDir(runId);
+        if (!Files.isDirectory(dir)) {
+            return out;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "step-*.json")) {
+            for (Path file : files) {
+                Matcher m = STEP_FILE.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    out.put(Integer.parseInt(m.group(1)), Files.readString(file, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void delete(String runId) throws IOException {
+        Path dir = runDir(runId);
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private Path runDir(String runId) {
+        if (!RUN_ID.matcher(runId).matches() || runId.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid run id: " + runId);
+        }
+        return root.resolve(runId);
+    }
+}
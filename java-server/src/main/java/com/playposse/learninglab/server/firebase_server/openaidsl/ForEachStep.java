@@ -3,7 +3,6 @@ package com.playposse.learninglab.server.firebase_server.openaidsl;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 import java.util.List;
 
 /**
@@ -14,6 +13,17 @@ import java.util.List;
  * If the source list is longer than maxElements, it is
  * quietly truncated to that cap, and an ErrorInfo is
  * recorded on the joinLabel to note how many items were dropped.
+ * <p>
+ * At most maxConcurrency branches are in flight at once, counted across
+ * all runs of the step, so a chain shared by concurrent requests doesn't
+ * multiply the cap; the rest wait for a permit. Results are joined in
+ * source order regardless of the order in which branches finish.
+ * <p>
+ * A pipelined loop doesn't wait for its source list: when the step that
+ * binds the source parses with an {@link ItemParser}, the Chain streams
+ * that step's reply and each branch starts as soon as its item has been
+ * parsed. The sub-chain must then not read the history or the source
+ * label itself, as neither is available yet when the branches start.
  */
 public final class ForEachStep<T, R> implements Step {
 
@@ -21,26 +31,67 @@ public final class ForEachStep<T, R> implements Step {
     private final String alias;                         // placeholder name
     private final List<Step> subSteps;                  // the sub-chain to run per item
     private final int maxElements;
+    private final int maxConcurrency;                   // branches in flight at once
     private final Label<List<R>> joinLabel;             // where to store the List<R>
+    private final boolean pipelined;                    // start branches while the source streams
+    private final AsyncSemaphore permits;               // shared by all runs; null when unbounded
 
     private ForEachStep(
             Label<? extends Collection<T>> sourceLabel,
             String alias,
             List<Step> subSteps,
             int maxElements,
-            Label<List<R>> joinLabel
+            int maxConcurrency,
+            Label<List<R>> joinLabel,
+            boolean pipelined
     ) {
         this.sourceLabel = sourceLabel;
         this.alias = alias;
         this.subSteps = List.copyOf(subSteps);
         this.maxElements = maxElements;
+        this.maxConcurrency = maxConcurrency;
         this.joinLabel = joinLabel;
+        this.pipelined = pipelined;
+        this.permits = maxConcurrency != Integer.MAX_VALUE
+                ? new AsyncSemaphore(maxConcurrency)
+                : null;
+    }
+
+    Label<? extends Collection<T>> sourceLabel() {
+        return sourceLabel;
+    }
+
+    boolean pipelined() {
+        return pipelined;
+    }
+
+    /** True if the sub-chain needs neither the history nor the whole source list. */
+    boolean canPipeline() {
+        StepDependencies deps = dependencies();
+        if (deps.barrier() || deps.readsHistory()) {
+            return false;
+        }
+        for (Step step : subSteps) {
+            if (step.dependencies().reads().contains(sourceLabel.name())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "forEach(" + sourceLabel.name() + ")";
+    }
+
+    @Override
+    public Set<Label<?>> outputs() {
+        return Set.of(joinLabel);
     }
 
     @Override
     public CompletableFuture<ChainContext> run(
             ChainContext ctx,
-            Executor executor,
             OpenAiClient client,
             List<CallLog> logs
     ) {
@@ -50,36 +101,103 @@ public final class ForEachStep<T, R> implements Step {
         if (items.size() > maxElements) {
             int dropped = items.size() - maxElements;
             items = items.subList(0, maxElements);
-            ErrorInfo err = new ErrorInfo(
-                    "forEach(" + sourceLabel.name() + ")",
-                    null,
-                    new IllegalArgumentException(
-                            "Truncated " + dropped + " items down to cap of " + maxElements
-                    ),
-                    Instant.now()
-            );
-            logs.add(new CallLog(joinLabel, List.of(), null, null, null, err, 0));
+            truncated(ctx, logs, dropped);
         }
 
         // Remember which labels existed before running the loop.
         Set<Label<?>> baseLabels = new HashSet<>(ctx.vars().keySet());
 
-        // 2) Fan out each item
+        // 2) Fan out each item, keeping at most maxConcurrency branches in flight
         List<CompletableFuture<ChainContext>> futures = new ArrayList<>();
-        for (T item : items) {
-            // fork + inject loop variable
-            Label<T> aliasLabel = Label.of(alias, (Class<T>) item.getClass());
-            ChainContext branchCtx = ctx.fork().plus(aliasLabel, item);
-
-            CompletableFuture<ChainContext> cf = CompletableFuture.completedFuture(branchCtx);
-            for (Step step : subSteps) {
-                cf = cf.thenCompose(c -> step.run(c, executor, client, logs));
+        for (int i = 0; i < items.size(); i++) {
+            futures.add(startBranch(ctx, i, items.get(i), client, logs));
+        }
+
+        // 3) Join
+        return join(ctx, futures, baseLabels);
+    }
+
+    /**
+     * Runs the loop over items as they arrive on {@code source}, while the
+     * step that binds the source label is still streaming its reply.
+     */
+    CompletableFuture<ChainContext> runPipelined(
+            ChainContext ctx,
+            OpenAiClient client,
+            List<CallLog> logs,
+            ItemStream source
+    ) {
+        Set<Label<?>> baseLabels = new HashSet<>(ctx.vars().keySet());
+        List<CompletableFuture<ChainContext>> futures = new ArrayList<>();
+        int[] dropped = {0};
+        source.subscribe(item -> {
+            // the stream delivers one item at a time
+            if (futures.size() >= maxElements) {
+                dropped[0]++;
+                return;
             }
-            futures.add(cf);
+            @SuppressWarnings("unchecked")
+            T typed = (T) item;
+            futures.add(startBranch(ctx, futures.size(), typed, client, logs));
+        });
+
+        return source.done().thenCompose(__ -> {
+            if (dropped[0] > 0) {
+                truncated(ctx, logs, dropped[0]);
+            }
+            return join(ctx, futures, baseLabels);
+        });
+    }
+
+    /** Records that {@code dropped} items beyond maxElements were skipped. */
+    private void truncated(ChainContext ctx, List<CallLog> logs, int dropped) {
+        ErrorInfo err = new ErrorInfo(
+                name(),
+                null,
+                new IllegalArgumentException(
+                        "Truncated " + dropped + " items down to cap of " + maxElements
+                ),
+                Instant.now()
+        );
+        logs.add(new CallLog(joinLabel, List.of(), null, null, null, err, 0));
+        ctx.observer().onError(joinLabel, err);
+    }
+
+    /** Forks the context for item {@code index} and runs the sub-chain on it. */
+    private CompletableFuture<ChainContext> startBranch(
+            ChainContext ctx,
+            int index,
+            T item,
+            OpenAiClient client,
+            List<CallLog> logs
+    ) {
+        // fork + inject loop variable
+        @SuppressWarnings("unchecked")
+        Label<T> aliasLabel = Label.of(alias, (Class<T>) item.getClass());
+        ChainContext branchCtx = ctx.fork()
+                .plus(aliasLabel, item)
+                .withObserver(new BranchObserver(ctx.observer(), joinLabel, index))
+                .withSpan(ctx.span().child(alias + " " + index, Timeline.Kind.BRANCH));
+
+        if (permits == null) {
+            return runBranch(branchCtx, client, logs);
         }
+        long queued = System.nanoTime();
+        return permits.withPermit(() -> {
+            ctx.metrics().queueWait(this, System.nanoTime() - queued);
+            return runBranch(branchCtx, client, logs);
+        });
+    }
 
-        // 3) Join: extract each branch’s single new label (the sub-step output),
-        //    collect its value, and bind the list under joinLabel.
+    /**
+     * Extracts each branch's single new label (the sub-step output),
+     * collects its value, and binds the list under joinLabel.
+     */
+    private CompletableFuture<ChainContext> join(
+            ChainContext ctx,
+            List<CompletableFuture<ChainContext>> futures,
+            Set<Label<?>> baseLabels
+    ) {
         return CompletableFuture
                 .allOf(futures.toArray(new CompletableFuture[0]))
                 .thenApply(_void -> {
@@ -102,10 +220,71 @@ public final class ForEachStep<T, R> implements Step {
                         collected.add(out);
                     }
 
+                    ctx.observer().onLabel(joinLabel, collected);
                     return ctx.plus(joinLabel, collected);
                 });
     }
 
+    private CompletableFuture<ChainContext> runBranch(
+            ChainContext branchCtx,
+            OpenAiClient client,
+            List<CallLog> logs
+    ) {
+        long start = System.nanoTime();
+        Timeline.Recorder branch = branchCtx.span();
+        CompletableFuture<ChainContext> cf = CompletableFuture.completedFuture(branchCtx);
+        for (int i = 0; i < subSteps.size(); i++) {
+            Step step = subSteps.get(i);
+            // the first sub-step was ready when the item was queued
+            boolean first = i == 0;
+            cf = cf.thenCompose(c -> {
+                Timeline.Recorder span = first
+                        ? branch.child(step.name(), Timeline.Kind.STEP, branch.startNanos())
+                        : branch.child(step.name(), Timeline.Kind.STEP);
+                ChainEvents.StepRun event = ChainEvents.StepRun.start(c.metrics(), step);
+                return step.run(c.withSpan(span), client, logs).whenComplete((o, f) -> {
+                    span.end();
+                    event.finish(f == null && o.vars().keySet().containsAll(step.outputs()));
+                });
+            });
+        }
+        Step last = subSteps.get(subSteps.size() - 1);
+        return cf.whenComplete((out, failure) -> {
+            branch.end();
+            branchCtx.metrics().branchFinished(
+                    this,
+                    System.nanoTime() - start,
+                    failure == null && out.vars().keySet().containsAll(last.outputs()));
+        });
+    }
+
+    /**
+     * Reads the source label plus whatever the sub-chain reads from outside
+     * the loop, and writes the join label.
+     */
+    @Override
+    public StepDependencies dependencies() {
+        Set<String> reads = new HashSet<>();
+        reads.add(sourceLabel.name());
+        Set<String> local = new HashSet<>();
+        local.add(alias);
+        boolean readsHistory = false;
+        for (Step step : subSteps) {
+            StepDependencies sub = step.dependencies();
+            if (sub.barrier()) {
+                return StepDependencies.BARRIER;
+            }
+            for (String name : sub.reads()) {
+                if (!local.contains(name)) {
+                    reads.add(name);
+                }
+            }
+            local.addAll(sub.writes());
+            readsHistory |= sub.readsHistory();
+        }
+        return StepDependencies.of(reads, Set.of(joinLabel.name()), readsHistory);
+    }
+
     /**
      * Entry point for fluent construction of a ForEachStep.
      */
@@ -123,7 +302,9 @@ public final class ForEachStep<T, R> implements Step {
         private String alias = "item";
         private final List<Step> subSteps = new ArrayList<>();
         private int maxElements = 100;
+        private int maxConcurrency = Integer.MAX_VALUE;
         private Label<List<R>> joinLabel;
+        private boolean pipelined;
 
         protected Builder(Label<? extends Collection<T>> sourceLabel) {
             this.sourceLabel = sourceLabel;
@@ -145,6 +326,27 @@ public final class ForEachStep<T, R> implements Step {
             return this;
         }
 
+        /**
+         * Cap on the number of branches running at once, across all runs of
+         * the built step (default unbounded).
+         */
+        public Builder<T, R> maxConcurrency(int permits) {
+            if (permits < 1) {
+                throw new IllegalArgumentException("maxConcurrency must be >= 1, got " + permits);
+            }
+            this.maxConcurrency = permits;
+            return this;
+        }
+
+        /**
+         * Start each item's branch as soon as the item has been parsed from
+         * the streaming reply of the step that binds the source label.
+         */
+        public Builder<T, R> pipelined() {
+            this.pipelined = true;
+            return this;
+        }
+
         /**
          * Add one Step (e.g. a SimpleStep) to run for each item.
          */
@@ -171,7 +373,7 @@ public final class ForEachStep<T, R> implements Step {
                 throw new IllegalStateException("Must add at least one step");
             }
             return new ForEachStep<>(
-                    sourceLabel, alias, subSteps, maxElements, joinLabel
+                    sourceLabel, alias, subSteps, maxElements, maxConcurrency, joinLabel, pipelined
             );
         }
     }
@@ -0,0 +1,38 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A Parser for list responses that can also work incrementally: fed the
+ * reply piece by piece while it streams in, it hands each item over as soon
+ * as the item is complete. A pipelined forEach uses this to start work on
+ * the first items while the model is still writing the rest of the list.
+ * <p>
+ * Feeding the whole reply to one session yields the same items as
+ * {@link #parse(String)}.
+ *
+ * @param <T> the type of one list item
+ */
+public interface ItemParser<T> extends Parser<List<T>> {
+
+    /** Starts parsing one reply; completed items go to {@code onItem}, in order. */
+    Session<T> session(Consumer<? super T> onItem);
+
+    @Override
+    default List<T> parse(String input) throws Exception {
+        Session<T> session = session(item -> {});
+        session.feed(input);
+        return session.finish();
+    }
+
+    /** The state of one incremental parse. Not thread-safe; feed it from one thread at a time. */
+    interface Session<T> {
+
+        /** Consumes the next piece of the reply. */
+        void feed(String delta) throws Exception;
+
+        /** Ends the reply, emitting any last item, and returns all items. */
+        List<T> finish() throws Exception;
+    }
+}
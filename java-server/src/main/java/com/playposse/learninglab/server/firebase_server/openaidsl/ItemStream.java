@@ -0,0 +1,50 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The items of a list label as its step parses them, for the pipelined
+ * forEach loops over that label. Each subscriber sees every item exactly
+ * once and in order, including the ones published before it subscribed.
+ */
+final class ItemStream {
+
+    private final List<Object> items = new ArrayList<>();
+    private final List<Consumer<Object>> subscribers = new ArrayList<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    synchronized void publish(Object item) {
+        items.add(item);
+        for (Consumer<Object> subscriber : subscribers) {
+            subscriber.accept(item);
+        }
+    }
+
+    synchronized void subscribe(Consumer<Object> subscriber) {
+        for (Object item : items) {
+            subscriber.accept(item);
+        }
+        subscribers.add(subscriber);
+    }
+
+    synchronized int published() {
+        return items.size();
+    }
+
+    /** No more items will come; the list is complete. */
+    void complete() {
+        done.complete(null);
+    }
+
+    /** The step failed to produce the list. */
+    void fail(Throwable cause) {
+        done.completeExceptionally(cause);
+    }
+
+    CompletableFuture<Void> done() {
+        return done;
+    }
+}
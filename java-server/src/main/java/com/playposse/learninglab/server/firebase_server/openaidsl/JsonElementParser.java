@@ -0,0 +1,204 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Incremental JSON parser on Jackson's non-blocking parser: it reads the
+ * reply as it streams in and hands over each element of one array (named
+ * by a JSON pointer such as {@code /levels}) as soon as the element closes,
+ * converted to the element type.
+ * <p>
+ * Text before the first {@code {} or {@code [} (e.g. a Markdown fence) and
+ * anything after the root value are ignored.
+ */
+final class JsonElementParser<T> implements ItemParser<T> {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private final ObjectMapper mapper;
+    private final String arrayPointer;
+    private final JavaType elementType;
+
+    JsonElementParser(ObjectMapper mapper, String arrayPointer, JavaType elementType) {
+        this.mapper = mapper;
+        this.arrayPointer = arrayPointer;
+        this.elementType = elementType;
+    }
+
+    @Override
+    public Session<T> session(Consumer<? super T> onItem) {
+        return new JsonSession(onItem);
+    }
+
+    /** One open container while the document is being read. */
+    private static final class Frame {
+        final JsonNode node;
+        final String pointer;
+        String field;
+        int nextIndex;
+
+        Frame(JsonNode node, String pointer) {
+            this.node = node;
+            this.pointer = pointer;
+        }
+    }
+
+    private final class JsonSession implements Session<T> {
+        private final Consumer<? super T> onItem;
+        private final List<T> items = new ArrayList<>();
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private JsonParser parser;
+        private boolean started;
+        private boolean rootClosed;
+        private boolean arraySeen;
+
+        JsonSession(Consumer<? super T> onItem) {
+            this.onItem = onItem;
+        }
+
+        @Override
+        public void feed(String delta) throws IOException {
+            if (rootClosed) {
+                return;
+            }
+            if (!started) {
+                int open = firstOpening(delta);
+                if (open < 0) {
+                    return;
+                }
+                delta = delta.substring(open);
+                parser = FACTORY.createNonBlockingByteArrayParser();
+                started = true;
+            }
+            byte[] bytes = delta.getBytes(StandardCharsets.UTF_8);
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+            drain();
+        }
+
+        @Override
+        public List<T> finish() throws IOException {
+            if (!started) {
+                throw new IOException("No JSON value in the reply");
+            }
+            if (!rootClosed) {
+                ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+                drain();
+            }
+            parser.close();
+            if (!rootClosed) {
+                throw new IOException("The JSON value in the reply is incomplete");
+            }
+            if (!arraySeen) {
+                throw new IOException("No array at " + (arrayPointer.isEmpty() ? "the root" : arrayPointer));
+            }
+            return items;
+        }
+
+        private void drain() throws IOException {
+            JsonToken token;
+            while (!rootClosed && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+                switch (token) {
+                    case FIELD_NAME -> stack.peek().field = parser.currentName();
+                    case START_OBJECT -> open(NODES.objectNode());
+                    case START_ARRAY -> open(NODES.arrayNode());
+                    case END_OBJECT, END_ARRAY -> {
+                        Frame closed = stack.pop();
+                        completed(closed.node, stack.peek());
+                    }
+                    default -> {
+                        JsonNode value = scalar(token);
+                        Frame parent = stack.peek();
+                        attach(parent, value);
+                        completed(value, parent);
+                    }
+                }
+            }
+        }
+
+        private void open(JsonNode container) {
+            Frame parent = stack.peek();
+            String pointer = parent == null ? "" : parent.pointer + "/" + segment(parent);
+            attach(parent, container);
+            stack.push(new Frame(container, pointer));
+            if (container.isArray() && pointer.equals(arrayPointer)) {
+                arraySeen = true;
+            }
+        }
+
+        private void completed(JsonNode value, Frame parent) throws IOException {
+            if (parent == null) {
+                rootClosed = true;
+                return;
+            }
+            if (parent.node.isArray() && parent.pointer.equals(arrayPointer)) {
+                T item = mapper.convertValue(value, elementType);
+                items.add(item);
+                onItem.accept(item);
+            }
+        }
+
+        private JsonNode scalar(JsonToken token) throws IOException {
+            return switch (token) {
+                case VALUE_STRING -> NODES.textNode(parser.getText());
+                case VALUE_NUMBER_INT -> switch (parser.getNumberType()) {
+                    case INT -> NODES.numberNode(parser.getIntValue());
+                    case LONG -> NODES.numberNode(parser.getLongValue());
+                    default -> NODES.numberNode(parser.getBigIntegerValue());
+                };
+                case VALUE_NUMBER_FLOAT -> NODES.numberNode(parser.getDoubleValue());
+                case VALUE_TRUE -> NODES.booleanNode(true);
+                case VALUE_FALSE -> NODES.booleanNode(false);
+                case VALUE_NULL -> NODES.nullNode();
+                default -> throw new IOException("Unexpected JSON token " + token);
+            };
+        }
+    }
+
+    private static void attach(Frame parent, JsonNode value) {
+        if (parent == null) {
+            return;
+        }
+        if (parent.node instanceof ObjectNode object) {
+            object.set(parent.field, value);
+        } else {
+            ((ArrayNode) parent.node).add(value);
+            parent.nextIndex++;
+        }
+    }
+
+    /** The pointer segment of the value about to be attached to {@code parent}. */
+    private static String segment(Frame parent) {
+        if (parent.node.isArray()) {
+            return Integer.toString(parent.nextIndex);
+        }
+        return parent.field.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static int firstOpening(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '{' || c == '[') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -12,10 +12,13 @@ import com.fasterxml.jackson.core.type.TypeReference;
 public final class Label<T> {
     private final String name;
     private final Type   type;
+    private final int    hash;
 
     private Label(String name, Type type) {
         this.name = name;
         this.type = type;
+        // Labels are map keys in every ChainContext, so hash once up front
+        this.hash = Objects.hash(name, type);
     }
 
     public String name() {
@@ -48,6 +51,6 @@ public final class Label<T> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, type);
+        return hash;
     }
 }
@@ -0,0 +1,56 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.time.Duration;
+
+/**
+ * A failed OpenAI call, stripped down to what the DSL needs to decide whether
+ * and when to try again.
+ */
+public class OpenAiCallException extends RuntimeException {
+
+    /** Status code used when no HTTP response was received (I/O failure). */
+    public static final int NO_STATUS = -1;
+
+    private final int statusCode;
+    private final Duration retryAfter;
+    private final String requestId;
+
+    /**
+     * @param statusCode the HTTP status, or {@link #NO_STATUS}
+     * @param retryAfter how long the server asked us to wait, or null
+     * @param requestId  the X-Request-Id of the failed call, or null
+     */
+    public OpenAiCallException(
+            String message,
+            int statusCode,
+            Duration retryAfter,
+            String requestId,
+            Throwable cause
+    ) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+        this.requestId = requestId;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+
+    public String requestId() {
+        return requestId;
+    }
+
+    /** Timeouts, conflicts, throttling, server errors and lost connections. */
+    public boolean isRetryable() {
+        return statusCode == NO_STATUS
+                || statusCode == 408
+                || statusCode == 409
+                || statusCode == 429
+                || statusCode >= 500;
+    }
+}
@@ -1,9 +1,57 @@
 package com.playposse.learninglab.server.firebase_server.openaidsl;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 /** Minimal interface to your OpenAI wrapper. */
 public interface OpenAiClient {
     ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config)
             throws Exception;
-}
\ No newline at end of file
+
+    /**
+     * Non-blocking variant used by the chain runtime. Implementations backed
+     * by an async HTTP client should override this; the default runs the
+     * blocking call on a virtual thread.
+     */
+    default CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+            List<ChatMsg> messages,
+            ChatConfig config
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return chatCompletion(messages, config);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, Thread::startVirtualThread);
+    }
+
+    /**
+     * Streaming variant: hands each piece of content to {@code onDelta} as
+     * it arrives (in order, never concurrently) and completes with the full
+     * result, including time-to-first-token and tokens/second. The default
+     * makes a regular call and delivers the whole reply as a single delta.
+     */
+    default CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        return chatCompletionAsync(messages, config).thenApply(res -> {
+            if (!res.content().isEmpty()) {
+                onDelta.accept(res.content());
+            }
+            return res;
+        });
+    }
+
+    /**
+     * Tells the client that its reply to this request couldn't be used,
+     * e.g. because it didn't parse, so a cache below mustn't serve it again.
+     * Decorators pass it on; the default does nothing.
+     */
+    default void discard(List<ChatMsg> messages, ChatConfig config) {
+    }
+}
@@ -5,27 +5,81 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.openai.client.OpenAIClient;
 import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.core.JsonValue;
+import com.openai.core.http.AsyncStreamResponse;
+import com.openai.core.http.Headers;
+import com.openai.errors.OpenAIException;
+import com.openai.errors.OpenAIIoException;
+import com.openai.errors.OpenAIServiceException;
 import com.openai.models.ChatModel;
+import com.openai.models.ResponseFormatJsonSchema;
 import com.openai.models.chat.completions.ChatCompletion;
+import com.openai.models.chat.completions.ChatCompletionChunk;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import com.openai.models.chat.completions.ChatCompletionStreamOptions;
 import com.openai.models.completions.CompletionUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Adapter from our ChatMsg/ChatConfig DSL into the official OpenAI Java SDK.
+ * <p>
+ * With a {@link MeterRegistry}, every request is timed as
+ * {@code openai.client.requests} (by model, outcome, HTTP status and mode),
+ * streamed requests also record {@code openai.client.ttft}, and the usage
+ * of each reply is counted as {@code openai.client.tokens}. Each request is
+ * also a {@code learninglab.OpenAiRequest} JFR event.
  */
 public class OpenAiClientImpl implements OpenAiClient {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern RESET_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+    /** Empty composite: hands out no-op meters. */
+    private static final MeterRegistry NO_METRICS = new CompositeMeterRegistry();
     private final OpenAIClient sdk;
+    private final MeterCache metrics;
 
     public OpenAiClientImpl(String apiKey) {
+        this(apiKey, null);
+    }
+
+    /** Talks to {@code baseUrl} instead of api.openai.com, e.g. a local stub. */
+    OpenAiClientImpl(String apiKey, String baseUrl) {
         // Build a thread-safe client from your key :contentReference[oaicite:0]{index=0}
-        this.sdk = OpenAIOkHttpClient.builder()
+        // Retries are owned by the step's RetryPolicy, so the SDK must not
+        // retry behind our back (that would hide attempts from the CallLogs)
+        var builder = OpenAIOkHttpClient.builder()
                 .apiKey(apiKey)
-                .build();
+                .maxRetries(0);
+        if (baseUrl != null) {
+            builder.baseUrl(baseUrl);
+        }
+        this.sdk = builder.build();
+        this.metrics = new MeterCache(NO_METRICS);
+    }
+
+    /** Sends calls through {@code sdk}, e.g. one built on the shared {@link OpenAiHttpClient}. */
+    public OpenAiClientImpl(OpenAIClient sdk) {
+        this(sdk, NO_METRICS);
+    }
+
+    /** Like {@link #OpenAiClientImpl(OpenAIClient)}, timing and counting requests in {@code metrics}. */
+    public OpenAiClientImpl(OpenAIClient sdk, MeterRegistry metrics) {
+        this.sdk = sdk;
+        this.metrics = new MeterCache(metrics);
     }
 
     @Override
@@ -33,6 +87,297 @@ public class OpenAiClientImpl implements OpenAiClient {
             List<ChatMsg> messages,
             ChatConfig config
     ) throws Exception {
+        ChatCompletionCreateParams params = buildParams(messages, config);
+
+        // 3) Build & send
+        long start = System.nanoTime();
+        ChainEvents.OpenAiRequest event = new ChainEvents.OpenAiRequest();
+        event.begin();
+        ChatCompletion response;
+        try {
+            response = sdk
+                    .chat()
+                    .completions()
+                    .create(params);
+        } catch (OpenAIException e) {
+            RuntimeException translated = translate(e);
+            record(config, "sync", start, null, translated, event);
+            throw translated;
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        ChatCompletionResult result = toResult(response, elapsedMs);
+        record(config, "sync", start, result, null, event);
+        return result;
+    }
+
+    /**
+     * Sends the request through the SDK's async client, which shares this
+     * client's connection pool; no thread waits while the call is in flight.
+     */
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+            List<ChatMsg> messages,
+            ChatConfig config
+    ) {
+        ChatCompletionCreateParams params = buildParams(messages, config);
+
+        long start = System.nanoTime();
+        ChainEvents.OpenAiRequest event = new ChainEvents.OpenAiRequest();
+        event.begin();
+        return sdk
+                .async()
+                .chat()
+                .completions()
+                .create(params)
+                .handle((response, failure) -> {
+                    if (failure != null) {
+                        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                                ? failure.getCause()
+                                : failure;
+                        Throwable translated = cause instanceof OpenAIException e ? translate(e) : cause;
+                        record(config, "async", start, null, translated, event);
+                        throw new CompletionException(translated);
+                    }
+                    ChatCompletionResult result = toResult(response, (System.nanoTime() - start) / 1_000_000L);
+                    record(config, "async", start, result, null, event);
+                    return result;
+                });
+    }
+
+    /**
+     * Streams the reply through the SDK's async streaming API, handing each
+     * content delta to {@code onDelta} as soon as its chunk arrives. Usage is
+     * requested in the final chunk so tokens/second can be computed.
+     */
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        ChatCompletionCreateParams params = buildParams(messages, config)
+                .toBuilder()
+                .streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build())
+                .build();
+
+        StreamCollector collector = new StreamCollector(onDelta);
+        ChainEvents.OpenAiRequest event = new ChainEvents.OpenAiRequest();
+        event.begin();
+        AsyncStreamResponse<ChatCompletionChunk> stream;
+        try {
+            stream = sdk.async().chat().completions().createStreaming(params);
+        } catch (OpenAIException e) {
+            RuntimeException translated = translate(e);
+            record(config, "stream", collector.start, null, translated, event);
+            return CompletableFuture.failedFuture(translated);
+        }
+        collector.stream = stream;
+        stream.subscribe(collector);
+        return collector.result.whenComplete((result, failure) -> {
+            record(config, "stream", collector.start, result, failure, event);
+            if (result != null) {
+                metrics.histogram("openai.client.ttft", "model", config.model().asString())
+                        .record(result.timeToFirstTokenMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /** Times one request, counts the tokens of its reply and commits its JFR event. */
+    private void record(
+            ChatConfig config,
+            String mode,
+            long startNanos,
+            ChatCompletionResult result,
+            Throwable failure,
+            ChainEvents.OpenAiRequest event
+    ) {
+        String model = config.model().asString();
+        int status = failure instanceof OpenAiCallException e ? e.statusCode() : OpenAiCallException.NO_STATUS;
+        metrics.histogram("openai.client.requests",
+                        "model", model,
+                        "outcome", failure == null ? "success" : "error",
+                        "status", failure == null ? "200" : status == OpenAiCallException.NO_STATUS ? "none" : Integer.toString(status),
+                        "mode", mode)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (result != null && result.usage() != null) {
+            for (String type : List.of("prompt", "completion")) {
+                JsonNode n = result.usage().get(type + "_tokens");
+                if (n != null) {
+                    metrics.counter("openai.client.tokens", "model", model, "type", type).increment(n.asLong());
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.model = model;
+            event.mode = mode;
+            event.status = failure == null ? 200 : status;
+            event.succeeded = failure == null;
+            if (result != null) {
+                event.promptTokens = ChainEvents.tokens(result.usage(), "prompt_tokens");
+                event.completionTokens = ChainEvents.tokens(result.usage(), "completion_tokens");
+                event.timeToFirstToken = result.timeToFirstTokenMillis();
+            }
+            event.commit();
+        }
+    }
+
+    /** Accumulates one streamed reply; the SDK calls it from one thread at a time. */
+    private static final class StreamCollector implements AsyncStreamResponse.Handler<ChatCompletionChunk> {
+        final CompletableFuture<ChatCompletionResult> result = new CompletableFuture<>();
+        private final Consumer<String> onDelta;
+        final long start = System.nanoTime();
+        private final StringBuilder content = new StringBuilder();
+        private long firstTokenNanos;
+        private CompletionUsage usage;
+        private RuntimeException consumerFailure;
+        volatile AsyncStreamResponse<ChatCompletionChunk> stream;
+
+        StreamCollector(Consumer<String> onDelta) {
+            this.onDelta = onDelta;
+        }
+
+        @Override
+        public void onNext(ChatCompletionChunk chunk) {
+            if (consumerFailure != null) {
+                return;
+            }
+            chunk.usage().ifPresent(u -> usage = u);
+            if (chunk.choices().isEmpty()) {
+                return;
+            }
+            String delta = chunk.choices().get(0).delta().content().orElse("");
+            if (delta.isEmpty()) {
+                return;
+            }
+            if (firstTokenNanos == 0) {
+                firstTokenNanos = System.nanoTime();
+            }
+            content.append(delta);
+            try {
+                onDelta.accept(delta);
+            } catch (RuntimeException e) {
+                // the caller gave up on this reply; stop reading it
+                consumerFailure = e;
+                AsyncStreamResponse<ChatCompletionChunk> s = stream;
+                if (s != null) {
+                    s.close();
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(Optional<Throwable> error) {
+            if (consumerFailure != null) {
+                result.completeExceptionally(consumerFailure);
+                return;
+            }
+            if (error.isPresent()) {
+                Throwable cause = error.get();
+                if (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                result.completeExceptionally(cause instanceof OpenAIException e ? translate(e) : cause);
+                return;
+            }
+            long end = System.nanoTime();
+            long firstToken = firstTokenNanos == 0 ? end : firstTokenNanos;
+            result.complete(ChatCompletionResult.streamed(
+                    content.toString(),
+                    usage != null ? usageJson(usage) : null,
+                    (end - start) / 1_000_000L,
+                    (firstToken - start) / 1_000_000L));
+        }
+    }
+
+    /**
+     * Maps SDK errors onto {@link OpenAiCallException}, keeping the status
+     * code and how long the server asked us to back off.
+     */
+    public static RuntimeException translate(OpenAIException t) {
+        if (t instanceof OpenAIServiceException e) {
+            return new OpenAiCallException(
+                    e.getMessage(),
+                    e.statusCode(),
+                    retryAfter(e.headers()),
+                    firstHeader(e.headers(), "x-request-id"),
+                    e);
+        }
+        if (t instanceof OpenAIIoException e) {
+            return new OpenAiCallException(e.getMessage(), OpenAiCallException.NO_STATUS, null, null, e);
+        }
+        return t;
+    }
+
+    /**
+     * Reads the server's back-off hint: {@code retry-after-ms}, then
+     * {@code retry-after} (seconds or an HTTP date), then the later of the
+     * {@code x-ratelimit-reset-requests}/{@code -tokens} durations.
+     */
+    static Duration retryAfter(Headers headers) {
+        try {
+            String ms = firstHeader(headers, "retry-after-ms");
+            if (ms != null) {
+                return Duration.ofMillis((long) Double.parseDouble(ms));
+            }
+            String retryAfter = firstHeader(headers, "retry-after");
+            if (retryAfter != null) {
+                try {
+                    return Duration.ofMillis((long) (Double.parseDouble(retryAfter) * 1000));
+                } catch (NumberFormatException notSeconds) {
+                    ZonedDateTime at = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME);
+                    Duration d = Duration.between(Instant.now(), at.toInstant());
+                    return d.isNegative() ? Duration.ZERO : d;
+                }
+            }
+        } catch (RuntimeException malformed) {
+            // fall through to the rate-limit headers
+        }
+
+        Duration reset = null;
+        for (String name : List.of("x-ratelimit-reset-requests", "x-ratelimit-reset-tokens")) {
+            Duration d = parseResetDuration(firstHeader(headers, name));
+            if (d != null && (reset == null || d.compareTo(reset) > 0)) {
+                reset = d;
+            }
+        }
+        return reset;
+    }
+
+    /**
+     * Parses OpenAI's Go-style reset durations such as {@code 20ms},
+     * {@code 1.5s} or {@code 6m0s}; returns null if absent or malformed.
+     */
+    static Duration parseResetDuration(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        Matcher m = RESET_PART.matcher(value.trim());
+        double millis = 0;
+        int end = 0;
+        while (m.find() && m.start() == end) {
+            double n = Double.parseDouble(m.group(1));
+            millis += switch (m.group(2)) {
+                case "h" -> n * 3_600_000;
+                case "m" -> n * 60_000;
+                case "s" -> n * 1_000;
+                case "ms" -> n;
+                default -> 0;
+            };
+            end = m.end();
+        }
+        return end == value.trim().length() && end > 0 ? Duration.ofMillis((long) millis) : null;
+    }
+
+    private static String firstHeader(Headers headers, String name) {
+        List<String> values = headers.values(name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private static ChatCompletionCreateParams buildParams(
+            List<ChatMsg> messages,
+            ChatConfig config
+    ) {
         // 1) Start the builder with model & sampling params :contentReference[oaicite:1]{index=1}
         var builder = ChatCompletionCreateParams.builder()
                 .model(config.model())
@@ -41,6 +386,9 @@ public class OpenAiClientImpl implements OpenAiClient {
                 .topP(config.topP())
                 .presencePenalty(config.presencePenalty())
                 .frequencyPenalty(config.frequencyPenalty());
+        if (config.responseSchema() != null) {
+            builder.responseFormat(responseFormat(config.responseSchema()));
+        }
 
         // 2) Inject our SYSTEM/USER messages into the SDK builder
         for (ChatMsg msg : messages) {
@@ -59,16 +407,23 @@ public class OpenAiClientImpl implements OpenAiClient {
                     break;
             }
         }
+        return builder.build();
+    }
 
-        // 3) Build & send
-        ChatCompletionCreateParams params = builder.build();
-        long start = System.nanoTime();
-        ChatCompletion response = sdk
-                .chat()
-                .completions()
-                .create(params);
-        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+    /** Strict structured output: the reply must match the schema. */
+    private static ResponseFormatJsonSchema responseFormat(ResponseSchema schema) {
+        ResponseFormatJsonSchema.JsonSchema.Schema.Builder body = ResponseFormatJsonSchema.JsonSchema.Schema.builder();
+        schema.schema().properties().forEach(e -> body.putAdditionalProperty(e.getKey(), JsonValue.fromJsonNode(e.getValue())));
+        return ResponseFormatJsonSchema.builder()
+                .jsonSchema(ResponseFormatJsonSchema.JsonSchema.builder()
+                        .name(schema.name())
+                        .schema(body.build())
+                        .strict(true)
+                        .build())
+                .build();
+    }
 
+    private static ChatCompletionResult toResult(ChatCompletion response, long elapsedMs) {
         // 4) Extract the single reply (content() returns Optional<String>)
         String text = response
                 .choices()
@@ -78,16 +433,16 @@ public class OpenAiClientImpl implements OpenAiClient {
                 .orElse("");
 
         // 5) (Optional) parse usage once you locate the right type; leave null for now
-        JsonNode usageJson = null;
-        Optional<CompletionUsage> usageOpt = response.usage();
-        if (usageOpt.isPresent()) {
-            ObjectNode node = MAPPER.createObjectNode();
-            node.put("prompt_tokens", usageOpt.get().promptTokens());
-            node.put("completion_tokens", usageOpt.get().completionTokens());
-            node.put("total_tokens", usageOpt.get().totalTokens());
-            usageJson = node;
-        }
+        JsonNode usage = response.usage().map(OpenAiClientImpl::usageJson).orElse(null);
+
+        return new ChatCompletionResult(text, usage, elapsedMs);
+    }
 
-        return new ChatCompletionResult(text, usageJson, elapsedMs);
+    private static JsonNode usageJson(CompletionUsage usage) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("prompt_tokens", usage.promptTokens());
+        node.put("completion_tokens", usage.completionTokens());
+        node.put("total_tokens", usage.totalTokens());
+        return node;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,395 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.openai.client.OpenAIClient;
+import com.openai.client.OpenAIClientImpl;
+import com.openai.core.ClientOptions;
+import com.openai.core.RequestOptions;
+import com.openai.core.Timeout;
+import com.openai.core.http.Headers;
+import com.openai.core.http.HttpClient;
+import com.openai.core.http.HttpRequest;
+import com.openai.core.http.HttpRequestBody;
+import com.openai.core.http.HttpResponse;
+import com.openai.errors.OpenAIIoException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The HTTP transport for the OpenAI SDK: one OkHttp client whose connection
+ * pool, dispatcher and timeouts are sized explicitly, instead of the SDK's
+ * default of at most 5 concurrent requests per host and 5 idle connections.
+ * HTTP/2 is negotiated so concurrent calls multiplex over few connections.
+ * <p>
+ * Share one instance (and the {@link OpenAIClient} from {@link #sdk}) across
+ * the application, so every caller reuses the same warm TLS connections;
+ * {@link #stats()} tells how well that works. As a {@link MeterBinder} it
+ * publishes the same numbers as {@code openai.http.*} meters.
+ */
+public final class OpenAiHttpClient implements HttpClient, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenAiHttpClient.class);
+    private static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
+
+    /** Pool, dispatcher and timeout settings. */
+    public record Settings(
+            int maxIdleConnections,
+            Duration keepAlive,
+            int maxRequests,
+            int maxRequestsPerHost,
+            Duration connectTimeout,
+            Duration readTimeout,
+            Duration writeTimeout,
+            Duration callTimeout
+    ) {
+        /** Roomy enough for a few chains fanning out at once; calls can take minutes. */
+        public static Settings defaults() {
+            return new Settings(16, Duration.ofMinutes(5), 128, 64,
+                    Duration.ofSeconds(10), Duration.ofMinutes(10), Duration.ofSeconds(30), Duration.ofMinutes(15));
+        }
+    }
+
+    /**
+     * How connections were used so far: a call either {@code reused} a
+     * pooled connection or had to open one, paying for a TLS handshake.
+     */
+    public record ConnectionStats(
+            long callsStarted,
+            long connectionsOpened,
+            long connectionsReused,
+            long tlsHandshakes,
+            long http2Connections,
+            int pooledConnections,
+            int idleConnections,
+            int queuedCalls,
+            int runningCalls
+    ) {
+        /** Share of connection acquisitions served from the pool, 0..1. */
+        public double reuseRatio() {
+            long acquired = connectionsOpened + connectionsReused;
+            return acquired == 0 ? 0 : (double) connectionsReused / acquired;
+        }
+    }
+
+    private final OkHttpClient okHttp;
+    /** Clients derived for per-request timeouts; the SDK sends one with every request. */
+    private final Map<Timeout, OkHttpClient> byTimeout = new ConcurrentHashMap<>();
+    private final LongAdder callsStarted = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsAcquired = new LongAdder();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder http2Connections = new LongAdder();
+
+    public OpenAiHttpClient(Settings settings) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(settings.maxRequests());
+        dispatcher.setMaxRequestsPerHost(settings.maxRequestsPerHost());
+        this.okHttp = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(
+                        settings.maxIdleConnections(), settings.keepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(settings.connectTimeout())
+                .readTimeout(settings.readTimeout())
+                .writeTimeout(settings.writeTimeout())
+                .callTimeout(settings.callTimeout())
+                .eventListener(new StatsListener())
+                .build();
+        byTimeout.put(defaultTimeout(), okHttp);
+    }
+
+    /**
+     * An SDK client that sends every request through this transport. The
+     * SDK doesn't retry; the steps' RetryPolicy owns retries.
+     */
+    public OpenAIClient sdk(String apiKey, String baseUrl) {
+        return new OpenAIClientImpl(ClientOptions.builder()
+                .httpClient(this)
+                .apiKey(apiKey)
+                .baseUrl(baseUrl != null ? baseUrl : DEFAULT_BASE_URL)
+                .timeout(defaultTimeout())
+                .maxRetries(0)
+                .build());
+    }
+
+    /**
+     * Opens (and pools) a TLS connection to {@code baseUrl} ahead of the
+     * first real call, so no user request pays for the handshake. Any
+     * response will do, so the request is unauthenticated.
+     */
+    public CompletableFuture<Void> warmUp(String baseUrl) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        HttpUrl url = HttpUrl.get(baseUrl != null ? baseUrl : DEFAULT_BASE_URL).newBuilder()
+                .addPathSegment("models")
+                .build();
+        okHttp.newCall(new Request.Builder().url(url).head().build()).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                response.close();
+                log.info("Warmed up the OpenAI connection to {} ({})", url.host(), response.protocol());
+                done.complete(null);
+            }
+
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                log.warn("Could not warm up the OpenAI connection to {}: {}", url.host(), e.toString());
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    public ConnectionStats stats() {
+        long opened = connectionsOpened.sum();
+        return new ConnectionStats(
+                callsStarted.sum(),
+                opened,
+                Math.max(0, connectionsAcquired.sum() - opened),
+                tlsHandshakes.sum(),
+                http2Connections.sum(),
+                okHttp.connectionPool().connectionCount(),
+                okHttp.connectionPool().idleConnectionCount(),
+                okHttp.dispatcher().queuedCallsCount(),
+                okHttp.dispatcher().runningCallsCount());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("openai.http.calls", callsStarted, LongAdder::sum)
+                .description("HTTP calls started")
+                .register(registry);
+        FunctionCounter.builder("openai.http.connections.opened", connectionsOpened, LongAdder::sum)
+                .description("Connections opened, each paying for a TCP and usually a TLS handshake")
+                .register(registry);
+        FunctionCounter.builder("openai.http.connections.reused", this, c -> c.stats().connectionsReused())
+                .description("Calls served by a pooled connection")
+                .register(registry);
+        FunctionCounter.builder("openai.http.tls.handshakes", tlsHandshakes, LongAdder::sum)
+                .register(registry);
+        Gauge.builder("openai.http.pool.connections", okHttp.connectionPool(), ConnectionPool::connectionCount)
+                .description("Connections in the pool, busy or idle")
+                .register(registry);
+        Gauge.builder("openai.http.pool.idle", okHttp.connectionPool(), ConnectionPool::idleConnectionCount)
+                .register(registry);
+        Gauge.builder("openai.http.dispatcher.queued", okHttp.dispatcher(), Dispatcher::queuedCallsCount)
+                .description("Async calls waiting for the dispatcher's request limits")
+                .register(registry);
+        Gauge.builder("openai.http.dispatcher.running", okHttp.dispatcher(), Dispatcher::runningCallsCount)
+                .register(registry);
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, RequestOptions options) {
+        try {
+            return toResponse(newCall(request, options).execute());
+        } catch (IOException e) {
+            throw new OpenAIIoException("Request failed", e);
+        } finally {
+            closeBody(request);
+        }
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(HttpRequest request, RequestOptions options) {
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        future.whenComplete((response, failure) -> closeBody(request));
+        newCall(request, options).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                future.complete(toResponse(response));
+            }
+
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                future.completeExceptionally(new OpenAIIoException("Request failed", e));
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        log.info("Closing the OpenAI HTTP client; {}", stats());
+        okHttp.dispatcher().executorService().shutdown();
+        okHttp.connectionPool().evictAll();
+    }
+
+    /** Our own timeouts, which SDK clients from {@link #sdk} send with each request. */
+    private Timeout defaultTimeout() {
+        return Timeout.builder()
+                .connect(Duration.ofMillis(okHttp.connectTimeoutMillis()))
+                .read(Duration.ofMillis(okHttp.readTimeoutMillis()))
+                .write(Duration.ofMillis(okHttp.writeTimeoutMillis()))
+                .request(Duration.ofMillis(okHttp.callTimeoutMillis()))
+                .build();
+    }
+
+    /**
+     * Per-request timeouts override the defaults. The client derived for
+     * them shares pool and dispatcher, and is built once per distinct
+     * timeout; the defaults use {@link #okHttp} itself.
+     */
+    private Call newCall(HttpRequest request, RequestOptions options) {
+        Timeout timeout = options.getTimeout();
+        OkHttpClient client = timeout == null ? okHttp : byTimeout.computeIfAbsent(timeout, t -> okHttp.newBuilder()
+                .connectTimeout(t.connect())
+                .readTimeout(t.read())
+                .writeTimeout(t.write())
+                .callTimeout(t.request())
+                .build());
+        return client.newCall(toRequest(request));
+    }
+
+    /** Clients in use, including {@link #okHttp}; for tests. */
+    int derivedClients() {
+        return byTimeout.size();
+    }
+
+    private static Request toRequest(HttpRequest request) {
+        HttpUrl.Builder url = HttpUrl.get(request.baseUrl()).newBuilder();
+        for (String segment : request.pathSegments()) {
+            url.addPathSegment(segment);
+        }
+        for (String key : request.queryParams().keys()) {
+            for (String value : request.queryParams().values(key)) {
+                url.addQueryParameter(key, value);
+            }
+        }
+
+        RequestBody body = request.body() != null ? toRequestBody(request.body()) : null;
+        String method = request.method().name();
+        if (body == null && (method.equals("POST") || method.equals("PUT") || method.equals("PATCH"))) {
+            body = RequestBody.create(new byte[0]);
+        }
+
+        Request.Builder builder = new Request.Builder().url(url.build()).method(method, body);
+        for (String name : request.headers().names()) {
+            for (String value : request.headers().values(name)) {
+                builder.addHeader(name, value);
+            }
+        }
+        return builder.build();
+    }
+
+    private static RequestBody toRequestBody(HttpRequestBody body) {
+        MediaType type = body.contentType() != null ? MediaType.get(body.contentType()) : null;
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return type;
+            }
+
+            @Override
+            public long contentLength() {
+                return body.contentLength();
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return !body.repeatable();
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) {
+                body.writeTo(sink.outputStream());
+            }
+        };
+    }
+
+    private static HttpResponse toResponse(Response response) {
+        Headers.Builder headers = Headers.builder();
+        for (String name : response.headers().names()) {
+            headers.put(name, response.headers(name));
+        }
+        Headers converted = headers.build();
+        return new HttpResponse() {
+            @Override
+            public int statusCode() {
+                return response.code();
+            }
+
+            @Override
+            public Headers headers() {
+                return converted;
+            }
+
+            @Override
+            public InputStream body() {
+                return response.body().byteStream();
+            }
+
+            @Override
+            public void close() {
+                response.close();
+            }
+        };
+    }
+
+    private static void closeBody(HttpRequest request) {
+        if (request.body() != null) {
+            request.body().close();
+        }
+    }
+
+    /** Counts how calls obtain their connections. */
+    private final class StatsListener extends EventListener {
+        @Override
+        public void callStart(@NotNull Call call) {
+            callsStarted.increment();
+        }
+
+        @Override
+        public void connectStart(@NotNull Call call, @NotNull InetSocketAddress address, @NotNull Proxy proxy) {
+            connectionsOpened.increment();
+        }
+
+        @Override
+        public void secureConnectEnd(@NotNull Call call, Handshake handshake) {
+            tlsHandshakes.increment();
+        }
+
+        @Override
+        public void connectEnd(@NotNull Call call, @NotNull InetSocketAddress address, @NotNull Proxy proxy,
+                               Protocol protocol) {
+            if (protocol == Protocol.HTTP_2 || protocol == Protocol.H2_PRIOR_KNOWLEDGE) {
+                http2Connections.increment();
+            }
+        }
+
+        @Override
+        public void connectionAcquired(@NotNull Call call, @NotNull Connection connection) {
+            connectionsAcquired.increment();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.openai.models.ChatModel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide limiter for the organization's OpenAI requests-per-minute
+ * and tokens-per-minute limits. Each model gets its own pair of token
+ * buckets.
+ * <p>
+ * Callers reserve one request plus an estimated token count. If the
+ * buckets can't cover it, the caller is queued (FIFO, without blocking a
+ * thread) until enough capacity has refilled. Once the response arrives
+ * the caller reconciles the reservation with the actual usage, which
+ * refunds an over-estimate or charges an under-estimate.
+ */
+public final class OpenAiRateLimiter {
+
+    private final Map<String, RateLimits> limitsByModel;
+    private final RateLimits defaultLimits;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService timer;
+    private final Map<String, ModelLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * @param limitsByModel limits keyed by model id (e.g. "gpt-5")
+     * @param defaultLimits limits for models not in the map
+     */
+    public OpenAiRateLimiter(Map<String, RateLimits> limitsByModel, RateLimits defaultLimits) {
+        this(limitsByModel, defaultLimits, System::nanoTime);
+    }
+
+    OpenAiRateLimiter(Map<String, RateLimits> limitsByModel, RateLimits defaultLimits, LongSupplier clock) {
+        this.limitsByModel = Map.copyOf(limitsByModel);
+        this.defaultLimits = defaultLimits;
+        this.clock = clock;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "openai-rate-limiter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Reserves one request and the given number of tokens for the model.
+     * Completes when the capacity is available.
+     */
+    public CompletableFuture<Reservation> acquire(ChatModel model, long tokens) {
+        String key = model.asString();
+        return limiters
+                .computeIfAbsent(key, k -> new ModelLimiter(limitsByModel.getOrDefault(k, defaultLimits)))
+                .acquire(tokens);
+    }
+
+    /** Number of callers currently queued for the model. */
+    public int queued(ChatModel model) {
+        ModelLimiter limiter = limiters.get(model.asString());
+        return limiter == null ? 0 : limiter.queued();
+    }
+
+    /** Capacity held by one caller; settle it exactly once. */
+    public final class Reservation {
+        private final ModelLimiter limiter;
+        private final long tokens;
+        private boolean settled;
+
+        private Reservation(ModelLimiter limiter, long tokens) {
+            this.limiter = limiter;
+            this.tokens = tokens;
+        }
+
+        /** Tokens reserved for the call. */
+        public long tokens() {
+            return tokens;
+        }
+
+        /** Corrects the reservation with the call's actual token usage. */
+        public void reconcile(long actualTokens) {
+            settle(tokens - actualTokens);
+        }
+
+        /** Returns the reserved tokens, e.g. when the call failed before being counted. */
+        public void release() {
+            settle(tokens);
+        }
+
+        private void settle(long refund) {
+            synchronized (this) {
+                if (settled) {
+                    return;
+                }
+                settled = true;
+            }
+            limiter.adjust(refund);
+        }
+    }
+
+    /** Buckets and wait queue for one model. */
+    private final class ModelLimiter {
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private final Queue<Waiter> waiters = new ArrayDeque<>();
+        private boolean wakeUpScheduled;
+
+        ModelLimiter(RateLimits limits) {
+            long now = clock.getAsLong();
+            this.requests = new TokenBucket(limits.requestsPerMinute(), now);
+            this.tokens = new TokenBucket(limits.tokensPerMinute(), now);
+        }
+
+        CompletableFuture<Reservation> acquire(long amount) {
+            // A request larger than the bucket could never be served; cap it
+            Waiter waiter = new Waiter(Math.min(amount, tokens.capacity()), new CompletableFuture<>());
+            List<Waiter> ready;
+            synchronized (this) {
+                waiters.add(waiter);
+                ready = drain();
+            }
+            grant(ready);
+            return waiter.future();
+        }
+
+        void adjust(long refund) {
+            List<Waiter> ready;
+            synchronized (this) {
+                tokens.refill(clock.getAsLong());
+                if (refund >= 0) {
+                    tokens.give(refund);
+                } else {
+                    tokens.take(-refund);
+                }
+                ready = drain();
+            }
+            grant(ready);
+        }
+
+        synchronized int queued() {
+            return waiters.size();
+        }
+
+        private void wakeUp() {
+            List<Waiter> ready;
+            synchronized (this) {
+                wakeUpScheduled = false;
+                ready = drain();
+            }
+            grant(ready);
+        }
+
+        /** Takes capacity for waiters in FIFO order; schedules a wake-up if the head must wait. */
+        private List<Waiter> drain() {
+            long now = clock.getAsLong();
+            requests.refill(now);
+            tokens.refill(now);
+
+            List<Waiter> ready = new ArrayList<>();
+            Waiter head;
+            while ((head = waiters.peek()) != null) {
+                if (!requests.has(1) || !tokens.has(head.tokens())) {
+                    if (!wakeUpScheduled) {
+                        long delay = Math.max(requests.nanosUntil(1), tokens.nanosUntil(head.tokens()));
+                        wakeUpScheduled = true;
+                        timer.schedule(this::wakeUp, Math.max(delay, 1), TimeUnit.NANOSECONDS);
+                    }
+                    break;
+                }
+                requests.take(1);
+                tokens.take(head.tokens());
+                ready.add(waiters.poll());
+            }
+            return ready;
+        }
+
+        /** Completes futures outside the lock; their continuations run inline. */
+        private void grant(List<Waiter> ready) {
+            for (Waiter waiter : ready) {
+                waiter.future().complete(new Reservation(this, waiter.tokens()));
+            }
+        }
+    }
+
+    private record Waiter(long tokens, CompletableFuture<Reservation> future) {}
+}
@@ -3,7 +3,6 @@ package com.playposse.learninglab.server.firebase_server.openaidsl;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 
 /**
  * A Step that runs several independent sub-steps (branches) in parallel,
@@ -22,24 +21,46 @@ public final class ParallelStep implements Step {
         this.joinLabel = joinLabel;
     }
 
+    @Override
+    public String name() {
+        return "parallel(" + joinLabel.name() + ")";
+    }
+
+    @Override
+    public Set<Label<?>> outputs() {
+        return Set.of(joinLabel);
+    }
+
     @Override
     public CompletableFuture<ChainContext> run(
             ChainContext ctx,
-            Executor executor,
             OpenAiClient client,
             List<CallLog> logs
     ) {
         // Fire off each branch’s SimpleStep in parallel
         List<CompletableFuture<BranchOutcome>> futures = new ArrayList<>();
+        int index = 0;
         for (var entry : branches.entrySet()) {
             String name = entry.getKey();
             SimpleStep step = entry.getValue();
 
             // fork context so history/config aren’t shared across branches
-            ChainContext branchCtx = ctx.fork();
+            ChainContext branchCtx = ctx.fork()
+                    .withObserver(new BranchObserver(ctx.observer(), joinLabel, index++))
+                    .withSpan(ctx.span().child(name, Timeline.Kind.BRANCH));
 
+            long start = System.nanoTime();
+            ChainEvents.StepRun event = ChainEvents.StepRun.start(ctx.metrics(), step);
             CompletableFuture<BranchOutcome> cf = step
-                    .run(branchCtx, executor, client, logs)
+                    .run(branchCtx, client, logs)
+                    .whenComplete((brCtx, failure) -> {
+                        branchCtx.span().end();
+                        event.finish(failure == null && brCtx.vars().containsKey(step.getLabel()));
+                        ctx.metrics().branchFinished(
+                                this,
+                                System.nanoTime() - start,
+                                failure == null && brCtx.vars().containsKey(step.getLabel()));
+                    })
                     .thenApply(brCtx -> new BranchOutcome(name, brCtx));
             futures.add(cf);
         }
@@ -67,10 +88,24 @@ public final class ParallelStep implements Step {
                         resultMap.put(outcome.branchName(), branchValue);
                     }
                     // attach the map under joinLabel in the parent context
+                    ctx.observer().onLabel(joinLabel, resultMap);
                     return ctx.plus(joinLabel, resultMap);
                 });
     }
 
+    /** Reads whatever any branch reads and writes the join label. */
+    @Override
+    public StepDependencies dependencies() {
+        Set<String> reads = new HashSet<>();
+        boolean readsHistory = false;
+        for (SimpleStep step : branches.values()) {
+            StepDependencies branch = step.dependencies();
+            reads.addAll(branch.reads());
+            readsHistory |= branch.readsHistory();
+        }
+        return StepDependencies.of(reads, Set.of(joinLabel.name()), readsHistory);
+    }
+
     /** Builder for a ParallelStep. */
     public static class Builder {
         protected final LinkedHashMap<String, SimpleStep> branches = new LinkedHashMap<>();
@@ -1,16 +1,19 @@
 package com.playposse.learninglab.server.firebase_server.openaidsl;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Collection of common Parser implementations.
  */
 public final class Parsers {
+    /** Shared, thread-safe once configured. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private Parsers() {
         // static utility
     }
@@ -24,16 +27,79 @@ public final class Parsers {
 
     /**
      * Parser that splits the input on newlines into a List<String>.
-     * Filters out blank lines and trims whitespace.
+     * Filters out blank lines and trims whitespace. Incrementally, a line
+     * is emitted as soon as its newline arrives.
      */
-    public static Parser<List<String>> stringList() {
-        return input -> Arrays.stream(input.split("\\r?\\n"))
-                .map(String::trim)
-                .filter(s -> !s.isEmpty())
-                .collect(Collectors.toList());
+    public static ItemParser<String> stringList() {
+        return onItem -> new ItemParser.Session<>() {
+            private final StringBuilder line = new StringBuilder();
+            private final List<String> items = new ArrayList<>();
+
+            @Override
+            public void feed(String delta) {
+                int start = 0;
+                int nl;
+                while ((nl = delta.indexOf('\n', start)) >= 0) {
+                    line.append(delta, start, nl);
+                    emit();
+                    start = nl + 1;
+                }
+                line.append(delta, start, delta.length());
+            }
+
+            @Override
+            public List<String> finish() {
+                emit();
+                return items;
+            }
+
+            private void emit() {
+                String item = line.toString().trim();
+                line.setLength(0);
+                if (!item.isEmpty()) {
+                    items.add(item);
+                    onItem.accept(item);
+                }
+            }
+        };
     }
 
+    /** Parser that reads the input as a JSON tree. */
     public static Parser<JsonNode> json() {
-        return input -> new ObjectMapper().readTree(input);
+        return MAPPER::readTree;
+    }
+
+    /** Parser that reads the input as JSON of the label's declared type. */
+    public static <T> Parser<T> json(Label<T> label) {
+        JavaType type = MAPPER.getTypeFactory().constructType(label.type());
+        return input -> MAPPER.readerFor(type).readValue(input);
+    }
+
+    /**
+     * Parser for structured-output replies (see {@link ResponseSchema}):
+     * reads JSON of the label's type, unwrapping it from the one-property
+     * object that non-object types are sent in.
+     */
+    public static <T> Parser<T> structured(Label<T> label) {
+        if (!ResponseSchema.wraps(label)) {
+            return json(label);
+        }
+        JavaType type = MAPPER.getTypeFactory().constructType(label.type());
+        return input -> MAPPER.readerFor(type).readValue(MAPPER.readTree(input).required(label.name()));
+    }
+
+    /**
+     * Parser for a JSON reply that yields the elements of the array at
+     * {@code arrayPointer} (e.g. {@code "/levels"}, or {@code ""} for a root
+     * array), typed after the label's element type. Incrementally, each
+     * element is emitted as soon as it closes, while later ones are still
+     * being written.
+     */
+    public static <T> ItemParser<T> jsonElements(String arrayPointer, Label<List<T>> label) {
+        JavaType listType = MAPPER.getTypeFactory().constructType(label.type());
+        JavaType elementType = listType.getContentType() != null
+                ? listType.getContentType()
+                : MAPPER.getTypeFactory().constructType(JsonNode.class);
+        return new JsonElementParser<>(MAPPER, arrayPointer, elementType);
     }
 }
@@ -0,0 +1,296 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash array mapped trie (HAMT). {@link #plus} copies only the
+ * O(log32 n) nodes on the path to the changed entry and shares the rest
+ * with the original map, so forking a context is free and binding a label
+ * doesn't copy the other labels.
+ * <p>
+ * Keys are looked up by their {@code hashCode()}, so keys with a cached
+ * hash (like {@link Label}) are cheap. Null keys and values are not
+ * supported.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object NOT_FOUND = new Object();
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        Object v = find(key);
+        return v == NOT_FOUND ? null : (V) v;
+    }
+
+    boolean containsKey(Object key) {
+        return find(key) != NOT_FOUND;
+    }
+
+    /** Returns a map with key bound to value, sharing all untouched nodes with this one. */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("PersistentHashMap does not support null keys or values");
+        }
+        boolean[] added = new boolean[1];
+        Node start = root != null ? root : BitmapNode.EMPTY;
+        Node newRoot = start.assoc(0, key.hashCode(), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** Read-only {@link Map} view backed by the trie; nothing is copied. */
+    Map<K, V> asMap() {
+        return new MapView();
+    }
+
+    private Object find(Object key) {
+        if (root == null || key == null) {
+            return NOT_FOUND;
+        }
+        return root.find(0, key.hashCode(), key);
+    }
+
+    /* ── trie nodes ─────────────────────────────────────────────────────── */
+
+    /**
+     * Each node stores pairs in a flat array: {@code [k0, v0, k1, v1, ...]}.
+     * In a BitmapNode a null key means the value slot holds a child node.
+     */
+    private interface Node {
+        Object find(int shift, int hash, Object key);
+
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+
+        Object[] array();
+    }
+
+    private record BitmapNode(int bitmap, Object[] array) implements Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                return ((Node) v).find(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? v : NOT_FOUND;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bitpos(hash, shift);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) != 0) {
+                Object k = array[i];
+                Object v = array[i + 1];
+                if (k == null) {
+                    Node child = ((Node) v).assoc(shift + BITS, hash, key, value, added);
+                    return child == v ? this : new BitmapNode(bitmap, cloneAndSet(array, i + 1, child));
+                }
+                if (key.equals(k)) {
+                    return v == value ? this : new BitmapNode(bitmap, cloneAndSet(array, i + 1, value));
+                }
+                added[0] = true;
+                Node child = createNode(shift + BITS, k, v, hash, key, value);
+                Object[] copy = cloneAndSet(array, i, null);
+                copy[i + 1] = child;
+                return new BitmapNode(bitmap, copy);
+            }
+
+            Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            copy[i] = key;
+            copy[i + 1] = value;
+            System.arraycopy(array, i, copy, i + 2, array.length - i);
+            added[0] = true;
+            return new BitmapNode(bitmap | bit, copy);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /** Holds entries whose full 32-bit hashes are equal. */
+    private record CollisionNode(int hash, Object[] array) implements Node {
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return array[i + 1];
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Nest this node under a bitmap node and insert next to it
+                return new BitmapNode(bitpos(this.hash, shift), new Object[]{null, this})
+                        .assoc(shift, hash, key, value, added);
+            }
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return array[i + 1] == value ? this : new CollisionNode(hash, cloneAndSet(array, i + 1, value));
+                }
+            }
+            Object[] copy = Arrays.copyOf(array, array.length + 2);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+    }
+
+    private static Node createNode(int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+        int h1 = k1.hashCode();
+        if (h1 == h2) {
+            return new CollisionNode(h1, new Object[]{k1, v1, k2, v2});
+        }
+        boolean[] added = new boolean[1];
+        return BitmapNode.EMPTY
+                .assoc(shift, h1, k1, v1, added)
+                .assoc(shift, h2, k2, v2, added);
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] cloneAndSet(Object[] array, int i, Object value) {
+        Object[] copy = array.clone();
+        copy[i] = value;
+        return copy;
+    }
+
+    /* ── Map view ───────────────────────────────────────────────────────── */
+
+    private final class MapView extends AbstractMap<K, V> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return PersistentHashMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Object key) {
+            return PersistentHashMap.this.get(key);
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    /** Depth-first walk over the node arrays. */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        private Map.Entry<K, V> next;
+
+        EntryIterator() {
+            if (root != null) {
+                arrays.push(root.array());
+                positions.push(0);
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                Object[] array = arrays.peek();
+                int i = positions.pop();
+                if (i >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(i + 2);
+                Object k = array[i];
+                Object v = array[i + 1];
+                if (k == null) {
+                    arrays.push(((Node) v).array());
+                    positions.push(0);
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>((K) k, (V) v);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> result = next;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Stable content hash of a chat-completion request: the messages plus every
+ * ChatConfig field that changes what the model returns. Settings that only
+ * affect how we call (retry policy, caching) are left out, so two steps that
+ * send the same request share a key.
+ *
+ * <p>Every field is length-prefixed before hashing, so e.g. the messages
+ * {@code "ab","c"} and {@code "a","bc"} can't collide.</p>
+ */
+public final class PromptHash {
+
+    private PromptHash() {
+        // static helper
+    }
+
+    /** Hex-encoded SHA-256 of the request. */
+    public static String of(List<ChatMsg> messages, ChatConfig config) {
+        MessageDigest sha = sha256();
+        update(sha, config.model().asString());
+        update(sha, config.maxTokens());
+        update(sha, Double.doubleToLongBits(config.temperature()));
+        update(sha, Double.doubleToLongBits(config.topP()));
+        update(sha, Double.doubleToLongBits(config.presencePenalty()));
+        update(sha, Double.doubleToLongBits(config.frequencyPenalty()));
+
+        update(sha, config.functions().size());
+        for (FunctionSchema fn : config.functions()) {
+            update(sha, fn.name());
+            update(sha, fn.description());
+            update(sha, fn.parameters() == null ? null : fn.parameters().toString());
+        }
+
+        ResponseSchema schema = config.responseSchema();
+        update(sha, schema == null ? null : schema.name());
+        update(sha, schema == null ? null : schema.schema().toString());
+
+        update(sha, messages.size());
+        for (ChatMsg msg : messages) {
+            update(sha, msg.role().name());
+            update(sha, msg.content());
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static void update(MessageDigest sha, String s) {
+        if (s == null) {
+            update(sha, -1L);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        update(sha, bytes.length);
+        sha.update(bytes);
+    }
+
+    private static void update(MessageDigest sha, long v) {
+        sha.update(ByteBuffer.allocate(Long.BYTES).putLong(v).array());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
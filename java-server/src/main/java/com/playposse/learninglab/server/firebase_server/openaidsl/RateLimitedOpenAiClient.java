@@ -0,0 +1,90 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Decorator that routes every call through a shared {@link OpenAiRateLimiter}.
+ * It reserves the estimated prompt tokens plus the completion budget
+ * (max tokens) before the call, queues while the organization is at its
+ * limit, and reconciles the reservation with the reported usage afterwards.
+ * The time spent queued is added to the result's {@code queuedMillis}.
+ */
+public final class RateLimitedOpenAiClient implements OpenAiClient {
+
+    private final OpenAiClient delegate;
+    private final OpenAiRateLimiter limiter;
+
+    public RateLimitedOpenAiClient(OpenAiClient delegate, OpenAiRateLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) throws Exception {
+        try {
+            return chatCompletionAsync(messages, config).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionAsync(List<ChatMsg> messages, ChatConfig config) {
+        return limited(messages, config, () -> delegate.chatCompletionAsync(messages, config));
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        return limited(messages, config, () -> delegate.chatCompletionStreaming(messages, config, onDelta));
+    }
+
+    @Override
+    public void discard(List<ChatMsg> messages, ChatConfig config) {
+        delegate.discard(messages, config);
+    }
+
+    private CompletableFuture<ChatCompletionResult> limited(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Supplier<CompletableFuture<ChatCompletionResult>> send
+    ) {
+        long estimate = TokenEstimator.estimate(messages) + config.maxTokens();
+        long queued = System.nanoTime();
+        return limiter.acquire(config.model(), estimate).thenCompose(reservation -> {
+            long waitedMs = (System.nanoTime() - queued) / 1_000_000L;
+            CompletableFuture<ChatCompletionResult> call;
+            try {
+                call = send.get();
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            return call.whenComplete((res, failure) -> {
+                if (res != null) {
+                    reservation.reconcile(totalTokens(res.usage(), reservation.tokens()));
+                } else {
+                    reservation.release();
+                }
+            }).thenApply(res -> res.queuedFor(waitedMs));
+        });
+    }
+
+    private static long totalTokens(JsonNode usage, long fallback) {
+        if (usage == null || !usage.has("total_tokens")) {
+            return fallback;
+        }
+        return usage.get("total_tokens").asLong(fallback);
+    }
+}
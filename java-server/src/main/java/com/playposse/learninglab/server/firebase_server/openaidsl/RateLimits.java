@@ -0,0 +1,16 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+/**
+ * Requests-per-minute and tokens-per-minute limits for one model.
+ *
+ * @param requestsPerMinute RPM limit of the organization for the model
+ * @param tokensPerMinute   TPM limit of the organization for the model
+ */
+public record RateLimits(long requestsPerMinute, long tokensPerMinute) {
+    public RateLimits {
+        if (requestsPerMinute < 1 || tokensPerMinute < 1) {
+            throw new IllegalArgumentException(
+                    "Rate limits must be positive: rpm=" + requestsPerMinute + ", tpm=" + tokensPerMinute);
+        }
+    }
+}
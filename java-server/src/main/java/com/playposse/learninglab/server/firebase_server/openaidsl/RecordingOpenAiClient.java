@@ -0,0 +1,102 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Decorator that writes every successful call to a {@link CallRecording}
+ * file: the reply, its usage, how long it took and, for streamed calls,
+ * when each piece arrived. Replay the file with
+ * {@link ReplayingOpenAiClient} to rerun the same chains without OpenAI.
+ * Failed calls aren't recorded, so a replay sees only the attempt that
+ * succeeded.
+ */
+public final class RecordingOpenAiClient implements OpenAiClient, Closeable {
+
+    private final OpenAiClient delegate;
+    private final CallRecording.Writer writer;
+
+    /** Records into {@code file}, replacing it if it exists. */
+    public RecordingOpenAiClient(OpenAiClient delegate, Path file) throws IOException {
+        this.delegate = delegate;
+        this.writer = new CallRecording.Writer(file);
+    }
+
+    @Override
+    public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) throws Exception {
+        ChatCompletionResult res = delegate.chatCompletion(messages, config);
+        record(messages, config, res, List.of());
+        return res;
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionAsync(List<ChatMsg> messages, ChatConfig config) {
+        return delegate.chatCompletionAsync(messages, config).thenApply(res -> {
+            record(messages, config, res, List.of());
+            return res;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        long start = System.nanoTime();
+        // deltas arrive one at a time, and before the result
+        List<CallRecording.Delta> deltas = new ArrayList<>();
+        return delegate.chatCompletionStreaming(messages, config, delta -> {
+            deltas.add(new CallRecording.Delta((System.nanoTime() - start) / 1_000_000, delta));
+            onDelta.accept(delta);
+        }).thenApply(res -> {
+            record(messages, config, res, alignTo(res, deltas));
+            return res;
+        });
+    }
+
+    @Override
+    public void discard(List<ChatMsg> messages, ChatConfig config) {
+        delegate.discard(messages, config);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Shifts the delta offsets, measured here, onto the delegate's clock:
+     * the first piece at its time to first token, none after the end.
+     */
+    private static List<CallRecording.Delta> alignTo(ChatCompletionResult res, List<CallRecording.Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return deltas;
+        }
+        long shift = res.timeToFirstTokenMillis() - deltas.get(0).atMillis();
+        return deltas.stream()
+                .map(d -> new CallRecording.Delta(
+                        Math.min(res.durationMillis(), d.atMillis() + shift), d.text()))
+                .toList();
+    }
+
+    private void record(List<ChatMsg> messages, ChatConfig config, ChatCompletionResult res,
+                        List<CallRecording.Delta> deltas) {
+        if (res.cached()) {
+            return;  // not a real call; its timings would be wrong
+        }
+        writer.write(new CallRecording.Call(
+                PromptHash.of(messages, config),
+                config.model().asString(),
+                res.content(),
+                res.usage(),
+                res.durationMillis(),
+                res.timeToFirstTokenMillis(),
+                List.copyOf(deltas)));
+    }
+}
@@ -0,0 +1,127 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Client that answers from a {@link CallRecording} instead of OpenAI, so
+ * chains can be benchmarked and compared repeatably without spending
+ * tokens. Requests are matched by {@link PromptHash}; repeated requests get
+ * the recorded replies in order (the last one once they run out). A request
+ * that was never recorded fails, naming its hash.
+ * <p>
+ * With {@code simulateLatency} each reply takes as long as the original
+ * call, streamed pieces arriving at their original offsets, and the result
+ * carries the original timings. Without it replies come back at once, with
+ * zero durations, which measures the engine alone.
+ */
+public final class ReplayingOpenAiClient implements OpenAiClient {
+
+    private final CallRecording recording;
+    private final boolean simulateLatency;
+    private final Map<String, AtomicInteger> served = new ConcurrentHashMap<>();
+
+    public ReplayingOpenAiClient(CallRecording recording, boolean simulateLatency) {
+        this.recording = recording;
+        this.simulateLatency = simulateLatency;
+    }
+
+    @Override
+    public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) throws Exception {
+        CallRecording.Call call = next(messages, config);
+        if (simulateLatency) {
+            Thread.sleep(call.durationMillis());
+        }
+        return result(call);
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionAsync(List<ChatMsg> messages, ChatConfig config) {
+        CallRecording.Call call;
+        try {
+            call = next(messages, config);
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (!simulateLatency) {
+            return CompletableFuture.completedFuture(result(call));
+        }
+        return CompletableFuture.supplyAsync(() -> result(call),
+                CompletableFuture.delayedExecutor(call.durationMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+            List<ChatMsg> messages,
+            ChatConfig config,
+            Consumer<String> onDelta
+    ) {
+        CallRecording.Call call;
+        try {
+            call = next(messages, config);
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        List<CallRecording.Delta> deltas = call.deltas().isEmpty() && !call.content().isEmpty()
+                ? List.of(new CallRecording.Delta(call.timeToFirstTokenMillis(), call.content()))
+                : call.deltas();
+        if (!simulateLatency) {
+            deltas.forEach(delta -> onDelta.accept(delta.text()));
+            return CompletableFuture.completedFuture(result(call));
+        }
+
+        CompletableFuture<ChatCompletionResult> future = new CompletableFuture<>();
+        Thread.startVirtualThread(() -> {
+            long start = System.nanoTime();
+            try {
+                for (CallRecording.Delta delta : deltas) {
+                    sleepUntil(start, delta.atMillis());
+                    onDelta.accept(delta.text());
+                }
+                sleepUntil(start, call.durationMillis());
+                future.complete(result(call));
+            } catch (InterruptedException e) {
+                future.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(new CompletionException(e));
+            }
+        });
+        return future;
+    }
+
+    /*—————— internal ——————*/
+
+    private CallRecording.Call next(List<ChatMsg> messages, ChatConfig config) {
+        String key = PromptHash.of(messages, config);
+        List<CallRecording.Call> calls = recording.calls(key);
+        if (calls.isEmpty()) {
+            throw new IllegalStateException("No recorded call for prompt " + key
+                    + " (" + config.model().asString() + "); the prompt changed since it was recorded");
+        }
+        int i = served.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+        return calls.get(Math.min(i, calls.size() - 1));
+    }
+
+    private ChatCompletionResult result(CallRecording.Call call) {
+        if (!simulateLatency) {
+            return new ChatCompletionResult(call.content(), call.usage(), 0);
+        }
+        return call.deltas().isEmpty()
+                ? new ChatCompletionResult(call.content(), call.usage(), call.durationMillis())
+                : ChatCompletionResult.streamed(call.content(), call.usage(),
+                        call.durationMillis(), call.timeToFirstTokenMillis());
+    }
+
+    private static void sleepUntil(long startNanos, long atMillis) throws InterruptedException {
+        long wait = atMillis - (System.nanoTime() - startNanos) / 1_000_000;
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+}
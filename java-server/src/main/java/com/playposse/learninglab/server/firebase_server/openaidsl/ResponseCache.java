@@ -0,0 +1,184 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded LRU cache of chat completions keyed by {@link PromptHash}.
+ * Entries expire {@code ttl} after they were stored. One instance is meant
+ * to be shared by every {@link CachingOpenAiClient} in the process so the
+ * hit/miss counters describe the whole server.
+ *
+ * <p>An optional {@link ResponseStore} sits below the LRU: stores are
+ * written through, and a memory miss that the store can answer counts as a
+ * hit and is promoted back into memory.</p>
+ *
+ * <p>As a {@link MeterBinder} it publishes the counters as
+ * {@code openai.cache.hits}, {@code openai.cache.misses} and
+ * {@code openai.cache.second.tier.hits}, and its size as
+ * {@code openai.cache.size}.</p>
+ */
+public final class ResponseCache implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    private record Entry(ChatCompletionResult result, long expiresAtNanos) {}
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final ResponseStore secondTier;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong secondTierHits = new AtomicLong();
+
+    /**
+     * @param maxEntries entries kept before the least recently used is evicted
+     * @param ttl        how long an entry stays valid after it was stored
+     */
+    public ResponseCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, ResponseStore.NONE);
+    }
+
+    /**
+     * @param secondTier store consulted on a memory miss and written through on put
+     */
+    public ResponseCache(int maxEntries, Duration ttl, ResponseStore secondTier) {
+        this(maxEntries, ttl, secondTier, System::nanoTime);
+    }
+
+    ResponseCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        this(maxEntries, ttl, ResponseStore.NONE, clock);
+    }
+
+    ResponseCache(int maxEntries, Duration ttl, ResponseStore secondTier, LongSupplier clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.secondTier = secondTier;
+        // access order turns the LinkedHashMap into an LRU list
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** Looks up a live entry and counts the hit or miss. */
+    public Optional<ChatCompletionResult> get(String key) {
+        ChatCompletionResult found = null;
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (clock.getAsLong() - e.expiresAtNanos() < 0) {
+                    found = e.result();
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+        if (found == null) {
+            found = fromSecondTier(key);
+        }
+        (found != null ? hits : misses).incrementAndGet();
+        return Optional.ofNullable(found);
+    }
+
+    public void put(String key, ChatCompletionResult result) {
+        putInMemory(key, result);
+        try {
+            secondTier.put(key, result);
+        } catch (RuntimeException e) {
+            log.warn("Could not store response {} in the second cache tier", key, e);
+        }
+    }
+
+    /** Drops the entry from memory and the second tier. */
+    public void remove(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+        try {
+            secondTier.remove(key);
+        } catch (RuntimeException e) {
+            log.warn("Could not remove response {} from the second cache tier", key, e);
+        }
+    }
+
+    private ChatCompletionResult fromSecondTier(String key) {
+        try {
+            Optional<ChatCompletionResult> stored = secondTier.get(key);
+            if (stored.isPresent()) {
+                secondTierHits.incrementAndGet();
+                putInMemory(key, stored.get());
+                return stored.get();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not read response {} from the second cache tier", key, e);
+        }
+        return null;
+    }
+
+    private void putInMemory(String key, ChatCompletionResult result) {
+        Entry e = new Entry(result, clock.getAsLong() + ttlNanos);
+        synchronized (entries) {
+            entries.put(key, e);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Hits that missed memory and were answered by the second tier. */
+    public long secondTierHits() {
+        return secondTierHits.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("openai.cache.hits", this, ResponseCache::hits)
+                .description("OpenAI requests answered from the response cache")
+                .register(registry);
+        FunctionCounter.builder("openai.cache.misses", this, ResponseCache::misses)
+                .description("Cacheable OpenAI requests the response cache couldn't answer")
+                .register(registry);
+        FunctionCounter.builder("openai.cache.second.tier.hits", this, ResponseCache::secondTierHits)
+                .description("Cache hits answered by the second tier after missing memory")
+                .register(registry);
+        Gauge.builder("openai.cache.size", this, ResponseCache::size)
+                .description("Responses held in memory")
+                .register(registry);
+    }
+}
@@ -0,0 +1,132 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * JSON schema of a step's reply, sent as a strict structured-output
+ * {@code response_format} so the model can only answer with matching JSON.
+ * <p>
+ * The schema is derived from the label's Java type: records and beans
+ * become objects (every property required, no extra properties), collections
+ * and arrays become arrays, enums become string enums. OpenAI needs an object
+ * at the root, so any other type is wrapped in an object with one property
+ * named after the label, e.g. {@code {"levels": [...]}};
+ * {@link Parsers#structured(Label)} unwraps it again.
+ * {@code @JsonPropertyDescription} on a property becomes its description.
+ */
+public record ResponseSchema(String name, JsonNode schema) {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    /** Schema for replies of the label's type. */
+    public static ResponseSchema of(Label<?> label) {
+        JavaType type = typeOf(label);
+        ObjectNode schema = describe(type, new HashSet<>());
+        if (wraps(label)) {
+            ObjectNode wrapper = object();
+            wrapper.putObject("properties").set(label.name(), schema);
+            wrapper.putArray("required").add(label.name());
+            schema = wrapper;
+        }
+        return new ResponseSchema(label.name(), schema);
+    }
+
+    /** True if the label's value sits in a one-property wrapper object. */
+    static boolean wraps(Label<?> label) {
+        return !isObject(typeOf(label));
+    }
+
+    static JavaType typeOf(Label<?> label) {
+        return MAPPER.getTypeFactory().constructType(label.type());
+    }
+
+    private static ObjectNode describe(JavaType type, Set<Class<?>> visiting) {
+        Class<?> raw = type.getRawClass();
+        if (raw == String.class || raw == Character.class || raw == char.class) {
+            return scalar("string");
+        }
+        if (raw == Boolean.class || raw == boolean.class) {
+            return scalar("boolean");
+        }
+        if (raw == Integer.class || raw == int.class || raw == Long.class || raw == long.class
+                || raw == Short.class || raw == short.class || raw == BigInteger.class) {
+            return scalar("integer");
+        }
+        if (raw == Double.class || raw == double.class || raw == Float.class || raw == float.class
+                || raw == BigDecimal.class) {
+            return scalar("number");
+        }
+        if (type.isEnumType()) {
+            ObjectNode node = scalar("string");
+            ArrayNode values = node.putArray("enum");
+            for (Object constant : raw.getEnumConstants()) {
+                values.add(constant.toString());
+            }
+            return node;
+        }
+        if (type.isCollectionLikeType() || type.isArrayType()) {
+            ObjectNode node = scalar("array");
+            node.set("items", describe(type.getContentType(), visiting));
+            return node;
+        }
+        if (!isObject(type)) {
+            throw new IllegalArgumentException(
+                    "Can't describe " + type + " in a strict JSON schema; use a record or a list");
+        }
+        if (!visiting.add(raw)) {
+            throw new IllegalArgumentException("Recursive type " + raw.getName() + " isn't supported");
+        }
+        ObjectNode node = object();
+        ObjectNode properties = node.putObject("properties");
+        ArrayNode required = node.putArray("required");
+        BeanDescription bean = MAPPER.getDeserializationConfig().introspect(type);
+        for (BeanPropertyDefinition prop : bean.findProperties()) {
+            ObjectNode propSchema = describe(prop.getPrimaryType(), visiting);
+            String description = prop.getMetadata().getDescription();
+            if (description != null) {
+                propSchema.put("description", description);
+            }
+            properties.set(prop.getName(), propSchema);
+            required.add(prop.getName());
+        }
+        visiting.remove(raw);
+        return node;
+    }
+
+    /** Records and beans, i.e. anything Jackson reads as an object with known properties. */
+    private static boolean isObject(JavaType type) {
+        Class<?> raw = type.getRawClass();
+        return !type.isContainerType()
+                && !type.isPrimitive()
+                && !type.isEnumType()
+                && raw != Object.class
+                && !JsonNode.class.isAssignableFrom(raw)
+                && !Number.class.isAssignableFrom(raw)
+                && !raw.getName().startsWith("java.");
+    }
+
+    private static ObjectNode object() {
+        ObjectNode node = scalar("object");
+        node.put("additionalProperties", false);
+        return node;
+    }
+
+    private static ObjectNode scalar(String type) {
+        ObjectNode node = NODES.objectNode();
+        node.put("type", type);
+        return node;
+    }
+}
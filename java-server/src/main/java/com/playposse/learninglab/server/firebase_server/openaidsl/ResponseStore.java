@@ -0,0 +1,34 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.Optional;
+
+/**
+ * A slower, larger tier below {@link ResponseCache}'s in-memory LRU, e.g.
+ * {@link DiskResponseStore}. Keys are {@link PromptHash} values. The store
+ * decides on its own expiry; a get after expiry returns empty.
+ */
+public interface ResponseStore {
+
+    /** A store that never holds anything. */
+    ResponseStore NONE = new ResponseStore() {
+        @Override
+        public Optional<ChatCompletionResult> get(String key) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void put(String key, ChatCompletionResult result) {
+        }
+
+        @Override
+        public void remove(String key) {
+        }
+    };
+
+    Optional<ChatCompletionResult> get(String key);
+
+    void put(String key, ChatCompletionResult result);
+
+    /** Forgets {@code key}, also across restarts. */
+    void remove(String key);
+}
@@ -0,0 +1,77 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * How a step retries a failed OpenAI call.
+ *
+ * <p>Delays follow "decorrelated jitter": each sleep is drawn uniformly from
+ * {@code [baseDelay, 3 × previous sleep]} and capped at {@code maxDelay}. If
+ * the server said when to come back (Retry-After or the rate-limit reset
+ * headers), the delay is never shorter than that.</p>
+ *
+ * @param maxAttempts total number of calls, including the first one
+ * @param baseDelay   smallest delay between two attempts
+ * @param maxDelay    largest delay between two attempts
+ */
+public record RetryPolicy(
+        int maxAttempts,
+        Duration baseDelay,
+        Duration maxDelay
+) {
+    /** Call once and give up on the first failure. */
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+
+    /** Up to four attempts, starting at half a second and capped at 30 seconds. */
+    public static final RetryPolicy DEFAULT =
+            new RetryPolicy(4, Duration.ofMillis(500), Duration.ofSeconds(30));
+
+    public RetryPolicy {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        if (baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0) {
+            throw new IllegalArgumentException("need 0 <= baseDelay <= maxDelay");
+        }
+    }
+
+    /** Shorthand for the default delays with a different attempt count. */
+    public static RetryPolicy attempts(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, DEFAULT.baseDelay(), DEFAULT.maxDelay());
+    }
+
+    /**
+     * Delay before the next attempt.
+     *
+     * @param previous   the delay used before the previous attempt (zero after the first call)
+     * @param retryAfter the server's hint, or null if it gave none
+     */
+    public Duration nextDelay(Duration previous, Duration retryAfter) {
+        long base = baseDelay.toMillis();
+        long upper = Math.max(base, Math.multiplyExact(Math.max(previous.toMillis(), base), 3));
+        long jittered = base == upper ? base : ThreadLocalRandom.current().nextLong(base, upper + 1);
+        Duration delay = Duration.ofMillis(Math.min(maxDelay.toMillis(), jittered));
+        return retryAfter != null && retryAfter.compareTo(delay) > 0 ? retryAfter : delay;
+    }
+
+    /**
+     * Whether a failure is worth another attempt: throttling, server errors,
+     * timeouts and I/O problems are; bad requests and parse errors aren't.
+     */
+    public static boolean isRetryable(Throwable failure) {
+        Throwable t = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+        if (t instanceof OpenAiCallException e) {
+            return e.isRetryable();
+        }
+        return t instanceof IOException
+                || t instanceof UncheckedIOException
+                || t instanceof TimeoutException;
+    }
+}
@@ -4,10 +4,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * A single chat‐completion “step” that:
@@ -15,18 +19,22 @@ import java.util.concurrent.Executor;
  * 2. Calls the OpenAI client,
  * 3. Parses the result,
  * 4. Records a CallLog,
- * 5. Returns a new ChainContext with the label bound.
+ * 5. Returns a new ChainContext with the label bound,
+ *    reporting the value (or the failure) to the context's observer.
  */
 public final class SimpleStep implements Step {
     private static final Logger log = LoggerFactory.getLogger(SimpleStep.class);
 
     private final String name;
     private final List<MessageTemplate> templates;
+    /** The templates, compiled once when the step is built. */
+    private final List<CompiledTemplate> compiled;
     private final Parser<?> parser;
     private final Label<?> label;
     private final ChatConfig config;
     private final boolean includeHistory;
     private final int historyPairs;
+    private final boolean streamItems;
 
     public SimpleStep(
             String name,
@@ -37,8 +45,30 @@ public final class SimpleStep implements Step {
             boolean includeHistory,
             int historyPairs
     ) {
+        this(name, templates, parser, label, config, includeHistory, historyPairs, false);
+    }
+
+    /**
+     * @param streamItems stream the reply and report each item to the
+     *                    observer as soon as the {@link ItemParser} completes it
+     */
+    public SimpleStep(
+            String name,
+            List<MessageTemplate> templates,
+            Parser<?> parser,
+            Label<?> label,
+            ChatConfig config,
+            boolean includeHistory,
+            int historyPairs,
+            boolean streamItems
+    ) {
+        if (streamItems && !(parser instanceof ItemParser)) {
+            throw new IllegalArgumentException("Step '" + name + "' streams items but its parser isn't an ItemParser");
+        }
+        this.streamItems = streamItems;
         this.name = name;
         this.templates = templates;
+        this.compiled = templates.stream().map(t -> TemplateEngine.compile(t.content())).toList();
         this.parser = parser;
         this.label = label;
         this.config = config;
@@ -46,101 +76,355 @@ public final class SimpleStep implements Step {
         this.historyPairs = historyPairs;
     }
 
+    @Override
+    public String name() {
+        return name;
+    }
+
     public Label<?> getLabel() {
         return label;
     }
 
+    /**
+     * Reads the placeholders referenced by the templates (and the history,
+     * if injected) and writes the step's label.
+     */
+    @Override
+    public StepDependencies dependencies() {
+        Set<String> reads = new HashSet<>();
+        for (CompiledTemplate tmpl : compiled) {
+            reads.addAll(tmpl.placeholders());
+        }
+        Set<String> writes = label != null ? Set.of(label.name()) : Set.of();
+        return StepDependencies.of(reads, writes, includeHistory);
+    }
+
+    @Override
+    public Set<Label<?>> outputs() {
+        return label != null ? Set.of(label) : Set.of();
+    }
+
     @Override
     public CompletableFuture<ChainContext> run(
             ChainContext ctx,
-            Executor executor,
             OpenAiClient client,
             List<CallLog> logs
     ) {
-        return CompletableFuture.supplyAsync(() -> {
-            // 1. Prepare messages
-            List<ChatMsg> prompt = new ArrayList<>();
-
-            // inject history if desired
-            if (includeHistory) {
-                List<ChatMsg> hist = ctx.history();
-                if (historyPairs != Integer.MAX_VALUE) {
-                    int keep = historyPairs * 2;  // pairs → messages
-                    hist = hist.subList(Math.max(0, hist.size() - keep), hist.size());
-                }
-                prompt.addAll(hist);
-            }
+        return run(ctx, client, logs, null);
+    }
+
+    /** True if the parser can hand over list items while the reply streams in. */
+    boolean streamsItems() {
+        return parser instanceof ItemParser;
+    }
 
-            // resolve each template through the current context
-            Map<String, String> varsMap = TemplateEngine.buildStringMap(ctx);
-            for (var tmpl : templates) {
-                String txt = TemplateEngine.resolve(tmpl.content(), varsMap);
-                prompt.add(new ChatMsg(tmpl.role(), txt));
+    /** True if the step always streams, to report items as they are parsed. */
+    boolean streamItems() {
+        return streamItems;
+    }
+
+    /**
+     * Runs the step; with {@code items}, the reply is streamed and each item
+     * is published there as soon as the parser completes it, for the
+     * pipelined forEach loops over this step's label. Once an item has been
+     * published, a failed call is no longer retried, since the loops have
+     * already started on the items of that reply.
+     */
+    CompletableFuture<ChainContext> run(
+            ChainContext ctx,
+            OpenAiClient client,
+            List<CallLog> logs,
+            ItemStream items
+    ) {
+        long runStart = System.nanoTime();
+        long readyNanos = Math.min(ctx.span().startNanos(), runStart);
+
+        // 1. Prepare messages
+        List<ChatMsg> prompt = new ArrayList<>();
+
+        // inject history if desired
+        if (includeHistory) {
+            List<ChatMsg> hist = ctx.history();
+            if (historyPairs != Integer.MAX_VALUE) {
+                int keep = historyPairs * 2;  // pairs → messages
+                hist = hist.subList(Math.max(0, hist.size() - keep), hist.size());
             }
+            prompt.addAll(hist);
+        }
 
-            CallLog logEntry;
-            ChainContext nextCtx = ctx;
-            try {
-                log.info("Calling OpenAI step '{}'", name);
-                log.debug("Prompt: {}", prompt);
+        // render each template with just the labels it references
+        ChainEvents.TemplateRender render = new ChainEvents.TemplateRender();
+        render.begin();
+        for (int i = 0; i < templates.size(); i++) {
+            prompt.add(new ChatMsg(templates.get(i).role(), compiled.get(i).render(ctx)));
+        }
+        if (render.shouldCommit()) {
+            render.step = name;
+            render.messages = prompt.size();
+            render.chars = prompt.stream().mapToLong(m -> m.content().length()).sum();
+            render.commit();
+        }
 
-                // 2. Call OpenAI
-                ChatCompletionResult res = client.chatCompletion(prompt, config);
-                String completion = res.content();
-                JsonNode usage = res.usage();
+        log.info("Calling OpenAI step '{}'", name);
+        log.debug("Prompt: {}", prompt);
 
-                log.info("Received OpenAI response for '{}'", name);
-                log.debug("Response content: {}", res.content());
-                log.info("OpenAI call for '{}' took {} ms", name, res.durationMillis());
-                log.debug("Usage: {}", usage);
+        // 2. Call OpenAI (retrying per the config) without blocking a thread
+        long templateNanos = System.nanoTime() - runStart;
+        return attempt(ctx, client, logs, prompt, items, 1, Duration.ZERO, readyNanos, templateNanos);
+    }
 
-                // 3. Parse into T
-                Object parsed = parser.parse(completion);
+    /**
+     * Makes call number {@code attempt}. A retryable failure is logged and the
+     * next attempt is scheduled on a timer, so no thread sleeps during backoff.
+     * The attempt became due at {@code readyNanos}, and {@code templateNanos}
+     * of the time since went into rendering its prompt.
+     */
+    private CompletableFuture<ChainContext> attempt(
+            ChainContext ctx,
+            OpenAiClient client,
+            List<CallLog> logs,
+            List<ChatMsg> prompt,
+            ItemStream items,
+            int attempt,
+            Duration previousDelay,
+            long readyNanos,
+            long templateNanos
+    ) {
+        long start = System.nanoTime();
+        long scheduleNanos = Math.max(0, start - readyNanos - templateNanos);
+        ChainEvents.StepCall event = new ChainEvents.StepCall();
+        event.begin();
+        CompletableFuture<ChatCompletionResult> call;
+        try {
+            call = items != null
+                    ? stream(ctx, client, prompt, items)
+                    : client.chatCompletionAsync(prompt, config);
+        } catch (Exception e) {
+            call = CompletableFuture.failedFuture(e);
+        }
 
-                // 4. Append to history & vars
-                ChainContext withUser = nextCtx.appendHistory(
-                        new ChatMsg(Role.USER, prompt.get(prompt.size() - 1).content())
-                );
-                ChainContext withBoth = withUser.appendHistory(
-                        new ChatMsg(Role.ASSISTANT, completion)
-                );
-                nextCtx = withBoth.plus(label, parsed);
+        RetryPolicy retry = config.retryPolicy();
+        return call.handle((res, failure) -> {
+            long end = System.nanoTime();
+            long elapsedMs = (end - start) / 1_000_000L;
+            Phases phases = new Phases(start, scheduleNanos, templateNanos, end, event);
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause()
+                    : failure;
 
-                // 5. Log success
-                logEntry = new CallLog(
-                        label,
-                        prompt,
-                        config,
-                        completion,
-                        usage,
-                        null,
-                        0
-                );
-            } catch (Exception e) {
-                log.error("OpenAI step '{}' failed. Prompt: {}", name, prompt, e);
-
-                // wrap error
-                ErrorInfo err = new ErrorInfo(
-                        name,
-                        /*callId=*/null,
-                        e,
-                        Instant.now()
-                );
-                logEntry = new CallLog(
+            if (cause != null
+                    && attempt < retry.maxAttempts()
+                    && RetryPolicy.isRetryable(cause)
+                    && (items == null || items.published() == 0)) {
+                Duration hint = cause instanceof OpenAiCallException e ? e.retryAfter() : null;
+                Duration delay = retry.nextDelay(previousDelay, hint);
+                log.warn("OpenAI step '{}' attempt {} failed ({}); retrying in {} ms",
+                        name, attempt, cause.toString(), delay.toMillis());
+                CallLog retried = new CallLog(
                         label,
                         prompt,
                         config,
                         /*completion=*/null,
                         /*usage=*/null,
-                        err,
-                        0
+                        errorInfo(cause),
+                        elapsedMs,
+                        attempt,
+                        /*willRetry=*/true,
+                        /*cacheHit=*/false,
+                        phases.timings(null, end)
                 );
-                // surface the error in the context
-//                nextCtx = nextCtx.plus(label, null);
+                logs.add(retried);
+                phases.record(ctx, name, retried, end);
+                ctx.metrics().callFinished(name, config, null, cause, true, elapsedMs);
+
+                Executor timer = CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS);
+                return CompletableFuture.runAsync(() -> {}, timer)
+                        .thenCompose(ignored ->
+                                attempt(ctx, client, logs, prompt, items, attempt + 1, delay, end, 0));
+            }
+            return CompletableFuture.completedFuture(
+                    complete(ctx, client, logs, prompt, res, cause, items, attempt, elapsedMs, phases));
+        }).thenCompose(Function.identity());
+    }
+
+    /** Streams one call, feeding the deltas to an incremental parse of the reply. */
+    private CompletableFuture<ChatCompletionResult> stream(
+            ChainContext ctx,
+            OpenAiClient client,
+            List<ChatMsg> prompt,
+            ItemStream items
+    ) {
+        ItemParser.Session<?> session = ((ItemParser<?>) parser).session(item -> {
+            int index = items.published();
+            items.publish(item);
+            ctx.observer().onItem(label, index, item);
+        });
+        return client.chatCompletionStreaming(prompt, config, delta -> {
+            try {
+                session.feed(delta);
+            } catch (Exception e) {
+                client.discard(prompt, config);
+                throw new CompletionException(e);
+            }
+        }).thenApply(res -> {
+            try {
+                session.finish();
+            } catch (Exception e) {
+                client.discard(prompt, config);
+                throw new CompletionException(e);
+            }
+            return res;
+        });
+    }
+
+    /** Parses a final response (or records a final failure) and binds the label. */
+    private ChainContext complete(
+            ChainContext ctx,
+            OpenAiClient client,
+            List<CallLog> logs,
+            List<ChatMsg> prompt,
+            ChatCompletionResult res,
+            Throwable failure,
+            ItemStream items,
+            int attempt,
+            long elapsedMs,
+            Phases phases
+    ) {
+        CallLog logEntry;
+        ChainContext nextCtx = ctx;
+        try {
+            if (failure != null) {
+                throw failure;
             }
+            String completion = res.content();
+            JsonNode usage = res.usage();
+
+            log.info("Received OpenAI response for '{}'", name);
+            log.debug("Response content: {}", res.content());
+            if (res.cached()) {
+                log.info("OpenAI call for '{}' served from cache", name);
+            } else {
+                log.info("OpenAI call for '{}' took {} ms", name, res.durationMillis());
+            }
+            log.debug("Usage: {}", usage);
+
+            // 3. Parse into T
+            ChainEvents.Parse parse = new ChainEvents.Parse();
+            parse.begin();
+            Object parsed;
+            try {
+                parsed = parser.parse(completion);
+                parse.succeeded = true;
+            } catch (Exception e) {
+                client.discard(prompt, config);  // so a rerun doesn't get the same reply from a cache
+                throw e;
+            } finally {
+                if (parse.shouldCommit()) {
+                    parse.step = name;
+                    parse.label = label != null ? label.name() : null;
+                    parse.chars = completion.length();
+                    parse.commit();
+                }
+            }
+            long parsedAt = System.nanoTime();
+
+            // 4. Append to history & vars
+            ChainContext withUser = nextCtx.appendHistory(
+                    new ChatMsg(Role.USER, prompt.get(prompt.size() - 1).content())
+            );
+            ChainContext withBoth = withUser.appendHistory(
+                    new ChatMsg(Role.ASSISTANT, completion)
+            );
+            nextCtx = withBoth.plus(label, parsed);
+            ctx.observer().onLabel(label, parsed);
+            if (items != null) {
+                items.complete();
+            }
+
+            // 5. Log success
+            logEntry = new CallLog(
+                    label,
+                    prompt,
+                    config,
+                    completion,
+                    usage,
+                    null,
+                    elapsedMs,
+                    attempt,
+                    false,
+                    res.cached(),
+                    phases.timings(res, parsedAt)
+            );
+        } catch (Throwable e) {
+            log.error("OpenAI step '{}' failed. Prompt: {}", name, prompt, e);
+
+            ErrorInfo error = errorInfo(e);
+            logEntry = new CallLog(
+                    label,
+                    prompt,
+                    config,
+                    /*completion=*/null,
+                    /*usage=*/null,
+                    error,
+                    elapsedMs,
+                    attempt,
+                    false,
+                    res != null && res.cached(),
+                    phases.timings(res, System.nanoTime())
+            );
+            // surface the error in the context
+//            nextCtx = nextCtx.plus(label, null);
+            ctx.observer().onError(label, error);
+            if (items != null) {
+                items.fail(e);
+            }
+        }
+
+        logs.add(logEntry);
+        phases.record(ctx, name, logEntry, System.nanoTime());
+        Throwable failed = logEntry.error() != null ? logEntry.error().cause() : null;
+        ctx.metrics().callFinished(name, config, res, failed, false, elapsedMs);
+        return nextCtx;
+    }
+
+    /** When one attempt started and ended, and what it spent before starting. */
+    private record Phases(
+            long start,
+            long scheduleNanos,
+            long templateNanos,
+            long end,
+            ChainEvents.StepCall event
+    ) {
+
+        /** Adds the attempt to the step's span and commits its JFR event. */
+        void record(ChainContext ctx, String step, CallLog entry, long doneNanos) {
+            ctx.span().call(step, start, doneNanos, entry.timings());
+            event.finish(ctx.metrics().chain(), step, entry);
+        }
+
+        /** The attempt's timings once its reply (if any) was handled at {@code doneNanos}. */
+        CallTimings timings(ChatCompletionResult res, long doneNanos) {
+            long ms = 1_000_000L;
+            long callMs = (end - start) / ms;
+            long queuedMs = res != null ? res.queuedMillis() : 0;
+            boolean fromOpenAi = res != null && !res.cached();
+            return new CallTimings(
+                    scheduleNanos / ms,
+                    templateNanos / ms,
+                    queuedMs,
+                    fromOpenAi ? res.durationMillis() : Math.max(0, callMs - queuedMs),
+                    fromOpenAi ? res.timeToFirstTokenMillis() : 0,
+                    (doneNanos - end) / ms,
+                    (doneNanos - start + scheduleNanos + templateNanos) / ms);
+        }
+    }
 
-            logs.add(logEntry);
-            return nextCtx;
-        }, executor);
+    private ErrorInfo errorInfo(Throwable e) {
+        return new ErrorInfo(
+                name,
+                e instanceof OpenAiCallException call ? call.requestId() : null,
+                e,
+                Instant.now()
+        );
     }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent work for the same key: the first caller (the leader)
+ * does the work, and every caller that arrives while it is in flight gets
+ * the leader's result (or failure) instead of starting its own. Once the
+ * work finishes the key is forgotten, so later callers start afresh; this
+ * is not a cache.
+ *
+ * @param <K> key type, e.g. a {@link PromptHash}
+ * @param <V> result type
+ */
+public final class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs {@code work} unless a call for {@code key} is already in flight.
+     * Each caller gets its own copy of the shared future, so cancelling one
+     * doesn't affect the others.
+     */
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> work) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing.copy();
+        }
+
+        CompletableFuture<V> call;
+        try {
+            call = work.get();
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((v, failure) -> {
+            inFlight.remove(key, mine);
+            if (failure != null) {
+                mine.completeExceptionally(failure);
+            } else {
+                mine.complete(v);
+            }
+        });
+        return mine.copy();
+    }
+
+    /**
+     * Blocking variant for request threads: the leader runs {@code work} on
+     * its own thread and followers wait for its result.
+     */
+    public V call(K key, Callable<V> work) throws Exception {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            V v = work.call();
+            mine.complete(v);
+            return v;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Keys currently in flight. */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /** Callers that joined an in-flight call instead of starting their own. */
+    public long coalesced() {
+        return coalesced.get();
+    }
+}
@@ -1,16 +1,40 @@
 package com.playposse.learninglab.server.firebase_server.openaidsl;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 
-/** A single unit of work in the chain. */
+/**
+ * A single unit of work in the chain. Steps compose on
+ * {@link OpenAiClient#chatCompletionAsync} rather than blocking a thread.
+ */
 public interface Step {
+
+    /** Human-readable name, used in logs and progress reports. */
+    default String name() {
+        return getClass().getSimpleName();
+    }
+
     CompletableFuture<ChainContext> run(
             ChainContext ctx,
-            Executor      executor,
             OpenAiClient  client,
             List<CallLog> logs
     );
-}
 
+    /**
+     * Labels this step reads and writes. Steps that don't override this
+     * are treated as barriers and run strictly in declaration order.
+     */
+    default StepDependencies dependencies() {
+        return StepDependencies.BARRIER;
+    }
+
+    /**
+     * Typed labels this step binds in the chain's context. A Chain needs
+     * them to restore checkpointed values; steps that don't declare them are
+     * re-run on resume.
+     */
+    default Set<Label<?>> outputs() {
+        return Set.of();
+    }
+}
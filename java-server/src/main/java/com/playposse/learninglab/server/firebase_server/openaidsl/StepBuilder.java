@@ -24,6 +24,9 @@ public class StepBuilder {
     private boolean includeHistory = false;
     private int   historyPairs   = Integer.MAX_VALUE;
 
+    private boolean streamItems = false;
+    private boolean structured = false;
+
     StepBuilder(String stepName, ChatConfig baseConfig) {
         this.stepName = stepName;
         this.baseConfig = baseConfig;
@@ -108,6 +111,42 @@ public class StepBuilder {
         ensureOverrideCfg().presencePenalty(presPenalty);
         return this;
     }
+
+    /** Override how this step retries failed calls. */
+    public StepBuilder retry(RetryPolicy policy) {
+        ensureOverrideCfg().retryPolicy(policy);
+        return this;
+    }
+
+    /** Keep the default delays but allow {@code maxAttempts} calls in total. */
+    public StepBuilder retry(int maxAttempts) {
+        return retry(RetryPolicy.attempts(maxAttempts));
+    }
+
+    /** Opt this step in to (or out of) the response cache. */
+    public StepBuilder cache(boolean enabled) {
+        ensureOverrideCfg().cacheable(enabled);
+        return this;
+    }
+
+    /**
+     * Stream the reply and report each item to the chain's observer as soon
+     * as it is parsed; needs an {@link ItemParser}.
+     */
+    public StepBuilder streamItems() {
+        this.streamItems = true;
+        return this;
+    }
+
+    /**
+     * Ask for structured output: the reply must match a JSON schema derived
+     * from the label's type (see {@link ResponseSchema}). Unless a parser is
+     * set, the reply is read with {@link Parsers#structured(Label)}.
+     */
+    public StepBuilder structured() {
+        this.structured = true;
+        return this;
+    }
     // … add topP(), presencePenalty(), frequencyPenalty() the same way …
 
     /*—————— internal ——————*/
@@ -121,6 +160,16 @@ public class StepBuilder {
 
     /** Build the immutable SimpleStep instance. */
     public SimpleStep build() {
+        Parser<?> parser = this.parser;
+        if (structured) {
+            if (label == null) {
+                throw new IllegalStateException("Structured step '" + stepName + "' needs a label");
+            }
+            ensureOverrideCfg().responseSchema(ResponseSchema.of(label));
+            if (parser == null) {
+                parser = Parsers.structured(label);
+            }
+        }
         ChatConfig cfg = overrideCfg != null
                 ? overrideCfg.build()
                 : baseConfig;
@@ -132,7 +181,8 @@ public class StepBuilder {
                 label,
                 cfg,
                 includeHistory,
-                historyPairs
+                historyPairs,
+                streamItems
         );
     }
 
@@ -0,0 +1,174 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.openai.models.ChatModel;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What one completed step contributed to a run (new labels, appended
+ * history and its call logs), and its JSON form for a {@link CheckpointStore}.
+ * <p>
+ * Values are written with Jackson and read back using each label's declared
+ * type. Call logs keep everything needed to report on the run; the config
+ * is restored from the sampling fields on top of the chain defaults, and an
+ * error's cause comes back as a plain exception carrying the original
+ * message.
+ */
+record StepCheckpoint(
+        Map<Label<?>, Object> vars,
+        List<ChatMsg> history,
+        List<CallLog> logs
+) {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @param writes the label names the step declares, stored so a resumed
+     *               run can tell that step {@code stepIndex} is still the same step
+     */
+    String toJson(int stepIndex, Set<String> writes) {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("step", stepIndex);
+        ArrayNode w = root.putArray("writes");
+        new TreeSet<>(writes).forEach(w::add);
+
+        ObjectNode v = root.putObject("vars");
+        vars.forEach((label, value) -> v.set(label.name(), MAPPER.valueToTree(value)));
+        root.set("history", messages(history));
+
+        ArrayNode l = root.putArray("logs");
+        for (CallLog log : logs) {
+            ObjectNode n = l.addObject();
+            n.put("label", log.label() != null ? log.label().name() : null);
+            n.set("prompt", messages(log.prompt()));
+            if (log.config() != null) {
+                ChatConfig c = log.config();
+                n.putObject("config")
+                        .put("model", c.model().asString())
+                        .put("maxTokens", c.maxTokens())
+                        .put("temperature", c.temperature())
+                        .put("topP", c.topP())
+                        .put("presencePenalty", c.presencePenalty())
+                        .put("frequencyPenalty", c.frequencyPenalty());
+            }
+            n.put("completion", log.completion());
+            n.set("usage", log.usage());
+            if (log.error() != null) {
+                ErrorInfo e = log.error();
+                n.putObject("error")
+                        .put("step", e.stepName())
+                        .put("callId", e.callId())
+                        .put("type", e.cause() != null ? e.cause().getClass().getName() : null)
+                        .put("message", e.cause() != null ? e.cause().getMessage() : null)
+                        .put("timestamp", e.timestamp() != null ? e.timestamp().toString() : null);
+            }
+            n.put("durationMillis", log.durationMillis());
+            n.put("attempt", log.attempt());
+            n.put("willRetry", log.willRetry());
+            n.put("cacheHit", log.cacheHit());
+            n.set("timings", MAPPER.valueToTree(log.timings()));
+        }
+        return root.toString();
+    }
+
+    /**
+     * Reads a checkpoint back, resolving label names against the labels the
+     * step binds. Returns null if it belongs to a different step or a value
+     * can't be restored, in which case the step simply runs again.
+     */
+    static StepCheckpoint fromJson(
+            String json,
+            Set<String> writes,
+            Map<String, Label<?>> labels,
+            ChatConfig defaults
+    ) {
+        try {
+            JsonNode root = MAPPER.readTree(json);
+            Set<String> saved = new TreeSet<>();
+            root.path("writes").forEach(n -> saved.add(n.asText()));
+            if (!saved.equals(new TreeSet<>(writes))) {
+                return null;
+            }
+
+            Map<Label<?>, Object> vars = new LinkedHashMap<>();
+            for (var entry : root.path("vars").properties()) {
+                Label<?> label = labels.get(entry.getKey());
+                if (label == null) {
+                    return null;
+                }
+                Object value = MAPPER.readerFor(MAPPER.getTypeFactory().constructType(label.type()))
+                        .readValue(entry.getValue());
+                vars.put(label, value);
+            }
+
+            List<CallLog> logs = new ArrayList<>();
+            for (JsonNode n : root.path("logs")) {
+                logs.add(new CallLog(
+                        labels.get(n.path("label").asText(null)),
+                        readMessages(n.path("prompt")),
+                        n.has("config") ? readConfig(n.get("config"), defaults) : null,
+                        n.path("completion").asText(null),
+                        n.hasNonNull("usage") ? n.get("usage") : null,
+                        n.has("error") ? readError(n.get("error")) : null,
+                        n.path("durationMillis").asLong(),
+                        n.path("attempt").asInt(1),
+                        n.path("willRetry").asBoolean(),
+                        n.path("cacheHit").asBoolean(),
+                        n.hasNonNull("timings")
+                                ? MAPPER.treeToValue(n.get("timings"), CallTimings.class)
+                                : CallTimings.NONE));
+            }
+            return new StepCheckpoint(vars, readMessages(root.path("history")), logs);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ArrayNode messages(List<ChatMsg> msgs) {
+        ArrayNode arr = MAPPER.createArrayNode();
+        for (ChatMsg m : msgs) {
+            arr.addObject().put("role", m.role().name()).put("content", m.content());
+        }
+        return arr;
+    }
+
+    private static List<ChatMsg> readMessages(JsonNode arr) {
+        List<ChatMsg> out = new ArrayList<>();
+        for (JsonNode m : arr) {
+            out.add(new ChatMsg(Role.valueOf(m.path("role").asText()), m.path("content").asText(null)));
+        }
+        return out;
+    }
+
+    private static ChatConfig readConfig(JsonNode c, ChatConfig defaults) {
+        return defaults.toBuilder()
+                .model(ChatModel.of(c.path("model").asText()))
+                .maxTokens(c.path("maxTokens").asInt())
+                .temperature(c.path("temperature").asDouble())
+                .topP(c.path("topP").asDouble())
+                .presencePenalty(c.path("presencePenalty").asDouble())
+                .frequencyPenalty(c.path("frequencyPenalty").asDouble())
+                .build();
+    }
+
+    private static ErrorInfo readError(JsonNode e) {
+        String type = e.path("type").asText(null);
+        String message = e.path("message").asText(null);
+        String timestamp = e.path("timestamp").asText(null);
+        return new ErrorInfo(
+                e.path("step").asText(null),
+                e.path("callId").asText(null),
+                new RuntimeException(type != null ? type + ": " + message : message),
+                timestamp != null ? Instant.parse(timestamp) : null);
+    }
+}
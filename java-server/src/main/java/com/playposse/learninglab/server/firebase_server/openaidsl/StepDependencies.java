@@ -0,0 +1,36 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.Set;
+
+/**
+ * Declares which labels a Step reads and binds, so that a Chain can start
+ * the step as soon as its inputs exist instead of waiting for every
+ * earlier step.
+ *
+ * @param reads        label names the step reads (e.g. its ${placeholders})
+ * @param writes       label names the step binds in the context
+ * @param readsHistory true if the step injects the message history, which
+ *                     makes it depend on every earlier step
+ * @param barrier      true if the step can't describe itself; it then runs
+ *                     after every earlier step and before every later one
+ */
+public record StepDependencies(
+        Set<String> reads,
+        Set<String> writes,
+        boolean readsHistory,
+        boolean barrier
+) {
+    /** Dependencies of a step that doesn't declare any. */
+    public static final StepDependencies BARRIER =
+            new StepDependencies(Set.of(), Set.of(), true, true);
+
+    public StepDependencies {
+        reads = Set.copyOf(reads);
+        writes = Set.copyOf(writes);
+    }
+
+    /** Dependencies of a step with known reads and writes. */
+    public static StepDependencies of(Set<String> reads, Set<String> writes, boolean readsHistory) {
+        return new StepDependencies(reads, writes, readsHistory, false);
+    }
+}
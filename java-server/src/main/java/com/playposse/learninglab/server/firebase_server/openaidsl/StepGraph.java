@@ -0,0 +1,62 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dependency graph over the steps of a Chain, inferred from each step's
+ * {@link StepDependencies}. A step depends on an earlier step if it reads a
+ * label the earlier step writes, if it injects the history (which every
+ * step appends to), or if either of them is a barrier.
+ */
+final class StepGraph {
+
+    private final BitSet[] direct;
+    private final BitSet[] closure;
+
+    StepGraph(List<Step> steps) {
+        int n = steps.size();
+        StepDependencies[] deps = new StepDependencies[n];
+        for (int i = 0; i < n; i++) {
+            deps[i] = steps.get(i).dependencies();
+        }
+
+        direct = new BitSet[n];
+        closure = new BitSet[n];
+        for (int j = 0; j < n; j++) {
+            BitSet d = new BitSet(j);
+            if (deps[j].barrier() || deps[j].readsHistory()) {
+                d.set(0, j);
+            } else {
+                for (int i = 0; i < j; i++) {
+                    if (deps[i].barrier() || !Collections.disjoint(deps[i].writes(), deps[j].reads())) {
+                        d.set(i);
+                    }
+                }
+            }
+            direct[j] = d;
+
+            BitSet c = (BitSet) d.clone();
+            for (int i = d.nextSetBit(0); i >= 0; i = d.nextSetBit(i + 1)) {
+                c.or(closure[i]);
+            }
+            closure[j] = c;
+        }
+    }
+
+    /** Number of steps in the graph. */
+    int size() {
+        return direct.length;
+    }
+
+    /** Indices of the steps that must finish before step j starts. */
+    BitSet directDependencies(int j) {
+        return (BitSet) direct[j].clone();
+    }
+
+    /** Indices of every step whose output is visible to step j. */
+    BitSet transitiveDependencies(int j) {
+        return (BitSet) closure[j].clone();
+    }
+}
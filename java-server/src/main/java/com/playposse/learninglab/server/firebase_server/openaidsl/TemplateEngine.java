@@ -1,6 +1,7 @@
 package com.playposse.learninglab.server.firebase_server.openaidsl;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +37,21 @@ public final class TemplateEngine {
         return sb.toString();
     }
 
+    /**
+     * Compiles the text once for repeated rendering; see {@link CompiledTemplate}.
+     */
+    public static CompiledTemplate compile(String text) {
+        return CompiledTemplate.compile(text);
+    }
+
+    /**
+     * Returns the names of all ${key} placeholders in the text, in order of
+     * first appearance.
+     */
+    public static Set<String> placeholders(String text) {
+        return compile(text).placeholders();
+    }
+
     /**
      * Builds a flat map of String→String from the ChainContext's vars,
      * converting values via toString().  Also injects any loop alias under name 'item'.
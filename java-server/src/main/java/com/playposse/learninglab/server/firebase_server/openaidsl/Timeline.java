@@ -0,0 +1,254 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * When each part of a chain run happened, as a tree of spans: the run
+ * holds its steps, a forEach or parallel step holds its branches, a forEach
+ * branch holds its sub-steps, and a simple step holds one span per call
+ * attempt with its {@link CallTimings}. Times are milliseconds since the
+ * run started.
+ * <p>
+ * {@link #criticalPath()} is the chain of spans that determined how long
+ * the run took.
+ */
+public final class Timeline {
+
+    /** A run that recorded nothing. */
+    public static final Timeline EMPTY = new Timeline(
+            new Span("run", Kind.RUN, 0, 0, null, List.of()), List.of());
+
+    public enum Kind { RUN, STEP, BRANCH, CALL }
+
+    /**
+     * @param timings only for {@link Kind#CALL} spans; null otherwise
+     */
+    public record Span(
+            String name,
+            Kind kind,
+            long startMillis,
+            long endMillis,
+            CallTimings timings,
+            List<Span> children
+    ) {
+        public long durationMillis() {
+            return endMillis - startMillis;
+        }
+    }
+
+    private final Span root;
+    private final List<BitSet> dependencies;
+    private List<Span> criticalPath;
+
+    private Timeline(Span root, List<BitSet> dependencies) {
+        this.root = root;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * @param steps        the spans of the top-level steps, in declaration order
+     * @param dependencies for each step, the steps it waited for
+     */
+    static Timeline of(long startNanos, long endNanos, List<Recorder> steps, List<BitSet> dependencies) {
+        List<Span> children = new ArrayList<>(steps.size());
+        for (Recorder step : steps) {
+            children.add(step.toSpan(startNanos));
+        }
+        Span root = new Span("run", Kind.RUN, 0, millis(endNanos - startNanos), null, List.copyOf(children));
+        return new Timeline(root, List.copyOf(dependencies));
+    }
+
+    /** The whole run; its children are the top-level steps in declaration order. */
+    public Span root() {
+        return root;
+    }
+
+    public long durationMillis() {
+        return root.durationMillis();
+    }
+
+    /** Every call attempt, in the order they started. */
+    public List<Span> calls() {
+        List<Span> out = new ArrayList<>();
+        collectCalls(root, out);
+        out.sort(Comparator.comparingLong(Span::startMillis));
+        return out;
+    }
+
+    /**
+     * The spans the run was waiting on, in order: starting from the step
+     * that finished last, each step is preceded by the dependency that
+     * finished last; inside a forEach or parallel step the path follows the
+     * branch that finished last, and inside a branch or simple step it
+     * takes every sub-step and call attempt.
+     */
+    public synchronized List<Span> criticalPath() {
+        if (criticalPath == null) {
+            List<Span> steps = root.children();
+            List<Integer> chain = new ArrayList<>();
+            int current = latest(steps, allOf(steps.size()));
+            while (current >= 0) {
+                chain.add(current);
+                current = latest(steps, dependencies.get(current));
+            }
+            Collections.reverse(chain);
+
+            List<Span> path = new ArrayList<>();
+            for (int j : chain) {
+                expand(steps.get(j), path);
+            }
+            criticalPath = List.copyOf(path);
+        }
+        return criticalPath;
+    }
+
+    /**
+     * One line per call on the critical path, splitting its time into
+     * OpenAI (network) and our own overhead, for logs.
+     */
+    public String describeCriticalPath() {
+        StringBuilder out = new StringBuilder()
+                .append("run ").append(durationMillis()).append(" ms");
+        for (Span span : criticalPath()) {
+            if (span.kind() != Kind.CALL) {
+                continue;
+            }
+            CallTimings t = span.timings();
+            out.append("\n  ").append(span.name())
+                    .append(" @").append(span.startMillis())
+                    .append(": ").append(t.totalMillis()).append(" ms = ")
+                    .append("schedule ").append(t.scheduleWaitMillis())
+                    .append(" + template ").append(t.templateMillis())
+                    .append(" + rate limit ").append(t.rateLimitWaitMillis())
+                    .append(" + network ").append(t.networkMillis())
+                    .append(" (first token ").append(t.timeToFirstTokenMillis()).append(")")
+                    .append(" + parse ").append(t.parseMillis());
+        }
+        return out.toString();
+    }
+
+    private static void expand(Span span, List<Span> path) {
+        path.add(span);
+        List<Span> children = span.children();
+        if (children.isEmpty()) {
+            return;
+        }
+        if (children.get(0).kind() == Kind.BRANCH) {
+            Span last = children.get(latest(children, allOf(children.size())));
+            expand(last, path);
+        } else {
+            for (Span child : children) {
+                expand(child, path);
+            }
+        }
+    }
+
+    /** Index of the span in {@code among} that ended last, or -1. */
+    private static int latest(List<Span> spans, BitSet among) {
+        int best = -1;
+        for (int i = among.nextSetBit(0); i >= 0; i = among.nextSetBit(i + 1)) {
+            if (best < 0 || spans.get(i).endMillis() > spans.get(best).endMillis()) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static BitSet allOf(int n) {
+        BitSet all = new BitSet(n);
+        all.set(0, n);
+        return all;
+    }
+
+    private static void collectCalls(Span span, List<Span> out) {
+        if (span.kind() == Kind.CALL) {
+            out.add(span);
+        }
+        for (Span child : span.children()) {
+            collectCalls(child, out);
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000L;
+    }
+
+    /**
+     * A span still being recorded; steps find theirs in the
+     * {@link ChainContext} and add children to it from any thread.
+     */
+    static final class Recorder {
+        private final String name;
+        private final Kind kind;
+        private final long startNanos;
+        private volatile long endNanos;
+        private final CallTimings timings;
+        private final List<Recorder> children = Collections.synchronizedList(new ArrayList<>());
+
+        private Recorder(String name, Kind kind, long startNanos, long endNanos, CallTimings timings) {
+            this.name = name;
+            this.kind = kind;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.timings = timings;
+        }
+
+        /** A span starting now. */
+        static Recorder start(String name, Kind kind) {
+            return new Recorder(name, kind, System.nanoTime(), 0, null);
+        }
+
+        /** A zero-length span at {@code atNanos}, for work that never ran. */
+        static Recorder empty(String name, Kind kind, long atNanos) {
+            return new Recorder(name, kind, atNanos, atNanos, null);
+        }
+
+        long startNanos() {
+            return startNanos;
+        }
+
+        /** A child span starting now. */
+        Recorder child(String name, Kind kind) {
+            return child(name, kind, System.nanoTime());
+        }
+
+        /** A child span that started at {@code startNanos}. */
+        Recorder child(String name, Kind kind, long startNanos) {
+            Recorder child = new Recorder(name, kind, startNanos, 0, null);
+            children.add(child);
+            return child;
+        }
+
+        /** Adds a finished call attempt. */
+        void call(String name, long startNanos, long endNanos, CallTimings timings) {
+            children.add(new Recorder(name, Kind.CALL, startNanos, endNanos, timings));
+        }
+
+        void end() {
+            endNanos = System.nanoTime();
+        }
+
+        Span toSpan(long originNanos) {
+            List<Span> spans;
+            synchronized (children) {
+                spans = new ArrayList<>(children.size());
+                for (Recorder child : children) {
+                    spans.add(child.toSpan(originNanos));
+                }
+            }
+            spans.sort(Comparator.comparingLong(Span::startMillis));
+            long end = endNanos != 0 ? endNanos : startNanos;
+            return new Span(
+                    name,
+                    kind,
+                    millis(startNanos - originNanos),
+                    millis(end - originNanos),
+                    timings,
+                    List.copyOf(spans));
+        }
+    }
+}
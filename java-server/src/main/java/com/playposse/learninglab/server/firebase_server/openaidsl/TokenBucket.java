@@ -0,0 +1,50 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+/**
+ * Token bucket that refills continuously at {@code capacity} units per
+ * minute. The level may go negative when a reservation turns out to have
+ * been too small; the debt is paid back by later refills. Not thread-safe;
+ * callers synchronize.
+ */
+final class TokenBucket {
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double level;
+    private long lastRefill;
+
+    TokenBucket(long perMinute, long now) {
+        this.capacity = perMinute;
+        this.refillPerNano = perMinute / NANOS_PER_MINUTE;
+        this.level = perMinute;
+        this.lastRefill = now;
+    }
+
+    long capacity() {
+        return (long) capacity;
+    }
+
+    void refill(long now) {
+        level = Math.min(capacity, level + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+
+    boolean has(long amount) {
+        return level >= amount;
+    }
+
+    void take(long amount) {
+        level -= amount;
+    }
+
+    void give(long amount) {
+        level = Math.min(capacity, level + amount);
+    }
+
+    /** Nanoseconds until the bucket holds at least amount, assuming no other changes. */
+    long nanosUntil(long amount) {
+        double missing = amount - level;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerNano);
+    }
+}
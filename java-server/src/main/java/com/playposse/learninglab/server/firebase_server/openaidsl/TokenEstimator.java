@@ -0,0 +1,32 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import java.util.List;
+
+/**
+ * Cheap prompt-size estimate used to reserve rate-limit capacity before a
+ * call. It uses the common rule of thumb of ~4 characters per token plus a
+ * small per-message overhead; the reservation is corrected from the
+ * actual usage once the response arrives.
+ */
+public final class TokenEstimator {
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int TOKENS_PER_MESSAGE = 4;
+
+    private TokenEstimator() {
+        // static helper
+    }
+
+    /** Estimated prompt tokens for a list of chat messages. */
+    public static long estimate(List<ChatMsg> messages) {
+        long tokens = 0;
+        for (ChatMsg msg : messages) {
+            tokens += TOKENS_PER_MESSAGE + estimate(msg.content());
+        }
+        return tokens;
+    }
+
+    /** Estimated tokens for a single piece of text. */
+    public static long estimate(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,234 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.Firestore;
+import com.playposse.learninglab.server.firebase_server.openaidsl.StubOpenAiServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds how much concurrent traffic one instance takes: drives
+ * {@code /api/generate-teachable-items} at rising concurrency, with OpenAI
+ * replaced by a {@link StubOpenAiServer} (so the whole HTTP path still
+ * runs) and Firebase sign-in and Firestore stubbed, and prints throughput,
+ * p50/p99 latency, errors and heap per level.
+ *
+ * <p>Not part of {@code test}; run it with {@code ./gradlew loadTest}, tuned
+ * with {@code -Pload.concurrency=1,8,32,128} (levels),
+ * {@code -Pload.requests=200} (requests per level),
+ * {@code -Pload.latency=300,2000} (stub median and p99 millis) and
+ * {@code -Pload.fail-rate=0.02} (share of stub calls answered 429).
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "openai.http.warm-up=false",
+        // measure this instance, not the organization's OpenAI quota
+        "openai.rate-limit.requests-per-minute=1000000",
+        "openai.rate-limit.tokens-per-minute=1000000000",
+        "logging.level.org.springframework.web=INFO",
+        "logging.level.org.springframework.web.servlet.DispatcherServlet=INFO",
+        "logging.level.org.springframework.http=INFO",
+        "logging.level.com.playposse.learninglab=WARN"})
+class ControllerLoadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final StubOpenAiServer STUB = startStub();
+
+    @MockitoBean
+    private Firestore firestore;
+
+    @LocalServerPort
+    private int port;
+
+    @TestConfiguration
+    static class Stubs {
+
+        /** The bearer token is the uid, so every worker signs in as someone else. */
+        @Bean
+        @Primary
+        IdTokenVerifier fakeIdTokenVerifier() {
+            return idToken -> idToken;
+        }
+
+        @Bean
+        @Primary
+        SecretFetcher fakeSecretFetcher() {
+            return new SecretFetcher("unused") {
+                @Override
+                public String getOpenAiApiKey() {
+                    return "test-key";
+                }
+            };
+        }
+    }
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("openai.http.base-url", STUB::baseUrl);
+    }
+
+    private static StubOpenAiServer startStub() {
+        long[] latency = Arrays.stream(System.getProperty("load.latency", "300,2000").split(","))
+                .mapToLong(s -> Long.parseLong(s.trim()))
+                .toArray();
+        double failRate = Double.parseDouble(System.getProperty("load.fail-rate", "0"));
+        try {
+            return StubOpenAiServer.start()
+                    .latency(StubOpenAiServer.Latency.logNormal(latency[0], latency[1]))
+                    .chunks(16, Duration.ofMillis(5))
+                    .failRate(failRate, 429, Duration.ofMillis(200))
+                    .reply(request -> request.toString().contains("List the key categories")
+                            ? "warm-ups\ntechnique drills\nprinciples\nspotting\nflows\n"
+                            : "first item\nsecond item\nthird item\nfourth item\n");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.close();
+    }
+
+    @Test
+    void findConcurrencyCeiling() throws Exception {
+        int[] levels = Arrays.stream(System.getProperty("load.concurrency", "1,8,32,128").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim()))
+                .toArray();
+        int requestsPerLevel = Integer.getInteger("load.requests", 200);
+
+        try (HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build()) {
+            drive(http, 4, 20); // warm up JIT and connection pools
+
+            System.out.printf("%n%6s %8s %9s %9s %9s %7s %9s %10s %10s%n",
+                    "conc", "requests", "req/s", "p50 ms", "p99 ms", "errors",
+                    "upstream", "heap peak", "heap after");
+            List<Level> results = new ArrayList<>();
+            for (int concurrency : levels) {
+                STUB.resetStats();
+                Level level = drive(http, concurrency, Math.max(requestsPerLevel, concurrency));
+                results.add(level);
+                System.out.printf("%6d %8d %9.1f %9d %9d %7d %4d/%-4d %8dMB %8dMB%n",
+                        concurrency, level.requests, level.throughput(), level.percentile(0.50),
+                        level.percentile(0.99), level.errors, STUB.maxConcurrent(), STUB.requests(),
+                        level.heapPeak >> 20, level.heapAfter >> 20);
+            }
+            System.out.println("(upstream: most concurrent / total OpenAI calls)");
+
+            assertEquals(0, results.get(0).errors, "errors at the lowest level; see the log");
+        }
+    }
+
+    /** Sends {@code total} requests from {@code concurrency} workers and times each. */
+    private Level drive(HttpClient http, int concurrency, int total) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong heapPeak = new AtomicLong();
+        Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                heapPeak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        long[] latencies = new long[total];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        long start = System.nanoTime();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int w = 0; w < concurrency; w++) {
+                String uid = "load-user-" + w;
+                workers.submit(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < total) {
+                        long t0 = System.nanoTime();
+                        if (!send(http, uid, i)) {
+                            errors.incrementAndGet();
+                        }
+                        latencies[i] = System.nanoTime() - t0;
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        sampler.interrupt();
+        sampler.join();
+        System.gc();
+        return new Level(total, elapsed, latencies, errors.get(),
+                heapPeak.get(), memory.getHeapMemoryUsage().getUsed());
+    }
+
+    private boolean send(HttpClient http, String uid, int i) {
+        try {
+            // unique titles, so neither the response cache nor single-flight short-cuts the work
+            String body = MAPPER.writeValueAsString(Map.of(
+                    "title", "Load course " + i + " " + System.nanoTime(),
+                    "description", "An evening class on partner acrobatics.",
+                    "targetAudience", "Adult beginners"));
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/generate-teachable-items"))
+                    .header("Authorization", "Bearer " + uid)
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofMinutes(2))
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 && response.body().contains("\"items\"");
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private record Level(int requests, long elapsedNanos, long[] latencies, int errors,
+                         long heapPeak, long heapAfter) {
+
+        double throughput() {
+            return requests / (elapsedNanos / 1e9);
+        }
+
+        long percentile(double p) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1_000_000;
+        }
+    }
+}
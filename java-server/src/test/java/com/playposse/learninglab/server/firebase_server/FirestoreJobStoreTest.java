@@ -0,0 +1,61 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.cloud.Timestamp;
+import org.junit.jupiter.api.Test;
+
+class FirestoreJobStoreTest {
+
+    private final FirestoreJobStore store = new FirestoreJobStore(null, Duration.ofHours(1), Duration.ofMinutes(2));
+
+    @Test
+    void testDocumentRoundTrip() {
+        Job job = Job.queued("job-1", "user-1", "course-plan")
+                .running()
+                .withSteps(List.of("outline", "summary"))
+                .withStep(0, Job.StepStatus.SUCCEEDED)
+                .succeeded(Map.of("coursePlanId", "plan-1"));
+
+        Map<String, Object> doc = store.toDocument(job);
+        assertEquals("{\"coursePlanId\":\"plan-1\"}", doc.get("resultJson"));
+        assertNotNull(doc.get("expireAt"));
+
+        assertEquals(job, FirestoreJobStore.fromDocument(doc));
+    }
+
+    @Test
+    void testUnfinishedJobsExpireAfterTheirLease() {
+        Job job = Job.queued("job-2", "user-1", "course-plan").running();
+
+        Map<String, Object> doc = store.toDocument(job);
+        assertNull(doc.get("resultJson"));
+        Instant expireAt = ((Timestamp) doc.get("expireAt")).toDate().toInstant();
+        assertEquals(job.updatedAt().plus(Duration.ofMinutes(62)).toEpochMilli(), expireAt.toEpochMilli());
+
+        assertEquals(job, FirestoreJobStore.fromDocument(doc));
+    }
+
+    @Test
+    void testJobsWithoutALeaseAreReportedLost() {
+        Job job = Job.queued("job-3", "user-1", "course-plan").running();
+        Instant since = job.updatedAt();
+
+        assertEquals(Optional.of(job), store.visible(job, since.plus(Duration.ofMinutes(1))));
+
+        Job lost = store.visible(job, since.plus(Duration.ofMinutes(3))).orElseThrow();
+        assertEquals(Job.Status.FAILED, lost.status());
+        assertEquals("Worker lost", lost.error());
+        assertEquals(since.plus(Duration.ofMinutes(2)), lost.updatedAt());
+
+        // lost jobs are kept as long as other finished ones
+        assertTrue(store.visible(job, since.plus(Duration.ofMinutes(61))).isPresent());
+        assertTrue(store.visible(job, since.plus(Duration.ofMinutes(63))).isEmpty());
+    }
+}
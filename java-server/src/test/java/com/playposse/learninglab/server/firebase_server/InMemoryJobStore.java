@@ -0,0 +1,44 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link JobStore} in a map, for tests. Finished jobs are dropped once
+ * they are older than the retention period, like {@link FirestoreJobStore}
+ * hides them.
+ */
+public class InMemoryJobStore implements JobStore {
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Duration retention;
+
+    public InMemoryJobStore(Duration retention) {
+        this.retention = retention;
+    }
+
+    @Override
+    public void save(Job job) {
+        purgeExpired();
+        jobs.put(job.id(), job);
+    }
+
+    @Override
+    public Optional<Job> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    @Override
+    public void update(String id, UnaryOperator<Job> change) {
+        jobs.computeIfPresent(id, (key, job) -> change.apply(job));
+    }
+
+    private void purgeExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.updatedAt().isBefore(cutoff));
+    }
+}
@@ -0,0 +1,154 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import com.playposse.learninglab.server.firebase_server.openaidsl.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class JobServiceTest {
+
+    private static final Label<String> OUTLINE = Label.of("outline", String.class);
+    private static final Label<String> SUMMARY = Label.of("summary", String.class);
+    private static final Duration HEARTBEAT = Duration.ofSeconds(30);
+
+    private final InMemoryJobStore store = new InMemoryJobStore(Duration.ofHours(1));
+    private JobService service;
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    private Job awaitFinished(String id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Job job = service.get(id).orElseThrow();
+            if (job.isFinished()) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        fail("Job " + id + " did not finish");
+        return null;
+    }
+
+    @Test
+    void testJobReportsStepProgressAndResult() throws Exception {
+        service = new JobService(store, 1, 10, HEARTBEAT);
+        ChatConfig defaults = new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).cache(false).build();
+        Chain chain = ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(Parsers.string()).label(OUTLINE).endStep()
+                .step("summary").user("summarize ${outline}").parse(Parsers.string()).label(SUMMARY).endStep()
+                .build();
+        FakeOpenAiClient client = new FakeOpenAiClient();
+        client.whenContains("outline", "A, B");
+        client.whenContains("summarize", "short-");
+
+        Job queued = service.submit("user-1", "test", progress -> chain.run(client, progress).get(SUMMARY));
+        assertEquals(Job.Status.QUEUED, queued.status());
+
+        Job done = awaitFinished(queued.id());
+        assertEquals(Job.Status.SUCCEEDED, done.status());
+        assertEquals("short-A, B", done.result());
+        assertEquals(List.of(
+                new Job.StepProgress("outline", Job.StepStatus.SUCCEEDED),
+                new Job.StepProgress("summary", Job.StepStatus.SUCCEEDED)), done.steps());
+    }
+
+    @Test
+    void testFailingTaskMarksJobFailed() throws Exception {
+        service = new JobService(store, 1, 10, HEARTBEAT);
+        Job job = service.submit("user-1", "test", progress -> {
+            throw new IllegalStateException("boom");
+        });
+
+        Job done = awaitFinished(job.id());
+        assertEquals(Job.Status.FAILED, done.status());
+        assertEquals("boom", done.error());
+        assertNull(done.result());
+    }
+
+    @Test
+    void testFullQueueRejectsNewJobs() throws Exception {
+        service = new JobService(store, 1, 1, HEARTBEAT);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        JobService.Task blocking = progress -> {
+            started.countDown();
+            release.await();
+            return "ok";
+        };
+
+        Job running = service.submit("user-1", "test", blocking);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Job waiting = service.submit("user-1", "test", blocking);
+        assertThrows(RejectedExecutionException.class, () -> service.submit("user-1", "test", blocking));
+
+        release.countDown();
+        assertEquals(Job.Status.SUCCEEDED, awaitFinished(running.id()).status());
+        assertEquals(Job.Status.SUCCEEDED, awaitFinished(waiting.id()).status());
+    }
+
+    @Test
+    void testHeldJobsRenewTheirLease() throws Exception {
+        service = new JobService(store, 1, 1, Duration.ofMillis(20));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        JobService.Task blocking = progress -> {
+            started.countDown();
+            release.await();
+            return "ok";
+        };
+
+        Job running = service.submit("user-1", "test", blocking);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Job queued = service.submit("user-1", "test", blocking);
+        Instant runningSince = service.get(running.id()).orElseThrow().updatedAt();
+        Thread.sleep(100);
+
+        assertTrue(service.get(running.id()).orElseThrow().updatedAt().isAfter(runningSince));
+        assertTrue(service.get(queued.id()).orElseThrow().updatedAt().isAfter(queued.updatedAt()));
+
+        release.countDown();
+        Job done = awaitFinished(running.id());
+        awaitFinished(queued.id());
+        Thread.sleep(100);
+        assertEquals(done, service.get(running.id()).orElseThrow(), "finished jobs are left alone");
+    }
+
+    @Test
+    void testJobFailsIfItCannotBeMarkedRunning() throws Exception {
+        JobStore flaky = new InMemoryJobStore(Duration.ofHours(1)) {
+            private boolean failed;
+
+            @Override
+            public synchronized void update(String id, UnaryOperator<Job> change) {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("Firestore request failed");
+                }
+                super.update(id, change);
+            }
+        };
+        service = new JobService(flaky, 1, 1, HEARTBEAT);
+
+        Job job = service.submit("user-1", "test", progress -> "ok");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!flaky.get(job.id()).orElseThrow().isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Job done = flaky.get(job.id()).orElseThrow();
+        assertEquals(Job.Status.FAILED, done.status());
+        assertEquals("Firestore request failed", done.error());
+    }
+}
@@ -0,0 +1,86 @@
+package com.playposse.learninglab.server.firebase_server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Map;
+
+import com.openai.models.ChatModel;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiCallException;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiHttpClient;
+import com.playposse.learninglab.server.firebase_server.openaidsl.OpenAiRateLimiter;
+import com.playposse.learninglab.server.firebase_server.openaidsl.RateLimits;
+import com.playposse.learninglab.server.firebase_server.openaidsl.StubOpenAiServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OpenAiServiceTest {
+
+    private StubOpenAiServer stub;
+    private OpenAiHttpClient http;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubOpenAiServer.start();
+        http = new OpenAiHttpClient(OpenAiHttpClient.Settings.defaults());
+    }
+
+    @AfterEach
+    void tearDown() {
+        http.close();
+        stub.close();
+    }
+
+    /** The SDK client as the config builds it, with its own retries on. */
+    private OpenAiService service(OpenAiRateLimiter limiter, int maxRetries) {
+        return new OpenAiService(
+                http.sdk("test-key", stub.baseUrl()).withOptions(options -> options.maxRetries(2)),
+                limiter,
+                maxRetries);
+    }
+
+    @Test
+    void testRetriesUntilTheCallSucceeds() {
+        stub.reply(request -> "ok").failNext(2, 429, Duration.ofMillis(1));
+        OpenAiService service = service(new OpenAiRateLimiter(Map.of(), new RateLimits(100, 1_000_000)), 2);
+
+        assertEquals("ok", service.askChatGPT("hello"));
+        assertEquals(3, stub.requests());
+    }
+
+    @Test
+    void testGivesUpAfterMaxRetries() {
+        stub.failNext(10, 503, Duration.ofMillis(1));
+        OpenAiService service = service(new OpenAiRateLimiter(Map.of(), new RateLimits(100, 1_000_000)), 1);
+
+        OpenAiCallException e = assertThrows(OpenAiCallException.class, () -> service.askChatGPT("hello"));
+        assertEquals(503, e.statusCode());
+        // the SDK would have sent three requests per attempt
+        assertEquals(2, stub.requests());
+    }
+
+    @Test
+    void testEveryAttemptWaitsForTheRateLimiter() throws Exception {
+        stub.failNext(10, 503, Duration.ofMillis(1));
+        // two requests per minute: the third attempt has to queue
+        OpenAiRateLimiter limiter = new OpenAiRateLimiter(Map.of(), new RateLimits(2, 1_000_000));
+        OpenAiService service = service(limiter, 5);
+
+        // left waiting for the limiter when the test ends
+        Thread caller = Thread.ofVirtual().start(() -> {
+            try {
+                service.askChatGPT("hello");
+            } catch (RuntimeException ignored) {
+            }
+        });
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (limiter.queued(ChatModel.GPT_4_1) == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, limiter.queued(ChatModel.GPT_4_1));
+        assertEquals(2, stub.requests());
+        assertTrue(caller.isAlive());
+    }
+}
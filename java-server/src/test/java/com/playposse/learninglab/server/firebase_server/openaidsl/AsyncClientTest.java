@@ -0,0 +1,67 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncClientTest {
+
+    private ChatConfig defaults;
+
+    private static final Label<String> OUT = Label.of("out", String.class);
+
+    @BeforeEach
+    void setUp() {
+        defaults = new DefaultsBuilder().build();
+    }
+
+    /** Only implements the async call; the blocking call must never be used. */
+    private static OpenAiClient asyncOnly(CompletableFuture<ChatCompletionResult> reply) {
+        return new OpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+                throw new AssertionError("blocking call used");
+            }
+
+            @Override
+            public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                    List<ChatMsg> messages, ChatConfig config) {
+                return reply;
+            }
+        };
+    }
+
+    @Test
+    void testStepComposesOnAsyncCall() {
+        CompletableFuture<ChatCompletionResult> reply = new CompletableFuture<>();
+        // complete later from another thread, as an HTTP event loop would
+        CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)
+                .execute(() -> reply.complete(new ChatCompletionResult("async", null, 50)));
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("out").user("go").parse(Parsers.string()).label(OUT).endStep()
+                .build()
+                .run(asyncOnly(reply));
+
+        assertEquals("async", result.get(OUT));
+        assertTrue(result.errors().isEmpty());
+    }
+
+    @Test
+    void testFailedFutureIsRecordedAsError() {
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("out").user("go").parse(Parsers.string()).label(OUT).endStep()
+                .build()
+                .run(asyncOnly(CompletableFuture.failedFuture(new IllegalStateException("429"))));
+
+        assertFalse(result.has(OUT));
+        ErrorInfo err = result.getError(OUT);
+        assertTrue(err.cause() instanceof IllegalStateException);
+        assertEquals("429", err.cause().getMessage());
+    }
+}
@@ -0,0 +1,86 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChainContextTest {
+
+    private ChainContext root;
+
+    @BeforeEach
+    void setUp() {
+        root = ChainContext.root(new DefaultsBuilder().build());
+    }
+
+    @Test
+    void testDerivedContextsDoNotAffectEachOther() {
+        Label<String> a = Label.of("a", String.class);
+        Label<String> b = Label.of("b", String.class);
+
+        ChainContext base = root.plus(a, "A").appendHistory(new ChatMsg(Role.USER, "hi"));
+        ChainContext left = base.fork().plus(b, "left").appendHistory(new ChatMsg(Role.ASSISTANT, "L"));
+        ChainContext right = base.fork().plus(a, "A2");
+
+        assertEquals(Map.of(a, "A"), base.vars());
+        assertEquals(1, base.history().size());
+        assertEquals(Map.of(a, "A", b, "left"), left.vars());
+        assertEquals(List.of("hi", "L"), left.history().stream().map(ChatMsg::content).toList());
+        assertEquals(Map.of(a, "A2"), right.vars());
+        assertFalse(right.has(b));
+    }
+
+    @Test
+    void testHashMapMatchesJavaMap() {
+        PersistentHashMap<Object, Integer> map = PersistentHashMap.empty();
+        Map<Object, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            // Every tenth key collides on its hash with the key before it
+            Object key = i % 10 == 0 ? new Colliding(i) : Integer.valueOf(i);
+            map = map.plus(key, i);
+            expected.put(key, i);
+        }
+        PersistentHashMap<Object, Integer> before = map;
+        map = map.plus(5, -5).plus(new Colliding(10), -10);
+
+        assertEquals(2000, map.size());
+        assertEquals(-5, map.get(5));
+        assertEquals(-10, map.get(new Colliding(10)));
+        assertEquals(5, before.get(5));
+        assertEquals(expected, before.asMap());
+        assertFalse(map.containsKey(2000));
+    }
+
+    @Test
+    void testVectorAppendsAcrossTrieLevels() {
+        PersistentVector<Integer> vec = PersistentVector.empty();
+        PersistentVector<Integer> at100 = null;
+        for (int i = 0; i < 40_000; i++) {
+            vec = vec.plus(i);
+            if (i == 99) {
+                at100 = vec;
+            }
+        }
+
+        assertEquals(40_000, vec.size());
+        for (int i = 0; i < 40_000; i++) {
+            assertEquals(i, vec.get(i));
+        }
+        assertEquals(100, at100.size());
+        assertEquals(99, at100.asList().get(99));
+        assertEquals(List.of(97, 98, 99), at100.asList().subList(97, 100));
+    }
+
+    /** Key whose hash equals that of the Integer one below it. */
+    private record Colliding(int id) {
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(id - 1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChainEventsTest {
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testChainStepsCallsAndParsesAreRecorded() throws Exception {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("outline", "X\nY");
+        fake.whenContains("detail", "detail-of-");
+        ChatConfig defaults = new DefaultsBuilder().build();
+        Chain chain = ChainBuilder.start(defaults)
+                .name("demo")
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("detail ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build();
+
+        Path file = dir.resolve("chain.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("ChainRun", "StepRun", "StepCall", "TemplateRender", "Parse")) {
+                recording.enable("learninglab." + name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            chain.run(fake);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(file).stream()
+                .collect(Collectors.groupingBy(e -> e.getEventType().getName()));
+        Files.delete(file);
+
+        RecordedEvent run = events.get("learninglab.ChainRun").get(0);
+        assertEquals("demo", run.getString("chain"));
+        assertEquals(3, run.getInt("calls"));
+        assertTrue(run.getBoolean("succeeded"));
+
+        // outline, the loop, and the loop's sub-step once per item
+        assertEquals(List.of("detail", "detail", "forEach(items)", "outline"),
+                events.get("learninglab.StepRun").stream().map(e -> e.getString("step")).sorted().toList());
+
+        List<RecordedEvent> calls = events.get("learninglab.StepCall");
+        assertEquals(3, calls.size());
+        RecordedEvent outline = calls.stream()
+                .filter(e -> "outline".equals(e.getString("step"))).findFirst().orElseThrow();
+        assertEquals("items", outline.getString("label"));
+        assertEquals(defaults.model().asString(), outline.getString("model"));
+        assertEquals(1, outline.getLong("promptTokens"));
+        assertEquals(3, outline.getLong("completionTokens"));
+        assertEquals(1, outline.getInt("attempt"));
+
+        assertEquals(3, events.get("learninglab.TemplateRender").size());
+        assertTrue(events.get("learninglab.Parse").stream().allMatch(e -> e.getBoolean("succeeded")));
+    }
+}
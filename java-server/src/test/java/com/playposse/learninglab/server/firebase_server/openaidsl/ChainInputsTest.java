@@ -0,0 +1,123 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChainInputsTest {
+
+    private static final Label<String> SUBJECT = Label.of("subject", String.class);
+    private static final Label<String> OUTLINE = Label.of("outline", String.class);
+    private static final Label<String> TITLE = Label.of("title", String.class);
+
+    private final ChatConfig defaults = new DefaultsBuilder().build();
+
+    @TempDir
+    Path dir;
+
+    /** Built once, like the services do, and shared by every run below. */
+    private final Chain chain = ChainBuilder.start(defaults)
+            .input(SUBJECT)
+            .step("outline").user("Outline ${subject}").parse(Parsers.string()).label(OUTLINE).endStep()
+            .step("title").user("Title for ${outline}").parse(Parsers.string()).label(TITLE).endStep()
+            .build();
+
+    private static FakeOpenAiClient fake() {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("Outline", "plan-");
+        fake.whenContains("Title for", "title-");
+        return fake;
+    }
+
+    @Test
+    void testInputsAreBoundIntoTemplates() {
+        ChainResult result = chain.run(fake(), Map.of(SUBJECT, "knots"));
+
+        assertEquals("plan-knots", result.get(OUTLINE));
+        assertEquals("title-plan-knots", result.get(TITLE));
+        assertEquals("knots", result.get(SUBJECT));
+        assertEquals("Outline knots", result.callLogs().get(0).prompt().get(0).content());
+        assertEquals(List.of(SUBJECT), List.copyOf(chain.inputs()));
+    }
+
+    @Test
+    void testOneChainServesConcurrentRuns() {
+        FakeOpenAiClient fake = fake();
+        List<CompletableFuture<ChainResult>> runs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String subject = "subject" + i;
+            runs.add(CompletableFuture.supplyAsync(() -> chain.run(fake, Map.of(SUBJECT, subject))));
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            assertEquals("title-plan-subject" + i, runs.get(i).join().get(TITLE));
+        }
+    }
+
+    @Test
+    void testRejectsBadInputs() {
+        FakeOpenAiClient fake = fake();
+        assertThrows(IllegalArgumentException.class, () -> chain.run(fake));
+        assertThrows(IllegalArgumentException.class,
+                () -> chain.run(fake, Map.of(SUBJECT, "knots", TITLE, "extra")));
+        Label<Object> untyped = Label.of("subject", Object.class);
+        assertThrows(IllegalArgumentException.class, () -> chain.run(fake, Map.of(untyped, "knots")));
+
+        Label<List<String>> topics = Label.of("topics", new TypeReference<List<String>>() {});
+        Chain listChain = ChainBuilder.start(defaults)
+                .input(topics)
+                .step("outline").user("Outline ${topics}").parse(Parsers.string()).label(OUTLINE).endStep()
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> listChain.run(fake, Map.of(topics, "knots")));
+        assertEquals("plan-[knots, belays]",
+                listChain.run(fake, Map.of(topics, List.of("knots", "belays"))).get(OUTLINE));
+    }
+
+    @Test
+    void testBuildRejectsUnboundPlaceholders() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> ChainBuilder.start(defaults)
+                .input(SUBJECT)
+                .step("title").user("Title for ${outline}").parse(Parsers.string()).label(TITLE).endStep()
+                .step("outline").user("Outline ${subject}").parse(Parsers.string()).label(OUTLINE).endStep()
+                .build());
+        assertTrue(e.getMessage().contains("${outline}"), e.getMessage());
+    }
+
+    @Test
+    void testBuildRejectsStepsThatOverwriteAnInput() {
+        assertThrows(IllegalStateException.class, () -> ChainBuilder.start(defaults)
+                .input(SUBJECT)
+                .step("subject").user("Rename ${subject}").parse(Parsers.string()).label(SUBJECT).endStep()
+                .build());
+    }
+
+    @Test
+    void testCheckpointedRunsTakeInputs() throws Exception {
+        FileCheckpointStore store = new FileCheckpointStore(dir);
+        Chain checkpointed = ChainBuilder.start(defaults)
+                .input(SUBJECT)
+                .step("outline").user("Outline ${subject}").parse(Parsers.string()).label(OUTLINE).endStep()
+                .checkpoints(store)
+                .build();
+        store.save("run-1", 0, "{}");
+
+        // without inputs, fail before the existing checkpoints are discarded
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> checkpointed.run("run-1", fake()));
+        assertTrue(e.getMessage().contains("subject"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> checkpointed.resume("run-1", fake()));
+        assertEquals(1, store.load("run-1").size());
+
+        ChainResult result = checkpointed.run(
+                "run-1", fake(), Map.of(SUBJECT, "knots"), ChainListener.NONE, ChainResult.Observer.NONE);
+        assertEquals("plan-knots", result.get(OUTLINE));
+        assertEquals(List.of(0), List.copyOf(store.load("run-1").keySet()));
+    }
+}
@@ -0,0 +1,136 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.search.RequiredSearch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChainMetricsTest {
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+    private static final Label<String> OUT = Label.of("out", String.class);
+
+    private SimpleMeterRegistry registry;
+    private ChainMetrics metrics;
+    private ChatConfig defaults;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = ChainMetrics.of(registry);
+        defaults = new DefaultsBuilder().build();
+    }
+
+    @Test
+    void testRunsStepsBranchesAndTokensAreRecorded() {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("outline", "X\nY\nZ");
+        fake.whenContains("detail", "detail-of-");
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .name("demo")
+                .metrics(metrics)
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .maxConcurrency(2)
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("detail ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build()
+                .run(fake);
+
+        assertEquals(3, result.get(DETAILS).size());
+        assertEquals(1, timer("chain.run").tag("outcome", "success").timer().count());
+        assertEquals(1, timer("chain.step").tag("step", "outline").tag("type", "simple").timer().count());
+        assertEquals(1, timer("chain.step").tag("type", "forEach").timer().count());
+        assertEquals(3, timer("chain.branch").tag("outcome", "success").timer().count());
+        assertEquals(3, timer("chain.queue.wait").timer().count());
+        assertEquals(3, timer("chain.openai.call").tag("step", "detail").tag("outcome", "success").timer().count());
+
+        String model = defaults.model().asString();
+        assertEquals(4.0, registry.get("chain.openai.tokens")
+                .tags("chain", "demo", "model", model, "type", "prompt")
+                .counters().stream().mapToDouble(Counter::count).sum());
+        // "X\nY\nZ" and three "detail-of-" prefixes
+        assertEquals(5.0 + 3 * 10.0, registry.get("chain.openai.tokens")
+                .tags("chain", "demo", "type", "completion")
+                .counters().stream().mapToDouble(Counter::count).sum());
+    }
+
+    @Test
+    void testRetriesAndErrorsAreCountedByStatus() {
+        AtomicInteger calls = new AtomicInteger();
+        OpenAiClient failing = new OpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+                throw new AssertionError("blocking call used");
+            }
+
+            @Override
+            public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                    List<ChatMsg> messages, ChatConfig config) {
+                int status = calls.incrementAndGet() == 1 ? 429 : 400;
+                return CompletableFuture.failedFuture(
+                        new OpenAiCallException("status " + status, status, Duration.ZERO, null, null));
+            }
+        };
+
+        ChainBuilder.start(new DefaultsBuilder()
+                        .retryPolicy(new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(5)))
+                        .build())
+                .name("demo")
+                .metrics(metrics)
+                .step("out").user("go").parse(Parsers.string()).label(OUT).endStep()
+                .build()
+                .run(failing);
+
+        assertEquals(1.0, registry.get("chain.openai.retries").tag("reason", "429").counter().count());
+        assertEquals(1.0, registry.get("chain.openai.errors").tag("reason", "400").counter().count());
+        assertEquals(1, timer("chain.openai.call").tag("outcome", "retry").timer().count());
+        assertEquals(1, timer("chain.step").tag("outcome", "error").timer().count());
+        assertEquals(1, timer("chain.run").tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    void testNoneRecordsNothing() {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("go", "ok");
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("out").user("go").parse(Parsers.string()).label(OUT).endStep()
+                .build()
+                .run(fake);
+
+        assertEquals("ok", result.get(OUT));
+        assertTrue(registry.getMeters().isEmpty());
+    }
+
+    @Test
+    void testMetersAreRegisteredOncePerTags() {
+        MeterCache cache = new MeterCache(registry);
+
+        assertSame(cache.timer("t", "step", "a"), cache.timer("t", "step", "a"));
+        assertNotSame(cache.timer("t", "step", "a"), cache.timer("t", "step", "b"));
+        assertSame(cache.counter("c", "type", "x"), cache.counter("c", "type", "x"));
+        // a meter registered elsewhere under the same id is the same meter
+        assertSame(registry.counter("c", "type", "x"), cache.counter("c", "type", "x"));
+    }
+
+    private RequiredSearch timer(String name) {
+        return registry.get(name).tag("chain", "demo");
+    }
+}
@@ -0,0 +1,105 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChainSchedulingTest {
+
+    private ChatConfig defaults;
+
+    private static final Label<String> A = Label.of("a", String.class);
+    private static final Label<String> B = Label.of("b", String.class);
+    private static final Label<String> C = Label.of("c", String.class);
+    private static final Label<List<String>> LIST =
+            Label.of("list", new TypeReference<List<String>>() {});
+    private static final Label<List<String>> JOINED =
+            Label.of("joined", new TypeReference<List<String>>() {});
+
+    @BeforeEach
+    void setUp() {
+        defaults = new DefaultsBuilder().build();
+    }
+
+    @Test
+    void testIndependentStepsRunConcurrently() {
+        // Both calls must be in flight at the same time, otherwise the latch times out.
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        OpenAiClient client = (msgs, cfg) -> {
+            bothStarted.countDown();
+            boolean concurrent = bothStarted.await(5, TimeUnit.SECONDS);
+            String user = msgs.get(msgs.size() - 1).content();
+            return new ChatCompletionResult(concurrent ? user.toUpperCase() : "serial", null, 0);
+        };
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("a").user("first").parse(Parsers.string()).label(A).endStep()
+                .step("b").user("second").parse(Parsers.string()).label(B).endStep()
+                .build()
+                .run(client);
+
+        assertEquals("FIRST", result.get(A));
+        assertEquals("SECOND", result.get(B));
+    }
+
+    @Test
+    void testDependentAndHistoryStepsKeepSerialSemantics() {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("first", "one");
+        fake.whenContains("second", "two");
+        fake.whenContains("use", "got-");
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("a").user("first").parse(Parsers.string()).label(A).endStep()
+                .step("b").user("second").parse(Parsers.string()).label(B).endStep()
+                .step("c").history().user("use ${a}").parse(Parsers.string()).label(C).endStep()
+                .build()
+                .run(fake);
+
+        assertEquals("got-one", result.get(C));
+
+        // Logs stay in declaration order, and history includes both earlier steps in order
+        List<CallLog> logs = result.callLogs();
+        assertEquals(List.of("a", "b", "c"), logs.stream().map(l -> l.label().name()).toList());
+        List<ChatMsg> prompt = logs.get(2).prompt();
+        assertEquals(List.of("first", "one", "second", "two", "use one"),
+                prompt.stream().map(ChatMsg::content).toList());
+    }
+
+    @Test
+    void testGraphInfersDependencies() {
+        List<Step> steps = List.of(
+                StepBuilder.start("degrees", defaults).user("degrees").label(A).build(),
+                StepBuilder.start("dims", defaults).user("dims").label(LIST).build(),
+                ForEachStep.<String, String>builder(LIST)
+                        .alias("dim")
+                        .addStep(StepBuilder.start("detail", defaults)
+                                .user("${dim} for ${a}").label(B).build())
+                        .joinInto(JOINED)
+                        .build(),
+                StepBuilder.start("review", defaults).history().user("review").label(C).build()
+        );
+
+        StepGraph graph = new StepGraph(steps);
+
+        assertEquals(new BitSet(), graph.directDependencies(0));
+        assertEquals(new BitSet(), graph.directDependencies(1));
+        assertEquals(bits(0, 1), graph.directDependencies(2));
+        assertEquals(bits(0, 1, 2), graph.directDependencies(3));
+    }
+
+    private static BitSet bits(int... indices) {
+        BitSet set = new BitSet();
+        for (int i : indices) {
+            set.set(i);
+        }
+        return set;
+    }
+}
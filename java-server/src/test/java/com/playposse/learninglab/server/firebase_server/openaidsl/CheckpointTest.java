@@ -0,0 +1,145 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest {
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+    private static final Label<String> SUMMARY = Label.of("summary", String.class);
+
+    @TempDir
+    Path dir;
+
+    private ChatConfig defaults;
+    private FileCheckpointStore store;
+
+    @BeforeEach
+    void setUp() {
+        defaults = new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).cache(false).build();
+        store = new FileCheckpointStore(dir);
+    }
+
+    /** outline → forEach expand → summarize (which also sees the history). */
+    private Chain chain() {
+        return ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .alias("item")
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("expand ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .step("summary").history().user("summarize ${details}")
+                .parse(Parsers.string()).label(SUMMARY).endStep()
+                .checkpoints(store)
+                .build();
+    }
+
+    /** FakeOpenAiClient that records the prompts it answered. */
+    private static FakeOpenAiClient client(List<String> prompts, boolean summaryWorks) {
+        FakeOpenAiClient fake = new FakeOpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig cfg) {
+                String user = messages.get(messages.size() - 1).content();
+                prompts.add(user);
+                return super.chatCompletion(messages, cfg);
+            }
+        };
+        fake.whenContains("outline", "A\nB");
+        fake.whenContains("expand", "more-on-");
+        if (summaryWorks) {
+            fake.whenContains("summarize", "done");
+        }
+        return fake;
+    }
+
+    @Test
+    void testResumeRunsOnlyTheMissingSteps() throws Exception {
+        List<String> firstPrompts = Collections.synchronizedList(new ArrayList<>());
+        ChainResult failed = chain().run("run-1", client(firstPrompts, false));
+        assertTrue(failed.hasError(SUMMARY));
+        assertEquals(4, firstPrompts.size());
+        assertEquals(List.of(0, 1), List.copyOf(store.load("run-1").keySet()));
+
+        List<String> resumedPrompts = Collections.synchronizedList(new ArrayList<>());
+        ChainResult resumed = chain().resume("run-1", client(resumedPrompts, true));
+
+        assertEquals(List.of("summarize [more-on-A, more-on-B]"), resumedPrompts);
+        assertEquals(List.of("A", "B"), resumed.get(ITEMS));
+        assertEquals(List.of("more-on-A", "more-on-B"), resumed.get(DETAILS));
+        assertEquals("done", resumed.get(SUMMARY));
+        assertTrue(resumed.errors().isEmpty());
+
+        // restored call logs come first, in declaration order
+        List<CallLog> logs = resumed.callLogs();
+        assertEquals(4, logs.size());
+        assertEquals("A\nB", logs.get(0).completion());
+        assertEquals(ITEMS, logs.get(0).label());
+        assertEquals("done", logs.get(3).completion());
+    }
+
+    @Test
+    void testRestoredHistoryFeedsLaterSteps() {
+        chain().run("run-2", client(new ArrayList<>(), false));
+
+        List<List<ChatMsg>> summaryPrompts = new ArrayList<>();
+        FakeOpenAiClient fake = new FakeOpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig cfg) {
+                summaryPrompts.add(messages);
+                return super.chatCompletion(messages, cfg);
+            }
+        };
+        fake.whenContains("summarize", "done");
+        chain().resume("run-2", fake);
+
+        List<ChatMsg> prompt = summaryPrompts.get(0);
+        assertEquals(new ChatMsg(Role.USER, "outline"), prompt.get(0));
+        assertEquals(new ChatMsg(Role.ASSISTANT, "A\nB"), prompt.get(1));
+    }
+
+    @Test
+    void testRunStartsOverAndResumeWithoutCheckpointsRunsEverything() throws Exception {
+        List<String> prompts = Collections.synchronizedList(new ArrayList<>());
+        chain().resume("fresh", client(prompts, true));
+        assertEquals(4, prompts.size());
+        assertEquals(3, store.load("fresh").size());
+
+        prompts.clear();
+        chain().run("fresh", client(prompts, true));
+        assertEquals(4, prompts.size());
+
+        store.delete("fresh");
+        assertTrue(store.load("fresh").isEmpty());
+    }
+
+    @Test
+    void testCheckpointOfADifferentStepIsIgnored() throws Exception {
+        store.save("run-3", 0, "{\"step\":0,\"writes\":[\"somethingElse\"],\"vars\":{},\"history\":[],\"logs\":[]}");
+
+        List<String> prompts = Collections.synchronizedList(new ArrayList<>());
+        ChainResult result = chain().resume("run-3", client(prompts, true));
+
+        assertTrue(prompts.contains("outline"));
+        assertEquals("done", result.get(SUMMARY));
+    }
+
+    @Test
+    void testRunIdsCannotEscapeTheDirectory() {
+        assertThrows(IllegalArgumentException.class, () -> store.load("../etc"));
+    }
+}
@@ -26,8 +26,9 @@ class ConfigOverridesTest {
                 .maxTokens(123)
                 .build();
 
-        // Mock the OpenAiClient to return a placeholder result
-        client = mock(OpenAiClient.class);
+        // Mock the OpenAiClient to return a placeholder result; the default
+        // chatCompletionAsync delegates to the stubbed blocking call
+        client = mock(OpenAiClient.class, CALLS_REAL_METHODS);
         when(client.chatCompletion(anyList(), any()))
                 .thenReturn(new ChatCompletionResult("unused", null, 0));
     }
@@ -59,24 +60,29 @@ class ConfigOverridesTest {
         // Run it
         ChainResult result = chain.run(client);
 
-        // Capture the ChatConfig for each call
+        // Capture the prompt and ChatConfig for each call
         @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ChatMsg>> msgCaptor =
+                ArgumentCaptor.forClass((Class) List.class);
         ArgumentCaptor<ChatConfig> cfgCaptor =
                 ArgumentCaptor.forClass(ChatConfig.class);
 
         // Expect exactly two invocations
         verify(client, times(2))
-                .chatCompletion(anyList(), cfgCaptor.capture());
+                .chatCompletion(msgCaptor.capture(), cfgCaptor.capture());
 
+        // The steps are independent and may run in either order,
+        // so pair each config with the prompt it was sent with
         List<ChatConfig> cfgs = cfgCaptor.getAllValues();
+        int first = msgCaptor.getAllValues().get(0).get(0).content().equals("p0") ? 0 : 1;
 
-        // First call: defaults
-        ChatConfig cfg0 = cfgs.get(0);
+        // step0: defaults
+        ChatConfig cfg0 = cfgs.get(first);
         assertEquals(ChatModel.CHATGPT_4O_LATEST, cfg0.model(),      "Step0 should use default model");
         assertEquals(123,            cfg0.maxTokens(), "Step0 should use default maxTokens");
 
-        // Second call: overridden values
-        ChatConfig cfg1 = cfgs.get(1);
+        // step1: overridden values
+        ChatConfig cfg1 = cfgs.get(1 - first);
         assertEquals(ChatModel.GPT_3_5_TURBO, cfg1.model(),      "Step1 should use overridden model");
         assertEquals(456,               cfg1.maxTokens(), "Step1 should use overridden maxTokens");
 
@@ -0,0 +1,146 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DiskResponseStoreTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    @TempDir
+    Path dir;
+
+    private static ChatCompletionResult result(String text) {
+        return new ChatCompletionResult(text, null, 10);
+    }
+
+    @Test
+    void testEntriesSurviveReopen() throws IOException {
+        Path file = dir.resolve("responses.seg");
+        ObjectNode usage = new ObjectMapper().createObjectNode().put("total_tokens", 42);
+
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            store.put("a", new ChatCompletionResult("Ä reply", usage, 10));
+            store.put("b", result("first"));
+            store.put("b", result("second"));
+        }
+
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            assertEquals(2, store.size());
+            ChatCompletionResult a = store.get("a").orElseThrow();
+            assertEquals("Ä reply", a.content());
+            assertEquals(42, a.usage().get("total_tokens").asInt());
+            assertEquals("second", store.get("b").orElseThrow().content());
+            assertTrue(store.get("missing").isEmpty());
+        }
+    }
+
+    @Test
+    void testRemovalSurvivesReopen() throws IOException {
+        Path file = dir.resolve("responses.seg");
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            store.put("a", result("kept"));
+            store.put("b", result("broken"));
+            store.remove("b");
+            assertTrue(store.get("b").isEmpty());
+        }
+
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            assertEquals(1, store.size());
+            assertEquals("kept", store.get("a").orElseThrow().content());
+            assertTrue(store.get("b").isEmpty());
+        }
+    }
+
+    @Test
+    void testTornAppendIsDroppedOnRecovery() throws IOException {
+        Path file = dir.resolve("responses.seg");
+        int goodEnd;
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            store.put("a", result("kept"));
+            goodEnd = store.bytesUsed();
+            store.put("b", result("torn"));
+        }
+
+        // flip a byte inside b's body, as if the crash hit mid-write
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(new byte[] {0x7f}), goodEnd + 20);
+        }
+
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            assertEquals("kept", store.get("a").orElseThrow().content());
+            assertTrue(store.get("b").isEmpty());
+            assertEquals(goodEnd, store.bytesUsed());
+
+            // appends resume where the valid data ends
+            store.put("c", result("after crash"));
+        }
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            assertEquals("after crash", store.get("c").orElseThrow().content());
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    void testCompactionStaysWithinBudgetAndKeepsNewest() throws IOException {
+        Path file = dir.resolve("responses.seg");
+        String payload = "x".repeat(100);
+        try (DiskResponseStore store = new DiskResponseStore(file, 4 * 1024, TTL)) {
+            for (int i = 0; i < 200; i++) {
+                store.put("k" + i, result(payload + i));
+            }
+            assertTrue(store.bytesUsed() <= 4 * 1024);
+            assertEquals(payload + 199, store.get("k199").orElseThrow().content());
+            assertTrue(store.get("k0").isEmpty());
+        }
+        assertEquals(4 * 1024, Files.size(file));
+        assertFalse(Files.exists(dir.resolve("responses.seg.compact")));
+
+        try (DiskResponseStore store = new DiskResponseStore(file, 4 * 1024, TTL)) {
+            assertEquals(payload + 199, store.get("k199").orElseThrow().content());
+        }
+    }
+
+    @Test
+    void testExpiredEntriesAreNotReturned() throws IOException {
+        AtomicLong now = new AtomicLong(1_000);
+        Path file = dir.resolve("responses.seg");
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, Duration.ofSeconds(10), now::get)) {
+            store.put("a", result("A"));
+            now.addAndGet(10_000);
+            assertTrue(store.get("a").isEmpty());
+        }
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, Duration.ofSeconds(10), now::get)) {
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    void testCacheFallsBackToDiskAfterRestart() throws IOException {
+        Path file = dir.resolve("responses.seg");
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            new ResponseCache(10, TTL, store).put("a", result("warm"));
+        }
+
+        try (DiskResponseStore store = new DiskResponseStore(file, 64 * 1024, TTL)) {
+            ResponseCache cache = new ResponseCache(10, TTL, store);
+            assertEquals("warm", cache.get("a").orElseThrow().content());
+            assertEquals(1, cache.hits());
+            assertEquals(1, cache.secondTierHits());
+            assertEquals(1, cache.size());   // promoted into memory
+        }
+    }
+}
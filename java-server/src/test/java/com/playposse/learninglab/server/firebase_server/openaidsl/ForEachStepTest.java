@@ -3,7 +3,10 @@ package com.playposse.learninglab.server.firebase_server.openaidsl;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
@@ -127,4 +130,92 @@ class ForEachStepTest {
         assertTrue(err.cause() instanceof IllegalArgumentException);
         assertTrue(err.cause().getMessage().contains("Truncated"));
     }
+
+    @Test
+    void testMaxConcurrencyBoundsBranchesInFlight() {
+        fake.whenContains("outline", "A\nB\nC\nD\nE\nF\nG\nH");
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        OpenAiClient slow = (msgs, cfg) -> {
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(20);
+                return fake.chatCompletion(msgs, cfg);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+
+        Chain chain = ChainBuilder.start(defaults)
+                .step("outline")
+                .user("outline")
+                .parse(Parsers.stringList())
+                .label(ITEMS)
+                .endStep()
+                .forEach(ITEMS)
+                .alias("item")
+                .maxConcurrency(2)
+                .addStep(
+                        StepBuilder
+                                .start("detail", defaults)
+                                .user("detail ${item}")
+                                .parse(Parsers.string())
+                                .label(DETAIL)
+                                .build()
+                )
+                .joinInto(DETAILS)
+                .endForEach()
+                .build();
+
+        ChainResult result = chain.run(slow);
+
+        // results keep source order even though branches finish in any order
+        assertEquals(
+                List.of("A", "B", "C", "D", "E", "F", "G", "H").stream().map(s -> "detail-of-" + s).toList(),
+                result.get(DETAILS));
+        assertTrue(maxInFlight.get() <= 2, "at most 2 branches in flight, saw " + maxInFlight.get());
+    }
+
+    @Test
+    void testMaxConcurrencyIsSharedByConcurrentRuns() {
+        fake.whenContains("outline", "A\nB\nC");
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        OpenAiClient slow = (msgs, cfg) -> {
+            if (!msgs.get(msgs.size() - 1).content().contains("detail")) {
+                return fake.chatCompletion(msgs, cfg);
+            }
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(20);
+                return fake.chatCompletion(msgs, cfg);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        };
+
+        // built once and shared, like the services' chains
+        Chain chain = ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .maxConcurrency(2)
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("detail ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build();
+
+        List<CompletableFuture<ChainResult>> runs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            runs.add(CompletableFuture.supplyAsync(() -> chain.run(slow)));
+        }
+        for (CompletableFuture<ChainResult> run : runs) {
+            assertEquals(List.of("detail-of-A", "detail-of-B", "detail-of-C"), run.join().get(DETAILS));
+        }
+        assertTrue(maxInFlight.get() <= 2, "at most 2 branches in flight over all runs, saw " + maxInFlight.get());
+    }
 }
@@ -0,0 +1,122 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+class JsonStreamingParserTest {
+
+    record Level(String title, List<String> lessons) {}
+
+    private static final Label<List<Level>> LEVELS =
+            Label.of("levels", new TypeReference<List<Level>>() {});
+    private static final Label<List<Map<String, Object>>> ROWS =
+            Label.of("rows", new TypeReference<List<Map<String, Object>>>() {});
+
+    private static final String PLAN = """
+            {"name": "Plan", "levels": [
+              {"title": "One", "lessons": ["a", "b"]},
+              {"title": "Two ü", "lessons": []}
+            ], "note": {"levels": [1]}}""";
+
+    @Test
+    void testElementsAreEmittedAsTheyClose() throws Exception {
+        List<Level> emitted = new ArrayList<>();
+        List<Integer> emittedAt = new ArrayList<>();
+        ItemParser.Session<Level> session = Parsers.jsonElements("/levels", LEVELS).session(level -> {
+            emitted.add(level);
+            emittedAt.add(emitted.size());
+        });
+
+        // feed one character at a time; the first level must arrive before the second starts
+        int firstClose = PLAN.indexOf('}') + 1;
+        for (int i = 0; i < PLAN.length(); i++) {
+            session.feed(PLAN.substring(i, i + 1));
+            if (i + 1 == firstClose) {
+                assertEquals(List.of(new Level("One", List.of("a", "b"))), emitted);
+            }
+        }
+        List<Level> all = session.finish();
+
+        assertEquals(List.of(new Level("One", List.of("a", "b")), new Level("Two ü", List.of())), all);
+        assertEquals(all, emitted);
+    }
+
+    @Test
+    void testWholeParseMatchesTheTypedJsonParser() throws Exception {
+        List<Map<String, Object>> rows = Parsers.jsonElements("", ROWS).parse("[{\"n\": 1}, {\"n\": 2.5}]");
+        assertEquals(List.of(Map.of("n", 1), Map.of("n", 2.5)), rows);
+        assertEquals(rows, Parsers.json(ROWS).parse("[{\"n\": 1}, {\"n\": 2.5}]"));
+    }
+
+    @Test
+    void testTextAroundTheJsonIsIgnored() throws Exception {
+        List<String> emitted = Collections.synchronizedList(new ArrayList<>());
+        ItemParser.Session<Map<String, Object>> session =
+                Parsers.jsonElements("/levels", ROWS).session(row -> emitted.add((String) row.get("t")));
+
+        session.feed("```json\n{\"levels\": [{\"t\": \"x\"}");
+        session.feed("]}\n```");
+
+        assertEquals(1, session.finish().size());
+        assertEquals(List.of("x"), emitted);
+    }
+
+    @Test
+    void testIncompleteOrMissingJsonFails() {
+        Parser<List<Map<String, Object>>> levels = Parsers.jsonElements("/levels", ROWS);
+
+        assertThrows(IOException.class, () -> levels.parse("{\"levels\": [{\"t\": 1}"));
+        assertThrows(IOException.class, () -> levels.parse("no json here"));
+        assertThrows(IOException.class, () -> levels.parse("{\"other\": []}"));
+    }
+
+    @Test
+    void testJsonTreeParserIsUnchanged() throws Exception {
+        JsonNode node = Parsers.json().parse("{\"a\": [1, 2]}");
+        assertEquals(2, node.get("a").size());
+    }
+
+    @Test
+    void testStreamingStepReportsItemsToTheObserver() {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("plan", PLAN);
+        List<Object> items = Collections.synchronizedList(new ArrayList<>());
+
+        ChainResult result = ChainBuilder.start(new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).build())
+                .step("plan").user("plan").parse(Parsers.jsonElements("/levels", LEVELS))
+                .streamItems().label(LEVELS).endStep()
+                .build()
+                .run(fake, new ChainResult.Observer() {
+                    @Override
+                    public void onItem(Label<?> label, int index, Object item) {
+                        items.add(item);
+                    }
+
+                    @Override
+                    public void onLabel(Label<?> label, Object value) {
+                    }
+
+                    @Override
+                    public void onError(Label<?> label, ErrorInfo error) {
+                    }
+                });
+
+        assertEquals(2, result.get(LEVELS).size());
+        assertEquals(result.get(LEVELS), items);
+    }
+
+    @Test
+    void testStreamingNeedsAnItemParser() {
+        assertThrows(IllegalArgumentException.class, () -> StepBuilder.start("s", new DefaultsBuilder().build())
+                .user("x").parse(Parsers.string()).label(Label.of("s", String.class)).streamItems().build());
+    }
+}
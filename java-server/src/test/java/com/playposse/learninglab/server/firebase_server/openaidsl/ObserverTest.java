@@ -0,0 +1,109 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+
+class ObserverTest {
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+    private static final Label<String> SUMMARY = Label.of("summary", String.class);
+
+    private final ChatConfig defaults = new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).cache(false).build();
+
+    private Chain chain() {
+        return ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .alias("item")
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("expand ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .step("summary").user("summarize ${details}").parse(Parsers.string()).label(SUMMARY).endStep()
+                .build();
+    }
+
+    /** Records every callback as a short string. */
+    private static class Recorder implements ChainResult.Observer {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onLabel(Label<?> label, Object value) {
+            events.add(label.name() + "=" + value);
+        }
+
+        @Override
+        public void onError(Label<?> label, ErrorInfo error) {
+            events.add(label.name() + "!");
+        }
+
+        @Override
+        public void onBranchLabel(Label<?> joinLabel, int branch, Label<?> label, Object value) {
+            events.add(joinLabel.name() + "[" + branch + "]." + label.name() + "=" + value);
+        }
+    }
+
+    @Test
+    void testLabelsAreReportedAsTheyAreBound() {
+        FakeOpenAiClient client = new FakeOpenAiClient();
+        client.whenContains("outline", "A\nB");
+        client.whenContains("expand", "more-on-");
+        client.whenContains("summarize", "done");
+        Recorder recorder = new Recorder();
+
+        chain().run(client, recorder);
+
+        List<String> events = recorder.events;
+        assertEquals("items=[A, B]", events.get(0));
+        assertTrue(events.subList(1, 3).containsAll(List.of(
+                "details[0].detail=more-on-A",
+                "details[1].detail=more-on-B")));
+        assertEquals("details=[more-on-A, more-on-B]", events.get(3));
+        assertEquals("summary=done", events.get(4));
+        assertEquals(5, events.size());
+    }
+
+    @Test
+    void testFailuresAreReported() {
+        FakeOpenAiClient client = new FakeOpenAiClient();
+        client.whenContains("outline", "A\nB");
+        client.whenContains("expand", "more-on-");
+        Recorder recorder = new Recorder();
+
+        ChainResult result = chain().run(client, recorder);
+
+        assertTrue(result.hasError(SUMMARY));
+        assertEquals("summary!", recorder.events.get(recorder.events.size() - 1));
+    }
+
+    @Test
+    void testThrowingObserverDoesNotFailTheChain() {
+        FakeOpenAiClient client = new FakeOpenAiClient();
+        client.whenContains("outline", "A\nB");
+        client.whenContains("expand", "more-on-");
+        client.whenContains("summarize", "done");
+
+        ChainResult result = chain().run(client, new ChainResult.Observer() {
+            @Override
+            public void onLabel(Label<?> label, Object value) {
+                throw new IllegalStateException("client went away");
+            }
+
+            @Override
+            public void onError(Label<?> label, ErrorInfo error) {}
+        });
+
+        assertEquals("done", result.get(SUMMARY));
+        assertTrue(result.errors().isEmpty());
+    }
+}
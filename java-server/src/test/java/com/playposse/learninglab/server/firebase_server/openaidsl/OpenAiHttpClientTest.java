@@ -0,0 +1,162 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.openai.client.OpenAIClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OpenAiHttpClientTest {
+
+    private static final List<ChatMsg> PROMPT = List.of(new ChatMsg(Role.USER, "hello"));
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private OpenAiHttpClient http;
+    private volatile int status = 200;
+    private volatile CountDownLatch gate;
+    private final ChatConfig cfg = new DefaultsBuilder().build();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverThreads = Executors.newFixedThreadPool(16);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverThreads);
+        server.createContext("/", this::handle);
+        server.start();
+        http = new OpenAiHttpClient(OpenAiHttpClient.Settings.defaults());
+    }
+
+    @AfterEach
+    void tearDown() {
+        http.close();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        if (gate != null) {
+            gate.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] body = (status == 200
+                ? "{\"id\":\"c1\",\"object\":\"chat.completion\",\"created\":1,\"model\":\"gpt-4o\","
+                  + "\"choices\":[{\"index\":0,\"finish_reason\":\"stop\",\"message\":{\"role\":\"assistant\",\"content\":\"hi\"}}],"
+                  + "\"usage\":{\"prompt_tokens\":1,\"completion_tokens\":1,\"total_tokens\":2}}"
+                : "{\"error\":{\"message\":\"slow down\",\"type\":\"rate_limit\"}}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private OpenAiClientImpl client() {
+        return new OpenAiClientImpl(http.sdk("test-key", baseUrl()));
+    }
+
+    @Test
+    void testCallsReuseTheWarmConnection() throws Exception {
+        http.warmUp(baseUrl()).get(5, TimeUnit.SECONDS);
+        OpenAiClientImpl client = client();
+
+        assertEquals("hi", client.chatCompletion(PROMPT, cfg).content());
+        assertEquals("hi", client.chatCompletionAsync(PROMPT, cfg).join().content());
+
+        OpenAiHttpClient.ConnectionStats stats = http.stats();
+        assertEquals(3, stats.callsStarted());
+        assertEquals(1, stats.connectionsOpened());
+        assertEquals(2, stats.connectionsReused());
+        assertEquals(2.0 / 3, stats.reuseRatio(), 1e-9);
+        assertEquals(1, stats.pooledConnections());
+    }
+
+    @Test
+    void testPublishesConnectionMeters() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        http.bindTo(registry);
+        OpenAiClientImpl client = client();
+
+        client.chatCompletion(PROMPT, cfg);
+        client.chatCompletion(PROMPT, cfg);
+
+        assertEquals(2, registry.get("openai.http.calls").functionCounter().count());
+        assertEquals(1, registry.get("openai.http.connections.opened").functionCounter().count());
+        assertEquals(1, registry.get("openai.http.connections.reused").functionCounter().count());
+        assertEquals(1, registry.get("openai.http.pool.connections").gauge().value());
+        assertEquals(1, registry.get("openai.http.pool.idle").gauge().value());
+        assertEquals(0, registry.get("openai.http.dispatcher.queued").gauge().value());
+    }
+
+    @Test
+    void testOneClientPerDistinctTimeout() throws Exception {
+        OpenAiClientImpl client = client();
+        for (int i = 0; i < 3; i++) {
+            client.chatCompletion(PROMPT, cfg);
+        }
+        assertEquals(1, http.derivedClients());
+
+        OpenAIClient shorter = http.sdk("test-key", baseUrl())
+                .withOptions(options -> options.timeout(Duration.ofSeconds(30)));
+        for (int i = 0; i < 3; i++) {
+            new OpenAiClientImpl(shorter).chatCompletion(PROMPT, cfg);
+        }
+        assertEquals(2, http.derivedClients());
+        assertEquals(1, http.stats().connectionsOpened());
+    }
+
+    @Test
+    void testMoreThanFiveConcurrentCallsPerHost() {
+        // the OkHttp default would hold all but 5 calls back, so the gate would never open
+        gate = new CountDownLatch(10);
+        OpenAiClientImpl client = client();
+
+        List<CompletableFuture<ChatCompletionResult>> calls = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            calls.add(client.chatCompletionAsync(PROMPT, cfg));
+        }
+
+        calls.forEach(call -> assertEquals("hi", call.join().content()));
+        assertEquals(0, gate.getCount());
+    }
+
+    @Test
+    void testErrorsStillCarryStatusAndHeaders() {
+        status = 429;
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client().chatCompletionAsync(PROMPT, cfg).join());
+
+        assertEquals(429, assertInstanceOf(OpenAiCallException.class, e.getCause()).statusCode());
+    }
+}
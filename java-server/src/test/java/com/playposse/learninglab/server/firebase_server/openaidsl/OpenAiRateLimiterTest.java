@@ -0,0 +1,91 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.openai.models.ChatModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OpenAiRateLimiterTest {
+
+    private AtomicLong now;
+    private OpenAiRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        now = new AtomicLong();
+        // 600 TPM refills 10 tokens per second; the clock only moves when the test says so
+        limiter = new OpenAiRateLimiter(
+                Map.of(ChatModel.GPT_5.asString(), new RateLimits(100, 600)),
+                new RateLimits(1, 1_000),
+                now::get);
+    }
+
+    @Test
+    void testQueuesUntilReconcileRefundsOverEstimate() {
+        var first = limiter.acquire(ChatModel.GPT_5, 600);
+        var second = limiter.acquire(ChatModel.GPT_5, 100);
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone(), "bucket is empty, second caller must wait");
+        assertEquals(1, limiter.queued(ChatModel.GPT_5));
+
+        // the first call only used 150 tokens, so 450 come back
+        first.join().reconcile(150);
+
+        assertTrue(second.isDone());
+        assertEquals(0, limiter.queued(ChatModel.GPT_5));
+    }
+
+    @Test
+    void testWaitersAreServedInOrderAsTokensRefill() {
+        // zero-token reservations, settled later only to make the limiter re-check its queue
+        var poke1 = limiter.acquire(ChatModel.GPT_5, 0).join();
+        var poke2 = limiter.acquire(ChatModel.GPT_5, 0).join();
+        limiter.acquire(ChatModel.GPT_5, 600).join();
+        var a = limiter.acquire(ChatModel.GPT_5, 50);
+        var b = limiter.acquire(ChatModel.GPT_5, 10);
+
+        // after 1s there are 10 tokens: enough for b, but b must not overtake a
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        poke1.release();
+        assertFalse(a.isDone());
+        assertFalse(b.isDone());
+
+        // after 6s there are 60 tokens: enough for both, in order
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        poke2.release();
+        assertTrue(a.isDone());
+        assertTrue(b.isDone());
+    }
+
+    @Test
+    void testModelsHaveSeparateBuckets() {
+        limiter.acquire(ChatModel.CHATGPT_4O_LATEST, 10).join();
+        var second = limiter.acquire(ChatModel.CHATGPT_4O_LATEST, 10);
+
+        assertFalse(second.isDone(), "default limits allow one request per minute");
+        assertTrue(limiter.acquire(ChatModel.GPT_5, 10).isDone());
+    }
+
+    @Test
+    void testClientReconcilesWithReportedUsage() throws Exception {
+        OpenAiClient delegate = (msgs, cfg) -> new ChatCompletionResult(
+                "ok", JsonNodeFactory.instance.objectNode().put("total_tokens", 20), 0);
+        ChatConfig cfg = new DefaultsBuilder().maxTokens(500).build();
+        RateLimitedOpenAiClient client = new RateLimitedOpenAiClient(delegate, limiter);
+
+        assertEquals("ok", client.chatCompletion(List.of(new ChatMsg(Role.USER, "hi")), cfg).content());
+
+        // 500+ tokens were reserved but only 20 charged, so 500 more fit right away
+        CompletableFuture<OpenAiRateLimiter.Reservation> next = limiter.acquire(ChatModel.GPT_5, 500);
+        assertTrue(next.isDone());
+    }
+}
@@ -0,0 +1,141 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+
+class PipelinedForEachTest {
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+
+    private final ChatConfig defaults = new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).cache(false).build();
+
+    private Chain chain(Parser<?> outlineParser) {
+        return ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(outlineParser).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .alias("item")
+                .pipelined()
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("expand ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build();
+    }
+
+    /**
+     * Streams the outline in two pieces and only sends the second one once
+     * the first item's branch has called the client.
+     */
+    private static class SlowOutlineClient extends FakeOpenAiClient {
+        final CountDownLatch firstBranchCalled = new CountDownLatch(1);
+        final List<String> deltas = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean branchStartedBeforeOutlineEnded;
+
+        SlowOutlineClient() {
+            whenContains("expand", "more-on-");
+        }
+
+        @Override
+        public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig cfg) {
+            if (messages.get(messages.size() - 1).content().equals("expand A")) {
+                firstBranchCalled.countDown();
+            }
+            return super.chatCompletion(messages, cfg);
+        }
+
+        @Override
+        public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+                List<ChatMsg> messages, ChatConfig cfg, Consumer<String> onDelta) {
+            return CompletableFuture.supplyAsync(() -> {
+                emit(onDelta, "A\nB");
+                try {
+                    branchStartedBeforeOutlineEnded = firstBranchCalled.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+                emit(onDelta, "\n\nC");
+                return new ChatCompletionResult("A\nB\n\nC", null, 0);
+            });
+        }
+
+        private void emit(Consumer<String> onDelta, String delta) {
+            deltas.add(delta);
+            onDelta.accept(delta);
+        }
+    }
+
+    @Test
+    void testItemsStartBeforeTheListIsComplete() {
+        SlowOutlineClient client = new SlowOutlineClient();
+        List<String> observed = Collections.synchronizedList(new ArrayList<>());
+
+        ChainResult result = chain(Parsers.stringList()).run(client, new ChainResult.Observer() {
+            @Override
+            public void onItem(Label<?> label, int index, Object item) {
+                observed.add(index + ":" + item);
+            }
+
+            @Override
+            public void onLabel(Label<?> label, Object value) {}
+
+            @Override
+            public void onError(Label<?> label, ErrorInfo error) {}
+        });
+
+        assertTrue(client.branchStartedBeforeOutlineEnded);
+        assertEquals(List.of("A", "B", "C"), result.get(ITEMS));
+        assertEquals(List.of("more-on-A", "more-on-B", "more-on-C"), result.get(DETAILS));
+        assertEquals(List.of("0:A", "1:B", "2:C"), observed);
+        assertTrue(result.errors().isEmpty());
+    }
+
+    @Test
+    void testFailedSourceFailsTheLoop() {
+        FakeOpenAiClient client = new FakeOpenAiClient() {
+            @Override
+            public CompletableFuture<ChatCompletionResult> chatCompletionStreaming(
+                    List<ChatMsg> messages, ChatConfig cfg, Consumer<String> onDelta) {
+                onDelta.accept("A\n");
+                return CompletableFuture.failedFuture(new OpenAiCallException("gone", 500, null, null, null));
+            }
+        };
+        client.whenContains("expand", "more-on-");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                assertThrows(CompletionException.class, () -> chain(Parsers.stringList()).run(client)));
+    }
+
+    @Test
+    void testSourceMustParseIncrementally() {
+        assertThrows(IllegalStateException.class, () -> chain(Parsers.string()));
+    }
+
+    @Test
+    void testIncrementalParseMatchesWholeParse() throws Exception {
+        String reply = "  one\r\n\ntwo  \nthree";
+        List<String> items = new ArrayList<>();
+        ItemParser.Session<String> session = Parsers.stringList().session(items::add);
+        for (char c : reply.toCharArray()) {
+            session.feed(String.valueOf(c));
+        }
+
+        assertEquals(Parsers.stringList().parse(reply), session.finish());
+        assertEquals(List.of("one", "two", "three"), items);
+    }
+}
@@ -0,0 +1,150 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordReplayTest {
+
+    private static final Label<List<String>> TOPICS = Label.of("topics", new TypeReference<List<String>>() {});
+    private static final Label<String> SUMMARY = Label.of("summary", String.class);
+    private static final Label<List<String>> SUMMARIES = Label.of("summaries", new TypeReference<List<String>>() {});
+    private static final List<ChatMsg> PROMPT = List.of(new ChatMsg(Role.USER, "hello"));
+
+    @TempDir
+    Path dir;
+
+    private final ChatConfig cfg = new DefaultsBuilder().build();
+
+    private Chain chain() {
+        return ChainBuilder.start(cfg)
+                .step("topics").user("List topics").parse(Parsers.stringList()).label(TOPICS).endStep()
+                .forEach(TOPICS)
+                    .alias("topic")
+                    .addStep(StepBuilder.start("summary", cfg)
+                            .user("Summarize ${topic}").parse(Parsers.string()).label(SUMMARY).build())
+                    .joinInto(SUMMARIES)
+                .endForEach()
+                .build();
+    }
+
+    @Test
+    void testReplayReproducesTheRecordedRun() throws Exception {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("List topics", "knots\nbelays\n");
+        fake.whenContains("Summarize", "About-");
+
+        Path file = dir.resolve("calls.rec");
+        ChainResult recorded;
+        try (RecordingOpenAiClient recorder = new RecordingOpenAiClient(fake, file)) {
+            recorded = chain().run(recorder);
+        }
+
+        CallRecording recording = CallRecording.load(file);
+        assertEquals(3, recording.size());
+
+        ChainResult replayed = chain().run(new ReplayingOpenAiClient(recording, false));
+        assertEquals(recorded.get(TOPICS), replayed.get(TOPICS));
+        assertEquals(List.of("About-knots", "About-belays"), replayed.get(SUMMARIES));
+        assertEquals(recorded.callLogs().size(), replayed.callLogs().size());
+        assertEquals(recorded.callLogs().get(0).usage(), replayed.callLogs().get(0).usage());
+    }
+
+    @Test
+    void testStreamedCallsReplayWithTheirTimings() throws Exception {
+        Path file = dir.resolve("streamed.rec");
+        try (StubOpenAiServer stub = StubOpenAiServer.start()
+                .latency(StubOpenAiServer.Latency.fixed(50))
+                .reply(request -> "abcdefgh")
+                .chunks(4, Duration.ofMillis(50));
+             RecordingOpenAiClient recorder = new RecordingOpenAiClient(
+                     new OpenAiClientImpl("test-key", stub.baseUrl()), file)) {
+            recorder.chatCompletionStreaming(PROMPT, cfg, d -> {}).join();
+        }
+
+        CallRecording.Call call = CallRecording.load(file).calls(PromptHash.of(PROMPT, cfg)).get(0);
+        assertEquals(List.of("abcd", "efgh"), call.deltas().stream().map(CallRecording.Delta::text).toList());
+        assertEquals(call.timeToFirstTokenMillis(), call.deltas().get(0).atMillis());
+        assertTrue(call.deltas().get(1).atMillis() <= call.durationMillis(), call.toString());
+
+        List<String> deltas = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        ChatCompletionResult res = new ReplayingOpenAiClient(CallRecording.load(file), true)
+                .chatCompletionStreaming(PROMPT, cfg, deltas::add).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(List.of("abcd", "efgh"), deltas);
+        assertEquals("abcdefgh", res.content());
+        assertEquals(call.durationMillis(), res.durationMillis());
+        assertEquals(2, res.usage().get("completion_tokens").asInt());
+        assertTrue(elapsedMillis >= call.durationMillis(), "replayed in " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testRepeatedPromptsGetTheirRepliesInOrder() throws Exception {
+        List<String> replies = List.of("first", "second");
+        int[] n = {0};
+        OpenAiClient changing = (messages, config) -> new ChatCompletionResult(replies.get(n[0]++), null, 5);
+
+        Path file = dir.resolve("repeated.rec");
+        try (RecordingOpenAiClient recorder = new RecordingOpenAiClient(changing, file)) {
+            recorder.chatCompletion(PROMPT, cfg);
+            recorder.chatCompletion(PROMPT, cfg);
+        }
+
+        ReplayingOpenAiClient replay = new ReplayingOpenAiClient(CallRecording.load(file), false);
+        assertEquals("first", replay.chatCompletion(PROMPT, cfg).content());
+        assertEquals("second", replay.chatCompletion(PROMPT, cfg).content());
+        assertEquals("second", replay.chatCompletion(PROMPT, cfg).content());
+    }
+
+    @Test
+    void testUnrecordedPromptFails() throws Exception {
+        Path file = dir.resolve("empty.rec");
+        new RecordingOpenAiClient(new FakeOpenAiClient(), file).close();
+
+        ReplayingOpenAiClient replay = new ReplayingOpenAiClient(CallRecording.load(file), false);
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> replay.chatCompletionAsync(PROMPT, cfg).join());
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    void testTornTailIsSkipped() throws Exception {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("hello", "hi there");
+        Path file = dir.resolve("torn.rec");
+        RecordingOpenAiClient recorder = new RecordingOpenAiClient(fake, file);
+        recorder.chatCompletion(PROMPT, cfg);
+        recorder.chatCompletion(List.of(new ChatMsg(Role.USER, "hello again")), cfg);
+        // a crashed run: no gzip trailer, and the last record cut short
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 6));
+
+        CallRecording recording = CallRecording.load(file);
+        assertEquals(1, recording.size());
+        assertEquals("hi there", recording.calls(PromptHash.of(PROMPT, cfg)).get(0).content());
+    }
+
+    @Test
+    void testRejectsOtherFiles() throws IOException {
+        Path file = dir.resolve("other.rec");
+        try (var out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(new byte[]{1, 2, 3, 4});
+        }
+        assertThrows(IOException.class, () -> CallRecording.load(file));
+    }
+}
@@ -0,0 +1,146 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.openai.models.ChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class ResponseCacheTest {
+
+    private static final Label<String> OUT = Label.of("out", String.class);
+
+    private static ChatCompletionResult result(String text) {
+        return new ChatCompletionResult(text, null, 10);
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        ResponseCache cache = new ResponseCache(2, Duration.ofHours(1));
+        cache.put("a", result("A"));
+        cache.put("b", result("B"));
+        cache.get("a");                 // "b" is now the eldest
+        cache.put("c", result("C"));
+
+        assertTrue(cache.get("a").isPresent());
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("c").isPresent());
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void testEntriesExpireAfterTtl() {
+        AtomicLong now = new AtomicLong();
+        ResponseCache cache = new ResponseCache(10, Duration.ofSeconds(5), now::get);
+        cache.put("a", result("A"));
+
+        now.set(Duration.ofSeconds(4).toNanos());
+        assertTrue(cache.get("a").isPresent());
+        now.set(Duration.ofSeconds(5).toNanos());
+        assertTrue(cache.get("a").isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testHashCoversMessagesAndSamplingButNotRetryPolicy() {
+        ChatConfig cfg = new DefaultsBuilder().build();
+        List<ChatMsg> msgs = List.of(new ChatMsg(Role.USER, "ab"), new ChatMsg(Role.USER, "c"));
+
+        assertEquals(PromptHash.of(msgs, cfg), PromptHash.of(List.copyOf(msgs), cfg));
+        assertEquals(PromptHash.of(msgs, cfg),
+                PromptHash.of(msgs, cfg.toBuilder().retryPolicy(RetryPolicy.NONE).build()));
+        assertNotEquals(PromptHash.of(msgs, cfg),
+                PromptHash.of(List.of(new ChatMsg(Role.USER, "a"), new ChatMsg(Role.USER, "bc")), cfg));
+        assertNotEquals(PromptHash.of(msgs, cfg),
+                PromptHash.of(msgs, cfg.toBuilder().temperature(0.5).build()));
+        assertNotEquals(PromptHash.of(msgs, cfg),
+                PromptHash.of(msgs, cfg.toBuilder().model(ChatModel.GPT_4O).build()));
+    }
+
+    @Test
+    void testRepeatedChainIsServedFromCache() {
+        AtomicInteger calls = new AtomicInteger();
+        OpenAiClient counting = (msgs, cfg) -> result("reply " + calls.incrementAndGet());
+        ResponseCache cache = new ResponseCache(10, Duration.ofHours(1));
+        OpenAiClient client = new CachingOpenAiClient(counting, cache);
+
+        Chain chain = ChainBuilder.start(new DefaultsBuilder().build())
+                .step("out").user("same prompt").parse(Parsers.string()).label(OUT).endStep()
+                .build();
+
+        ChainResult first = chain.run(client);
+        ChainResult second = chain.run(client);
+
+        assertEquals(1, calls.get());
+        assertEquals("reply 1", second.get(OUT));
+        assertFalse(first.callLogs().get(0).cacheHit());
+        assertTrue(second.callLogs().get(0).cacheHit());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void testUnparsableReplyIsNotServedAgain() {
+        AtomicInteger calls = new AtomicInteger();
+        OpenAiClient counting = (msgs, cfg) -> result(calls.incrementAndGet() == 1 ? "oops" : "42");
+        ResponseCache cache = new ResponseCache(10, Duration.ofHours(1));
+        OpenAiClient client = new CachingOpenAiClient(counting, cache);
+        Label<Integer> number = Label.of("number", Integer.class);
+
+        Chain chain = ChainBuilder.start(new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).build())
+                .step("number").user("Pick a number").parse(Integer::parseInt).label(number).endStep()
+                .build();
+
+        ChainResult first = chain.run(client);
+        assertNotNull(first.callLogs().get(0).error());
+        assertEquals(0, cache.size());
+
+        ChainResult second = chain.run(client);
+        assertEquals(2, calls.get());
+        assertEquals(42, second.get(number));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testStepCanOptOut() {
+        AtomicInteger calls = new AtomicInteger();
+        OpenAiClient counting = (msgs, cfg) -> result("reply " + calls.incrementAndGet());
+        OpenAiClient client = new CachingOpenAiClient(counting, new ResponseCache(10, Duration.ofHours(1)));
+
+        Chain chain = ChainBuilder.start(new DefaultsBuilder().build())
+                .step("out").user("fresh every time").cache(false)
+                .parse(Parsers.string()).label(OUT).endStep()
+                .build();
+
+        chain.run(client);
+        ChainResult second = chain.run(client);
+
+        assertEquals(2, calls.get());
+        assertEquals("reply 2", second.get(OUT));
+        assertFalse(second.callLogs().get(0).cacheHit());
+    }
+
+    @Test
+    void testPublishesCountersAsMeters() {
+        ResponseCache cache = new ResponseCache(10, Duration.ofHours(1));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.put("a", result("A"));
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2, registry.get("openai.cache.hits").functionCounter().count());
+        assertEquals(1, registry.get("openai.cache.misses").functionCounter().count());
+        assertEquals(0, registry.get("openai.cache.second.tier.hits").functionCounter().count());
+        assertEquals(1, registry.get("openai.cache.size").gauge().value());
+    }
+}
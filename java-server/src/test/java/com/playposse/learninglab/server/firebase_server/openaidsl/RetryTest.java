@@ -0,0 +1,127 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.openai.core.http.Headers;
+import org.junit.jupiter.api.Test;
+
+class RetryTest {
+
+    private static final Label<String> OUT = Label.of("out", String.class);
+
+    private static final RetryPolicy FAST =
+            new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(5));
+
+    /** Fails with the given status {@code failures} times, then answers "ok". */
+    private static OpenAiClient failing(int failures, int status, AtomicInteger calls) {
+        return new OpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+                throw new AssertionError("blocking call used");
+            }
+
+            @Override
+            public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                    List<ChatMsg> messages, ChatConfig config) {
+                if (calls.incrementAndGet() <= failures) {
+                    return CompletableFuture.failedFuture(new OpenAiCallException(
+                            "status " + status, status, Duration.ofMillis(10), "req-" + calls.get(), null));
+                }
+                return CompletableFuture.completedFuture(new ChatCompletionResult("ok", null, 0));
+            }
+        };
+    }
+
+    private static ChainResult run(RetryPolicy policy, OpenAiClient client) {
+        return ChainBuilder.start(new DefaultsBuilder().retryPolicy(policy).build())
+                .step("out").user("go").parse(Parsers.string()).label(OUT).endStep()
+                .build()
+                .run(client);
+    }
+
+    @Test
+    void testTransientFailuresAreRetriedAndLoggedPerAttempt() {
+        AtomicInteger calls = new AtomicInteger();
+        ChainResult result = run(FAST, failing(2, 429, calls));
+
+        assertEquals("ok", result.get(OUT));
+        assertTrue(result.errors().isEmpty());
+        assertEquals(3, calls.get());
+
+        List<CallLog> logs = result.callLogs();
+        assertEquals(3, logs.size());
+        assertEquals(List.of(1, 2, 3), logs.stream().map(CallLog::attempt).toList());
+        assertEquals(List.of(true, true, false), logs.stream().map(CallLog::willRetry).toList());
+        assertEquals("req-1", logs.get(0).error().callId());
+        assertNull(logs.get(2).error());
+    }
+
+    @Test
+    void testClientErrorsAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        ChainResult result = run(FAST, failing(1, 400, calls));
+
+        assertEquals(1, calls.get());
+        assertFalse(result.has(OUT));
+        assertEquals(400, ((OpenAiCallException) result.getError(OUT).cause()).statusCode());
+    }
+
+    @Test
+    void testGivesUpAfterMaxAttempts() {
+        AtomicInteger calls = new AtomicInteger();
+        ChainResult result = run(FAST, failing(10, 503, calls));
+
+        assertEquals(3, calls.get());
+        assertFalse(result.has(OUT));
+        assertTrue(result.hasError(OUT));
+        assertFalse(result.callLogs().get(2).willRetry());
+    }
+
+    @Test
+    void testStepOverridesDefaultPolicy() {
+        AtomicInteger calls = new AtomicInteger();
+        ChainResult result = ChainBuilder.start(new DefaultsBuilder().retryPolicy(FAST).build())
+                .step("out").user("go").retry(RetryPolicy.NONE)
+                .parse(Parsers.string()).label(OUT).endStep()
+                .build()
+                .run(failing(1, 429, calls));
+
+        assertEquals(1, calls.get());
+        assertTrue(result.hasError(OUT));
+    }
+
+    @Test
+    void testDelayIsJitteredCappedAndRespectsServerHint() {
+        RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(100), Duration.ofMillis(1_000));
+        Duration previous = Duration.ZERO;
+        for (int i = 0; i < 20; i++) {
+            Duration d = policy.nextDelay(previous, null);
+            assertTrue(d.toMillis() >= 100 && d.toMillis() <= 1_000, "delay " + d);
+            previous = d;
+        }
+        assertEquals(Duration.ofSeconds(7), policy.nextDelay(previous, Duration.ofSeconds(7)));
+    }
+
+    @Test
+    void testParsesRetryHeaders() {
+        assertEquals(Duration.ofMillis(20), OpenAiClientImpl.parseResetDuration("20ms"));
+        assertEquals(Duration.ofMillis(1_500), OpenAiClientImpl.parseResetDuration("1.5s"));
+        assertEquals(Duration.ofMinutes(6), OpenAiClientImpl.parseResetDuration("6m0s"));
+        assertNull(OpenAiClientImpl.parseResetDuration("soon"));
+
+        assertEquals(Duration.ofSeconds(2), OpenAiClientImpl.retryAfter(
+                Headers.builder().put("retry-after", "2").build()));
+        assertEquals(Duration.ofMillis(250), OpenAiClientImpl.retryAfter(
+                Headers.builder().put("retry-after-ms", "250").put("retry-after", "9").build()));
+        assertEquals(Duration.ofSeconds(3), OpenAiClientImpl.retryAfter(Headers.builder()
+                .put("x-ratelimit-reset-requests", "120ms")
+                .put("x-ratelimit-reset-tokens", "3s")
+                .build()));
+        assertNull(OpenAiClientImpl.retryAfter(Headers.builder().build()));
+    }
+}
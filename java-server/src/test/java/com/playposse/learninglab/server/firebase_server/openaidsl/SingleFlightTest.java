@@ -0,0 +1,113 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+    private static final List<ChatMsg> PROMPT = List.of(new ChatMsg(Role.USER, "generate"));
+
+    /** Counts calls and hands back a future the test completes by hand. */
+    private static final class PendingClient implements OpenAiClient {
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<ChatCompletionResult> reply = new CompletableFuture<>();
+
+        @Override
+        public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+            throw new AssertionError("blocking call used");
+        }
+
+        @Override
+        public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                List<ChatMsg> messages, ChatConfig config) {
+            calls.incrementAndGet();
+            return reply;
+        }
+    }
+
+    @Test
+    void testIdenticalConcurrentCallsShareOneRequest() {
+        PendingClient pending = new PendingClient();
+        CoalescingOpenAiClient client = new CoalescingOpenAiClient(pending);
+        ChatConfig cfg = new DefaultsBuilder().build();
+
+        CompletableFuture<ChatCompletionResult> first = client.chatCompletionAsync(PROMPT, cfg);
+        CompletableFuture<ChatCompletionResult> second = client.chatCompletionAsync(List.copyOf(PROMPT), cfg);
+        CompletableFuture<ChatCompletionResult> other =
+                client.chatCompletionAsync(PROMPT, cfg.toBuilder().temperature(0.2).build());
+
+        assertEquals(2, pending.calls.get());
+        assertEquals(1, client.coalesced());
+
+        pending.reply.complete(new ChatCompletionResult("shared", null, 5));
+        assertEquals("shared", first.join().content());
+        assertEquals("shared", second.join().content());
+        assertEquals("shared", other.join().content());
+
+        // finished calls are forgotten
+        client.chatCompletionAsync(PROMPT, cfg);
+        assertEquals(3, pending.calls.get());
+    }
+
+    @Test
+    void testFailureReachesEveryWaiter() {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CompletableFuture<String> work = new CompletableFuture<>();
+
+        CompletableFuture<String> a = flight.run("k", () -> work);
+        CompletableFuture<String> b = flight.run("k", () -> { throw new AssertionError("second leader"); });
+        work.completeExceptionally(new IllegalStateException("boom"));
+
+        for (CompletableFuture<String> f : List.of(a, b)) {
+            CompletionException e = assertThrows(CompletionException.class, f::join);
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void testBlockingCallersWaitForTheLeader() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = pool.submit(() -> flight.call("uid-1", () -> {
+                runs.incrementAndGet();
+                leaderStarted.countDown();
+                release.await();
+                return "items";
+            }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+            Future<String> follower = pool.submit(() -> flight.call("uid-1", () -> {
+                runs.incrementAndGet();
+                return "duplicate";
+            }));
+            // let the follower reach the in-flight call before releasing the leader
+            while (flight.coalesced() == 0) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+
+            assertEquals("items", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("items", follower.get(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
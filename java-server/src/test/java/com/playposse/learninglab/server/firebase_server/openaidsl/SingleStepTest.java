@@ -49,9 +49,10 @@ class SingleStepTest {
         helper.verifyClientCalled(3);
         helper.assertResults(result, List.of("A!", "B!", "C!"));
 
-        // capture and assert the exact prompts in order
+        // capture and assert the exact prompts; the steps are independent,
+        // so the chain may send them in any order
         List<String> prompts = helper.capturedPrompts();
-        assertEquals(List.of("a","b","c"), prompts);
+        assertEquals(List.of("a","b","c"), prompts.stream().sorted().toList());
     }
 
     /**
@@ -67,9 +68,10 @@ class SingleStepTest {
 
         TestHelper(ChatConfig defaults) {
             this.defaults = defaults;
-            this.client   = mock(OpenAiClient.class);
+            this.client   = mock(OpenAiClient.class, CALLS_REAL_METHODS);
 
             // stub chatCompletion to look up the last USER prompt in our mapping
+            // (the real default chatCompletionAsync delegates to it)
             try {
                 when(client.chatCompletion(anyList(), any()))
                         .thenAnswer(invocation -> {
@@ -0,0 +1,186 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StreamingTest {
+
+    private static final List<ChatMsg> PROMPT = List.of(new ChatMsg(Role.USER, "hello"));
+
+    private HttpServer server;
+    private volatile int status = 200;
+    /** If set, the second chunk waits until the client counts this down. */
+    private volatile CountDownLatch firstDeltaSeen;
+    private final ChatConfig cfg = new DefaultsBuilder().build();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/chat/completions", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Streams "Hel" after 100 ms and "lo" 100 ms later (or 200 ms after the
+     * client saw "Hel", if {@link #firstDeltaSeen} is set), then a
+     * usage-only chunk.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        if (status != 200) {
+            byte[] body = "{\"error\":{\"message\":\"slow down\",\"type\":\"rate_limit\"}}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("retry-after", "2");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            pause(100);
+            send(out, chunk("\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"Hel\"}}]"));
+            CountDownLatch seen = firstDeltaSeen;
+            if (seen != null) {
+                await(seen);
+                pause(200);
+            } else {
+                pause(100);
+            }
+            send(out, chunk("\"choices\":[{\"index\":0,\"delta\":{\"content\":\"lo\"},\"finish_reason\":\"stop\"}]"));
+            send(out, chunk("\"choices\":[],\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":2,\"total_tokens\":5}"));
+            send(out, "[DONE]");
+        }
+    }
+
+    private static String chunk(String fields) {
+        return "{\"id\":\"c1\",\"object\":\"chat.completion.chunk\",\"created\":1,\"model\":\"gpt-4o\"," + fields + "}";
+    }
+
+    private static void send(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private OpenAiClientImpl client() {
+        return new OpenAiClientImpl("test-key", "http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @Test
+    void testDeltasArriveBeforeTheResult() {
+        List<String> deltas = Collections.synchronizedList(new ArrayList<>());
+
+        ChatCompletionResult res = client().chatCompletionStreaming(PROMPT, cfg, deltas::add).join();
+
+        assertEquals(List.of("Hel", "lo"), deltas);
+        assertEquals("Hello", res.content());
+        assertEquals(2, res.usage().get("completion_tokens").asInt());
+        assertFalse(res.cached());
+    }
+
+    @Test
+    void testTimeToFirstTokenAndTokensPerSecond() {
+        CountDownLatch seen = new CountDownLatch(1);
+        firstDeltaSeen = seen;
+        OpenAiClientImpl client = client();
+        long[] firstDeltaAt = new long[1];
+
+        long start = System.nanoTime();
+        ChatCompletionResult res = client.chatCompletionStreaming(PROMPT, cfg, delta -> {
+            if (firstDeltaAt[0] == 0) {
+                firstDeltaAt[0] = System.nanoTime();
+                seen.countDown();
+            }
+        }).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long firstDeltaMillis = (firstDeltaAt[0] - start) / 1_000_000;
+
+        // the first token is taken just before it is handed over, at least 100 ms in
+        assertTrue(res.timeToFirstTokenMillis() >= 100, res.toString());
+        assertTrue(res.timeToFirstTokenMillis() <= firstDeltaMillis, res + " vs " + firstDeltaMillis);
+        // the second chunk is held until 200 ms after the client saw the first (less rounding)
+        long generatingMillis = res.durationMillis() - res.timeToFirstTokenMillis();
+        assertTrue(generatingMillis >= 199, res.toString());
+        assertTrue(res.durationMillis() <= elapsedMillis, res + " vs " + elapsedMillis);
+        // 2 completion tokens over the time after the first one
+        assertEquals(2 * 1000.0 / generatingMillis, res.tokensPerSecond(), 1e-9);
+    }
+
+    @Test
+    void testErrorsAreTranslated() {
+        status = 429;
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client().chatCompletionStreaming(PROMPT, cfg, d -> {}).join());
+
+        OpenAiCallException call = assertInstanceOf(OpenAiCallException.class, e.getCause());
+        assertEquals(429, call.statusCode());
+        assertEquals(Duration.ofSeconds(2), call.retryAfter());
+    }
+
+    @Test
+    void testCacheHitIsDeliveredAsOneDelta() {
+        ResponseCache cache = new ResponseCache(10, Duration.ofMinutes(1));
+        CachingOpenAiClient caching = new CachingOpenAiClient(client(), cache);
+        caching.chatCompletionStreaming(PROMPT, cfg, d -> {}).join();
+
+        List<String> deltas = new ArrayList<>();
+        ChatCompletionResult hit = caching.chatCompletionStreaming(PROMPT, cfg, deltas::add).join();
+
+        assertEquals(List.of("Hello"), deltas);
+        assertTrue(hit.cached());
+    }
+
+    @Test
+    void testDefaultStreamingDeliversTheWholeReply() {
+        FakeOpenAiClient fake = new FakeOpenAiClient();
+        fake.whenContains("hello", "hi there");
+        List<String> deltas = new ArrayList<>();
+
+        ChatCompletionResult res = fake.chatCompletionStreaming(PROMPT, cfg, deltas::add).join();
+
+        assertEquals(List.of("hi there"), deltas);
+        assertEquals(res.durationMillis(), res.timeToFirstTokenMillis());
+        assertEquals(0, res.tokensPerSecond());
+    }
+}
@@ -0,0 +1,113 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+class StructuredOutputTest {
+
+    enum Difficulty { EASY, HARD }
+
+    record Lesson(String title, @JsonPropertyDescription("Short summary") String synopsis, Difficulty difficulty) {}
+
+    record Level(String title, int order, List<Lesson> lessons) {}
+
+    record Node(String name, List<Node> children) {}
+
+    private static final Label<Level> LEVEL = Label.of("level", Level.class);
+    private static final Label<List<String>> CRITERIA =
+            Label.of("criteria", new TypeReference<List<String>>() {});
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void testRecordsBecomeStrictObjects() {
+        JsonNode schema = ResponseSchema.of(LEVEL).schema();
+
+        assertEquals("object", schema.get("type").asText());
+        assertFalse(schema.get("additionalProperties").asBoolean());
+        assertEquals("integer", schema.at("/properties/order/type").asText());
+        assertEquals(3, schema.get("required").size());
+
+        JsonNode lesson = schema.at("/properties/lessons/items");
+        assertEquals("object", lesson.get("type").asText());
+        assertEquals("Short summary", lesson.at("/properties/synopsis/description").asText());
+        assertEquals("[\"EASY\",\"HARD\"]", lesson.at("/properties/difficulty/enum").toString());
+    }
+
+    @Test
+    void testOtherTypesAreWrappedUnderTheLabelName() throws Exception {
+        ResponseSchema schema = ResponseSchema.of(CRITERIA);
+
+        assertEquals("criteria", schema.name());
+        assertEquals("array", schema.schema().at("/properties/criteria/type").asText());
+        assertEquals("string", schema.schema().at("/properties/criteria/items/type").asText());
+        assertEquals(List.of("a", "b"), Parsers.structured(CRITERIA).parse("{\"criteria\": [\"a\", \"b\"]}"));
+    }
+
+    @Test
+    void testObjectRepliesAreReadDirectly() throws Exception {
+        Level level = Parsers.structured(LEVEL).parse(
+                "{\"title\": \"One\", \"order\": 1, \"lessons\": [{\"title\": \"t\", \"synopsis\": \"s\", \"difficulty\": \"HARD\"}]}");
+
+        assertEquals(new Level("One", 1, List.of(new Lesson("t", "s", Difficulty.HARD))), level);
+    }
+
+    @Test
+    void testUnsupportedTypesAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ResponseSchema.of(Label.of("m", new TypeReference<Map<String, String>>() {})));
+        assertThrows(IllegalArgumentException.class, () -> ResponseSchema.of(Label.of("n", Node.class)));
+    }
+
+    @Test
+    void testStructuredStepSendsTheSchemaAndParsesTheReply() throws Exception {
+        JsonNode[] request = new JsonNode[1];
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/chat/completions", exchange -> {
+            request[0] = MAPPER.readTree(exchange.getRequestBody());
+            byte[] body = ("{\"id\":\"c1\",\"object\":\"chat.completion\",\"created\":1,\"model\":\"gpt-4o\","
+                    + "\"choices\":[{\"index\":0,\"finish_reason\":\"stop\",\"message\":{\"role\":\"assistant\","
+                    + "\"content\":\"{\\\"criteria\\\":[\\\"x\\\"]}\"}}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            OpenAiClient client = new OpenAiClientImpl(
+                    "test-key", "http://127.0.0.1:" + server.getAddress().getPort());
+            ChainResult result = ChainBuilder.start(new DefaultsBuilder().retryPolicy(RetryPolicy.NONE).build())
+                    .step("criteria").user("list criteria").label(CRITERIA).structured().endStep()
+                    .build()
+                    .run(client);
+
+            assertEquals(List.of("x"), result.get(CRITERIA));
+            JsonNode format = request[0].get("response_format");
+            assertEquals("json_schema", format.get("type").asText());
+            assertTrue(format.at("/json_schema/strict").asBoolean());
+            assertEquals(ResponseSchema.of(CRITERIA).schema(), format.at("/json_schema/schema"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testTheSchemaIsPartOfThePromptHash() {
+        List<ChatMsg> prompt = List.of(new ChatMsg(Role.USER, "hi"));
+        ChatConfig plain = new DefaultsBuilder().build();
+        ChatConfig structured = plain.toBuilder().responseSchema(ResponseSchema.of(CRITERIA)).build();
+
+        assertNotEquals(PromptHash.of(prompt, plain), PromptHash.of(prompt, structured));
+    }
+}
@@ -0,0 +1,312 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * An in-process server that speaks OpenAI's {@code /v1/chat/completions}
+ * well enough for the SDK, so the real HTTP path (OkHttp, SDK,
+ * {@link OpenAiClientImpl}) can be exercised and load-tested offline.
+ *
+ * <p>Every knob can be changed while it runs: how long a reply takes
+ * ({@link Latency}), what it says, how it streams, and how often it fails
+ * with a status and {@code Retry-After}. Usage is estimated at four
+ * characters per token, and reported in the reply or, when streaming with
+ * {@code include_usage}, in a final usage-only chunk.
+ *
+ * <pre>{@code
+ * try (StubOpenAiServer stub = StubOpenAiServer.start()
+ *         .latency(StubOpenAiServer.Latency.logNormal(300, 2000))
+ *         .failRate(0.05, 429, Duration.ofMillis(200))) {
+ *     OpenAiClient client = new OpenAiClientImpl("test-key", stub.baseUrl());
+ *     ...
+ * }
+ * }</pre>
+ */
+public final class StubOpenAiServer implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** How long the server waits before it starts to answer. */
+    @FunctionalInterface
+    public interface Latency {
+        long sampleMillis();
+
+        static Latency none() {
+            return () -> 0;
+        }
+
+        static Latency fixed(long millis) {
+            return () -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+        }
+
+        /**
+         * Long-tailed, like real completions: half the replies are faster
+         * than {@code medianMillis} and one in a hundred slower than
+         * {@code p99Millis}.
+         */
+        static Latency logNormal(long medianMillis, long p99Millis) {
+            double mu = Math.log(medianMillis);
+            double sigma = (Math.log(p99Millis) - mu) / 2.326; // z of the 99th percentile
+            return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService threads;
+
+    private volatile Latency latency = Latency.none();
+    private volatile Function<JsonNode, String> reply = request -> "alpha\nbeta\ngamma\n";
+    private volatile int chunkChars = 8;
+    private volatile long chunkDelayMillis = 0;
+
+    private volatile double failRate = 0;
+    private final AtomicInteger failNext = new AtomicInteger();
+    private volatile int failStatus = 429;
+    private volatile Duration retryAfter = Duration.ofSeconds(1);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private StubOpenAiServer(HttpServer server, ExecutorService threads) {
+        this.server = server;
+        this.threads = threads;
+    }
+
+    /** Starts a server on a free local port. */
+    public static StubOpenAiServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(threads);
+        StubOpenAiServer stub = new StubOpenAiServer(server, threads);
+        server.createContext("/", stub::handle);
+        server.start();
+        return stub;
+    }
+
+    /** The base URL to give the SDK, e.g. {@code http://127.0.0.1:1234/v1}. */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    public StubOpenAiServer latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /** What to answer, given the request body (default three lines). */
+    public StubOpenAiServer reply(Function<JsonNode, String> reply) {
+        this.reply = reply;
+        return this;
+    }
+
+    /** When streaming, send {@code chars} characters per chunk, {@code delay} apart. */
+    public StubOpenAiServer chunks(int chars, Duration delay) {
+        this.chunkChars = chars;
+        this.chunkDelayMillis = delay.toMillis();
+        return this;
+    }
+
+    /** Fail this fraction of requests with {@code status} and a {@code Retry-After}. */
+    public StubOpenAiServer failRate(double rate, int status, Duration retryAfter) {
+        this.failRate = rate;
+        this.failStatus = status;
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    /** Fail the next {@code count} requests with {@code status} and a {@code Retry-After}. */
+    public StubOpenAiServer failNext(int count, int status, Duration retryAfter) {
+        this.failStatus = status;
+        this.retryAfter = retryAfter;
+        this.failNext.set(count);
+        return this;
+    }
+
+    /** Requests received, including failed ones. */
+    public int requests() {
+        return requests.get();
+    }
+
+    /** Requests answered with an injected error. */
+    public int failures() {
+        return failures.get();
+    }
+
+    /** Most requests that were in progress at the same time. */
+    public int maxConcurrent() {
+        return maxActive.get();
+    }
+
+    /** Zeroes the counters above, e.g. between load levels. */
+    public void resetStats() {
+        requests.set(0);
+        failures.set(0);
+        maxActive.set(active.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    // ── handling ────────────────────────────────────────────────────────────
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try (exchange) {
+            if (!exchange.getRequestURI().getPath().endsWith("/chat/completions")) {
+                send(exchange, 404, error("Unknown path " + exchange.getRequestURI().getPath(), "invalid_request_error"));
+                return;
+            }
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            sleep(latency.sampleMillis());
+
+            if (shouldFail()) {
+                failures.incrementAndGet();
+                long millis = retryAfter.toMillis();
+                exchange.getResponseHeaders().add("retry-after", String.valueOf(millis / 1000.0));
+                exchange.getResponseHeaders().add("retry-after-ms", String.valueOf(millis));
+                String type = failStatus == 429 ? "rate_limit_exceeded" : "server_error";
+                send(exchange, failStatus, error("Injected " + failStatus, type));
+                return;
+            }
+
+            String model = request.path("model").asText("gpt-4o");
+            String content = reply.apply(request);
+            ObjectNode usage = usage(request, content);
+            if (request.path("stream").asBoolean()) {
+                stream(exchange, model, content,
+                        request.path("stream_options").path("include_usage").asBoolean() ? usage : null);
+            } else {
+                send(exchange, 200, completion(model, content, usage));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    private boolean shouldFail() {
+        if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return true;
+        }
+        return failRate > 0 && ThreadLocalRandom.current().nextDouble() < failRate;
+    }
+
+    private void stream(HttpExchange exchange, String model, String content, ObjectNode usage)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (int i = 0; i < content.length(); i += chunkChars) {
+            if (i > 0) {
+                sleep(chunkDelayMillis);
+            }
+            String piece = content.substring(i, Math.min(content.length(), i + chunkChars));
+            ObjectNode chunk = chunk(model);
+            ObjectNode choice = chunk.withArray("choices").addObject().put("index", 0);
+            choice.putObject("delta").put("content", piece);
+            if (i + chunkChars >= content.length()) {
+                choice.put("finish_reason", "stop");
+            }
+            event(out, MAPPER.writeValueAsString(chunk));
+        }
+        if (usage != null) {
+            ObjectNode chunk = chunk(model);
+            chunk.putArray("choices");
+            chunk.set("usage", usage);
+            event(out, MAPPER.writeValueAsString(chunk));
+        }
+        event(out, "[DONE]");
+    }
+
+    private static void event(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static ObjectNode chunk(String model) {
+        return MAPPER.createObjectNode()
+                .put("id", "stub")
+                .put("object", "chat.completion.chunk")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+    }
+
+    private static String completion(String model, String content, ObjectNode usage) throws IOException {
+        ObjectNode body = MAPPER.createObjectNode()
+                .put("id", "stub")
+                .put("object", "chat.completion")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+        ObjectNode choice = body.putArray("choices").addObject()
+                .put("index", 0)
+                .put("finish_reason", "stop");
+        choice.putObject("message")
+                .put("role", "assistant")
+                .put("content", content);
+        body.set("usage", usage);
+        return MAPPER.writeValueAsString(body);
+    }
+
+    /** Roughly four characters per token, as OpenAI suggests for English. */
+    private static ObjectNode usage(JsonNode request, String content) {
+        int promptChars = 0;
+        JsonNode messages = request.path("messages");
+        if (messages instanceof ArrayNode array) {
+            for (JsonNode message : array) {
+                promptChars += message.path("content").asText().length();
+            }
+        }
+        int prompt = Math.max(1, promptChars / 4);
+        int completion = Math.max(1, content.length() / 4);
+        return MAPPER.createObjectNode()
+                .put("prompt_tokens", prompt)
+                .put("completion_tokens", completion)
+                .put("total_tokens", prompt + completion);
+    }
+
+    private static String error(String message, String type) throws IOException {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.putObject("error").put("message", message).put("type", type);
+        return MAPPER.writeValueAsString(body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+}
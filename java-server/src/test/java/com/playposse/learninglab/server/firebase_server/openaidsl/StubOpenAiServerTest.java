@@ -0,0 +1,128 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StubOpenAiServerTest {
+
+    private static final List<ChatMsg> PROMPT = List.of(new ChatMsg(Role.USER, "four score and seven"));
+    private static final Label<List<String>> LINES = Label.of("lines", new TypeReference<List<String>>() {});
+
+    private StubOpenAiServer stub;
+    private OpenAiClientImpl client;
+    private final ChatConfig cfg = new DefaultsBuilder().build();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubOpenAiServer.start();
+        client = new OpenAiClientImpl("test-key", stub.baseUrl());
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void testAnswersWithUsage() throws Exception {
+        stub.reply(request -> "echo: " + request.path("messages").get(0).path("content").asText());
+
+        ChatCompletionResult res = client.chatCompletion(PROMPT, cfg);
+
+        assertEquals("echo: four score and seven", res.content());
+        assertEquals(5, res.usage().get("prompt_tokens").asInt());
+        assertEquals(6, res.usage().get("completion_tokens").asInt());
+        assertEquals(1, stub.requests());
+    }
+
+    @Test
+    void testStreamsInChunks() {
+        stub.reply(request -> "abcdefghij").chunks(4, Duration.ofMillis(20));
+        List<String> deltas = Collections.synchronizedList(new ArrayList<>());
+
+        ChatCompletionResult res = client.chatCompletionStreaming(PROMPT, cfg, deltas::add).join();
+
+        assertEquals(List.of("abcd", "efgh", "ij"), deltas);
+        assertEquals("abcdefghij", res.content());
+        assertEquals(2, res.usage().get("completion_tokens").asInt());
+        assertTrue(res.durationMillis() >= 40, res.toString());
+    }
+
+    @Test
+    void testLatencyIsApplied() throws Exception {
+        stub.latency(StubOpenAiServer.Latency.fixed(100));
+
+        ChatCompletionResult res = client.chatCompletion(PROMPT, cfg);
+
+        assertTrue(res.durationMillis() >= 100, res.toString());
+    }
+
+    @Test
+    void testLogNormalLatencyHasTheRequestedMedian() {
+        StubOpenAiServer.Latency latency = StubOpenAiServer.Latency.logNormal(100, 1000);
+        long[] samples = new long[10_001];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = latency.sampleMillis();
+        }
+        Arrays.sort(samples);
+
+        assertEquals(100, samples[5_000], 10);
+        assertEquals(1000, samples[9_900], 200);
+    }
+
+    @Test
+    void testInjectedFailuresCarryRetryAfter() {
+        stub.failNext(1, 429, Duration.ofMillis(1500));
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client.chatCompletionAsync(PROMPT, cfg).join());
+
+        OpenAiCallException call = assertInstanceOf(OpenAiCallException.class, e.getCause());
+        assertEquals(429, call.statusCode());
+        assertEquals(Duration.ofMillis(1500), call.retryAfter());
+        assertEquals(1, stub.failures());
+    }
+
+    @Test
+    void testChainRetriesServerErrors() {
+        stub.failNext(2, 503, Duration.ofMillis(10));
+
+        ChainResult result = ChainBuilder
+                .start(new DefaultsBuilder()
+                        .retryPolicy(new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(50)))
+                        .build())
+                .step("lines").user("go").parse(Parsers.stringList()).label(LINES).endStep()
+                .build()
+                .run(client);
+
+        assertEquals(List.of("alpha", "beta", "gamma"), result.get(LINES));
+        assertEquals(3, stub.requests());
+        assertEquals(List.of(true, true, false), result.callLogs().stream().map(CallLog::willRetry).toList());
+    }
+
+    @Test
+    void testCountsConcurrentRequests() {
+        stub.latency(StubOpenAiServer.Latency.fixed(200));
+
+        List<CompletableFuture<ChatCompletionResult>> calls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            calls.add(client.chatCompletionAsync(PROMPT, cfg));
+        }
+        calls.forEach(CompletableFuture::join);
+
+        assertEquals(8, stub.requests());
+        assertTrue(stub.maxConcurrent() > 1, "max concurrent " + stub.maxConcurrent());
+    }
+}
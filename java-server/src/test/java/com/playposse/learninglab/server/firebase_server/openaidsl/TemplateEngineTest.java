@@ -3,6 +3,7 @@ package com.playposse.learninglab.server.firebase_server.openaidsl;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
 import java.util.Map;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -65,4 +66,34 @@ class TemplateEngineTest {
         assertEquals("FOO", map.get("foo"));
         assertEquals("42",  map.get("num"));
     }
+
+    @Test
+    void testCompiledTemplateMatchesResolve() {
+        ChainContext ctx = baseCtx.plus(Label.of("sp", String.class), "X$Y\\Z");
+        Map<String, String> vars = TemplateEngine.buildStringMap(ctx);
+
+        for (String template : new String[] {
+                "", "plain", "${foo}", "a${foo}b${num}c${foo}", "${missing} and ${}", "$${foo}}", "open ${foo", "${sp}"}) {
+            assertEquals(TemplateEngine.resolve(template, vars), TemplateEngine.compile(template).render(ctx), template);
+            assertEquals(TemplateEngine.resolve(template, vars), TemplateEngine.compile(template).render(vars), template);
+        }
+    }
+
+    @Test
+    void testCompiledTemplateOnlyRendersReferencedValues() {
+        Object untouchable = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("rendered a value the template doesn't reference");
+            }
+        };
+        ChainContext ctx = baseCtx.plus(Label.of("inventory", Object.class), untouchable);
+
+        assertEquals("Value=FOO", TemplateEngine.compile("Value=${foo}").render(ctx));
+    }
+
+    @Test
+    void testPlaceholdersInOrderOfFirstAppearance() {
+        assertEquals(List.of("b", "a"), List.copyOf(TemplateEngine.placeholders("${b} ${a} ${b}")));
+    }
 }
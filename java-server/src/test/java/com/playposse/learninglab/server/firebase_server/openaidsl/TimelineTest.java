@@ -0,0 +1,156 @@
+package com.playposse.learninglab.server.firebase_server.openaidsl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+
+class TimelineTest {
+
+    private static final Label<List<String>> ITEMS =
+            Label.of("items", new TypeReference<List<String>>() {});
+    private static final Label<String> DETAIL = Label.of("detail", String.class);
+    private static final Label<List<String>> DETAILS =
+            Label.of("details", new TypeReference<List<String>>() {});
+    private static final Label<String> OTHER = Label.of("other", String.class);
+    private static final Label<String> OUT = Label.of("out", String.class);
+
+    /** Answers after a delay picked by the first matching snippet of the last user message. */
+    private static OpenAiClient delayed(Map<String, Long> delays, Map<String, String> replies) {
+        return new OpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+                throw new AssertionError("blocking call used");
+            }
+
+            @Override
+            public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                    List<ChatMsg> messages, ChatConfig config) {
+                String user = messages.get(messages.size() - 1).content();
+                String key = delays.keySet().stream().filter(user::contains).findFirst().orElseThrow();
+                long delay = delays.get(key);
+                String reply = replies.getOrDefault(key, user);
+                return CompletableFuture.supplyAsync(
+                        () -> new ChatCompletionResult(reply, null, delay),
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+            }
+        };
+    }
+
+    @Test
+    void testCriticalPathFollowsSlowestBranch() {
+        OpenAiClient client = delayed(
+                Map.of("outline", 30L, "other", 5L, "X", 10L, "Y", 120L, "Z", 10L),
+                Map.of("outline", "X\nY\nZ"));
+        ChatConfig defaults = new DefaultsBuilder().build();
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .step("other").user("other").parse(Parsers.string()).label(OTHER).endStep()
+                .forEach(ITEMS)
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("detail ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build()
+                .run(client);
+
+        Timeline timeline = result.timeline();
+        List<Timeline.Span> steps = timeline.root().children();
+        assertEquals(List.of("outline", "other", "forEach(items)"),
+                steps.stream().map(Timeline.Span::name).toList());
+        assertEquals(3, steps.get(2).children().size());
+        assertEquals(5, timeline.calls().size());
+        assertTrue(timeline.durationMillis() >= 150, "run took " + timeline.durationMillis());
+
+        List<String> path = timeline.criticalPath().stream()
+                .map(s -> s.kind() + ":" + s.name())
+                .toList();
+        assertEquals(List.of(
+                "STEP:outline", "CALL:outline",
+                "STEP:forEach(items)", "BRANCH:item 1", "STEP:detail", "CALL:detail"), path);
+
+        Timeline.Span slowest = timeline.criticalPath().get(5);
+        assertEquals(120, slowest.timings().networkMillis());
+        assertTrue(slowest.startMillis() >= 30);
+    }
+
+    @Test
+    void testCallTimingsSplitQueueNetworkAndParse() {
+        OpenAiClient inner = delayed(Map.of("go", 20L), Map.of());
+        OpenAiClient queued = new OpenAiClient() {
+            @Override
+            public ChatCompletionResult chatCompletion(List<ChatMsg> messages, ChatConfig config) {
+                throw new AssertionError("blocking call used");
+            }
+
+            @Override
+            public CompletableFuture<ChatCompletionResult> chatCompletionAsync(
+                    List<ChatMsg> messages, ChatConfig config) {
+                return inner.chatCompletionAsync(messages, config).thenApply(r -> r.queuedFor(40));
+            }
+        };
+        Parser<String> slowParser = input -> {
+            Thread.sleep(30);
+            return input;
+        };
+
+        ChainResult result = ChainBuilder.start(new DefaultsBuilder().build())
+                .step("out").user("go").parse(slowParser).label(OUT).endStep()
+                .build()
+                .run(queued);
+
+        CallTimings t = result.callLogs().get(0).timings();
+        assertEquals(40, t.rateLimitWaitMillis());
+        assertEquals(20, t.networkMillis());
+        assertTrue(t.parseMillis() >= 30, "parse " + t.parseMillis());
+        assertTrue(t.totalMillis() >= 50, "total " + t.totalMillis());
+        assertSame(t, result.timeline().calls().get(0).timings());
+    }
+
+    @Test
+    void testPermitWaitIsScheduleWait() {
+        OpenAiClient client = delayed(
+                Map.of("outline", 1L, "detail", 40L),
+                Map.of("outline", "X\nY"));
+        ChatConfig defaults = new DefaultsBuilder().build();
+
+        ChainResult result = ChainBuilder.start(defaults)
+                .step("outline").user("outline").parse(Parsers.stringList()).label(ITEMS).endStep()
+                .forEach(ITEMS)
+                .maxConcurrency(1)
+                .addStep(StepBuilder.start("detail", defaults)
+                        .user("detail ${item}").parse(Parsers.string()).label(DETAIL).build())
+                .joinInto(DETAILS)
+                .endForEach()
+                .build()
+                .run(client);
+
+        // the second item is queued while the first one's call runs, and
+        // waits for its permit at least until that call has returned
+        List<Timeline.Span> branches = result.timeline().root().children().get(1).children().stream()
+                .sorted(Comparator.comparingLong(b -> call(b).startMillis()))
+                .toList();
+        assertEquals(2, branches.size());
+        Timeline.Span first = call(branches.get(0));
+        Timeline.Span second = call(branches.get(1));
+        assertTrue(first.timings().scheduleWaitMillis() < 20,
+                "first item waited " + first.timings().scheduleWaitMillis());
+        long heldFor = first.endMillis() - branches.get(1).startMillis();
+        assertTrue(heldFor > 0, "second item queued after the first call ended");
+        // spans and timings are each truncated to whole milliseconds
+        assertTrue(second.timings().scheduleWaitMillis() >= heldFor - 2,
+                "second item waited " + second.timings().scheduleWaitMillis() + ", held for " + heldFor);
+    }
+
+    /** The one call of a forEach branch with a single step. */
+    private static Timeline.Span call(Timeline.Span branch) {
+        return branch.children().get(0).children().get(0);
+    }
+}